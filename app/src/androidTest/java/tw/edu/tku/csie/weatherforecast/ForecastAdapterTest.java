@@ -0,0 +1,160 @@
+package tw.edu.tku.csie.weatherforecast;
+
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import tw.edu.tku.csie.weatherforecast.data.ForecastSnapshot;
+import tw.edu.tku.csie.weatherforecast.utilities.WeatherAppDateUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the updates {@link ForecastAdapter.ForecastDiffCallback} makes the list dispatch when
+ * its rows are swapped.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ForecastAdapterTest {
+
+    private static final int WEATHER_CLEAR = 800;
+    private static final int WEATHER_RAIN = 501;
+
+    private final long mToday =
+            WeatherAppDateUtils.normalizeLocalDate(System.currentTimeMillis());
+
+    private Context mContext;
+
+    @Before
+    public void getContext() {
+        mContext = InstrumentationRegistry.getTargetContext();
+    }
+
+    /**
+     * @param firstDay The first day, 0 for today
+     * @param days     Each day as {weatherId, high, low}
+     */
+    private List<ForecastRow> rows(int firstDay, double[]... days) {
+        MatrixCursor cursor = new MatrixCursor(ForecastSnapshot.PROJECTION);
+        for (int i = 0; i < days.length; i++) {
+            cursor.addRow(new Object[]{
+                    mToday + (firstDay + i) * WeatherAppDateUtils.DAY_IN_MILLIS,
+                    days[i][1], days[i][2], (int) days[i][0], 80, 1010, 3, 90, 0});
+        }
+        return ForecastRow.fromSnapshot(mContext, ForecastSnapshot.fromCursor(1, cursor));
+    }
+
+    private static double[] day(int weatherId, double high, double low) {
+        return new double[]{weatherId, high, low};
+    }
+
+    /**
+     * Applies the updates of a diff to a list of what each row went through, so that the result
+     * doesn't depend on the order of the updates.
+     *
+     * @return For each new row: "old" if it was left alone, "new" if it was inserted, or
+     * "temperatures" or "all" if it was changed with or without PAYLOAD_TEMPERATURES
+     */
+    private static List<String> diff(List<ForecastRow> oldRows, List<ForecastRow> newRows,
+                                     boolean useTodayLayout) {
+        final List<String> rows = new ArrayList<>();
+        for (int i = 0; i < oldRows.size(); i++) {
+            rows.add("old");
+        }
+        DiffUtil.calculateDiff(new ForecastAdapter.ForecastDiffCallback(
+                oldRows, newRows, useTodayLayout)).dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                for (int i = 0; i < count; i++) {
+                    rows.add(position, "new");
+                }
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                for (int i = 0; i < count; i++) {
+                    rows.remove(position);
+                }
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                rows.add(toPosition, rows.remove(fromPosition));
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                for (int i = position; i < position + count; i++) {
+                    rows.set(i, payload == ForecastAdapter.PAYLOAD_TEMPERATURES
+                            ? "temperatures" : "all");
+                }
+            }
+        });
+        return rows;
+    }
+
+    @Test
+    public void sameRowsDispatchNothing() {
+        List<ForecastRow> oldRows = rows(0, day(WEATHER_CLEAR, 25, 18), day(WEATHER_RAIN, 22, 17));
+        List<ForecastRow> newRows = rows(0, day(WEATHER_CLEAR, 25, 18), day(WEATHER_RAIN, 22, 17));
+
+        assertEquals(Arrays.asList("old", "old"), diff(oldRows, newRows, true));
+    }
+
+    @Test
+    public void changedTemperaturesOnlyRebindTheTemperatures() {
+        List<ForecastRow> oldRows = rows(0, day(WEATHER_CLEAR, 25, 18), day(WEATHER_RAIN, 22, 17));
+        List<ForecastRow> newRows = rows(0, day(WEATHER_CLEAR, 25, 18), day(WEATHER_RAIN, 24, 16));
+
+        DiffUtil.Callback callback =
+                new ForecastAdapter.ForecastDiffCallback(oldRows, newRows, true);
+        assertSame(ForecastAdapter.PAYLOAD_TEMPERATURES, callback.getChangePayload(1, 1));
+        assertEquals(Arrays.asList("old", "temperatures"), diff(oldRows, newRows, true));
+    }
+
+    @Test
+    public void changedConditionRebindsTheWholeRow() {
+        List<ForecastRow> oldRows = rows(0, day(WEATHER_CLEAR, 25, 18), day(WEATHER_RAIN, 22, 17));
+        List<ForecastRow> newRows = rows(0, day(WEATHER_CLEAR, 25, 18), day(WEATHER_CLEAR, 22, 17));
+
+        DiffUtil.Callback callback =
+                new ForecastAdapter.ForecastDiffCallback(oldRows, newRows, true);
+        assertNull(callback.getChangePayload(1, 1));
+        assertEquals(Arrays.asList("old", "all"), diff(oldRows, newRows, true));
+    }
+
+    @Test
+    public void newFirstRowIsReboundToTheTodayLayout() {
+        /* A day went by: yesterday is gone and today, unchanged, becomes the first row */
+        List<ForecastRow> oldRows = rows(-1, day(WEATHER_RAIN, 20, 15),
+                day(WEATHER_CLEAR, 25, 18), day(WEATHER_RAIN, 22, 17));
+        List<ForecastRow> newRows = rows(0, day(WEATHER_CLEAR, 25, 18),
+                day(WEATHER_RAIN, 22, 17), day(WEATHER_CLEAR, 26, 19));
+
+        assertEquals(Arrays.asList("all", "old", "new"), diff(oldRows, newRows, true));
+
+        /* Without the today layout, the day that moves up has nothing to rebind */
+        assertEquals(Arrays.asList("old", "old", "new"), diff(oldRows, newRows, false));
+    }
+
+    @Test
+    public void oldFirstRowIsReboundToTheOtherLayout() {
+        List<ForecastRow> oldRows = rows(0, day(WEATHER_CLEAR, 25, 18), day(WEATHER_RAIN, 22, 17));
+        List<ForecastRow> newRows = rows(-1, day(WEATHER_RAIN, 20, 15),
+                day(WEATHER_CLEAR, 25, 18), day(WEATHER_RAIN, 22, 17));
+
+        assertEquals(Arrays.asList("new", "all", "old"), diff(oldRows, newRows, true));
+    }
+}
@@ -0,0 +1,158 @@
+package tw.edu.tku.csie.weatherforecast.benchmark;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A minimal on-device microbenchmark harness: each operation is warmed up, then timed over a
+ * number of samples, and the results of a suite are written as JSON so that they can be pulled
+ * from the device and compared across releases:
+ *
+ *     adb pull /sdcard/Android/data/tw.edu.tku.csie.weatherforecast/files/benchmarks
+ *
+ * The JSON is also written to logcat under the tag of this class.
+ */
+public final class BenchmarkReport {
+
+    private static final String TAG = BenchmarkReport.class.getSimpleName();
+
+    private static final String DIRECTORY_NAME = "benchmarks";
+
+    /* Long enough for the JIT to compile the hot paths */
+    private static final long WARMUP_MILLIS = 250;
+
+    /* Each sample runs the operation enough times to last about this long */
+    private static final long TARGET_SAMPLE_NANOS = 5 * 1000 * 1000;
+
+    private static final int SAMPLE_COUNT = 30;
+
+    /**
+     * An operation to measure. Its result is kept so that the work can't be optimized away.
+     */
+    public interface Operation {
+        Object run() throws Exception;
+    }
+
+    private final String mSuite;
+    private final List<JSONObject> mResults = new ArrayList<>();
+
+    /* Written to by every operation, read once at the end */
+    private int mSink;
+
+    public BenchmarkReport(String suite) {
+        mSuite = suite;
+    }
+
+    /**
+     * Measures an operation and adds its timings to the report.
+     *
+     * @param name      Identifies the operation in the report
+     * @param operation The operation
+     * @return The median time of one run of the operation, in nanoseconds
+     * @throws Exception If the operation throws
+     */
+    public long measure(String name, Operation operation) throws Exception {
+        long warmupEnd = SystemClock.elapsedRealtime() + WARMUP_MILLIS;
+        int warmupRuns = 0;
+        long warmupStart = System.nanoTime();
+        while (SystemClock.elapsedRealtime() < warmupEnd) {
+            sink(operation.run());
+            warmupRuns++;
+        }
+        long nanosPerRun = Math.max(1, (System.nanoTime() - warmupStart) / warmupRuns);
+        int runsPerSample = (int) Math.max(1, TARGET_SAMPLE_NANOS / nanosPerRun);
+
+        long[] samples = new long[SAMPLE_COUNT];
+        for (int sample = 0; sample < SAMPLE_COUNT; sample++) {
+            long start = System.nanoTime();
+            for (int run = 0; run < runsPerSample; run++) {
+                sink(operation.run());
+            }
+            samples[sample] = (System.nanoTime() - start) / runsPerSample;
+        }
+        Arrays.sort(samples);
+
+        long median = samples[SAMPLE_COUNT / 2];
+        JSONObject result = new JSONObject();
+        try {
+            result.put("name", name);
+            result.put("median_ns", median);
+            result.put("min_ns", samples[0]);
+            result.put("p90_ns", samples[SAMPLE_COUNT * 9 / 10]);
+            result.put("max_ns", samples[SAMPLE_COUNT - 1]);
+            result.put("samples", SAMPLE_COUNT);
+            result.put("runs_per_sample", runsPerSample);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        mResults.add(result);
+        return median;
+    }
+
+    private void sink(Object value) {
+        if (value != null) {
+            mSink += value.hashCode();
+        }
+    }
+
+    /**
+     * Writes the report to files/benchmarks/&lt;suite&gt;.json in the external files directory of
+     * the app, or of its internal one if there is no external storage.
+     *
+     * @param context The Context of the app under test
+     * @return The file that was written
+     * @throws IOException If the file could not be written
+     */
+    public File write(Context context) throws IOException {
+        String json;
+        try {
+            JSONObject report = new JSONObject();
+            report.put("suite", mSuite);
+            report.put("timestamp", System.currentTimeMillis());
+            report.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+            report.put("sdk", Build.VERSION.SDK_INT);
+            report.put("results", new JSONArray(mResults));
+            report.put("sink", mSink);
+            json = report.toString(2);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+
+        File baseDirectory = context.getExternalFilesDir(null);
+        if (baseDirectory == null) {
+            baseDirectory = context.getFilesDir();
+        }
+        File directory = new File(baseDirectory, DIRECTORY_NAME);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        File file = new File(directory, mSuite + ".json");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                Charset.forName("UTF-8"));
+        try {
+            writer.write(json);
+        } finally {
+            writer.close();
+        }
+
+        Log.i(TAG, mSuite + ": " + json);
+        return file;
+    }
+}
@@ -0,0 +1,173 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.mock.MockContentResolver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks when {@link ForecastCache} reads the provider, and that it never keeps a forecast that
+ * was read while the forecast was being written. The reads go to a provider of this test, which
+ * counts them and can invalidate the cache in the middle of one, like a sync writing at that
+ * moment would.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ForecastCacheTest {
+
+    /* Not the _ID of a location of the app, the provider of this test answers for any */
+    private static final long LOCATION_ID = 1001;
+    private static final long OTHER_LOCATION_ID = 1002;
+
+    private CountingProvider mProvider;
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        Context targetContext = InstrumentationRegistry.getTargetContext();
+
+        mProvider = new CountingProvider();
+        mProvider.attachInfo(targetContext, null);
+        final MockContentResolver resolver = new MockContentResolver(targetContext);
+        resolver.addProvider(WeatherAppContract.CONTENT_AUTHORITY, mProvider);
+        mContext = new ContextWrapper(targetContext) {
+            @Override
+            public ContentResolver getContentResolver() {
+                return resolver;
+            }
+        };
+
+        ForecastCache.invalidateAll();
+    }
+
+    @After
+    public void tearDown() {
+        ForecastCache.invalidateAll();
+    }
+
+    @Test
+    public void forecastIsReadOnceUntilInvalidated() {
+        ForecastSnapshot snapshot = ForecastCache.get(mContext, LOCATION_ID);
+        assertSame(snapshot, ForecastCache.get(mContext, LOCATION_ID));
+        assertSame(snapshot, ForecastCache.peek(LOCATION_ID));
+        assertEquals(1, mProvider.mQueries.get());
+
+        ForecastCache.invalidate(LOCATION_ID);
+        assertNull(ForecastCache.peek(LOCATION_ID));
+        ForecastCache.get(mContext, LOCATION_ID);
+        assertEquals(2, mProvider.mQueries.get());
+    }
+
+    @Test
+    public void readRacingAnInvalidationIsNotCached() {
+        mProvider.mInvalidateDuringQuery = true;
+        ForecastSnapshot racing = ForecastCache.get(mContext, LOCATION_ID);
+        ForecastSnapshot racingDays = ForecastCache.getDays(mContext, LOCATION_ID);
+
+        /* Returned to the caller, but not kept */
+        assertEquals(1, racing.size());
+        assertEquals(1, racingDays.size());
+        assertNull(ForecastCache.peek(LOCATION_ID));
+        assertNull(ForecastCache.peekDays(LOCATION_ID));
+
+        /* The next read, which nothing races, is kept */
+        mProvider.mInvalidateDuringQuery = false;
+        ForecastSnapshot snapshot = ForecastCache.get(mContext, LOCATION_ID);
+        assertSame(snapshot, ForecastCache.peek(LOCATION_ID));
+        ForecastCache.get(mContext, LOCATION_ID);
+        assertEquals(3, mProvider.mQueries.get());
+    }
+
+    @Test
+    public void deletingALocationInvalidatesEveryLocation() {
+        ForecastCache.get(mContext, LOCATION_ID);
+        ForecastCache.getDays(mContext, LOCATION_ID);
+        ForecastCache.get(mContext, OTHER_LOCATION_ID);
+        assertNotNull(ForecastCache.peek(LOCATION_ID));
+        assertNotNull(ForecastCache.peekDays(LOCATION_ID));
+        assertNotNull(ForecastCache.peek(OTHER_LOCATION_ID));
+
+        /* A location of its own in the database of the app, deleted through the provider */
+        ContentResolver resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        ContentValues values = new ContentValues();
+        values.put(WeatherAppContract.LocationEntry.COLUMN_LOCATION_KEY,
+                "q:" + ForecastCacheTest.class.getSimpleName());
+        long locationId = ContentUris.parseId(
+                resolver.insert(WeatherAppContract.LocationEntry.CONTENT_URI, values));
+        assertEquals(1, resolver.delete(
+                WeatherAppContract.LocationEntry.buildLocationUri(locationId), null, null));
+
+        assertNull(ForecastCache.peek(LOCATION_ID));
+        assertNull(ForecastCache.peekDays(LOCATION_ID));
+        assertNull(ForecastCache.peek(OTHER_LOCATION_ID));
+    }
+
+    /**
+     * Answers every query with a forecast of one row, and counts them.
+     */
+    private static class CountingProvider extends ContentProvider {
+
+        final AtomicInteger mQueries = new AtomicInteger();
+
+        /* Invalidates the location in the middle of the query, as a write would */
+        volatile boolean mInvalidateDuringQuery;
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(@NonNull Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder) {
+            mQueries.incrementAndGet();
+            if (mInvalidateDuringQuery) {
+                ForecastCache.invalidate(LOCATION_ID);
+            }
+            MatrixCursor cursor = new MatrixCursor(projection);
+            cursor.addRow(new Object[]{0L, 21, 12, 800, 80, 1010, 3, 90, 0});
+            return cursor;
+        }
+
+        @Override
+        public String getType(@NonNull Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(@NonNull Uri uri, ContentValues values) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int update(@NonNull Uri uri, ContentValues values, String selection,
+                          String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
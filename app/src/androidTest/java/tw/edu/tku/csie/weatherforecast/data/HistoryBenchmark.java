@@ -0,0 +1,132 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import tw.edu.tku.csie.weatherforecast.benchmark.BenchmarkReport;
+import tw.edu.tku.csie.weatherforecast.utilities.FakeDataUtils;
+import tw.edu.tku.csie.weatherforecast.utilities.WeatherAppDateUtils;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the forecast history with a synthetic year of it, against an in-memory database: a
+ * sync every 3 hours for {@link #DAYS} days, each with a new random forecast from
+ * {@link FakeDataUtils}, so every sync appends 40 rows. The range queries of the history are
+ * timed before and after {@link HistoryCompactor} runs, as is compaction itself.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HistoryBenchmark {
+
+    private static final String TAG = HistoryBenchmark.class.getSimpleName();
+
+    private static final int DAYS = 365;
+
+    private static final long THREE_HOURS_IN_MILLIS = TimeUnit.HOURS.toMillis(3);
+
+    private SQLiteDatabase mDatabase;
+
+    private long mLocationId;
+
+    private long mToday;
+
+    @Before
+    public void createDatabase() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mDatabase = SQLiteDatabase.create(null);
+        new WeatherDbHelper(context).onCreate(mDatabase);
+
+        ContentValues location = new ContentValues();
+        location.put(WeatherAppContract.LocationEntry.COLUMN_LOCATION_KEY,
+                WeatherAppContract.LocationEntry.KEY_CURRENT_LOCATION);
+        mLocationId = mDatabase.insert(WeatherAppContract.LocationEntry.TABLE_NAME, null, location);
+
+        mToday = WeatherAppDateUtils.getNormalizedUtcDateForToday();
+    }
+
+    @After
+    public void closeDatabase() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void benchmarkHistory() throws Exception {
+        BenchmarkReport report = new BenchmarkReport("history");
+
+        long fillNanos = System.nanoTime();
+        for (long issuedAt = mToday - DAYS * DateUtils.DAY_IN_MILLIS; issuedAt < mToday;
+             issuedAt += THREE_HOURS_IN_MILLIS) {
+            WeatherProvider.mergeWeather(mDatabase, mLocationId,
+                    FakeDataUtils.createFakeForecast(issuedAt), issuedAt);
+        }
+        fillNanos = System.nanoTime() - fillNanos;
+        long rawRows = countHistory();
+        Log.i(TAG, String.format("Appended %d rows in %d ms", rawRows,
+                TimeUnit.NANOSECONDS.toMillis(fillNanos)));
+
+        measureQueries(report, "raw");
+
+        long compactNanos = System.nanoTime();
+        HistoryCompactor.compact(mDatabase, mToday);
+        compactNanos = System.nanoTime() - compactNanos;
+        long compactedRows = countHistory();
+        Log.i(TAG, String.format("Compacted %d rows to %d in %d ms", rawRows, compactedRows,
+                TimeUnit.NANOSECONDS.toMillis(compactNanos)));
+        assertTrue(compactedRows < rawRows);
+        assertTrue(compactedRows <= HistoryCompactor.MAX_ROWS);
+
+        measureQueries(report, "compacted");
+
+        /* What every periodic sync pays once the history is compacted */
+        report.measure("compactSteadyState",
+                () -> HistoryCompactor.compact(mDatabase, mToday));
+
+        report.write(InstrumentationRegistry.getTargetContext());
+    }
+
+    private void measureQueries(BenchmarkReport report, String suffix) throws Exception {
+        report.measure("queryYesterday_" + suffix,
+                () -> queryRange(mToday - DateUtils.DAY_IN_MILLIS, mToday));
+        report.measure("queryWeek6MonthsAgo_" + suffix,
+                () -> queryRange(mToday - 182 * DateUtils.DAY_IN_MILLIS,
+                        mToday - 175 * DateUtils.DAY_IN_MILLIS));
+        report.measure("queryYear_" + suffix,
+                () -> queryRange(mToday - DAYS * DateUtils.DAY_IN_MILLIS, mToday));
+    }
+
+    /* Reads every row of the range, the way a list of the history would */
+    private int queryRange(long fromMillis, long toMillis) {
+        Cursor cursor = WeatherProvider.queryHistoryRange(mDatabase, mLocationId, fromMillis,
+                toMillis, null, null, null, null);
+        try {
+            int resolutionIndex = cursor.getColumnIndexOrThrow(
+                    WeatherAppContract.HistoryEntry.COLUMN_RESOLUTION);
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                rows += cursor.getInt(resolutionIndex) + 1;
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long countHistory() {
+        return DatabaseUtils.queryNumEntries(mDatabase,
+                WeatherAppContract.HistoryEntry.TABLE_NAME);
+    }
+}
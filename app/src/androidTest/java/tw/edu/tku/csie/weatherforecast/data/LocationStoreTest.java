@@ -0,0 +1,97 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import tw.edu.tku.csie.weatherforecast.R;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link LocationStore} moves the location that older versions of the app kept in
+ * the default SharedPreferences into its file, and removes it from the preferences.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LocationStoreTest {
+
+    private static final double LATITUDE = 25.17480;
+    private static final double LONGITUDE = 121.45020;
+    private static final String CITY = "Tamsui";
+
+    private Context mContext;
+    private SharedPreferences mPreferences;
+    private String mKeyForCurrentCity;
+    private File mFile;
+
+    @Before
+    public void forgetLocation() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mPreferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mKeyForCurrentCity = mContext.getString(R.string.pref_current_city_key);
+        mFile = new File(mContext.getFilesDir(), LocationStore.FILE_NAME);
+
+        LocationStore.reset();
+        mFile.delete();
+    }
+
+    @After
+    public void deleteFile() throws Exception {
+        LocationStore.reset();
+        mFile.delete();
+    }
+
+    @Test
+    public void legacyCoordinatesAreMigrated() throws Exception {
+        mPreferences.edit()
+                .putLong(LocationStore.LEGACY_PREF_COORD_LAT, Double.doubleToRawLongBits(LATITUDE))
+                .putLong(LocationStore.LEGACY_PREF_COORD_LONG,
+                        Double.doubleToRawLongBits(LONGITUDE))
+                .putString(mKeyForCurrentCity, CITY)
+                .commit();
+
+        LocationState state = LocationStore.get(mContext);
+        assertTrue(state.hasCoordinates());
+        assertEquals(LATITUDE, state.getLatitude(), 0);
+        assertEquals(LONGITUDE, state.getLongitude(), 0);
+        assertEquals(LocationState.UNKNOWN_ACCURACY, state.getAccuracy(), 0);
+        assertEquals(CITY, state.getCurrentCity());
+
+        assertFalse(mPreferences.contains(LocationStore.LEGACY_PREF_COORD_LAT));
+        assertFalse(mPreferences.contains(LocationStore.LEGACY_PREF_COORD_LONG));
+        assertFalse(mPreferences.contains(mKeyForCurrentCity));
+
+        /* Read back from the file in the next process */
+        LocationStore.reset();
+        state = LocationStore.get(mContext);
+        assertTrue(state.hasCoordinates());
+        assertEquals(LATITUDE, state.getLatitude(), 0);
+        assertEquals(LONGITUDE, state.getLongitude(), 0);
+        assertEquals(CITY, state.getCurrentCity());
+    }
+
+    @Test
+    public void nothingToMigrateLeavesNoCoordinates() {
+        mPreferences.edit()
+                .remove(LocationStore.LEGACY_PREF_COORD_LAT)
+                .remove(LocationStore.LEGACY_PREF_COORD_LONG)
+                .remove(mKeyForCurrentCity)
+                .commit();
+
+        LocationState state = LocationStore.get(mContext);
+        assertFalse(state.hasCoordinates());
+        assertEquals("", state.getCurrentCity());
+        assertTrue(mFile.exists());
+    }
+}
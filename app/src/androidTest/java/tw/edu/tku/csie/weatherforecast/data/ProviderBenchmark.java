@@ -0,0 +1,145 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import tw.edu.tku.csie.weatherforecast.benchmark.BenchmarkReport;
+import tw.edu.tku.csie.weatherforecast.utilities.WeatherAppDateUtils;
+
+/**
+ * Measures the write and read paths of {@link WeatherProvider} with a 5-day forecast of 40 rows,
+ * against an in-memory database: the bulk insert paths, the merge done by a sync, and the
+ * "today onwards" query of the forecast list.
+ * <p>
+ * The bulk insert paths are also compared with the original bulkInsert loop
+ * (SQLiteDatabase#insert per row) on larger inserts, e.g. "insertLoop_1000" for 1000 rows.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProviderBenchmark {
+
+    private static final int ROW_COUNT = 40;
+
+    /* The sizes of the larger inserts */
+    private static final int[] BULK_ROW_COUNTS = {1000, 10000};
+
+    private static final long THREE_HOURS_IN_MILLIS = TimeUnit.HOURS.toMillis(3);
+
+    private SQLiteDatabase mDatabase;
+
+    private long mLocationId;
+
+    @Before
+    public void createDatabase() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mDatabase = SQLiteDatabase.create(null);
+        new WeatherDbHelper(context).onCreate(mDatabase);
+
+        ContentValues location = new ContentValues();
+        location.put(WeatherAppContract.LocationEntry.COLUMN_LOCATION_KEY,
+                WeatherAppContract.LocationEntry.KEY_CURRENT_LOCATION);
+        mLocationId = mDatabase.insert(WeatherAppContract.LocationEntry.TABLE_NAME, null, location);
+    }
+
+    @After
+    public void closeDatabase() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void benchmarkProvider() throws Exception {
+        BenchmarkReport report = new BenchmarkReport("provider");
+
+        long start = WeatherAppDateUtils.getNormalizedUtcDateForToday();
+        final WeatherBatch batch = createBatch(start, 0, ROW_COUNT);
+        final WeatherBatch changedBatch = createBatch(start, 1, ROW_COUNT);
+        final ContentValues[] values = batch.toContentValues();
+
+        /* Rows are replaced on conflict, so the table stays at ROW_COUNT rows */
+        report.measure("insertLoop", () -> insertLoop(values));
+        report.measure("insertContentValues",
+                () -> WeatherProvider.insertWeather(mDatabase, mLocationId, values));
+        report.measure("insertBatch",
+                () -> WeatherProvider.insertWeatherBatch(mDatabase, mLocationId, batch));
+
+        report.measure("mergeUnchanged",
+                () -> WeatherProvider.mergeWeather(mDatabase, mLocationId, batch));
+        final boolean[] changed = {false};
+        report.measure("mergeChanged", () -> {
+            changed[0] = !changed[0];
+            return WeatherProvider.mergeWeather(mDatabase, mLocationId,
+                    changed[0] ? changedBatch : batch);
+        });
+
+        report.measure("queryTodayOnwards", this::queryTodayOnwards);
+
+        for (int rowCount : BULK_ROW_COUNTS) {
+            final WeatherBatch bulkBatch = createBatch(start, 0, rowCount);
+            final ContentValues[] bulkValues = bulkBatch.toContentValues();
+
+            report.measure("insertLoop_" + rowCount, () -> insertLoop(bulkValues));
+            report.measure("insertContentValues_" + rowCount,
+                    () -> WeatherProvider.insertWeather(mDatabase, mLocationId, bulkValues));
+            report.measure("insertBatch_" + rowCount,
+                    () -> WeatherProvider.insertWeatherBatch(mDatabase, mLocationId, bulkBatch));
+        }
+
+        report.write(InstrumentationRegistry.getTargetContext());
+    }
+
+    /*
+     * The bulkInsert implementation before the compiled statement fast path. Unlike the provider,
+     * it doesn't summarize the days afterwards.
+     */
+    private int insertLoop(ContentValues[] values) {
+        mDatabase.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                value.put(WeatherAppContract.WeatherEntry.COLUMN_LOCATION_ID, mLocationId);
+                mDatabase.insert(WeatherAppContract.WeatherEntry.TABLE_NAME, null, value);
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        return values.length;
+    }
+
+    /* The query WeatherProvider runs for the forecast list, copied the way ForecastLoader does */
+    private ForecastSnapshot queryTodayOnwards() {
+        Cursor cursor = mDatabase.query(WeatherAppContract.WeatherEntry.TABLE_NAME,
+                ForecastSnapshot.PROJECTION,
+                WeatherProvider.withLocationSelection(
+                        WeatherAppContract.WeatherEntry.getSqlSelectForTodayOnwards()),
+                WeatherProvider.withLocationArg(mLocationId,
+                        WeatherAppContract.WeatherEntry.getSqlSelectionArgsForTodayOnwards()),
+                null,
+                null,
+                ForecastSnapshot.SORT_ORDER);
+        try {
+            return ForecastSnapshot.fromCursor(mLocationId, cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static WeatherBatch createBatch(long start, int temperatureOffset, int rowCount) {
+        WeatherBatch batch = new WeatherBatch(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            batch.add(start + i * THREE_HOURS_IN_MILLIS, 800 + i % 5,
+                    10 + i % 7 + temperatureOffset, 20 + i % 9 + temperatureOffset,
+                    60 + i % 30, 1000 + i % 20, i % 12, (i * 15) % 360, i % 4 * 0.5);
+        }
+        return batch;
+    }
+}
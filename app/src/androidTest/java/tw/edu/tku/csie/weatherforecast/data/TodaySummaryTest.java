@@ -0,0 +1,179 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.database.MatrixCursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Locale;
+
+import tw.edu.tku.csie.weatherforecast.utilities.WeatherAppDateUtils;
+import tw.edu.tku.csie.weatherforecast.utilities.WeatherUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks what {@link TodaySummary} formats, and when {@link TodaySummaryStore#get(Context)}
+ * makes the saved summary again: when another location is active, when its day has passed and
+ * when the locale changed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodaySummaryTest {
+
+    private static final long LOCATION_ID = 1;
+    private static final long OTHER_LOCATION_ID = 2;
+
+    /* Clear sky, then light rain */
+    private static final int CLEAR = 800;
+    private static final int RAIN = 500;
+
+    private Context mContext;
+    private long mToday;
+    private long mActiveLocationId;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mToday = WeatherAppDateUtils.normalizeLocalDate(System.currentTimeMillis());
+        mActiveLocationId = WeatherAppPreferences.getActiveLocationId(mContext);
+        WeatherAppPreferences.setActiveLocationId(mContext, LOCATION_ID);
+        deleteFiles();
+    }
+
+    @After
+    public void tearDown() {
+        WeatherAppPreferences.setActiveLocationId(mContext, mActiveLocationId);
+        deleteFiles();
+    }
+
+    private void deleteFiles() {
+        TodaySummaryStore.reset();
+        new File(mContext.getFilesDir(), TodaySummaryStore.FILE_NAME).delete();
+        new File(mContext.getFilesDir(), LastForecastStore.FILE_NAME).delete();
+    }
+
+    /* The days of a location, the first one firstDay days from today, one weather id each */
+    private ForecastSnapshot days(long locationId, int firstDay, int... weatherIds) {
+        MatrixCursor cursor = new MatrixCursor(ForecastSnapshot.PROJECTION);
+        for (int i = 0; i < weatherIds.length; i++) {
+            cursor.addRow(new Object[]{
+                    mToday + (firstDay + i) * WeatherAppDateUtils.DAY_IN_MILLIS,
+                    21 + i, 12 + i, weatherIds[i], 80, 1010, 3, 90, 0});
+        }
+        return ForecastSnapshot.fromCursor(locationId, cursor);
+    }
+
+    /* The forecast a sync saves, and so the summary of its first day */
+    private TodaySummary saveForecast(Context context, ForecastSnapshot days) {
+        LastForecastStore.save(context, days);
+        return TodaySummaryStore.save(context, days);
+    }
+
+    @Test
+    public void noDayMakesNoSummary() {
+        assertNull(TodaySummary.create(mContext, ForecastSnapshot.EMPTY));
+    }
+
+    @Test
+    public void summaryOfTheFirstDayInBothUnits() {
+        TodaySummary summary = TodaySummary.create(mContext, days(LOCATION_ID, 0, CLEAR, RAIN));
+        assertNotNull(summary);
+
+        assertEquals(LOCATION_ID, summary.getLocationId());
+        assertEquals(mToday, summary.getDateTime());
+        assertEquals(CLEAR, summary.getWeatherId());
+
+        String description = WeatherUtils.getStringForWeatherCondition(mContext, CLEAR);
+        assertEquals(description, summary.getDescription());
+        assertEquals(WeatherUtils.formatTemperature(mContext, 21, true),
+                summary.getHighText(true));
+        assertEquals(WeatherUtils.formatTemperature(mContext, 12, true),
+                summary.getLowText(true));
+        assertEquals(WeatherUtils.formatTemperature(mContext, 21, false),
+                summary.getHighText(false));
+        assertEquals(WeatherUtils.formatTemperature(mContext, 12, false),
+                summary.getLowText(false));
+
+        assertTrue(summary.getText(true).contains(description));
+        assertTrue(summary.getText(true).contains(summary.getHighText(true)));
+        assertTrue(summary.getText(false).contains(summary.getLowText(false)));
+        assertEquals(WeatherUtils.getSmallArtResourceIdForWeatherCondition(CLEAR),
+                summary.getSmallIconResId());
+    }
+
+    @Test
+    public void summaryIsOnlyForItsDayAndLocale() {
+        TodaySummary summary = TodaySummary.create(mContext, days(LOCATION_ID, 0, CLEAR));
+        String languageTag = TodaySummary.getLanguageTag(mContext);
+
+        assertTrue(summary.isFor(mToday, languageTag));
+        assertFalse(summary.isFor(mToday + WeatherAppDateUtils.DAY_IN_MILLIS, languageTag));
+        assertFalse(summary.isFor(mToday, languageTag + "_x"));
+    }
+
+    @Test
+    public void savedSummaryIsReturnedAsIs() {
+        TodaySummary saved = saveForecast(mContext, days(LOCATION_ID, 0, CLEAR, RAIN));
+        assertSame(saved, TodaySummaryStore.get(mContext));
+
+        /* And read back from its file in the next process */
+        TodaySummaryStore.reset();
+        TodaySummary read = TodaySummaryStore.get(mContext);
+        assertNotNull(read);
+        assertEquals(mToday, read.getDateTime());
+        assertEquals(saved.getText(true), read.getText(true));
+    }
+
+    @Test
+    public void summaryOfAnotherLocationIsNotReturned() {
+        saveForecast(mContext, days(LOCATION_ID, 0, CLEAR, RAIN));
+
+        WeatherAppPreferences.setActiveLocationId(mContext, OTHER_LOCATION_ID);
+        assertNull(TodaySummaryStore.get(mContext));
+    }
+
+    @Test
+    public void summaryOfYesterdayIsMadeAgainForToday() {
+        TodaySummary yesterday = saveForecast(mContext, days(LOCATION_ID, -1, RAIN, CLEAR));
+        assertEquals(mToday - WeatherAppDateUtils.DAY_IN_MILLIS, yesterday.getDateTime());
+
+        TodaySummary today = TodaySummaryStore.get(mContext);
+        assertNotNull(today);
+        assertEquals(mToday, today.getDateTime());
+        assertEquals(CLEAR, today.getWeatherId());
+    }
+
+    @Test
+    public void summaryOfAnotherLocaleIsMadeAgain() {
+        Locale current = mContext.getResources().getConfiguration().locale;
+        Locale other = Locale.FRANCE.equals(current) ? Locale.GERMANY : Locale.FRANCE;
+        Configuration configuration = new Configuration(mContext.getResources().getConfiguration());
+        configuration.setLocale(other);
+        Context otherContext = mContext.createConfigurationContext(configuration);
+
+        TodaySummary saved = saveForecast(otherContext, days(LOCATION_ID, 0, CLEAR, RAIN));
+        assertNotEquals(TodaySummary.getLanguageTag(mContext),
+                TodaySummary.getLanguageTag(otherContext));
+
+        TodaySummary today = TodaySummaryStore.get(mContext);
+        assertNotNull(today);
+        assertNotSame(saved, today);
+        assertEquals(mToday, today.getDateTime());
+        assertEquals(WeatherUtils.getStringForWeatherCondition(mContext, CLEAR),
+                today.getDescription());
+    }
+}
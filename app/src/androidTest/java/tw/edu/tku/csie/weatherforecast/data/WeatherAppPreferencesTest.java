@@ -0,0 +1,122 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import tw.edu.tku.csie.weatherforecast.R;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the snapshot of {@link WeatherAppPreferences} follows the writes made through an
+ * {@link WeatherAppPreferences.Editor} and those made to the SharedPreferences directly, and
+ * that its listeners are notified once per changed preference.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WeatherAppPreferencesTest {
+
+    private Instrumentation mInstrumentation;
+    private Context mContext;
+    private SharedPreferences mPreferences;
+    private String mKeyForUnits;
+
+    /* The calls received by mListener, on the main thread */
+    private final List<String> mKeys = new ArrayList<>();
+    private final List<WeatherSettings> mSettings = new ArrayList<>();
+
+    private final WeatherAppPreferences.OnSettingsChangedListener mListener =
+            (settings, key) -> {
+                mKeys.add(key);
+                mSettings.add(settings);
+            };
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mContext = InstrumentationRegistry.getTargetContext();
+        mPreferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mKeyForUnits = mContext.getString(R.string.pref_units_key);
+
+        mPreferences.edit()
+                .remove(mKeyForUnits)
+                .remove(WeatherAppPreferences.PREF_ACTIVE_LOCATION_ID)
+                .remove(mContext.getString(R.string.pref_locale_location_key))
+                .remove(mContext.getString(R.string.pref_en_location_key))
+                .commit();
+        mInstrumentation.waitForIdleSync();
+
+        WeatherAppPreferences.registerListener(mContext, mListener);
+    }
+
+    @After
+    public void tearDown() {
+        WeatherAppPreferences.unregisterListener(mListener);
+        mPreferences.edit()
+                .remove(mKeyForUnits)
+                .remove(WeatherAppPreferences.PREF_ACTIVE_LOCATION_ID)
+                .remove(mContext.getString(R.string.pref_locale_location_key))
+                .remove(mContext.getString(R.string.pref_en_location_key))
+                .commit();
+        mInstrumentation.waitForIdleSync();
+    }
+
+    @Test
+    public void editorWriteIsInTheSnapshotBeforeApplyReturns() {
+        WeatherAppPreferences.edit(mContext).setActiveLocationId(42).apply();
+        assertEquals(42, WeatherAppPreferences.getSettings(mContext).getActiveLocationId());
+
+        /* The listeners are called later on the main thread, with the snapshot already taken */
+        WeatherSettings settings = WeatherAppPreferences.getSettings(mContext);
+        mInstrumentation.waitForIdleSync();
+        assertEquals(1, mKeys.size());
+        assertEquals(WeatherAppPreferences.PREF_ACTIVE_LOCATION_ID, mKeys.get(0));
+        assertSame(settings, mSettings.get(0));
+    }
+
+    @Test
+    public void editorBatchOnTheMainThreadTakesOneSnapshot() {
+        mInstrumentation.runOnMainSync(() -> WeatherAppPreferences.edit(mContext)
+                .setLocalePreferredWeatherLocation("淡水")
+                .setEngPreferredWeatherLocation("Tamsui")
+                .apply());
+
+        WeatherSettings settings = WeatherAppPreferences.getSettings(mContext);
+        assertEquals("淡水", settings.getLocalePreferredWeatherLocation());
+        assertEquals("Tamsui", settings.getEngPreferredWeatherLocation());
+
+        assertEquals(2, mKeys.size());
+        assertSame(settings, mSettings.get(0));
+        assertSame(settings, mSettings.get(1));
+    }
+
+    @Test
+    public void externalChangeIsInTheSnapshot() {
+        assertTrue(WeatherAppPreferences.getSettings(mContext).isMetric());
+
+        /* Like the settings screen, which writes to the SharedPreferences itself */
+        mPreferences.edit()
+                .putString(mKeyForUnits, mContext.getString(R.string.pref_units_imperial))
+                .commit();
+        mInstrumentation.waitForIdleSync();
+
+        assertFalse(WeatherAppPreferences.getSettings(mContext).isMetric());
+        assertEquals(1, mKeys.size());
+        assertEquals(mKeyForUnits, mKeys.get(0));
+        assertFalse(mSettings.get(0).isMetric());
+    }
+}
@@ -0,0 +1,109 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the "today onwards" forecast query of a location is answered from the covering
+ * index created by {@link WeatherDbHelper}, and a range of its history from the index of the
+ * history, both without a separate sort.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WeatherDbHelperQueryPlanTest {
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void createDatabase() {
+        mDatabase = SQLiteDatabase.create(null);
+        new WeatherDbHelper(InstrumentationRegistry.getTargetContext()).onCreate(mDatabase);
+    }
+
+    @After
+    public void closeDatabase() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void todayOnwardsQueryUsesCoveringIndexWithoutSorting() {
+        /* The same query WeatherProvider runs for the ForecastLoader of MainActivity */
+        String query = SQLiteQueryBuilder.buildQueryString(false,
+                WeatherAppContract.WeatherEntry.TABLE_NAME,
+                ForecastSnapshot.PROJECTION,
+                WeatherProvider.withLocationSelection(
+                        WeatherAppContract.WeatherEntry.getSqlSelectForTodayOnwards()),
+                null,
+                null,
+                ForecastSnapshot.SORT_ORDER,
+                null);
+
+        String planText = explain(query,
+                WeatherProvider.withLocationArg(1,
+                        WeatherAppContract.WeatherEntry.getSqlSelectionArgsForTodayOnwards()));
+        assertTrue(planText, planText.contains(
+                "USING COVERING INDEX " + WeatherDbHelper.INDEX_WEATHER_DATE_TIME));
+        assertFalse(planText, planText.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void historyRangeQueryUsesPartitionIndexWithoutSorting() {
+        /* The same query WeatherProvider#queryHistoryRange runs */
+        String query = SQLiteQueryBuilder.buildQueryString(false,
+                WeatherAppContract.HistoryEntry.TABLE_NAME,
+                null,
+                WeatherProvider.withLocationSelection(WeatherProvider.SELECTION_HISTORY_RANGE),
+                null,
+                null,
+                WeatherProvider.HISTORY_SORT_ORDER,
+                null);
+
+        String planText = explain(query,
+                WeatherProvider.withLocationArg(1, new String[]{"0", "86400000", "0", "86400000"}));
+        assertTrue(planText, planText.contains(
+                "USING INDEX " + WeatherDbHelper.INDEX_HISTORY_PARTITION));
+        assertFalse(planText, planText.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void dayQueryUsesUniqueIndexWithoutSorting() {
+        /* The same query WeatherProvider runs for ForecastCache#getDays */
+        String query = SQLiteQueryBuilder.buildQueryString(false,
+                WeatherAppContract.DayEntry.TABLE_NAME,
+                ForecastSnapshot.PROJECTION,
+                WeatherProvider.withLocationSelection(null),
+                null,
+                null,
+                ForecastSnapshot.SORT_ORDER,
+                null);
+
+        String planText = explain(query, WeatherProvider.withLocationArg(1, null));
+        assertTrue(planText, planText.contains(
+                "USING INDEX " + WeatherDbHelper.INDEX_DAY_AUTOINDEX));
+        assertFalse(planText, planText.contains("TEMP B-TREE"));
+    }
+
+    private String explain(String query, String[] args) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = mDatabase.rawQuery("EXPLAIN QUERY PLAN " + query, args);
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detailIndex)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+}
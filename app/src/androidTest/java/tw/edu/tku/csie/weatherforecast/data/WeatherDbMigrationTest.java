@@ -0,0 +1,260 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades a database of every released version with {@link WeatherDbMigrations}, and checks that
+ * it ends up with the schema {@link WeatherDbHelper#onCreate} creates and with its forecast.
+ * Versions 4 to 7 were never released, there is no database of theirs to upgrade.
+ * <p>
+ * The schemas below are copies of what each version created, they must never change.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WeatherDbMigrationTest {
+
+    private static final String SQL_CREATE_WEATHER_V3 =
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "date_time INTEGER NOT NULL, weather_id INTEGER NOT NULL,"
+                    + "min REAL NOT NULL, max REAL NOT NULL, "
+                    + "humidity REAL NOT NULL, pressure REAL NOT NULL, "
+                    + "wind REAL NOT NULL, degrees REAL NOT NULL, "
+                    + " UNIQUE (date_time) ON CONFLICT REPLACE);";
+
+    private static final long DAY_IN_MILLIS = 86400000L;
+
+    private Context mContext;
+
+    private SQLiteDatabase mDatabase;
+
+    /* The upgrade from version 3 sets the active location, it is restored afterwards */
+    private long mActiveLocationId;
+
+    @Before
+    public void createDatabase() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mActiveLocationId = WeatherAppPreferences.getActiveLocationId(mContext);
+        WeatherAppPreferences.edit(mContext)
+                .setActiveLocationId(WeatherAppPreferences.NO_LOCATION_ID)
+                .apply();
+
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.setForeignKeyConstraintsEnabled(true);
+    }
+
+    @After
+    public void closeDatabase() {
+        mDatabase.close();
+        WeatherAppPreferences.edit(mContext).setActiveLocationId(mActiveLocationId).apply();
+    }
+
+    @Test
+    public void migrationsReachTheCurrentVersion() {
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, WeatherDbMigrations.LAST_VERSION);
+    }
+
+    @Test
+    public void unknownVersionIsNotMigrated() {
+        assertFalse(WeatherDbMigrations.migrate(mContext, mDatabase,
+                WeatherDbMigrations.FIRST_VERSION - 1, WeatherDbHelper.DATABASE_VERSION));
+    }
+
+    @Test
+    public void unreleasedVersionIsNotMigrated() {
+        for (int version = 4; version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            assertFalse(WeatherDbMigrations.migrate(mContext, mDatabase,
+                    version, WeatherDbHelper.DATABASE_VERSION));
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion3() {
+        mDatabase.execSQL(SQL_CREATE_WEATHER_V3);
+        insertWeatherWithoutLocation();
+
+        migrateFrom(3);
+
+        /* The rows belong to a location made from the preferences */
+        assertEquals(1, DatabaseUtils.queryNumEntries(mDatabase,
+                WeatherAppContract.LocationEntry.TABLE_NAME));
+        long locationId = DatabaseUtils.longForQuery(mDatabase, "SELECT _id FROM location", null);
+        assertWeatherKept(locationId);
+
+        /* The preferences are only written once the upgrade is committed */
+        assertEquals(WeatherAppPreferences.NO_LOCATION_ID,
+                WeatherAppPreferences.getActiveLocationId(mContext));
+        WeatherDbMigrations.activateMigratedLocation(mContext, mDatabase);
+        assertEquals(locationId, WeatherAppPreferences.getActiveLocationId(mContext));
+
+        /* The days are derived, WeatherDbHelper#onUpgrade fills them once the steps are done */
+        DayAggregator.aggregateAll(mDatabase);
+        assertEquals(3, DatabaseUtils.queryNumEntries(mDatabase,
+                WeatherAppContract.DayEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void upgradeEmptyDatabaseFromVersion3() {
+        mDatabase.execSQL(SQL_CREATE_WEATHER_V3);
+
+        migrateFrom(3);
+        WeatherDbMigrations.activateMigratedLocation(mContext, mDatabase);
+
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDatabase,
+                WeatherAppContract.LocationEntry.TABLE_NAME));
+        assertEquals(WeatherAppPreferences.NO_LOCATION_ID,
+                WeatherAppPreferences.getActiveLocationId(mContext));
+    }
+
+    @Test
+    public void activeLocationIsKept() {
+        mDatabase.execSQL(SQL_CREATE_WEATHER_V3);
+        insertWeatherWithoutLocation();
+        WeatherAppPreferences.edit(mContext).setActiveLocationId(42).apply();
+
+        migrateFrom(3);
+        WeatherDbMigrations.activateMigratedLocation(mContext, mDatabase);
+
+        assertEquals(42, WeatherAppPreferences.getActiveLocationId(mContext));
+    }
+
+    /* In a transaction, as SQLiteOpenHelper runs onUpgrade */
+    private void migrateFrom(int version) {
+        mDatabase.beginTransaction();
+        try {
+            assertTrue(WeatherDbMigrations.migrate(mContext, mDatabase, version,
+                    WeatherDbHelper.DATABASE_VERSION));
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+
+        assertEquals(describeCurrentSchema(), describeSchema(mDatabase));
+    }
+
+    private void insertWeatherWithoutLocation() {
+        for (int day = 0; day < 3; day++) {
+            mDatabase.execSQL("INSERT INTO weather (date_time, weather_id, min, max, humidity, "
+                            + "pressure, wind, degrees) VALUES (?, 800, ?, 25, 60, 1000, 3, 90)",
+                    new Object[]{day * DAY_IN_MILLIS, 10 + day});
+        }
+    }
+
+    private void assertWeatherKept(long locationId) {
+        Cursor cursor = mDatabase.query(WeatherAppContract.WeatherEntry.TABLE_NAME,
+                new String[]{
+                        WeatherAppContract.WeatherEntry.COLUMN_LOCATION_ID,
+                        WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME,
+                        WeatherAppContract.WeatherEntry.COLUMN_MIN_TEMP},
+                null, null, null, null,
+                WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME);
+        try {
+            assertEquals(3, cursor.getCount());
+            for (int day = 0; cursor.moveToNext(); day++) {
+                assertEquals(locationId, cursor.getLong(0));
+                assertEquals(day * DAY_IN_MILLIS, cursor.getLong(1));
+                assertEquals(10 + day, cursor.getDouble(2), 0);
+            }
+        } finally {
+            cursor.close();
+        }
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDatabase,
+                WeatherAppContract.HistoryEntry.TABLE_NAME));
+    }
+
+    private String describeCurrentSchema() {
+        SQLiteDatabase current = SQLiteDatabase.create(null);
+        try {
+            new WeatherDbHelper(mContext).onCreate(current);
+            return describeSchema(current);
+        } finally {
+            current.close();
+        }
+    }
+
+    /**
+     * Describes the tables of a database by their columns, foreign keys and indexes, which unlike
+     * the SQL in sqlite_master doesn't depend on how the tables were created.
+     */
+    private static String describeSchema(SQLiteDatabase db) {
+        StringBuilder schema = new StringBuilder();
+        for (String table : queryStrings(db, "SELECT name FROM sqlite_master WHERE type = 'table'"
+                + " AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata' ORDER BY name")) {
+            schema.append(table).append('\n');
+            schema.append(describe(db, "PRAGMA table_info(" + table + ")"));
+            schema.append(describe(db, "PRAGMA foreign_key_list(" + table + ")"));
+
+            List<String> indexes = new ArrayList<>();
+            Cursor cursor = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+            try {
+                int nameIndex = cursor.getColumnIndexOrThrow("name");
+                int uniqueIndex = cursor.getColumnIndexOrThrow("unique");
+                while (cursor.moveToNext()) {
+                    String index = cursor.getString(nameIndex);
+                    indexes.add("index unique=" + cursor.getInt(uniqueIndex) + " "
+                            + queryStrings(db, "PRAGMA index_info(" + index + ")", "name"));
+                }
+            } finally {
+                cursor.close();
+            }
+            Collections.sort(indexes);
+            for (String index : indexes) {
+                schema.append(index).append('\n');
+            }
+        }
+        return schema.toString();
+    }
+
+    private static String describe(SQLiteDatabase db, String pragma) {
+        StringBuilder description = new StringBuilder();
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            while (cursor.moveToNext()) {
+                for (int column = 0; column < cursor.getColumnCount(); column++) {
+                    /* The id of a foreign key depends on the order it was declared in */
+                    if (cursor.getColumnName(column).equals("id")) continue;
+                    description.append(cursor.getColumnName(column)).append('=')
+                            .append(cursor.getString(column)).append(' ');
+                }
+                description.append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return description.toString();
+    }
+
+    private static List<String> queryStrings(SQLiteDatabase db, String sql) {
+        return queryStrings(db, sql, null);
+    }
+
+    private static List<String> queryStrings(SQLiteDatabase db, String sql, String column) {
+        List<String> strings = new ArrayList<>();
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            int index = column == null ? 0 : cursor.getColumnIndexOrThrow(column);
+            while (cursor.moveToNext()) {
+                strings.add(cursor.getString(index));
+            }
+        } finally {
+            cursor.close();
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,236 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how {@link WeatherProvider#mergeWeather} merges a new forecast into the one of a
+ * location, against an in-memory database, and that a merge through the provider notifies its
+ * observers once.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WeatherProviderTest {
+
+    private static final long THREE_HOURS_IN_MILLIS = TimeUnit.HOURS.toMillis(3);
+
+    private Context mContext;
+
+    private SQLiteDatabase mDatabase;
+
+    private long mLocationId;
+    private long mOtherLocationId;
+
+    @Before
+    public void createDatabase() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.setForeignKeyConstraintsEnabled(true);
+        new WeatherDbHelper(mContext).onCreate(mDatabase);
+
+        mLocationId = insertLocation("q:taipei");
+        mOtherLocationId = insertLocation("q:tamsui");
+    }
+
+    @After
+    public void closeDatabase() {
+        mDatabase.close();
+    }
+
+    private long insertLocation(String key) {
+        ContentValues location = new ContentValues();
+        location.put(WeatherAppContract.LocationEntry.COLUMN_LOCATION_KEY, key);
+        return mDatabase.insert(WeatherAppContract.LocationEntry.TABLE_NAME, null, location);
+    }
+
+    /**
+     * @param firstRow The index of the first 3-hour step, so that batches can overlap
+     * @param maxTemps The high of each step, the other columns are the same for all
+     */
+    private static WeatherBatch batch(int firstRow, double... maxTemps) {
+        WeatherBatch batch = new WeatherBatch(maxTemps.length);
+        for (int i = 0; i < maxTemps.length; i++) {
+            batch.add((firstRow + i) * THREE_HOURS_IN_MILLIS, 800, 10, maxTemps[i],
+                    60, 1010, 3, 90, 0);
+        }
+        return batch;
+    }
+
+    private int merge(long locationId, WeatherBatch batch) {
+        return WeatherProvider.mergeWeather(mDatabase, locationId, batch);
+    }
+
+    private long countWeather(long locationId) {
+        return DatabaseUtils.queryNumEntries(mDatabase,
+                WeatherAppContract.WeatherEntry.TABLE_NAME,
+                WeatherAppContract.WeatherEntry.COLUMN_LOCATION_ID + " = ?",
+                new String[]{Long.toString(locationId)});
+    }
+
+    private long countHistory() {
+        return DatabaseUtils.queryNumEntries(mDatabase,
+                WeatherAppContract.HistoryEntry.TABLE_NAME);
+    }
+
+    /* The date and high of every row of a location, e.g. "0:20 1:21" */
+    private String describeWeather(long locationId) {
+        StringBuilder rows = new StringBuilder();
+        Cursor cursor = mDatabase.query(WeatherAppContract.WeatherEntry.TABLE_NAME,
+                new String[]{
+                        WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME,
+                        WeatherAppContract.WeatherEntry.COLUMN_MAX_TEMP},
+                WeatherAppContract.WeatherEntry.COLUMN_LOCATION_ID + " = ?",
+                new String[]{Long.toString(locationId)},
+                null, null, WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME);
+        try {
+            while (cursor.moveToNext()) {
+                if (rows.length() > 0) rows.append(' ');
+                rows.append(cursor.getLong(0) / THREE_HOURS_IN_MILLIS)
+                        .append(':').append((int) cursor.getDouble(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows.toString();
+    }
+
+    @Test
+    public void mergeInsertsNewRows() {
+        assertEquals(3, merge(mLocationId, batch(0, 20, 21, 22)));
+
+        assertEquals("0:20 1:21 2:22", describeWeather(mLocationId));
+        assertEquals(3, countHistory());
+    }
+
+    @Test
+    public void mergeUpdatesChangedRowsOnly() {
+        merge(mLocationId, batch(0, 20, 21, 22));
+
+        assertEquals(1, merge(mLocationId, batch(0, 20, 25, 22)));
+
+        assertEquals("0:20 1:25 2:22", describeWeather(mLocationId));
+        /* Only the changed row is appended to the history */
+        assertEquals(4, countHistory());
+    }
+
+    @Test
+    public void mergeOfTheSameForecastChangesNothing() {
+        merge(mLocationId, batch(0, 20, 21, 22));
+
+        assertEquals(0, merge(mLocationId, batch(0, 20, 21, 22)));
+
+        assertEquals(3, countHistory());
+    }
+
+    @Test
+    public void mergeDeletesRowsThatLeftTheWindow() {
+        merge(mLocationId, batch(0, 20, 21, 22));
+
+        /* The window moved by one step: one row is deleted and one is inserted */
+        assertEquals(2, merge(mLocationId, batch(1, 21, 22, 23)));
+
+        assertEquals("1:21 2:22 3:23", describeWeather(mLocationId));
+        /* The deleted row stays in the history */
+        assertEquals(4, countHistory());
+    }
+
+    @Test
+    public void onlyNoticeableUpdatesAreRevisions() {
+        merge(mLocationId, batch(0, 20, 21, 22));
+
+        /* The window slides by one step: no revision */
+        WeatherProvider.MergeResult result = WeatherProvider.merge(mDatabase, mLocationId,
+                batch(1, 21, 22, 23), System.currentTimeMillis());
+        assertEquals(2, result.rowsChanged);
+        assertEquals(0, result.rowsRevised);
+
+        /* A fraction of a degree is an update, not a revision; three degrees are */
+        result = WeatherProvider.merge(mDatabase, mLocationId,
+                batch(1, 21.5, 25, 23), System.currentTimeMillis());
+        assertEquals(2, result.rowsChanged);
+        assertEquals(1, result.rowsRevised);
+    }
+
+    @Test
+    public void mergeLeavesOtherLocationsAlone() {
+        merge(mOtherLocationId, batch(0, 30, 31));
+
+        merge(mLocationId, batch(0, 20, 21, 22));
+        merge(mLocationId, batch(5, 25));
+
+        assertEquals("0:30 1:31", describeWeather(mOtherLocationId));
+        assertEquals(1, countWeather(mLocationId));
+    }
+
+    @Test
+    public void mergeThroughTheProviderNotifiesOnce() throws InterruptedException {
+        ContentResolver resolver = mContext.getContentResolver();
+
+        /* A location of its own in the database of the app, which is not the active one */
+        ContentValues values = new ContentValues();
+        values.put(WeatherAppContract.LocationEntry.COLUMN_LOCATION_KEY,
+                "q:" + WeatherProviderTest.class.getSimpleName());
+        long locationId = ContentUris.parseId(
+                resolver.insert(WeatherAppContract.LocationEntry.CONTENT_URI, values));
+
+        CountingObserver everything = new CountingObserver();
+        CountingObserver days = new CountingObserver();
+        resolver.registerContentObserver(WeatherAppContract.BASE_CONTENT_URI, true, everything);
+        resolver.registerContentObserver(
+                WeatherAppContract.LocationEntry.buildDayUri(locationId), false, days);
+        try {
+            resolver.call(WeatherAppContract.WeatherEntry.CONTENT_URI,
+                    WeatherAppContract.WeatherEntry.METHOD_MERGE_BATCH,
+                    Long.toString(locationId),
+                    batch(0, 20, 21, 22).toBundle());
+
+            assertTrue(everything.mFirstChange.await(5, TimeUnit.SECONDS));
+            assertTrue(days.mFirstChange.await(5, TimeUnit.SECONDS));
+            /* Give a second notification the time to arrive */
+            Thread.sleep(500);
+            assertEquals(1, everything.mChanges.get());
+            assertEquals(1, days.mChanges.get());
+        } finally {
+            resolver.unregisterContentObserver(everything);
+            resolver.unregisterContentObserver(days);
+            resolver.delete(WeatherAppContract.LocationEntry.buildLocationUri(locationId),
+                    null, null);
+        }
+    }
+
+    private static class CountingObserver extends ContentObserver {
+
+        final AtomicInteger mChanges = new AtomicInteger();
+        final CountDownLatch mFirstChange = new CountDownLatch(1);
+
+        CountingObserver() {
+            /* Called on the thread that delivers the notification */
+            super(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mChanges.incrementAndGet();
+            mFirstChange.countDown();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package tw.edu.tku.csie.weatherforecast.sync;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how {@link SyncCoordinator} coalesces requests, with a sync that only counts how many
+ * times it ran instead of reaching the network.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SyncCoordinatorTest {
+
+    private static final SyncResult RESULT = new SyncResult(1, 0, 0, 1, 0, true);
+
+    private Context mContext;
+    private SyncCoordinator.Sync mRealSync;
+
+    private final AtomicInteger mSyncCount = new AtomicInteger();
+
+    /* Counted down once the sync started, and awaited by the sync before it finishes */
+    private final CountDownLatch mStarted = new CountDownLatch(1);
+    private CountDownLatch mRelease = new CountDownLatch(0);
+
+    @Before
+    public void replaceSync() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mRealSync = SyncCoordinator.sSync;
+        SyncCoordinator.sSync = context -> {
+            mSyncCount.incrementAndGet();
+            mStarted.countDown();
+            try {
+                mRelease.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return RESULT;
+        };
+    }
+
+    @After
+    public void restoreSync() {
+        SyncCoordinator.sSync = mRealSync;
+    }
+
+    @Test
+    public void burstOfDebouncedRequestsRunsOneSync() throws InterruptedException {
+        SyncCoordinator.SyncFuture first = SyncCoordinator.requestDebouncedSync(mContext);
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(100);
+            assertSame(first, SyncCoordinator.requestDebouncedSync(mContext));
+        }
+
+        assertSame(RESULT, first.await());
+        assertEquals(1, mSyncCount.get());
+    }
+
+    @Test
+    public void debouncedRequestPostponesThePendingSync() throws InterruptedException {
+        SyncCoordinator.SyncFuture sync = SyncCoordinator.requestDebouncedSync(mContext);
+        Thread.sleep(1500);
+        SyncCoordinator.requestDebouncedSync(mContext);
+
+        /* The first quiet period is over, but the second request started another one */
+        Thread.sleep(1000);
+        assertEquals(0, mSyncCount.get());
+
+        sync.await();
+        assertEquals(1, mSyncCount.get());
+    }
+
+    @Test
+    public void requestDuringRunningSyncJoinsIt() throws InterruptedException {
+        mRelease = new CountDownLatch(1);
+
+        SyncCoordinator.SyncFuture running = SyncCoordinator.requestSync(mContext);
+        assertTrue(mStarted.await(5, TimeUnit.SECONDS));
+
+        assertSame(running, SyncCoordinator.requestSync(mContext));
+
+        mRelease.countDown();
+        assertSame(RESULT, running.await());
+        assertEquals(1, mSyncCount.get());
+    }
+
+    @Test
+    public void requestMadeWhenASyncFinishesStartsANewOne() throws InterruptedException {
+        /* Like a refresh started by the broadcast sent once a sync finished */
+        AtomicReference<SyncCoordinator.SyncFuture> next = new AtomicReference<>();
+        CountDownLatch requested = new CountDownLatch(1);
+        SyncCoordinator.SyncFuture first = SyncCoordinator.requestSync(mContext);
+        first.addListener(() -> {
+            next.set(SyncCoordinator.requestSync(mContext));
+            requested.countDown();
+        });
+
+        assertTrue(requested.await(5, TimeUnit.SECONDS));
+        SyncCoordinator.SyncFuture second = next.get();
+        assertNotSame(first, second);
+
+        assertSame(RESULT, second.await());
+        assertEquals(2, mSyncCount.get());
+    }
+}
@@ -0,0 +1,168 @@
+package tw.edu.tku.csie.weatherforecast.utilities;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.format.DateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link ConditionalRequestCache} stores the validators of a response, how long it
+ * considers the response fresh, and how it handles a 304, against a {@link MockHttpServer}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ConditionalRequestCacheTest {
+
+    private static final String ETAG = "\"d41d8cd9\"";
+    private static final String LAST_MODIFIED = "Sat, 20 Oct 2018 08:00:00 GMT";
+
+    private Context mContext;
+    private MockHttpServer mServer;
+    private WeatherHttpClient mClient;
+    private URL mUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = InstrumentationRegistry.getTargetContext();
+        ConditionalRequestCache.clear(mContext);
+
+        mServer = new MockHttpServer();
+        /* A single attempt, and a budget that never gets in the way */
+        mClient = new WeatherHttpClient(1000, 1000, 1, 10, 50, 5000, 100, 6000);
+        mUrl = mServer.url("/data/2.5/forecast?lat=25.17&lon=121.45");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+        ConditionalRequestCache.clear(mContext);
+    }
+
+    /* Makes the request the way the sync does, and returns the entry of its response */
+    private ConditionalRequestCache.Entry request(ConditionalRequestCache.Entry validators,
+                                                  int expectedResponseCode) throws IOException {
+        WeatherHttpClient.Exchange exchange = mClient.execute(mUrl,
+                urlConnection -> ConditionalRequestCache.applyValidators(urlConnection,
+                        validators));
+        try {
+            assertEquals(expectedResponseCode, exchange.getResponseCode());
+            return ConditionalRequestCache.fromResponse(mUrl, exchange.getConnection(),
+                    validators);
+        } finally {
+            exchange.release();
+        }
+    }
+
+    @Test
+    public void validatorsOfAResponseAreStored() throws IOException {
+        assertNull(ConditionalRequestCache.get(mContext, mUrl));
+
+        mServer.enqueue("200 OK", "{}", "ETag: " + ETAG, "Last-Modified: " + LAST_MODIFIED);
+        ConditionalRequestCache.Entry entry = request(null, HttpURLConnection.HTTP_OK);
+        ConditionalRequestCache.put(mContext, mUrl, entry);
+
+        ConditionalRequestCache.Entry stored = ConditionalRequestCache.get(mContext, mUrl);
+        assertNotNull(stored);
+        assertEquals(ETAG, stored.eTag);
+        assertEquals(LAST_MODIFIED, stored.lastModified);
+        assertTrue(stored.isFresh());
+    }
+
+    @Test
+    public void responseWithoutMaxAgeIsFreshForTenMinutes() throws IOException {
+        mServer.enqueue("200 OK", "{}", "ETag: " + ETAG);
+        long before = System.currentTimeMillis();
+        ConditionalRequestCache.Entry entry = request(null, HttpURLConnection.HTTP_OK);
+        long after = System.currentTimeMillis();
+
+        assertTrue(entry.expiresAt >= before + 10 * DateUtils.MINUTE_IN_MILLIS);
+        assertTrue(entry.expiresAt <= after + 10 * DateUtils.MINUTE_IN_MILLIS);
+    }
+
+    @Test
+    public void cacheControlOverridesTheDefaultFreshness() throws IOException {
+        mServer.enqueue("200 OK", "{}", "Cache-Control: public, max-age=60");
+        long before = System.currentTimeMillis();
+        ConditionalRequestCache.Entry entry = request(null, HttpURLConnection.HTTP_OK);
+        long after = System.currentTimeMillis();
+        assertTrue(entry.expiresAt >= before + DateUtils.MINUTE_IN_MILLIS);
+        assertTrue(entry.expiresAt <= after + DateUtils.MINUTE_IN_MILLIS);
+
+        mServer.enqueue("200 OK", "{}", "ETag: " + ETAG, "Cache-Control: no-cache");
+        entry = request(null, HttpURLConnection.HTTP_OK);
+        assertFalse(entry.isFresh());
+        assertEquals(ETAG, entry.eTag);
+
+        mServer.enqueue("200 OK", "{}", "ETag: " + ETAG, "Cache-Control: no-store");
+        assertNull(request(null, HttpURLConnection.HTTP_OK));
+    }
+
+    @Test
+    public void notModifiedKeepsTheValidatorsAndRenewsTheFreshness() throws Exception {
+        /* Stored by an earlier sync, and no longer fresh */
+        ConditionalRequestCache.put(mContext, mUrl, new ConditionalRequestCache.Entry(
+                mUrl.toString(), ETAG, LAST_MODIFIED, System.currentTimeMillis() - 1));
+        ConditionalRequestCache.Entry stale = ConditionalRequestCache.get(mContext, mUrl);
+        assertNotNull(stale);
+        assertFalse(stale.isFresh());
+
+        /* A 304 may omit the validators */
+        mServer.enqueue("304 Not Modified", "");
+        ConditionalRequestCache.Entry entry = request(stale, HttpURLConnection.HTTP_NOT_MODIFIED);
+
+        List<String> headers = mServer.takeRequest();
+        assertTrue(headers.contains("If-None-Match: " + ETAG));
+        assertTrue(headers.contains("If-Modified-Since: " + LAST_MODIFIED));
+
+        assertNotNull(entry);
+        assertEquals(ETAG, entry.eTag);
+        assertEquals(LAST_MODIFIED, entry.lastModified);
+        assertTrue(entry.isFresh());
+
+        ConditionalRequestCache.put(mContext, mUrl, entry);
+        assertTrue(ConditionalRequestCache.get(mContext, mUrl).isFresh());
+    }
+
+    @Test
+    public void firstRequestIsNotConditional() throws Exception {
+        mServer.enqueue("200 OK", "{}");
+        request(null, HttpURLConnection.HTTP_OK);
+
+        for (String header : mServer.takeRequest()) {
+            assertFalse(header.startsWith("If-None-Match"));
+            assertFalse(header.startsWith("If-Modified-Since"));
+        }
+    }
+
+    @Test
+    public void entriesOfOtherUrlsAreForgotten() throws IOException {
+        URL otherUrl = mServer.url("/data/2.5/forecast?lat=24.99&lon=121.30");
+        ConditionalRequestCache.put(mContext, mUrl, new ConditionalRequestCache.Entry(
+                mUrl.toString(), ETAG, null, System.currentTimeMillis()));
+        ConditionalRequestCache.put(mContext, otherUrl, new ConditionalRequestCache.Entry(
+                otherUrl.toString(), ETAG, null, System.currentTimeMillis()));
+
+        ConditionalRequestCache.retainAll(mContext, Collections.singleton(mUrl.toString()));
+        assertNotNull(ConditionalRequestCache.get(mContext, mUrl));
+        assertNull(ConditionalRequestCache.get(mContext, otherUrl));
+
+        ConditionalRequestCache.put(mContext, mUrl, null);
+        assertNull(ConditionalRequestCache.get(mContext, mUrl));
+    }
+}
@@ -0,0 +1,41 @@
+package tw.edu.tku.csie.weatherforecast.utilities;
+
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * A {@link ReverseGeocoder} that never goes to the network: it names every location after its
+ * rounded coordinates, counts its lookups and can be made to fail like an offline device.
+ */
+class FakeReverseGeocoder implements ReverseGeocoder {
+
+    private int mLookupCount;
+    private boolean mOffline;
+
+    @Nullable
+    @Override
+    public synchronized String getCityName(double latitude, double longitude)
+            throws IOException {
+        mLookupCount++;
+        if (mOffline) {
+            throw new IOException("offline");
+        }
+        return nameOf(latitude, longitude);
+    }
+
+    /**
+     * @return The name this geocoder gives to the given coordinates
+     */
+    static String nameOf(double latitude, double longitude) {
+        return "City " + Math.round(latitude) + "," + Math.round(longitude);
+    }
+
+    synchronized int getLookupCount() {
+        return mLookupCount;
+    }
+
+    synchronized void setOffline(boolean offline) {
+        mOffline = offline;
+    }
+}
@@ -0,0 +1,56 @@
+package tw.edu.tku.csie.weatherforecast.utilities;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import tw.edu.tku.csie.weatherforecast.benchmark.BenchmarkReport;
+
+/**
+ * Measures the formatting done for every row of the forecast list and for the detail screen:
+ * {@link WeatherUtils} and {@link WeatherAppDateUtils#getFriendlyDateTimeString}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FormattingBenchmark {
+
+    /* One condition of each group the OpenWeatherMap ids are split into */
+    private static final int[] WEATHER_IDS = {200, 300, 500, 600, 701, 800, 802, 900, 951};
+
+    @Test
+    public void benchmarkFormatting() throws Exception {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        BenchmarkReport report = new BenchmarkReport("formatting");
+
+        report.measure("formatTemperature",
+                () -> WeatherUtils.formatTemperature(context, 23.4));
+        report.measure("getFormattedWind",
+                () -> WeatherUtils.getFormattedWind(context, 3.6f, 225f));
+
+        final int[] next = {0};
+        report.measure("getStringForWeatherCondition", () -> {
+            int weatherId = WEATHER_IDS[next[0]++ % WEATHER_IDS.length];
+            return WeatherUtils.getStringForWeatherCondition(context, weatherId);
+        });
+
+        /* Today, tomorrow and next week are formatted differently */
+        long today = WeatherAppDateUtils.getNormalizedUtcDateForToday();
+        long[] days = {
+                today,
+                today + WeatherAppDateUtils.DAY_IN_MILLIS,
+                today + 7 * WeatherAppDateUtils.DAY_IN_MILLIS
+        };
+        String[] dayNames = {"today", "tomorrow", "nextWeek"};
+        for (int i = 0; i < days.length; i++) {
+            final long day = days[i];
+            report.measure("getFriendlyDateTimeString_" + dayNames[i],
+                    () -> WeatherAppDateUtils.getFriendlyDateTimeString(context, day, false));
+            report.measure("getFriendlyDateTimeString_" + dayNames[i] + "_fullDate",
+                    () -> WeatherAppDateUtils.getFriendlyDateTimeString(context, day, true));
+        }
+
+        report.write(context);
+    }
+}
@@ -0,0 +1,114 @@
+package tw.edu.tku.csie.weatherforecast.utilities;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal HTTP server on the loopback interface, which answers each request with the next
+ * queued response and closes the connection. Enough to test how requests are retried, without
+ * a network or another dependency.
+ */
+class MockHttpServer {
+
+    private final ServerSocket mServerSocket;
+    private final BlockingQueue<String> mResponses = new LinkedBlockingQueue<>();
+    /* The request line and the headers of every request received, in order */
+    private final BlockingQueue<List<String>> mRequests = new LinkedBlockingQueue<>();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final Thread mThread;
+
+    MockHttpServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+        mThread = new Thread(this::serve, "MockHttpServer");
+        mThread.start();
+    }
+
+    /**
+     * Queues a response.
+     *
+     * @param statusLine The status, e.g. "503 Service Unavailable"
+     * @param headers    Extra header lines, without line breaks
+     * @param body       The body
+     */
+    void enqueue(String statusLine, String body, String... headers) {
+        StringBuilder response = new StringBuilder("HTTP/1.1 ").append(statusLine).append("\r\n");
+        for (String header : headers) {
+            response.append(header).append("\r\n");
+        }
+        response.append("Content-Length: ").append(body.getBytes().length).append("\r\n")
+                .append("Connection: close\r\n")
+                .append("\r\n")
+                .append(body);
+        mResponses.add(response.toString());
+    }
+
+    URL url(String path) throws IOException {
+        return new URL("http", "127.0.0.1", mServerSocket.getLocalPort(), path);
+    }
+
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * Returns the oldest request that was not taken yet.
+     *
+     * @return Its request line and its header lines, or null if none was received
+     */
+    List<String> takeRequest() throws InterruptedException {
+        return mRequests.poll(5, TimeUnit.SECONDS);
+    }
+
+    void shutdown() throws IOException {
+        mServerSocket.close();
+        mThread.interrupt();
+    }
+
+    private void serve() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                Socket socket = mServerSocket.accept();
+                try {
+                    respond(socket);
+                } finally {
+                    socket.close();
+                }
+            } catch (IOException | InterruptedException e) {
+                /* Closed by shutdown */
+            }
+        }
+    }
+
+    private void respond(Socket socket) throws IOException, InterruptedException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        List<String> request = new ArrayList<>();
+        String line;
+        /* A GET has no body, the request ends with its headers */
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
+            request.add(line);
+        }
+        mRequests.add(request);
+        mRequestCount.incrementAndGet();
+
+        String response = mResponses.poll(5, TimeUnit.SECONDS);
+        if (response == null) {
+            response = "HTTP/1.1 500 No Response Queued\r\n"
+                    + "Content-Length: 0\r\nConnection: close\r\n\r\n";
+        }
+        OutputStream out = socket.getOutputStream();
+        out.write(response.getBytes());
+        out.flush();
+    }
+}
@@ -0,0 +1,71 @@
+package tw.edu.tku.csie.weatherforecast.utilities;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import tw.edu.tku.csie.weatherforecast.benchmark.BenchmarkReport;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures {@link OpenWeatherJsonUtils} against recorded OpenWeatherMap responses of 1, 8 and 40
+ * forecasts, from the assets of the test APK. 40 is what the API returns for 5 days.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ParsingBenchmark {
+
+    private static final int[] FORECAST_COUNTS = {1, 8, 40};
+
+    @Test
+    public void benchmarkParsing() throws Exception {
+        BenchmarkReport report = new BenchmarkReport("parsing");
+
+        for (int forecastCount : FORECAST_COUNTS) {
+            final byte[] payload = readAsset("owm_forecast_" + forecastCount + ".json");
+            final String json = new String(payload, Charset.forName("UTF-8"));
+
+            assertEquals(forecastCount,
+                    OpenWeatherJsonUtils.getWeatherContentValuesFromJson(json).length);
+            assertEquals(forecastCount, OpenWeatherJsonUtils.getWeatherBatchFromJson(
+                    new ByteArrayInputStream(payload)).size());
+
+            report.measure("contentValuesFromString_" + forecastCount,
+                    () -> OpenWeatherJsonUtils.getWeatherContentValuesFromJson(json));
+            report.measure("contentValuesFromStream_" + forecastCount,
+                    () -> OpenWeatherJsonUtils.getWeatherContentValuesFromJson(
+                            new ByteArrayInputStream(payload)));
+            report.measure("batchFromStream_" + forecastCount,
+                    () -> OpenWeatherJsonUtils.getWeatherBatchFromJson(
+                            new ByteArrayInputStream(payload)));
+        }
+
+        report.write(InstrumentationRegistry.getTargetContext());
+    }
+
+    private static byte[] readAsset(String fileName) throws IOException {
+        /* The assets of the test APK, not of the app under test */
+        Context testContext = InstrumentationRegistry.getContext();
+        InputStream in = testContext.getAssets().open(fileName);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
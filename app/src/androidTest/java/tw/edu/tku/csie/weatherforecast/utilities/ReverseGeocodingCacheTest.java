@@ -0,0 +1,124 @@
+package tw.edu.tku.csie.weatherforecast.utilities;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks when {@link ReverseGeocodingCache} answers from its entries and when it asks the
+ * geocoder, using {@link FakeReverseGeocoder} so that nothing goes to the network.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ReverseGeocodingCacheTest {
+
+    /* Tamsui, and a point about 50 m away in the same geohash cell */
+    private static final double LATITUDE = 25.17480;
+    private static final double LONGITUDE = 121.45020;
+    private static final double NEARBY_LATITUDE = 25.17450;
+    private static final double NEARBY_LONGITUDE = 121.44980;
+
+    /* Taipei, in another cell */
+    private static final double FAR_LATITUDE = 25.03300;
+    private static final double FAR_LONGITUDE = 121.56540;
+
+    private File mFile;
+    private FakeReverseGeocoder mGeocoder;
+
+    @Before
+    public void createGeocoder() {
+        mFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "reverse_geocoding_test");
+        mFile.delete();
+        mGeocoder = new FakeReverseGeocoder();
+    }
+
+    @After
+    public void deleteFile() {
+        mFile.delete();
+    }
+
+    private ReverseGeocodingCache newCache(long ttlMillis, int maxEntries) {
+        return new ReverseGeocodingCache(mFile, mGeocoder, ttlMillis, maxEntries);
+    }
+
+    @Test
+    public void nearbyLocationIsServedFromTheCache() throws IOException {
+        ReverseGeocodingCache cache = newCache(ReverseGeocodingCache.DEFAULT_TTL_MILLIS,
+                ReverseGeocodingCache.DEFAULT_MAX_ENTRIES);
+
+        String name = cache.getCityName(LATITUDE, LONGITUDE);
+        assertEquals(FakeReverseGeocoder.nameOf(LATITUDE, LONGITUDE), name);
+        assertEquals(name, cache.getCityName(LATITUDE, LONGITUDE));
+        assertEquals(name, cache.getCityName(NEARBY_LATITUDE, NEARBY_LONGITUDE));
+        assertEquals(1, mGeocoder.getLookupCount());
+
+        cache.getCityName(FAR_LATITUDE, FAR_LONGITUDE);
+        assertEquals(2, mGeocoder.getLookupCount());
+    }
+
+    @Test
+    public void entriesSurviveANewInstance() throws IOException {
+        newCache(ReverseGeocodingCache.DEFAULT_TTL_MILLIS,
+                ReverseGeocodingCache.DEFAULT_MAX_ENTRIES).getCityName(LATITUDE, LONGITUDE);
+
+        ReverseGeocodingCache reopened = newCache(ReverseGeocodingCache.DEFAULT_TTL_MILLIS,
+                ReverseGeocodingCache.DEFAULT_MAX_ENTRIES);
+        assertEquals(FakeReverseGeocoder.nameOf(LATITUDE, LONGITUDE),
+                reopened.getCityName(LATITUDE, LONGITUDE));
+        assertEquals(1, mGeocoder.getLookupCount());
+    }
+
+    @Test
+    public void expiredEntryIsLookedUpAgainButServedWhenOffline() throws IOException {
+        /* Every entry is expired as soon as it is written */
+        ReverseGeocodingCache cache = newCache(0, ReverseGeocodingCache.DEFAULT_MAX_ENTRIES);
+
+        cache.getCityName(LATITUDE, LONGITUDE);
+        cache.getCityName(LATITUDE, LONGITUDE);
+        assertEquals(2, mGeocoder.getLookupCount());
+
+        mGeocoder.setOffline(true);
+        assertEquals(FakeReverseGeocoder.nameOf(LATITUDE, LONGITUDE),
+                cache.getCityName(LATITUDE, LONGITUDE));
+        assertEquals(3, mGeocoder.getLookupCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void missWhileOfflineFails() throws IOException {
+        mGeocoder.setOffline(true);
+        newCache(ReverseGeocodingCache.DEFAULT_TTL_MILLIS,
+                ReverseGeocodingCache.DEFAULT_MAX_ENTRIES).getCityName(LATITUDE, LONGITUDE);
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() throws IOException {
+        ReverseGeocodingCache cache = newCache(ReverseGeocodingCache.DEFAULT_TTL_MILLIS, 2);
+
+        cache.getCityName(LATITUDE, LONGITUDE);
+        cache.getCityName(FAR_LATITUDE, FAR_LONGITUDE);
+        /* Touches the first entry, so the second one is now the eldest */
+        cache.getCityName(LATITUDE, LONGITUDE);
+        cache.getCityName(0, 0);
+        assertEquals(3, mGeocoder.getLookupCount());
+
+        cache.getCityName(LATITUDE, LONGITUDE);
+        assertEquals(3, mGeocoder.getLookupCount());
+        cache.getCityName(FAR_LATITUDE, FAR_LONGITUDE);
+        assertEquals(4, mGeocoder.getLookupCount());
+    }
+
+    @Test
+    public void geohashMatchesReference() {
+        /* The example of the original geohash.org announcement */
+        assertEquals("ezs42", GeohashUtils.encode(42.6, -5.6, 5));
+    }
+}
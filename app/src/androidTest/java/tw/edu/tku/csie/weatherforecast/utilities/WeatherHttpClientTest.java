@@ -0,0 +1,128 @@
+package tw.edu.tku.csie.weatherforecast.utilities;
+
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the retries and the rate limit of {@link WeatherHttpClient} against a
+ * {@link MockHttpServer}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WeatherHttpClientTest {
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private MockHttpServer mServer;
+    private WeatherHttpClient mClient;
+
+    @Before
+    public void startServer() throws IOException {
+        mServer = new MockHttpServer();
+        /* Short backoffs, and a budget that never gets in the way */
+        mClient = new WeatherHttpClient(1000, 1000, MAX_ATTEMPTS, 10, 50, 5000, 100, 6000);
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        mServer.shutdown();
+    }
+
+    private WeatherHttpClient.Exchange get() throws IOException {
+        return mClient.execute(mServer.url("/data/2.5/forecast"), null);
+    }
+
+    @Test
+    public void serverErrorIsRetried() throws IOException {
+        mServer.enqueue("503 Service Unavailable", "");
+        mServer.enqueue("200 OK", "{}");
+
+        WeatherHttpClient.Exchange exchange = get();
+        try {
+            assertEquals(HttpURLConnection.HTTP_OK, exchange.getResponseCode());
+            assertEquals(2, exchange.getAttempts());
+            assertEquals("{}", HttpResponseReader.readResponse(exchange.getConnection()));
+        } finally {
+            exchange.release();
+        }
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void clientErrorIsNotRetried() throws IOException {
+        mServer.enqueue("404 Not Found", "{\"cod\":\"404\"}");
+
+        WeatherHttpClient.Exchange exchange = get();
+        exchange.release();
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, exchange.getResponseCode());
+        assertEquals(1, exchange.getAttempts());
+    }
+
+    @Test
+    public void lastAttemptIsReturnedWhenRetriesRunOut() throws IOException {
+        for (int i = 0; i < MAX_ATTEMPTS; i++) {
+            mServer.enqueue("502 Bad Gateway", "");
+        }
+
+        WeatherHttpClient.Exchange exchange = get();
+        exchange.release();
+        assertEquals(HttpURLConnection.HTTP_BAD_GATEWAY, exchange.getResponseCode());
+        assertEquals(MAX_ATTEMPTS, exchange.getAttempts());
+        assertEquals(MAX_ATTEMPTS, mServer.getRequestCount());
+    }
+
+    @Test
+    public void retryAfterIsHonored() throws IOException {
+        mServer.enqueue("429 Too Many Requests", "", "Retry-After: 1");
+        mServer.enqueue("200 OK", "{}");
+
+        long start = SystemClock.elapsedRealtime();
+        WeatherHttpClient.Exchange exchange = get();
+        exchange.release();
+        assertEquals(HttpURLConnection.HTTP_OK, exchange.getResponseCode());
+        assertTrue(SystemClock.elapsedRealtime() - start >= 1000);
+        assertTrue(exchange.getWaitedMillis() >= 900);
+    }
+
+    @Test
+    public void longRetryAfterOnlyBlocksTheKeyForTheLongestRetry() throws IOException {
+        mServer.enqueue("429 Too Many Requests", "", "Retry-After: 3600");
+        mServer.enqueue("200 OK", "{}");
+
+        WeatherHttpClient.Exchange exchange = get();
+        exchange.release();
+        assertEquals(HTTP_TOO_MANY_REQUESTS, exchange.getResponseCode());
+        assertEquals(1, exchange.getAttempts());
+
+        /* The next request waits for 5 s, the longest Retry-After this client retries after */
+        long start = SystemClock.elapsedRealtime();
+        exchange = get();
+        exchange.release();
+        long waited = SystemClock.elapsedRealtime() - start;
+        assertEquals(HttpURLConnection.HTTP_OK, exchange.getResponseCode());
+        assertTrue("waited " + waited, waited >= 4000 && waited < 10000);
+    }
+
+    @Test
+    public void tokenBucketSpacesRequestsOutOnceTheBurstIsSpent() {
+        /* Two at once, then one per second */
+        TokenBucket bucket = new TokenBucket(2, 60);
+        assertEquals(0, bucket.reserve());
+        assertEquals(0, bucket.reserve());
+        long wait = bucket.reserve();
+        assertTrue("waited " + wait, wait > 900 && wait <= 1000);
+        wait = bucket.reserve();
+        assertTrue("waited " + wait, wait > 1900 && wait <= 2000);
+    }
+}
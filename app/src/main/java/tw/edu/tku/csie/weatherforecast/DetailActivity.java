@@ -15,8 +15,8 @@
  */
 package tw.edu.tku.csie.weatherforecast;
 
+import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
 import android.databinding.DataBindingUtil;
 import android.net.Uri;
 import android.os.Build;
@@ -24,21 +24,27 @@ import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.app.ShareCompat;
-import android.support.v4.content.CursorLoader;
+import android.support.v4.content.AsyncTaskLoader;
 import android.support.v4.content.Loader;
+import android.support.v4.util.Pair;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.text.format.DateUtils;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.View;
 
-import tw.edu.tku.csie.weatherforecast.data.WeatherAppContract;
+import tw.edu.tku.csie.weatherforecast.data.ForecastCache;
+import tw.edu.tku.csie.weatherforecast.data.ForecastSnapshot;
+import tw.edu.tku.csie.weatherforecast.data.WeatherAppPreferences;
 import tw.edu.tku.csie.weatherforecast.databinding.ActivityDetailBinding;
 import tw.edu.tku.csie.weatherforecast.ui.DetailSharedElementEnterCallback;
 import tw.edu.tku.csie.weatherforecast.utilities.WeatherAppDateUtils;
 import tw.edu.tku.csie.weatherforecast.utilities.WeatherUtils;
 
 public class DetailActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor> {
+        LoaderManager.LoaderCallbacks<Pair<ForecastSnapshot, ForecastSnapshot>> {
 
 
     /*
@@ -47,35 +53,6 @@ public class DetailActivity extends AppCompatActivity implements
      */
     private static final String FORECAST_SHARE_HASHTAG = " #SunshineApp";
 
-    /*
-     * The columns of data that we are interested in displaying within our DetailActivity's
-     * weather display.
-     */
-    public static final String[] WEATHER_DETAIL_PROJECTION = {
-            WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME,
-            WeatherAppContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherAppContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherAppContract.WeatherEntry.COLUMN_HUMIDITY,
-            WeatherAppContract.WeatherEntry.COLUMN_PRESSURE,
-            WeatherAppContract.WeatherEntry.COLUMN_WIND_SPEED,
-            WeatherAppContract.WeatherEntry.COLUMN_DEGREES,
-            WeatherAppContract.WeatherEntry.COLUMN_WEATHER_ID
-    };
-
-    /*
-     * We store the indices of the values in the array of Strings above to more quickly be able
-     * to access the data from our query. If the order of the Strings above changes, these
-     * indices must be adjusted to match the order of the Strings.
-     */
-    public static final int INDEX_WEATHER_DATE = 0;
-    public static final int INDEX_WEATHER_MAX_TEMP = 1;
-    public static final int INDEX_WEATHER_MIN_TEMP = 2;
-    public static final int INDEX_WEATHER_HUMIDITY = 3;
-    public static final int INDEX_WEATHER_PRESSURE = 4;
-    public static final int INDEX_WEATHER_WIND_SPEED = 5;
-    public static final int INDEX_WEATHER_DEGREES = 6;
-    public static final int INDEX_WEATHER_CONDITION_ID = 7;
-
     /*
      * This ID will be used to identify the Loader responsible for loading the weather details
      * for a particular day. In some cases, one Activity can deal with many Loaders. However, in
@@ -85,14 +62,25 @@ public class DetailActivity extends AppCompatActivity implements
      */
     private static final int ID_DETAIL_LOADER = 353;
 
+    /* Whether the 3-hour timeline is expanded, kept across configuration changes */
+    private static final String STATE_TIMELINE_EXPANDED = "timeline_expanded";
+
     /* A summary of the forecast that can be shared by clicking the share button in the ActionBar */
     private String mForecastSummary;
 
     /* The URI that is used to access the chosen day's weather details */
     private Uri mUri;
 
+    /* The normalized UTC date of the chosen day, the last segment of mUri */
+    private long mDateTime;
+
     private DetailSharedElementEnterCallback sharedElementCallback;
 
+    /* The 3-hourly rows of the chosen day */
+    private TimelineAdapter mTimelineAdapter;
+
+    private boolean mTimelineExpanded;
+
     /*
      * This field is used for data binding. Normally, we would have to call findViewById many
      * times to get references to the Views in this Activity. With data binding however, we only
@@ -113,9 +101,76 @@ public class DetailActivity extends AppCompatActivity implements
         if (mUri == null) throw new NullPointerException("URI for DetailActivity cannot be null");
 
         setupTransition();
+        setupTimeline(savedInstanceState != null
+                && savedInstanceState.getBoolean(STATE_TIMELINE_EXPANDED));
+
+        /*
+         * The forecast list was loaded through ForecastCache, which holds every day shown in it,
+         * so the day is usually bound right away, in time for the shared element transition. The
+         * database is only queried for what isn't cached: the 3-hourly rows of the timeline the
+         * first time a day is opened, or everything when the process was restarted while this
+         * screen was open.
+         */
+        mDateTime = Long.parseLong(mUri.getLastPathSegment());
+        long locationId = WeatherAppPreferences.getActiveLocationId(this);
+        ForecastSnapshot days = ForecastCache.peekDays(locationId);
+        ForecastSnapshot hours = ForecastCache.peek(locationId);
+        int index = days == null ? -1 : days.indexOfDateTime(mDateTime);
+        if (index >= 0) {
+            bindWeather(days, index);
+        }
+        if (index >= 0 && hours != null) {
+            bindTimeline(hours);
+        } else {
+            /* This connects our Activity into the loader lifecycle. */
+            getSupportLoaderManager().initLoader(ID_DETAIL_LOADER, null, this);
+        }
+    }
 
-        /* This connects our Activity into the loader lifecycle. */
-        getSupportLoaderManager().initLoader(ID_DETAIL_LOADER, null, this);
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STATE_TIMELINE_EXPANDED, mTimelineExpanded);
+    }
+
+    /**
+     * Sets up the horizontal list of the 3-hourly rows of the day, collapsed behind its header
+     * unless it was expanded before a configuration change.
+     *
+     * @param expanded Whether the list starts expanded
+     */
+    private void setupTimeline(boolean expanded) {
+        mTimelineAdapter = new TimelineAdapter(this);
+        mDetailBinding.timeline.recyclerviewTimeline.setLayoutManager(
+                new LinearLayoutManager(this, LinearLayoutManager.HORIZONTAL, false));
+        mDetailBinding.timeline.recyclerviewTimeline.setHasFixedSize(true);
+        mDetailBinding.timeline.recyclerviewTimeline.setAdapter(mTimelineAdapter);
+
+        mDetailBinding.timeline.timelineHeader.setOnClickListener(
+                view -> setTimelineExpanded(!mTimelineExpanded));
+        setTimelineExpanded(expanded);
+    }
+
+    private void setTimelineExpanded(boolean expanded) {
+        mTimelineExpanded = expanded;
+        mDetailBinding.timeline.recyclerviewTimeline.setVisibility(
+                expanded ? View.VISIBLE : View.GONE);
+        mDetailBinding.timeline.timelineHeader.setText(
+                expanded ? R.string.timeline_hide : R.string.timeline_show);
+    }
+
+    /**
+     * Displays the 3-hourly rows of the chosen day in the timeline.
+     *
+     * @param hours Every 3-hourly row of the forecast
+     */
+    private void bindTimeline(ForecastSnapshot hours) {
+        /* The rows of the local day, which starts at the local midnight */
+        ForecastSnapshot day = hours.between(
+                WeatherAppDateUtils.getUtcStartOfLocalDate(mDateTime),
+                WeatherAppDateUtils.getUtcStartOfLocalDate(mDateTime + DateUtils.DAY_IN_MILLIS));
+        mTimelineAdapter.swapSnapshot(day);
+        mDetailBinding.timeline.getRoot().setVisibility(day.isEmpty() ? View.GONE : View.VISIBLE);
     }
 
     private void setupTransition() {
@@ -209,7 +264,8 @@ public class DetailActivity extends AppCompatActivity implements
     }
 
     /**
-     * Creates and returns a CursorLoader that loads the data for our URI and stores it in a Cursor.
+     * Creates and returns a Loader that reads the days and the 3-hourly rows of the active
+     * location through ForecastCache.
      *
      * @param loaderId The loader ID for which we need to create a loader
      * @param loaderArgs Any arguments supplied by the caller
@@ -218,18 +274,14 @@ public class DetailActivity extends AppCompatActivity implements
      */
     @NonNull
     @Override
-    public Loader<Cursor> onCreateLoader(int loaderId, Bundle loaderArgs) {
+    public Loader<Pair<ForecastSnapshot, ForecastSnapshot>> onCreateLoader(int loaderId,
+                                                                           Bundle loaderArgs) {
 
         switch (loaderId) {
 
             case ID_DETAIL_LOADER:
 
-                return new CursorLoader(this,
-                        mUri,
-                        WEATHER_DETAIL_PROJECTION,
-                        null,
-                        null,
-                        null);
+                return new DetailLoader(this);
 
             default:
                 throw new RuntimeException("Loader Not Implemented: " + loaderId);
@@ -243,38 +295,41 @@ public class DetailActivity extends AppCompatActivity implements
      * the data to our views so the user can see the details of the weather on the date they
      * selected from the forecast.
      *
-     * @param loader The cursor loader that finished.
-     * @param data   The cursor that is being returned.
+     * @param loader The loader that finished.
+     * @param data   The days and the 3-hourly rows of the active location.
      */
     @Override
-    public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor data) {
+    public void onLoadFinished(@NonNull Loader<Pair<ForecastSnapshot, ForecastSnapshot>> loader,
+                               Pair<ForecastSnapshot, ForecastSnapshot> data) {
 
         /*
-         * Before we bind the data to the UI that will display that data, we need to check the
-         * cursor to make sure we have the results that we are expecting. In order to do that, we
-         * check to make sure the cursor is not null and then we call moveToFirst on the cursor.
-         * Although it may not seem obvious at first, moveToFirst will return true if it contains
-         * a valid first row of data.
-         *
-         * If we have valid data, we want to continue on to bind that data to the UI. If we don't
-         * have any data to bind, we just return from this method.
+         * Before we bind the data to the UI that will display that data, we need to check that
+         * the forecast has the day we are expecting. If we don't have any data to bind, we just
+         * return from this method.
          */
-        boolean cursorHasValidData = false;
-        if (data != null && data.moveToFirst()) {
-            /* We have valid data, continue on to bind the data to the UI */
-            cursorHasValidData = true;
-        }
-
-        if (!cursorHasValidData) {
+        int index = data.first.indexOfDateTime(mDateTime);
+        if (index < 0) {
             /* No data to display, simply return and do nothing */
             return;
         }
 
+        bindWeather(data.first, index);
+        bindTimeline(data.second);
+    }
+
+    /**
+     * Binds the summary of one day to the views of this Activity.
+     *
+     * @param snapshot The days of the forecast
+     * @param i        The row of the day to display
+     */
+    private void bindWeather(ForecastSnapshot snapshot, int i) {
+
         /* ***************
          * Weather Icon *
          ****************/
-        /* Read weather condition ID from the cursor (ID provided by Open Weather Map) */
-        int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
+        /* Read weather condition ID from the snapshot (ID provided by Open Weather Map) */
+        int weatherId = snapshot.getWeatherId(i);
         /* Use our utility method to determine the resource ID for the proper art */
         int weatherImageId = WeatherUtils.getLargeArtResourceIdForWeatherCondition(weatherId);
 
@@ -285,16 +340,16 @@ public class DetailActivity extends AppCompatActivity implements
          * Weather Date *
          ****************/
         /*
-         * Read the date from the cursor. It is important to note that the date from the cursor
+         * Read the date from the snapshot. It is important to note that the date from the snapshot
          * is the same date from the weather SQL table. The date that is stored is a GMT
          * representation at midnight of the date when the weather information was loaded for.
          *
          * When displaying this date, one must add the GMT offset (in milliseconds) to acquire
          * the date representation for the local date in local time.
-         * WeatherAppDateUtils#getFriendlyDateTimeString takes care of this for us.
+         * WeatherAppDateUtils#getFriendlyDateString takes care of this for us.
          */
-        long localDateMidnightGmt = data.getLong(INDEX_WEATHER_DATE);
-        String dateText = WeatherAppDateUtils.getFriendlyDateTimeString(this, localDateMidnightGmt, true);
+        long localDateMidnightGmt = snapshot.getDateTime(i);
+        String dateText = WeatherAppDateUtils.getFriendlyDateString(this, localDateMidnightGmt, true);
 
         mDetailBinding.primaryInfo.date.setText(dateText);
 
@@ -317,8 +372,8 @@ public class DetailActivity extends AppCompatActivity implements
         /* *************************
          * High (max) temperature *
          **************************/
-        /* Read high temperature from the cursor (in degrees celsius) */
-        double highInCelsius = data.getDouble(INDEX_WEATHER_MAX_TEMP);
+        /* Read high temperature from the snapshot (in degrees celsius) */
+        double highInCelsius = snapshot.getMaxTemp(i);
         /*
          * If the user's preference for weather is fahrenheit, formatTemperature will convert
          * the temperature. This method will also append either °C or °F to the temperature
@@ -336,8 +391,8 @@ public class DetailActivity extends AppCompatActivity implements
         /* ************************
          * Low (min) temperature *
          *************************/
-        /* Read low temperature from the cursor (in degrees celsius) */
-        double lowInCelsius = data.getDouble(INDEX_WEATHER_MIN_TEMP);
+        /* Read low temperature from the snapshot (in degrees celsius) */
+        double lowInCelsius = snapshot.getMinTemp(i);
         /*
          * If the user's preference for weather is fahrenheit, formatTemperature will convert
          * the temperature. This method will also append either °C or °F to the temperature
@@ -354,8 +409,8 @@ public class DetailActivity extends AppCompatActivity implements
         /* ***********
          * Humidity *
          ************/
-        /* Read humidity from the cursor */
-        float humidity = data.getFloat(INDEX_WEATHER_HUMIDITY);
+        /* Read humidity from the snapshot */
+        float humidity = snapshot.getHumidity(i);
         String humidityString = getString(R.string.format_humidity, humidity);
 
         String humidityA11y = getString(R.string.a11y_humidity, humidityString);
@@ -369,9 +424,9 @@ public class DetailActivity extends AppCompatActivity implements
         /* ***************************
          * Wind speed and direction *
          ****************************/
-        /* Read wind speed (in MPH) and direction (in compass degrees) from the cursor  */
-        float windSpeed = data.getFloat(INDEX_WEATHER_WIND_SPEED);
-        float windDirection = data.getFloat(INDEX_WEATHER_DEGREES);
+        /* Read wind speed (in MPH) and direction (in compass degrees) from the snapshot */
+        float windSpeed = snapshot.getWindSpeed(i);
+        float windDirection = snapshot.getDegrees(i);
         String windString = WeatherUtils.getFormattedWind(this, windSpeed, windDirection);
 
         String windA11y = getString(R.string.a11y_wind, windString);
@@ -385,8 +440,8 @@ public class DetailActivity extends AppCompatActivity implements
         /* ***********
          * Pressure *
          ************/
-        /* Read pressure from the cursor */
-        float pressure = data.getFloat(INDEX_WEATHER_PRESSURE);
+        /* Read pressure from the snapshot */
+        float pressure = snapshot.getPressure(i);
 
         /*
          * Format the pressure text using string resources. The reason we directly access
@@ -413,11 +468,47 @@ public class DetailActivity extends AppCompatActivity implements
     /**
      * Called when a previously created loader is being reset, thus making its data unavailable.
      * The application should at this point remove any references it has to the Loader's data.
-     * Since we don't store any of this cursor's data, there are no references we need to remove.
+     * Since we don't store any of this forecast, there are no references we need to remove.
      *
      * @param loader The Loader that is being reset.
      */
     @Override
-    public void onLoaderReset(@NonNull Loader<Cursor> loader) {
+    public void onLoaderReset(@NonNull Loader<Pair<ForecastSnapshot, ForecastSnapshot>> loader) {
+    }
+
+    /**
+     * Reads the days and the 3-hourly rows of the active location through
+     * {@link ForecastCache}, for when they weren't cached yet.
+     */
+    private static class DetailLoader
+            extends AsyncTaskLoader<Pair<ForecastSnapshot, ForecastSnapshot>> {
+
+        private Pair<ForecastSnapshot, ForecastSnapshot> mSnapshots;
+
+        DetailLoader(Context context) {
+            super(context);
+        }
+
+        @Override
+        public Pair<ForecastSnapshot, ForecastSnapshot> loadInBackground() {
+            long locationId = WeatherAppPreferences.getActiveLocationId(getContext());
+            return Pair.create(ForecastCache.getDays(getContext(), locationId),
+                    ForecastCache.get(getContext(), locationId));
+        }
+
+        @Override
+        public void deliverResult(Pair<ForecastSnapshot, ForecastSnapshot> snapshots) {
+            mSnapshots = snapshots;
+            super.deliverResult(snapshots);
+        }
+
+        @Override
+        protected void onStartLoading() {
+            if (mSnapshots != null) {
+                deliverResult(mSnapshots);
+            } else {
+                forceLoad();
+            }
+        }
     }
 }
\ No newline at end of file
@@ -16,8 +16,11 @@
 package tw.edu.tku.csie.weatherforecast;
 
 import android.content.Context;
-import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -25,18 +28,29 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import tw.edu.tku.csie.weatherforecast.utilities.WeatherAppDateUtils;
-import tw.edu.tku.csie.weatherforecast.utilities.WeatherUtils;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
- * {@link ForecastAdapter} exposes a list of weather forecasts
- * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * {@link ForecastAdapter} exposes a list of weather forecasts, formatted into
+ * {@link ForecastRow}s by {@link ForecastLoader}, to a
+ * {@link android.support.v7.widget.RecyclerView}.
  */
 class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
     private static final int VIEW_TYPE_TODAY = 0;
     private static final int VIEW_TYPE_FUTURE_DAY = 1;
 
+    /* Payload of a row of which only the temperatures changed, e.g. after a change of units */
+    @VisibleForTesting
+    static final Object PAYLOAD_TEMPERATURES = new Object();
+
+    /* Diffs are computed one at a time, off the main thread */
+    private static final Executor sDiffExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
     /* The context we use to utility methods, app resources and layout inflaters */
     private final Context mContext;
 
@@ -63,7 +77,11 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     private boolean mUseTodayLayout;
 
-    private Cursor mCursor;
+    /* Pre-formatted by ForecastLoader, never modified */
+    private List<ForecastRow> mRows;
+
+    /* Incremented by every swap, so that the diff of an outdated swap is dropped */
+    private int mGeneration;
 
     /**
      * Creates a ForecastAdapter.
@@ -130,12 +148,12 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public void onBindViewHolder(@NonNull ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
+        /* Everything is formatted by ForecastLoader, binding only assigns it to the views */
+        ForecastRow row = mRows.get(position);
 
         /* ***************
          * Weather Icon *
          ****************/
-        int weatherId = mCursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
         int weatherImageId;
 
         int viewType = getItemViewType(position);
@@ -143,13 +161,11 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         switch (viewType) {
 
             case VIEW_TYPE_TODAY:
-                weatherImageId = WeatherUtils
-                        .getLargeArtResourceIdForWeatherCondition(weatherId);
+                weatherImageId = row.largeIconResId;
                 break;
 
             case VIEW_TYPE_FUTURE_DAY:
-                weatherImageId = WeatherUtils
-                        .getSmallArtResourceIdForWeatherCondition(weatherId);
+                weatherImageId = row.smallIconResId;
                 break;
 
             default:
@@ -161,59 +177,55 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         /* ***************
          * Weather Date *
          ****************/
-         /* Read date from the cursor */
-        long dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE_TIME);
-         /* Get human readable string using our utility method */
-        String dateString = WeatherAppDateUtils.getFriendlyDateTimeString(mContext, dateInMillis, false);
-
-         /* Display friendly date string */
-        forecastAdapterViewHolder.dateView.setText(dateString);
+        forecastAdapterViewHolder.dateView.setText(row.dateText);
 
         /* **********************
          * Weather Description *
          ***********************/
-        String description = WeatherUtils.getStringForWeatherCondition(mContext, weatherId);
-         /* Create the accessibility (a11y) String from the weather description */
-        String descriptionA11y = mContext.getString(R.string.a11y_forecast, description);
-
          /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.descriptionView.setText(description);
-        forecastAdapterViewHolder.descriptionView.setContentDescription(descriptionA11y);
+        forecastAdapterViewHolder.descriptionView.setText(row.description);
+        forecastAdapterViewHolder.descriptionView.setContentDescription(row.descriptionA11y);
 
         /* *************************
          * High (max) temperature *
          **************************/
-         /* Read high temperature from the cursor (in degrees celsius) */
-        double highInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
-         /*
-          * If the user's preference for weather is fahrenheit, formatTemperature will convert
-          * the temperature. This method will also append either °C or °F to the temperature
-          * String.
-          */
-        String highString = WeatherUtils.formatTemperature(mContext, highInCelsius);
-         /* Create the accessibility (a11y) String from the weather description */
-        String highA11y = mContext.getString(R.string.a11y_high_temp, highString);
-
-         /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.highTempView.setText(highString);
-        forecastAdapterViewHolder.highTempView.setContentDescription(highA11y);
+        forecastAdapterViewHolder.highTempView.setText(row.highText);
+        forecastAdapterViewHolder.highTempView.setContentDescription(row.highA11y);
 
         /* ************************
          * Low (min) temperature *
          *************************/
-         /* Read low temperature from the cursor (in degrees celsius) */
-        double lowInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
-         /*
-          * If the user's preference for weather is fahrenheit, formatTemperature will convert
-          * the temperature. This method will also append either °C or °F to the temperature
-          * String.
-          */
-        String lowString = WeatherUtils.formatTemperature(mContext, lowInCelsius);
-        String lowA11y = mContext.getString(R.string.a11y_low_temp, lowString);
+        forecastAdapterViewHolder.lowTempView.setText(row.lowText);
+        forecastAdapterViewHolder.lowTempView.setContentDescription(row.lowA11y);
+    }
 
-         /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.lowTempView.setText(lowString);
-        forecastAdapterViewHolder.lowTempView.setContentDescription(lowA11y);
+    /**
+     * Binds only what changed when the row is rebound with {@link #PAYLOAD_TEMPERATURES}, and
+     * the whole row otherwise.
+     *
+     * @param forecastAdapterViewHolder The ViewHolder which should be updated
+     * @param position                  The position of the item within the adapter's data set
+     * @param payloads                  The payloads of the changes since the row was bound
+     */
+    @Override
+    public void onBindViewHolder(@NonNull ForecastAdapterViewHolder forecastAdapterViewHolder,
+                                 int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(forecastAdapterViewHolder, position);
+            return;
+        }
+        for (Object payload : payloads) {
+            if (payload != PAYLOAD_TEMPERATURES) {
+                onBindViewHolder(forecastAdapterViewHolder, position);
+                return;
+            }
+        }
+
+        ForecastRow row = mRows.get(position);
+        forecastAdapterViewHolder.highTempView.setText(row.highText);
+        forecastAdapterViewHolder.highTempView.setContentDescription(row.highA11y);
+        forecastAdapterViewHolder.lowTempView.setText(row.lowText);
+        forecastAdapterViewHolder.lowTempView.setContentDescription(row.lowA11y);
     }
 
     /**
@@ -224,8 +236,8 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public int getItemCount() {
-        if (null == mCursor) return 0;
-        return mCursor.getCount();
+        if (null == mRows) return 0;
+        return mRows.size();
     }
 
     /**
@@ -235,7 +247,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      * different layout for the "today" layout. The "today" layout is only shown in portrait mode
      * with the first item in the list.
      *
-     * @param position index within our RecyclerView and Cursor
+     * @param position index within our RecyclerView and list of rows
      * @return the view type (today or future day)
      */
     @Override
@@ -248,16 +260,110 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
     }
 
     /**
-     * Swaps the cursor used by the ForecastAdapter for its weather data. This method is called by
+     * Swaps the rows used by the ForecastAdapter for its weather data. This method is called by
      * MainActivity after a load has finished, as well as when the Loader responsible for loading
-     * the weather data is reset. When this method is called, we assume we have a completely new
-     * set of data, so we call notifyDataSetChanged to tell the RecyclerView to update.
+     * the weather data is reset.
+     * <p>
+     * Rows are matched by their date. The difference between the old and the new rows is computed
+     * on a background thread, then only the rows that were inserted, removed or changed are
+     * updated, so that the rest of the list is neither rebound nor laid out again.
      *
-     * @param newCursor the new cursor to use as ForecastAdapter's data source
+     * @param newRows the new rows to use as ForecastAdapter's data source
+     */
+    void swapRows(final List<ForecastRow> newRows) {
+        final int generation = ++mGeneration;
+        final List<ForecastRow> oldRows = mRows;
+
+        if (newRows == oldRows) {
+            return;
+        }
+        if (oldRows == null || newRows == null) {
+            /* Nothing to compare with */
+            mRows = newRows;
+            notifyDataSetChanged();
+            return;
+        }
+
+        final boolean useTodayLayout = mUseTodayLayout;
+        sDiffExecutor.execute(() -> {
+            final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                    new ForecastDiffCallback(oldRows, newRows, useTodayLayout));
+
+            mMainHandler.post(() -> {
+                if (generation != mGeneration) {
+                    /* Swapped again in the meantime, that swap takes over */
+                    return;
+                }
+                mRows = newRows;
+                diff.dispatchUpdatesTo(ForecastAdapter.this);
+            });
+        });
+    }
+
+    /**
+     * Compares two lists of rows for {@link #swapRows(List)}, rows with the same date being the
+     * same item.
+     * <p>
+     * With the "today" layout, the first row doesn't look like the others. A row that becomes
+     * the first row, or stops being it, is changed even if it displays the same forecast, so
+     * that it is bound again to the layout of its new position.
      */
-    void swapCursor(Cursor newCursor) {
-        mCursor = newCursor;
-        notifyDataSetChanged();
+    @VisibleForTesting
+    static class ForecastDiffCallback extends DiffUtil.Callback {
+
+        private final List<ForecastRow> mOldRows;
+        private final List<ForecastRow> mNewRows;
+        private final boolean mUseTodayLayout;
+
+        ForecastDiffCallback(List<ForecastRow> oldRows, List<ForecastRow> newRows,
+                             boolean useTodayLayout) {
+            mOldRows = oldRows;
+            mNewRows = newRows;
+            mUseTodayLayout = useTodayLayout;
+        }
+
+        private boolean changesViewType(int oldItemPosition, int newItemPosition) {
+            return mUseTodayLayout && (oldItemPosition == 0) != (newItemPosition == 0);
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldRows.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewRows.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldRows.get(oldItemPosition).dateTime
+                    == mNewRows.get(newItemPosition).dateTime;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            if (changesViewType(oldItemPosition, newItemPosition)) {
+                return false;
+            }
+            return mOldRows.get(oldItemPosition).hasSameContents(mNewRows.get(newItemPosition));
+        }
+
+        @Override
+        public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+            ForecastRow oldRow = mOldRows.get(oldItemPosition);
+            ForecastRow newRow = mNewRows.get(newItemPosition);
+
+            if (!changesViewType(oldItemPosition, newItemPosition)
+                    && oldRow.weatherId == newRow.weatherId
+                    && oldRow.dateText.equals(newRow.dateText)
+                    && oldRow.descriptionA11y.equals(newRow.descriptionA11y)) {
+                return PAYLOAD_TEMPERATURES;
+            }
+            /* Rebind the whole row */
+            return null;
+        }
     }
 
     /**
@@ -295,8 +401,8 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         @Override
         public void onClick(View view) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            long dateTimeInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE_TIME);
+            if (adapterPosition == RecyclerView.NO_POSITION) return;
+            long dateTimeInMillis = mRows.get(adapterPosition).dateTime;
             mClickHandler.onClick(view, dateTimeInMillis);
         }
     }
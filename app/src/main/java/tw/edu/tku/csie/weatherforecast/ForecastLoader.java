@@ -0,0 +1,99 @@
+package tw.edu.tku.csie.weatherforecast;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.AsyncTaskLoader;
+
+import java.util.List;
+import java.util.Locale;
+
+import tw.edu.tku.csie.weatherforecast.data.ForecastCache;
+import tw.edu.tku.csie.weatherforecast.data.ForecastSnapshot;
+import tw.edu.tku.csie.weatherforecast.data.WeatherAppContract;
+
+/**
+ * Loads the forecast from today onwards of the active location from {@link ForecastCache}, and
+ * formats it into {@link ForecastRow}s on the loader's background thread.
+ * <p>
+ * Like a CursorLoader, it loads again whenever the forecast changes. Unlike a CursorLoader, it
+ * holds no cursor, and only the formatted rows are delivered.
+ */
+class ForecastLoader extends AsyncTaskLoader<List<ForecastRow>> {
+
+    private final ContentObserver mObserver =
+            new ContentObserver(new Handler(Looper.getMainLooper())) {
+                @Override
+                public boolean deliverSelfNotifications() {
+                    return true;
+                }
+
+                @Override
+                public void onChange(boolean selfChange) {
+                    onContentChanged();
+                }
+            };
+
+    private List<ForecastRow> mRows;
+
+    /* The rows are formatted for this locale, they are loaded again if it changes */
+    private Locale mLocale;
+
+    ForecastLoader(Context context) {
+        super(context);
+    }
+
+    @Override
+    public List<ForecastRow> loadInBackground() {
+        /* Only the first load after a change reads the database, see ForecastCache */
+        ForecastSnapshot snapshot = ForecastCache.getActiveDaysTodayOnwards(getContext());
+        return ForecastRow.fromSnapshot(getContext(), snapshot);
+    }
+
+    @Override
+    public void deliverResult(List<ForecastRow> rows) {
+        if (isReset()) {
+            return;
+        }
+        mRows = rows;
+        if (isStarted()) {
+            super.deliverResult(rows);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mLocale == null) {
+            getContext().getContentResolver().registerContentObserver(
+                    WeatherAppContract.WeatherEntry.CONTENT_URI, true, mObserver);
+        }
+
+        Locale locale = getContext().getResources().getConfiguration().locale;
+        boolean localeChanged = !locale.equals(mLocale);
+        mLocale = locale;
+
+        if (mRows != null) {
+            deliverResult(mRows);
+        }
+        if (mRows == null || localeChanged || takeContentChanged()) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mLocale != null) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+        }
+        mRows = null;
+        mLocale = null;
+    }
+}
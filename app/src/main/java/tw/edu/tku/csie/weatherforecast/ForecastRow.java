@@ -0,0 +1,116 @@
+package tw.edu.tku.csie.weatherforecast;
+
+import android.content.Context;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import tw.edu.tku.csie.weatherforecast.data.ForecastSnapshot;
+import tw.edu.tku.csie.weatherforecast.utilities.WeatherAppDateUtils;
+import tw.edu.tku.csie.weatherforecast.utilities.WeatherUtils;
+
+/**
+ * One day of the forecast list, with every String and resource it displays already formatted.
+ * Rows are built by {@link ForecastLoader} on a background thread, so that
+ * {@link ForecastAdapter#onBindViewHolder} only has to assign them to its views.
+ * <p>
+ * Rows are immutable. The formatting depends on the unit preference and on the locale, so a new
+ * list of rows is loaded when either of them changes.
+ */
+final class ForecastRow {
+
+    /* Normalized UTC date of the day, identifies the row */
+    final long dateTime;
+
+    final int weatherId;
+
+    /* The large icon is used by the "today" layout, the small one by the other rows */
+    final int largeIconResId;
+    final int smallIconResId;
+
+    final String dateText;
+
+    final String description;
+    final String descriptionA11y;
+
+    final String highText;
+    final String highA11y;
+
+    final String lowText;
+    final String lowA11y;
+
+    private ForecastRow(Context context, long dateTime, int weatherId, double highInCelsius,
+                        double lowInCelsius) {
+        this.dateTime = dateTime;
+        this.weatherId = weatherId;
+
+        largeIconResId = WeatherUtils.getLargeArtResourceIdForWeatherCondition(weatherId);
+        smallIconResId = WeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherId);
+
+        dateText = WeatherAppDateUtils.getFriendlyDateString(context, dateTime, false);
+
+        description = WeatherUtils.getStringForWeatherCondition(context, weatherId);
+        descriptionA11y = context.getString(R.string.a11y_forecast, description);
+
+        /*
+         * If the user's preference for weather is fahrenheit, formatTemperature will convert
+         * the temperature. This method will also append either °C or °F to the temperature
+         * String.
+         */
+        highText = WeatherUtils.formatTemperature(context, highInCelsius);
+        highA11y = context.getString(R.string.a11y_high_temp, highText);
+
+        lowText = WeatherUtils.formatTemperature(context, lowInCelsius);
+        lowA11y = context.getString(R.string.a11y_low_temp, lowText);
+    }
+
+    /**
+     * Checks whether this row displays the same temperatures as another one.
+     *
+     * @param other Another row
+     * @return true if both the high and the low temperature read the same
+     */
+    boolean hasSameTemperatures(ForecastRow other) {
+        return highText.equals(other.highText)
+                && highA11y.equals(other.highA11y)
+                && lowText.equals(other.lowText)
+                && lowA11y.equals(other.lowA11y);
+    }
+
+    /**
+     * Checks whether this row displays the same forecast as another one, so that it doesn't have
+     * to be bound again.
+     *
+     * @param other Another row
+     * @return true if everything the rows display is the same
+     */
+    boolean hasSameContents(ForecastRow other) {
+        return weatherId == other.weatherId
+                && dateText.equals(other.dateText)
+                && TextUtils.equals(description, other.description)
+                && descriptionA11y.equals(other.descriptionA11y)
+                && hasSameTemperatures(other);
+    }
+
+    /**
+     * Formats every row of a snapshot. This reads the preferences and resources, so it should not
+     * be called on the main thread.
+     *
+     * @param context  Used to read the preferences and resources
+     * @param snapshot The days of the forecast
+     * @return An unmodifiable list of rows, in the order of the snapshot
+     */
+    static List<ForecastRow> fromSnapshot(Context context, ForecastSnapshot snapshot) {
+        List<ForecastRow> rows = new ArrayList<>(snapshot.size());
+        for (int i = 0; i < snapshot.size(); i++) {
+            rows.add(new ForecastRow(context,
+                    snapshot.getDateTime(i),
+                    snapshot.getWeatherId(i),
+                    snapshot.getMaxTemp(i),
+                    snapshot.getMinTemp(i)));
+        }
+        return Collections.unmodifiableList(rows);
+    }
+}
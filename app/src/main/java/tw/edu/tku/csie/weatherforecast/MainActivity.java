@@ -15,17 +15,20 @@
  */
 package tw.edu.tku.csie.weatherforecast;
 
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
+import android.content.IntentFilter;
 import android.databinding.DataBindingUtil;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityOptionsCompat;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
+import android.support.v4.content.LocalBroadcastManager;
 import android.support.v4.util.Pair;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.LinearLayoutManager;
@@ -35,44 +38,29 @@ import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.TextView;
 
+import java.util.List;
+
+import tw.edu.tku.csie.weatherforecast.data.ForecastSnapshot;
+import tw.edu.tku.csie.weatherforecast.data.LastForecastStore;
 import tw.edu.tku.csie.weatherforecast.data.WeatherAppContract;
 import tw.edu.tku.csie.weatherforecast.data.WeatherAppPreferences;
 import tw.edu.tku.csie.weatherforecast.databinding.ActivityForecastBinding;
+import tw.edu.tku.csie.weatherforecast.sync.SyncTask;
 import tw.edu.tku.csie.weatherforecast.sync.SyncUtils;
 import tw.edu.tku.csie.weatherforecast.transition.TransitionUtils;
 import tw.edu.tku.csie.weatherforecast.utilities.UpdateCurrentLocation;
 import tw.edu.tku.csie.weatherforecast.utilities.PermissionUtils;
+import tw.edu.tku.csie.weatherforecast.utilities.WeatherAppDateUtils;
 
 public class MainActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor>,
+        LoaderManager.LoaderCallbacks<List<ForecastRow>>,
         ForecastAdapter.ForecastAdapterOnClickHandler {
 
     private final String TAG = MainActivity.class.getSimpleName();
 
-    /*
-     * The columns of data that we are interested in displaying within our MainActivity's list of
-     * weather data.
-     */
-    public static final String[] MAIN_FORECAST_PROJECTION = {
-            WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME,
-            WeatherAppContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherAppContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherAppContract.WeatherEntry.COLUMN_WEATHER_ID,
-    };
-
-    /*
-     * We store the indices of the values in the array of Strings above to more quickly be able to
-     * access the data from our query. If the order of the Strings above changes, these indices
-     * must be adjusted to match the order of the Strings.
-     */
-    public static final int INDEX_WEATHER_DATE_TIME = 0;
-    public static final int INDEX_WEATHER_MAX_TEMP = 1;
-    public static final int INDEX_WEATHER_MIN_TEMP = 2;
-    public static final int INDEX_WEATHER_CONDITION_ID = 3;
-
-
     /*
      * This ID will be used to identify the Loader responsible for loading our weather forecast. In
      * some cases, one Activity can deal with many Loaders. However, in our case, there is only one.
@@ -87,9 +75,26 @@ public class MainActivity extends AppCompatActivity implements
 
     private ActivityForecastBinding mBinding;
 
+    /* For the time to the first frame and to the data of the provider, logged once each */
+    private final long mCreatedAtMillis = SystemClock.elapsedRealtime();
+    private boolean mLiveDataShown = false;
+
+    /*
+     * A sync that finds the forecast unchanged doesn't notify the loader, so the swipe-to-refresh
+     * indicator is also stopped when the sync reports that it is over.
+     */
+    private final BroadcastReceiver mSyncFinishedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mBinding.weatherForecastSwipeRefresh.setRefreshing(false);
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        /* Parses the preferences while the layout is being inflated */
+        WeatherAppPreferences.preload(this);
         mBinding = DataBindingUtil.setContentView(this, R.layout.activity_forecast);
         getSupportActionBar().setElevation(0f);
 
@@ -137,7 +142,11 @@ public class MainActivity extends AppCompatActivity implements
         mBinding.weatherForecastSwipeRefresh.setOnRefreshListener(this::refresh);
 
 
-        showLoading();
+        /*
+         * The forecast saved by the last sync is displayed right away, the loader replaces it
+         * once the provider has been queried.
+         */
+        if (!showLastForecast()) showLoading();
 
         /*
          * Ensures a loader is initialized and active. If the loader doesn't already exist, one is
@@ -147,9 +156,46 @@ public class MainActivity extends AppCompatActivity implements
         getSupportLoaderManager().initLoader(ID_FORECAST_LOADER, null, this);
         loaderCallbackAfterOnCreate = true;
 
-        SyncUtils.initialize(this);
+        /*
+         * Scheduling the sync and requesting the location are not needed for the first frame, so
+         * they wait until it is about to be drawn.
+         */
+        final View content = mBinding.getRoot();
+        content.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        content.getViewTreeObserver().removeOnPreDrawListener(this);
+                        Log.i(TAG, "First frame after "
+                                + (SystemClock.elapsedRealtime() - mCreatedAtMillis) + " ms");
+                        content.post(() -> {
+                            if (isFinishing()) return;
+                            SyncUtils.initialize(MainActivity.this);
+                            updateLocation();
+                        });
+                        return true;
+                    }
+                });
+    }
+
+    /**
+     * Displays the forecast saved by the last sync, if it is the forecast of the active location.
+     *
+     * @return Whether a forecast was displayed
+     */
+    private boolean showLastForecast() {
+        ForecastSnapshot snapshot = LastForecastStore.load(this);
+        if (snapshot == null
+                || snapshot.getLocationId() != WeatherAppPreferences.getActiveLocationId(this)) {
+            return false;
+        }
+        snapshot = snapshot.since(
+                WeatherAppDateUtils.normalizeLocalDate(System.currentTimeMillis()));
+        if (snapshot.isEmpty()) return false;
 
-        updateLocation();
+        mForecastAdapter.swapRows(ForecastRow.fromSnapshot(this, snapshot));
+        showWeatherDataView();
+        return true;
     }
 
     private boolean loaderPreventCallbackAfterOnStart = false;
@@ -164,6 +210,14 @@ public class MainActivity extends AppCompatActivity implements
             loaderPreventCallbackAfterOnStart = true;
         }
         super.onStart();
+        LocalBroadcastManager.getInstance(this).registerReceiver(mSyncFinishedReceiver,
+                new IntentFilter(SyncTask.ACTION_SYNC_FINISHED));
+    }
+
+    @Override
+    protected void onStop() {
+        LocalBroadcastManager.getInstance(this).unregisterReceiver(mSyncFinishedReceiver);
+        super.onStop();
     }
 
     private void updateLocation() {
@@ -213,28 +267,16 @@ public class MainActivity extends AppCompatActivity implements
      */
     @NonNull
     @Override
-    public Loader<Cursor> onCreateLoader(int loaderId, Bundle bundle) {
+    public Loader<List<ForecastRow>> onCreateLoader(int loaderId, Bundle bundle) {
 
         switch (loaderId) {
 
             case ID_FORECAST_LOADER:
-                /* URI for all rows of weather data in our weather table */
-                Uri forecastQueryUri = WeatherAppContract.WeatherEntry.CONTENT_URI;
-                /* Sort order: Ascending by date */
-                String sortOrder = WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME + " ASC";
                 /*
-                 * A SELECTION in SQL declares which rows you'd like to return. In our case, we
-                 * want all weather data from today onwards that is stored in our weather table.
-                 * We created a handy method to do that in our WeatherEntry class.
+                 * Queries all weather data from today onwards of the active location, and
+                 * formats it for the list in the background.
                  */
-                String selection = WeatherAppContract.WeatherEntry.getSqlSelectForTodayOnwards();
-
-                return new CursorLoader(this,
-                        forecastQueryUri,
-                        MAIN_FORECAST_PROJECTION,
-                        selection,
-                        null,
-                        sortOrder);
+                return new ForecastLoader(this);
 
             default:
                 throw new RuntimeException("Loader Not Implemented: " + loaderId);
@@ -253,14 +295,20 @@ public class MainActivity extends AppCompatActivity implements
      * @param data   The data generated by the Loader.
      */
     @Override
-    public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor data) {
+    public void onLoadFinished(@NonNull Loader<List<ForecastRow>> loader, List<ForecastRow> data) {
         if (loaderPreventCallbackAfterOnStart) {
             loaderPreventCallbackAfterOnStart = false;
         } else {
-            mForecastAdapter.swapCursor(data);
+            if (!mLiveDataShown) {
+                mLiveDataShown = true;
+                Log.i(TAG, "Live data after "
+                        + (SystemClock.elapsedRealtime() - mCreatedAtMillis) + " ms");
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) reportFullyDrawn();
+            }
+            mForecastAdapter.swapRows(data);
             if (mPosition == RecyclerView.NO_POSITION) mPosition = 0;
             mBinding.recyclerviewForecast.smoothScrollToPosition(mPosition);
-            if (data.getCount() != 0) showWeatherDataView();
+            if (data != null && !data.isEmpty()) showWeatherDataView();
             mBinding.weatherForecastSwipeRefresh.setRefreshing(false);
         }
     }
@@ -272,24 +320,24 @@ public class MainActivity extends AppCompatActivity implements
      * @param loader The Loader that is being reset.
      */
     @Override
-    public void onLoaderReset(@NonNull Loader<Cursor> loader) {
+    public void onLoaderReset(@NonNull Loader<List<ForecastRow>> loader) {
         /*
          * Since this Loader's data is now invalid, we need to clear the Adapter that is
          * displaying the data.
          */
-        mForecastAdapter.swapCursor(null);
+        mForecastAdapter.swapRows(null);
     }
 
     /**
      * This method is for responding to clicks from our list.
      *
      * @param date Normalized UTC time that represents the local date of the weather in GMT time.
-     * @see WeatherAppContract.WeatherEntry#COLUMN_DATE_TIME
+     * @see WeatherAppContract.DayEntry#COLUMN_DATE_TIME
      */
     @Override
     public void onClick(View view, long date) {
         Intent weatherDetailIntent = new Intent(MainActivity.this, DetailActivity.class);
-        Uri uriForDateClicked = WeatherAppContract.WeatherEntry.buildWeatherUriWithDate(date);
+        Uri uriForDateClicked = WeatherAppContract.DayEntry.buildDayUriWithDate(date);
         weatherDetailIntent.setData(uriForDateClicked);
 
         /* add transition animation */
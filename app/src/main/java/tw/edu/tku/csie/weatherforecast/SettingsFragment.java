@@ -25,12 +25,17 @@ import android.support.v7.preference.Preference;
 import android.support.v7.preference.PreferenceFragmentCompat;
 import android.support.v7.preference.PreferenceScreen;
 
+import tw.edu.tku.csie.weatherforecast.data.LocationState;
+import tw.edu.tku.csie.weatherforecast.data.LocationStore;
 import tw.edu.tku.csie.weatherforecast.data.WeatherAppContract;
+import tw.edu.tku.csie.weatherforecast.data.WeatherAppPreferences;
+import tw.edu.tku.csie.weatherforecast.data.WeatherSettings;
 import tw.edu.tku.csie.weatherforecast.sync.SyncUtils;
 import tw.edu.tku.csie.weatherforecast.sync.UpdateCityNameByLatitudeAndLongitude;
 import tw.edu.tku.csie.weatherforecast.sync.UpdateLocalizedAndEnglishCityName;
 import tw.edu.tku.csie.weatherforecast.utilities.UpdateCurrentLocation;
 import tw.edu.tku.csie.weatherforecast.utilities.PermissionUtils;
+import tw.edu.tku.csie.weatherforecast.widget.TodayWidgetProvider;
 
 /**
  * The SettingsFragment serves as the display for all of the user's settings. In Sunshine, the
@@ -42,7 +47,7 @@ import tw.edu.tku.csie.weatherforecast.utilities.PermissionUtils;
  * Mountain View, California.
  */
 public class SettingsFragment extends PreferenceFragmentCompat implements
-        SharedPreferences.OnSharedPreferenceChangeListener {
+        WeatherAppPreferences.OnSettingsChangedListener, LocationStore.OnLocationChangedListener {
 
     private Activity mSettingActivity;
     private SharedPreferences mSharedPreferences;
@@ -112,7 +117,7 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
         if (mSharedPreferences.getBoolean(getString(R.string.pref_use_current_location_key),
                 getResources().getBoolean(R.bool.pref_use_current_location_by_default))) {
             mCheckBoxUseCurrentLocationPreference.setSummary(
-                    mSharedPreferences.getString(getString(R.string.pref_current_city_key), ""));
+                    WeatherAppPreferences.getCurrentCity(mSettingActivity));
         }
 
         updateEditTextLocationTextAndSummary();
@@ -125,20 +130,22 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
     public void onStop() {
         super.onStop();
         // unregister the preference change listener
-        getPreferenceScreen().getSharedPreferences()
-                .unregisterOnSharedPreferenceChangeListener(this);
+        WeatherAppPreferences.unregisterListener(this);
+        LocationStore.unregisterListener(this);
     }
 
     @Override
     public void onStart() {
         super.onStart();
-        // register the preference change listener
-        getPreferenceScreen().getSharedPreferences()
-                .registerOnSharedPreferenceChangeListener(this);
+        // register the preference change listener, through WeatherAppPreferences so that the
+        // settings the rest of the app reads are up to date before the change is reacted to
+        WeatherAppPreferences.registerListener(mSettingActivity, this);
+        LocationStore.registerListener(this);
     }
 
     @Override
-    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+    public void onSettingsChanged(WeatherSettings settings, String key) {
+        SharedPreferences sharedPreferences = mSharedPreferences;
 
         if (key.equals(getString(R.string.pref_user_input_location_key))) {
             // if user enter a new location
@@ -159,19 +166,18 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
         } else if (key.equals(getString(R.string.pref_units_key))) {
             // units have changed. update lists of weather entries accordingly
             mSettingActivity.getContentResolver().notifyChange(WeatherAppContract.WeatherEntry.CONTENT_URI, null);
+            // the widget holds the temperatures in both units, it only has to pick the others
+            TodayWidgetProvider.updateAll(mSettingActivity);
             setSummaryByStringValue(sharedPreferences, key);
         } else if (key.equals(getString(R.string.pref_use_current_location_key))) {
 
-            boolean value = sharedPreferences.getBoolean(key,
-                    getResources().getBoolean(R.bool.pref_use_current_location_by_default));
+            boolean value = settings.isUseCurrentLocation();
 
             if (value) {
                 // check permission
                 if (PermissionUtils.checkAccessFineLocationPermission(mSettingActivity)) {
                     // if permission granted
-                    SharedPreferences.Editor editor = sharedPreferences.edit();
-                    editor.remove(getString(R.string.pref_current_city_key));
-                    editor.apply();
+                    WeatherAppPreferences.resetCurrentCity(mSettingActivity);
                     UpdateCurrentLocation.updateCurrentLocation(mSettingActivity);
                     UpdateCityNameByLatitudeAndLongitude.startUpdate(mSettingActivity);
                 } else {
@@ -180,7 +186,7 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
                 }
             } else {
                 // update weather data
-                SyncUtils.startImmediateSync(mSettingActivity);
+                SyncUtils.startSyncAfterLocationChange(mSettingActivity);
             }
 
             // if decided to use current location, then make the EditText unavailable
@@ -188,14 +194,20 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
             // if the permission request was denied, then uncheck the checkbox
             mCheckBoxUseCurrentLocationPreference.setChecked(value);
 
-        } else if (key.equals(getString(R.string.pref_current_city_key))) {
-            // if the name of the current city was updated
-            mCheckBoxUseCurrentLocationPreference.setSummary(
-                    sharedPreferences.getString(getResources().getString(R.string.pref_current_city_key), ""));
+        } else if (key.equals(getString(R.string.pref_sync_unmetered_only_key))
+                || key.equals(getString(R.string.pref_sync_charging_only_key))) {
+            // the constraints of the periodic sync changed
+            SyncUtils.scheduleSync(mSettingActivity);
         }
 
     }
 
+    @Override
+    public void onLocationChanged(LocationState state) {
+        // if the name of the current city was updated
+        mCheckBoxUseCurrentLocationPreference.setSummary(state.getCurrentCity());
+    }
+
     private void setSummaryByStringValue(SharedPreferences sharedPreferences, String key) {
         setPreferenceSummary(findPreference(key), sharedPreferences.getString(key, ""));
     }
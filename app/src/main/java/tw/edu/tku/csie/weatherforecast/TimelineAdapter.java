@@ -0,0 +1,109 @@
+package tw.edu.tku.csie.weatherforecast;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.text.format.DateUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import tw.edu.tku.csie.weatherforecast.data.ForecastSnapshot;
+import tw.edu.tku.csie.weatherforecast.utilities.WeatherUtils;
+
+/**
+ * {@link TimelineAdapter} exposes the 3-hourly rows of one day, straight from a
+ * {@link ForecastSnapshot}, to the horizontal timeline of {@link DetailActivity}. There are at
+ * most eight of them, so they are formatted as they are bound.
+ */
+class TimelineAdapter extends RecyclerView.Adapter<TimelineAdapter.TimelineAdapterViewHolder> {
+
+    private final Context mContext;
+
+    private ForecastSnapshot mSnapshot = ForecastSnapshot.EMPTY;
+
+    TimelineAdapter(@NonNull Context context) {
+        mContext = context;
+    }
+
+    @NonNull
+    @Override
+    public TimelineAdapterViewHolder onCreateViewHolder(@NonNull ViewGroup viewGroup,
+                                                        int viewType) {
+        View view = LayoutInflater.from(mContext)
+                .inflate(R.layout.timeline_list_item, viewGroup, false);
+        return new TimelineAdapterViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull TimelineAdapterViewHolder holder, int position) {
+        int weatherId = mSnapshot.getWeatherId(position);
+
+        String timeText = DateUtils.formatDateTime(mContext, mSnapshot.getDateTime(position),
+                DateUtils.FORMAT_SHOW_TIME);
+        holder.timeView.setText(timeText);
+
+        holder.iconView.setImageResource(
+                WeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherId));
+
+        /* The high of a 3-hour step, the low is within a degree of it */
+        String temperatureText =
+                WeatherUtils.formatTemperature(mContext, mSnapshot.getMaxTemp(position));
+        holder.temperatureView.setText(temperatureText);
+
+        String description = WeatherUtils.getStringForWeatherCondition(mContext, weatherId);
+        String a11y = mContext.getString(R.string.a11y_timeline_step,
+                timeText, description, temperatureText);
+
+        /* Only shown when it rains or snows */
+        float precipitation = mSnapshot.getPrecipitation(position);
+        if (precipitation > 0) {
+            String precipitationText =
+                    mContext.getString(R.string.format_precipitation, precipitation);
+            holder.precipitationView.setText(precipitationText);
+            holder.precipitationView.setVisibility(View.VISIBLE);
+            a11y += ", " + mContext.getString(R.string.a11y_precipitation, precipitationText);
+        } else {
+            holder.precipitationView.setVisibility(View.INVISIBLE);
+        }
+
+        holder.itemView.setContentDescription(a11y);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mSnapshot.size();
+    }
+
+    /**
+     * Displays the rows of another day.
+     *
+     * @param snapshot The 3-hourly rows of the day, sorted by time
+     */
+    void swapSnapshot(@NonNull ForecastSnapshot snapshot) {
+        mSnapshot = snapshot;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * A ViewHolder is a required part of the pattern for RecyclerViews. It mostly behaves as
+     * a cache of the child views for a forecast item.
+     */
+    static class TimelineAdapterViewHolder extends RecyclerView.ViewHolder {
+        final TextView timeView;
+        final ImageView iconView;
+        final TextView temperatureView;
+        final TextView precipitationView;
+
+        TimelineAdapterViewHolder(View view) {
+            super(view);
+
+            timeView = view.findViewById(R.id.time);
+            iconView = view.findViewById(R.id.weather_icon);
+            temperatureView = view.findViewById(R.id.temperature);
+            precipitationView = view.findViewById(R.id.precipitation);
+        }
+    }
+}
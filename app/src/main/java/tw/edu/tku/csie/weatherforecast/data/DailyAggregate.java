@@ -0,0 +1,98 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+import android.util.SparseIntArray;
+
+/**
+ * The aggregate of the 3-hourly rows of one day: the lowest and highest temperatures, the average
+ * humidity, pressure and wind speed, the average wind direction, the total precipitation and the
+ * most frequent weather condition. Shared by {@link DayAggregator}, which summarizes the forecast,
+ * and {@link HistoryCompactor}, which summarizes the history.
+ */
+final class DailyAggregate {
+
+    private final long mDay;
+
+    private double mMinTemp = Double.MAX_VALUE;
+    private double mMaxTemp = -Double.MAX_VALUE;
+    private double mHumiditySum;
+    private double mPressureSum;
+    private double mWindSpeedSum;
+    /* Directions are averaged as vectors, so that 350° and 10° average to 0°, not 180° */
+    private double mDegreesSin;
+    private double mDegreesCos;
+    private double mPrecipitation;
+    private final SparseIntArray mWeatherIdCounts = new SparseIntArray();
+    private int mCount;
+
+    /**
+     * @param day The normalized UTC date of the rows
+     */
+    DailyAggregate(long day) {
+        mDay = day;
+    }
+
+    /**
+     * Adds one row of the day.
+     */
+    void add(int weatherId, double minTemp, double maxTemp, double humidity, double pressure,
+             double windSpeed, double degrees, double precipitation) {
+        mMinTemp = Math.min(mMinTemp, minTemp);
+        mMaxTemp = Math.max(mMaxTemp, maxTemp);
+        mHumiditySum += humidity;
+        mPressureSum += pressure;
+        mWindSpeedSum += windSpeed;
+        double radians = Math.toRadians(degrees);
+        mDegreesSin += Math.sin(radians);
+        mDegreesCos += Math.cos(radians);
+        mPrecipitation += precipitation;
+        mWeatherIdCounts.put(weatherId, mWeatherIdCounts.get(weatherId) + 1);
+        mCount++;
+    }
+
+    long getDay() {
+        return mDay;
+    }
+
+    /**
+     * Returns the most frequent condition. Ties go to the lowest id, which OpenWeatherMap gives to
+     * the more severe conditions (2xx thunderstorm, 5xx rain, 8xx clouds).
+     */
+    int getWeatherId() {
+        int weatherId = mWeatherIdCounts.keyAt(0);
+        for (int i = 1; i < mWeatherIdCounts.size(); i++) {
+            if (mWeatherIdCounts.valueAt(i) > mWeatherIdCounts.get(weatherId)) {
+                weatherId = mWeatherIdCounts.keyAt(i);
+            }
+        }
+        return weatherId;
+    }
+
+    double getMinTemp() {
+        return mMinTemp;
+    }
+
+    double getMaxTemp() {
+        return mMaxTemp;
+    }
+
+    double getHumidity() {
+        return mHumiditySum / mCount;
+    }
+
+    double getPressure() {
+        return mPressureSum / mCount;
+    }
+
+    double getWindSpeed() {
+        return mWindSpeedSum / mCount;
+    }
+
+    double getDegrees() {
+        double degrees = Math.toDegrees(Math.atan2(mDegreesSin, mDegreesCos));
+        return degrees < 0 ? degrees + 360 : degrees;
+    }
+
+    double getPrecipitation() {
+        return mPrecipitation;
+    }
+}
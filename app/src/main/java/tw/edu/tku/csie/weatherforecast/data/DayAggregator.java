@@ -0,0 +1,151 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import tw.edu.tku.csie.weatherforecast.data.WeatherAppContract.DayEntry;
+import tw.edu.tku.csie.weatherforecast.data.WeatherAppContract.WeatherEntry;
+import tw.edu.tku.csie.weatherforecast.utilities.WeatherAppDateUtils;
+
+/**
+ * Summarizes the 3-hourly forecast of a location into one row per day of the day table, see
+ * {@link DayEntry}. {@link WeatherProvider} runs it in the transaction of every write of the
+ * forecast, so the days are always those of the forecast, and the list reads five or six rows
+ * without any aggregation.
+ * <p>
+ * A location's days are replaced as a whole: there are only 40 rows in a forecast, and days that
+ * fell out of it must go as well.
+ */
+final class DayAggregator {
+
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_DATE_TIME,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            WeatherEntry.COLUMN_PRECIPITATION
+    };
+
+    private static final int INDEX_DATE_TIME = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_MIN_TEMP = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_HUMIDITY = 4;
+    private static final int INDEX_PRESSURE = 5;
+    private static final int INDEX_WIND_SPEED = 6;
+    private static final int INDEX_DEGREES = 7;
+    private static final int INDEX_PRECIPITATION = 8;
+
+    private static final String SELECTION_LOCATION_ID = WeatherEntry.COLUMN_LOCATION_ID + " = ?";
+
+    private static final String SQL_INSERT_DAY =
+            "INSERT INTO " + DayEntry.TABLE_NAME + " ("
+                    + DayEntry.COLUMN_LOCATION_ID + ", "
+                    + DayEntry.COLUMN_DATE_TIME + ", "
+                    + DayEntry.COLUMN_WEATHER_ID + ", "
+                    + DayEntry.COLUMN_MIN_TEMP + ", "
+                    + DayEntry.COLUMN_MAX_TEMP + ", "
+                    + DayEntry.COLUMN_HUMIDITY + ", "
+                    + DayEntry.COLUMN_PRESSURE + ", "
+                    + DayEntry.COLUMN_WIND_SPEED + ", "
+                    + DayEntry.COLUMN_DEGREES + ", "
+                    + DayEntry.COLUMN_PRECIPITATION + ")"
+                    + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private DayAggregator() {
+    }
+
+    /**
+     * Replaces the days of a location with the summary of its forecast.
+     *
+     * @param db         The writable database
+     * @param locationId The _ID of the location
+     * @return The number of days written
+     */
+    static int aggregate(SQLiteDatabase db, long locationId) {
+        String[] args = {Long.toString(locationId)};
+        int daysWritten = 0;
+
+        db.beginTransaction();
+        try {
+            db.delete(DayEntry.TABLE_NAME, SELECTION_LOCATION_ID, args);
+
+            /* In the order of the covering index of the weather table, a day after the other */
+            Cursor cursor = db.query(WeatherEntry.TABLE_NAME, COLUMNS, SELECTION_LOCATION_ID,
+                    args, null, null, WeatherEntry.COLUMN_DATE_TIME);
+            SQLiteStatement insert = db.compileStatement(SQL_INSERT_DAY);
+            try {
+                insert.bindLong(1, locationId);
+                DailyAggregate day = null;
+                while (cursor.moveToNext()) {
+                    /* Grouped by the day of the user's calendar, not by the UTC day */
+                    long rowDay = WeatherAppDateUtils.normalizeLocalDate(
+                            cursor.getLong(INDEX_DATE_TIME));
+                    if (day == null || day.getDay() != rowDay) {
+                        if (day != null && insertDay(insert, day) != -1) daysWritten++;
+                        day = new DailyAggregate(rowDay);
+                    }
+                    day.add(cursor.getInt(INDEX_WEATHER_ID),
+                            cursor.getDouble(INDEX_MIN_TEMP),
+                            cursor.getDouble(INDEX_MAX_TEMP),
+                            cursor.getDouble(INDEX_HUMIDITY),
+                            cursor.getDouble(INDEX_PRESSURE),
+                            cursor.getDouble(INDEX_WIND_SPEED),
+                            cursor.getDouble(INDEX_DEGREES),
+                            cursor.getDouble(INDEX_PRECIPITATION));
+                }
+                if (day != null && insertDay(insert, day) != -1) daysWritten++;
+            } finally {
+                cursor.close();
+                insert.close();
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return daysWritten;
+    }
+
+    /**
+     * Replaces the days of every location, e.g. once the database has been upgraded.
+     *
+     * @param db The writable database
+     */
+    static void aggregateAll(SQLiteDatabase db) {
+        Cursor cursor = db.query(WeatherAppContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherAppContract.LocationEntry._ID},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                aggregate(db, cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Inserts a day with SQL_INSERT_DAY, whose location is already bound.
+     *
+     * @return The _ID of the row, -1 if it could not be inserted
+     */
+    private static long insertDay(SQLiteStatement insert, DailyAggregate day) {
+        insert.bindLong(2, day.getDay());
+        insert.bindLong(3, day.getWeatherId());
+        insert.bindDouble(4, day.getMinTemp());
+        insert.bindDouble(5, day.getMaxTemp());
+        insert.bindDouble(6, day.getHumidity());
+        insert.bindDouble(7, day.getPressure());
+        insert.bindDouble(8, day.getWindSpeed());
+        insert.bindDouble(9, day.getDegrees());
+        insert.bindDouble(10, day.getPrecipitation());
+        return insert.executeInsert();
+    }
+}
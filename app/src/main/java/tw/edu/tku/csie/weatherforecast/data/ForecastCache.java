@@ -0,0 +1,206 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+import android.util.LongSparseArray;
+
+import tw.edu.tku.csie.weatherforecast.utilities.WeatherAppDateUtils;
+
+/**
+ * A process-wide, read-through cache of the forecast of each saved location, held as immutable
+ * {@link ForecastSnapshot}s: its 3-hourly rows, and its days. The screens, the notification and
+ * the sync read the forecast from here, and only the first read of a location after a change
+ * goes through {@link WeatherProvider}.
+ * <p>
+ * {@link WeatherProvider} invalidates a location whenever its forecast is written, before its
+ * observers are notified, so an observer that reads again never gets the old forecast. The
+ * provider itself stays the contract for other processes.
+ */
+public final class ForecastCache {
+
+    private static final Object sLock = new Object();
+
+    /* Guarded by sLock */
+    private static final LongSparseArray<ForecastSnapshot> sSnapshots = new LongSparseArray<>();
+    /* Guarded by sLock */
+    private static final LongSparseArray<ForecastSnapshot> sDays = new LongSparseArray<>();
+
+    /*
+     * Incremented by every invalidation, guarded by sLock. A snapshot read from the database
+     * while the forecast was being written is returned, but not cached.
+     */
+    private static long sGeneration;
+
+    private ForecastCache() {
+    }
+
+    /**
+     * Returns the cached forecast of a location, without ever reading the database. Safe to call
+     * on the main thread.
+     *
+     * @param locationId The _ID of the location
+     * @return Every row of its forecast, or null if it isn't cached
+     */
+    @Nullable
+    public static ForecastSnapshot peek(long locationId) {
+        synchronized (sLock) {
+            return sSnapshots.get(locationId);
+        }
+    }
+
+    /**
+     * Returns the cached days of a location, without ever reading the database. Safe to call on
+     * the main thread.
+     *
+     * @param locationId The _ID of the location
+     * @return Every day of its forecast, or null if they aren't cached
+     */
+    @Nullable
+    public static ForecastSnapshot peekDays(long locationId) {
+        synchronized (sLock) {
+            return sDays.get(locationId);
+        }
+    }
+
+    /**
+     * Returns the forecast of a location, reading it from the database if it isn't cached. This
+     * may touch the disk, so it must not be called on the main thread.
+     *
+     * @param context    Used to query the provider
+     * @param locationId The _ID of the location
+     * @return Every row of its forecast, sorted by date, empty if there is none
+     */
+    public static ForecastSnapshot get(Context context, long locationId) {
+        return get(context, locationId, sSnapshots,
+                WeatherAppContract.LocationEntry.buildWeatherUri(locationId));
+    }
+
+    /**
+     * Returns the days of a location, one row per day summarized when the forecast was written,
+     * reading them from the database if they aren't cached. This may touch the disk, so it must
+     * not be called on the main thread.
+     *
+     * @param context    Used to query the provider
+     * @param locationId The _ID of the location
+     * @return Every day of its forecast, sorted by date, empty if there is none
+     */
+    public static ForecastSnapshot getDays(Context context, long locationId) {
+        return get(context, locationId, sDays,
+                WeatherAppContract.LocationEntry.buildDayUri(locationId));
+    }
+
+    private static ForecastSnapshot get(Context context, long locationId,
+                                        LongSparseArray<ForecastSnapshot> snapshots, Uri uri) {
+        if (locationId == WeatherAppPreferences.NO_LOCATION_ID) {
+            return ForecastSnapshot.EMPTY;
+        }
+
+        long generation;
+        synchronized (sLock) {
+            ForecastSnapshot snapshot = snapshots.get(locationId);
+            if (snapshot != null) {
+                return snapshot;
+            }
+            generation = sGeneration;
+        }
+
+        ForecastSnapshot snapshot;
+        Cursor cursor = context.getContentResolver().query(
+                uri,
+                ForecastSnapshot.PROJECTION,
+                null,
+                null,
+                ForecastSnapshot.SORT_ORDER);
+        if (cursor == null) {
+            return ForecastSnapshot.EMPTY;
+        }
+        try {
+            snapshot = ForecastSnapshot.fromCursor(locationId, cursor);
+        } finally {
+            cursor.close();
+        }
+
+        synchronized (sLock) {
+            if (generation == sGeneration) {
+                snapshots.put(locationId, snapshot);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the forecast of a location from today onwards, the rows the list displays.
+     *
+     * @param context    Used to query the provider on a cache miss
+     * @param locationId The _ID of the location
+     * @return The forecast from today onwards, sorted by date
+     * @see #get(Context, long)
+     */
+    public static ForecastSnapshot getTodayOnwards(Context context, long locationId) {
+        /* The 3-hourly rows are not normalized, they start at the local midnight */
+        long today = WeatherAppDateUtils.normalizeLocalDate(System.currentTimeMillis());
+        return get(context, locationId).since(WeatherAppDateUtils.getUtcStartOfLocalDate(today));
+    }
+
+    /**
+     * Returns the forecast of the active location from today onwards.
+     *
+     * @param context Used to read the active location and to query the provider on a cache miss
+     * @return The forecast from today onwards, empty if there is no active location
+     * @see #getTodayOnwards(Context, long)
+     */
+    public static ForecastSnapshot getActiveTodayOnwards(Context context) {
+        return getTodayOnwards(context, WeatherAppPreferences.getActiveLocationId(context));
+    }
+
+    /**
+     * Returns the days of a location from today onwards, the rows the list displays.
+     *
+     * @param context    Used to query the provider on a cache miss
+     * @param locationId The _ID of the location
+     * @return The days from today onwards, sorted by date
+     * @see #getDays(Context, long)
+     */
+    public static ForecastSnapshot getDaysTodayOnwards(Context context, long locationId) {
+        return getDays(context, locationId).since(
+                WeatherAppDateUtils.normalizeLocalDate(System.currentTimeMillis()));
+    }
+
+    /**
+     * Returns the days of the active location from today onwards.
+     *
+     * @param context Used to read the active location and to query the provider on a cache miss
+     * @return The days from today onwards, empty if there is no active location
+     * @see #getDaysTodayOnwards(Context, long)
+     */
+    public static ForecastSnapshot getActiveDaysTodayOnwards(Context context) {
+        return getDaysTodayOnwards(context, WeatherAppPreferences.getActiveLocationId(context));
+    }
+
+    /**
+     * Drops the cached forecast and days of a location. Called by {@link WeatherProvider} once it has
+     * written the forecast, before notifying its observers.
+     *
+     * @param locationId The _ID of the location
+     */
+    static void invalidate(long locationId) {
+        synchronized (sLock) {
+            sGeneration++;
+            sSnapshots.remove(locationId);
+            sDays.remove(locationId);
+        }
+    }
+
+    /**
+     * Drops every cached forecast, e.g. when locations are deleted.
+     */
+    static void invalidateAll() {
+        synchronized (sLock) {
+            sGeneration++;
+            sSnapshots.clear();
+            sDays.clear();
+        }
+    }
+}
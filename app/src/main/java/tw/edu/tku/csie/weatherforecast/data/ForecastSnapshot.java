@@ -0,0 +1,268 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+import android.database.Cursor;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An immutable, columnar copy of the forecast of one location, one primitive array per column.
+ * The cursor is read once and closed right away, so the UI holds on to a few small arrays
+ * instead of a {@link android.database.CursorWindow} that is filled again on every change.
+ * <p>
+ * A snapshot holds either the 3-hourly rows of the weather table or the days of the day table,
+ * see {@link WeatherAppContract.DayEntry}, whose columns have the same names.
+ * <p>
+ * Rows are sorted by date, which is how {@link #indexOfDateTime(long)} finds them.
+ */
+public final class ForecastSnapshot {
+
+    /* The columns of a snapshot, the list and the detail screen both read from it */
+    public static final String[] PROJECTION = {
+            WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME,
+            WeatherAppContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherAppContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherAppContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherAppContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherAppContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherAppContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherAppContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherAppContract.WeatherEntry.COLUMN_PRECIPITATION
+    };
+
+    private static final int INDEX_DATE_TIME = 0;
+    private static final int INDEX_MAX_TEMP = 1;
+    private static final int INDEX_MIN_TEMP = 2;
+    private static final int INDEX_WEATHER_ID = 3;
+    private static final int INDEX_HUMIDITY = 4;
+    private static final int INDEX_PRESSURE = 5;
+    private static final int INDEX_WIND_SPEED = 6;
+    private static final int INDEX_DEGREES = 7;
+    private static final int INDEX_PRECIPITATION = 8;
+
+    /* Sort order of the query, required by indexOfDateTime */
+    public static final String SORT_ORDER = WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME + " ASC";
+
+    public static final ForecastSnapshot EMPTY = new ForecastSnapshot(
+            WeatherAppPreferences.NO_LOCATION_ID, 0);
+
+    private final long mLocationId;
+    private final int mSize;
+
+    private final long[] mDateTimes;
+    private final float[] mMaxTemps;
+    private final float[] mMinTemps;
+    private final short[] mWeatherIds;
+    private final float[] mHumidities;
+    private final float[] mPressures;
+    private final float[] mWindSpeeds;
+    private final float[] mDegrees;
+    private final float[] mPrecipitations;
+
+    private ForecastSnapshot(long locationId, int size) {
+        mLocationId = locationId;
+        mSize = size;
+        mDateTimes = new long[size];
+        mMaxTemps = new float[size];
+        mMinTemps = new float[size];
+        mWeatherIds = new short[size];
+        mHumidities = new float[size];
+        mPressures = new float[size];
+        mWindSpeeds = new float[size];
+        mDegrees = new float[size];
+        mPrecipitations = new float[size];
+    }
+
+    /**
+     * Reads a cursor queried with {@link #PROJECTION} and {@link #SORT_ORDER}. The cursor is
+     * neither moved back nor closed, that is up to the caller.
+     *
+     * @param locationId The location the forecast is for
+     * @param cursor     The forecast
+     * @return A snapshot of every row of the cursor
+     */
+    public static ForecastSnapshot fromCursor(long locationId, Cursor cursor) {
+        ForecastSnapshot snapshot = new ForecastSnapshot(locationId, cursor.getCount());
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            snapshot.mDateTimes[i] = cursor.getLong(INDEX_DATE_TIME);
+            snapshot.mMaxTemps[i] = cursor.getFloat(INDEX_MAX_TEMP);
+            snapshot.mMinTemps[i] = cursor.getFloat(INDEX_MIN_TEMP);
+            /* OpenWeatherMap condition ids are 3-digit codes */
+            snapshot.mWeatherIds[i] = cursor.getShort(INDEX_WEATHER_ID);
+            snapshot.mHumidities[i] = cursor.getFloat(INDEX_HUMIDITY);
+            snapshot.mPressures[i] = cursor.getFloat(INDEX_PRESSURE);
+            snapshot.mWindSpeeds[i] = cursor.getFloat(INDEX_WIND_SPEED);
+            snapshot.mDegrees[i] = cursor.getFloat(INDEX_DEGREES);
+            snapshot.mPrecipitations[i] = cursor.getFloat(INDEX_PRECIPITATION);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Writes the rows of this snapshot, see {@link #readFrom(DataInputStream)}.
+     *
+     * @param out Where to write them
+     * @throws IOException If they could not be written
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(mLocationId);
+        out.writeInt(mSize);
+        for (int i = 0; i < mSize; i++) {
+            out.writeLong(mDateTimes[i]);
+            out.writeFloat(mMaxTemps[i]);
+            out.writeFloat(mMinTemps[i]);
+            out.writeShort(mWeatherIds[i]);
+            out.writeFloat(mHumidities[i]);
+            out.writeFloat(mPressures[i]);
+            out.writeFloat(mWindSpeeds[i]);
+            out.writeFloat(mDegrees[i]);
+            out.writeFloat(mPrecipitations[i]);
+        }
+    }
+
+    /**
+     * Reads a snapshot written by {@link #writeTo(DataOutputStream)}.
+     *
+     * @param in Where to read it from
+     * @return The snapshot
+     * @throws IOException If it could not be read
+     */
+    static ForecastSnapshot readFrom(DataInputStream in) throws IOException {
+        long locationId = in.readLong();
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Negative size " + size);
+        }
+        ForecastSnapshot snapshot = new ForecastSnapshot(locationId, size);
+        for (int i = 0; i < size; i++) {
+            snapshot.mDateTimes[i] = in.readLong();
+            snapshot.mMaxTemps[i] = in.readFloat();
+            snapshot.mMinTemps[i] = in.readFloat();
+            snapshot.mWeatherIds[i] = in.readShort();
+            snapshot.mHumidities[i] = in.readFloat();
+            snapshot.mPressures[i] = in.readFloat();
+            snapshot.mWindSpeeds[i] = in.readFloat();
+            snapshot.mDegrees[i] = in.readFloat();
+            snapshot.mPrecipitations[i] = in.readFloat();
+        }
+        return snapshot;
+    }
+
+    public long getLocationId() {
+        return mLocationId;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Finds the row of a forecast.
+     *
+     * @param dateTime The normalized UTC date of the forecast
+     * @return The index of its row, or -1 if it isn't in this snapshot
+     */
+    public int indexOfDateTime(long dateTime) {
+        int index = Arrays.binarySearch(mDateTimes, 0, mSize, dateTime);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * Returns the rows from a date onwards, e.g. the forecast from today onwards.
+     *
+     * @param dateTime The normalized UTC date of the first row to keep
+     * @return A snapshot of the rows at or after that date, this snapshot if that is all of them
+     */
+    public ForecastSnapshot since(long dateTime) {
+        return slice(insertionPoint(dateTime), mSize);
+    }
+
+    /**
+     * Returns the rows within a range of dates, e.g. the 3-hourly rows of one day.
+     *
+     * @param fromDateTime The UTC date of the first row to keep
+     * @param toDateTime   The UTC date of the first row after the range
+     * @return A snapshot of the rows at or after fromDateTime and before toDateTime
+     */
+    public ForecastSnapshot between(long fromDateTime, long toDateTime) {
+        int from = insertionPoint(fromDateTime);
+        return slice(from, Math.max(from, insertionPoint(toDateTime)));
+    }
+
+    /**
+     * @return The index of the first row at or after a date, mSize if there is none
+     */
+    private int insertionPoint(long dateTime) {
+        int index = Arrays.binarySearch(mDateTimes, 0, mSize, dateTime);
+        /* Not found, start at the insertion point */
+        return index < 0 ? -index - 1 : index;
+    }
+
+    /**
+     * @return A snapshot of the rows from index from to index to, exclusive, this snapshot if
+     * that is all of them
+     */
+    private ForecastSnapshot slice(int from, int to) {
+        if (from == 0 && to == mSize) {
+            return this;
+        }
+
+        ForecastSnapshot snapshot = new ForecastSnapshot(mLocationId, to - from);
+        System.arraycopy(mDateTimes, from, snapshot.mDateTimes, 0, snapshot.mSize);
+        System.arraycopy(mMaxTemps, from, snapshot.mMaxTemps, 0, snapshot.mSize);
+        System.arraycopy(mMinTemps, from, snapshot.mMinTemps, 0, snapshot.mSize);
+        System.arraycopy(mWeatherIds, from, snapshot.mWeatherIds, 0, snapshot.mSize);
+        System.arraycopy(mHumidities, from, snapshot.mHumidities, 0, snapshot.mSize);
+        System.arraycopy(mPressures, from, snapshot.mPressures, 0, snapshot.mSize);
+        System.arraycopy(mWindSpeeds, from, snapshot.mWindSpeeds, 0, snapshot.mSize);
+        System.arraycopy(mDegrees, from, snapshot.mDegrees, 0, snapshot.mSize);
+        System.arraycopy(mPrecipitations, from, snapshot.mPrecipitations, 0, snapshot.mSize);
+        return snapshot;
+    }
+
+    public long getDateTime(int i) {
+        return mDateTimes[i];
+    }
+
+    public float getMaxTemp(int i) {
+        return mMaxTemps[i];
+    }
+
+    public float getMinTemp(int i) {
+        return mMinTemps[i];
+    }
+
+    public int getWeatherId(int i) {
+        return mWeatherIds[i];
+    }
+
+    public float getHumidity(int i) {
+        return mHumidities[i];
+    }
+
+    public float getPressure(int i) {
+        return mPressures[i];
+    }
+
+    public float getWindSpeed(int i) {
+        return mWindSpeeds[i];
+    }
+
+    public float getDegrees(int i) {
+        return mDegrees[i];
+    }
+
+    /**
+     * @return The rain and snow of the row in mm, summed over the day for a day
+     */
+    public float getPrecipitation(int i) {
+        return mPrecipitations[i];
+    }
+}
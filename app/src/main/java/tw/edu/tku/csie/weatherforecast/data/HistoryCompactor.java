@@ -0,0 +1,244 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import tw.edu.tku.csie.weatherforecast.data.WeatherAppContract.HistoryEntry;
+import tw.edu.tku.csie.weatherforecast.utilities.WeatherAppDateUtils;
+
+/**
+ * Keeps the forecast history small enough to stay fast with a year of it:
+ * <ol>
+ * <li>3-hourly rows older than {@link #RAW_RETENTION_DAYS} are replaced by one row per location and
+ * day, aggregated from the last forecast issued for each time of that day, which is the one
+ * closest to what actually happened.</li>
+ * <li>Days older than {@link #MAX_RETENTION_DAYS} are dropped.</li>
+ * <li>If the history still holds more than {@link #MAX_ROWS} rows, the oldest days are dropped
+ * until it doesn't.</li>
+ * </ol>
+ * Everything is done by location and day, which are the leading columns of the index of the
+ * history, in a single transaction. Run through
+ * {@link WeatherAppContract.HistoryEntry#METHOD_COMPACT} after each periodic sync.
+ */
+final class HistoryCompactor {
+
+    private static final String TAG = HistoryCompactor.class.getSimpleName();
+
+    /* Long enough to compare the forecasts of the last two weeks with each other in detail */
+    static final int RAW_RETENTION_DAYS = 14;
+
+    static final int MAX_RETENTION_DAYS = 366;
+
+    /*
+     * Two weeks of 3-hourly rows of a few saved locations, and a year of daily rows of all of
+     * them, stay well below this.
+     */
+    static final int MAX_ROWS = 50000;
+
+    private static final String[] RAW_COLUMNS = {
+            HistoryEntry.COLUMN_DAY,
+            HistoryEntry.COLUMN_DATE_TIME,
+            HistoryEntry.COLUMN_ISSUED_AT,
+            HistoryEntry.COLUMN_WEATHER_ID,
+            HistoryEntry.COLUMN_MIN_TEMP,
+            HistoryEntry.COLUMN_MAX_TEMP,
+            HistoryEntry.COLUMN_HUMIDITY,
+            HistoryEntry.COLUMN_PRESSURE,
+            HistoryEntry.COLUMN_WIND_SPEED,
+            HistoryEntry.COLUMN_DEGREES,
+            HistoryEntry.COLUMN_PRECIPITATION
+    };
+
+    private static final int INDEX_DAY = 0;
+    private static final int INDEX_DATE_TIME = 1;
+    private static final int INDEX_ISSUED_AT = 2;
+    private static final int INDEX_WEATHER_ID = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+    private static final int INDEX_MAX_TEMP = 5;
+    private static final int INDEX_HUMIDITY = 6;
+    private static final int INDEX_PRESSURE = 7;
+    private static final int INDEX_WIND_SPEED = 8;
+    private static final int INDEX_DEGREES = 9;
+    private static final int INDEX_PRECIPITATION = 10;
+
+    /* For each time, the last issued row comes first */
+    private static final String RAW_SORT_ORDER = HistoryEntry.COLUMN_DAY + ", "
+            + HistoryEntry.COLUMN_DATE_TIME + ", "
+            + HistoryEntry.COLUMN_ISSUED_AT + " DESC";
+
+    private static final String SELECTION_RAW_BEFORE_DAY =
+            HistoryEntry.COLUMN_LOCATION_ID + " = ? AND "
+                    + HistoryEntry.COLUMN_DAY + " < ? AND "
+                    + HistoryEntry.COLUMN_RESOLUTION + " = "
+                    + HistoryEntry.RESOLUTION_THREE_HOURLY;
+
+    private static final String SELECTION_BEFORE_DAY =
+            HistoryEntry.COLUMN_LOCATION_ID + " = ? AND " + HistoryEntry.COLUMN_DAY + " < ?";
+
+    private static final String SQL_INSERT_DAILY =
+            "INSERT OR REPLACE INTO " + HistoryEntry.TABLE_NAME + " ("
+                    + HistoryEntry.COLUMN_LOCATION_ID + ", "
+                    + HistoryEntry.COLUMN_DAY + ", "
+                    + HistoryEntry.COLUMN_DATE_TIME + ", "
+                    + HistoryEntry.COLUMN_ISSUED_AT + ", "
+                    + HistoryEntry.COLUMN_RESOLUTION + ", "
+                    + HistoryEntry.COLUMN_WEATHER_ID + ", "
+                    + HistoryEntry.COLUMN_MIN_TEMP + ", "
+                    + HistoryEntry.COLUMN_MAX_TEMP + ", "
+                    + HistoryEntry.COLUMN_HUMIDITY + ", "
+                    + HistoryEntry.COLUMN_PRESSURE + ", "
+                    + HistoryEntry.COLUMN_WIND_SPEED + ", "
+                    + HistoryEntry.COLUMN_DEGREES + ", "
+                    + HistoryEntry.COLUMN_PRECIPITATION + ")"
+                    + " VALUES (?, ?, ?, ?, " + HistoryEntry.RESOLUTION_DAILY
+                    + ", ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private HistoryCompactor() {
+    }
+
+    /**
+     * Compacts the history of every location.
+     *
+     * @param db        The writable database
+     * @param nowMillis The current time, in UTC milliseconds
+     * @return The number of rows written or deleted
+     */
+    static int compact(SQLiteDatabase db, long nowMillis) {
+        long startNanos = System.nanoTime();
+        long rawCutoffDay = WeatherAppDateUtils.normalizeDate(
+                nowMillis - RAW_RETENTION_DAYS * DateUtils.DAY_IN_MILLIS);
+        long retentionCutoffDay = WeatherAppDateUtils.normalizeDate(
+                nowMillis - MAX_RETENTION_DAYS * DateUtils.DAY_IN_MILLIS);
+        int rowsChanged = 0;
+
+        db.beginTransaction();
+        try {
+            for (long locationId : queryLocationIds(db)) {
+                rowsChanged += downsample(db, locationId, rawCutoffDay);
+                rowsChanged += db.delete(HistoryEntry.TABLE_NAME, SELECTION_BEFORE_DAY,
+                        new String[]{Long.toString(locationId),
+                                Long.toString(retentionCutoffDay)});
+            }
+            rowsChanged += enforceSizeBudget(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        Log.i(TAG, "Compacted the history in "
+                + (System.nanoTime() - startNanos) / 1000000 + " ms, " + rowsChanged
+                + " rows written or deleted");
+        return rowsChanged;
+    }
+
+    private static List<Long> queryLocationIds(SQLiteDatabase db) {
+        List<Long> locationIds = new ArrayList<>();
+        Cursor cursor = db.query(WeatherAppContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherAppContract.LocationEntry._ID},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                locationIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return locationIds;
+    }
+
+    /**
+     * Replaces the 3-hourly rows of a location before a day with one daily row per day.
+     *
+     * @return The number of rows written or deleted
+     */
+    private static int downsample(SQLiteDatabase db, long locationId, long cutoffDay) {
+        String[] args = {Long.toString(locationId), Long.toString(cutoffDay)};
+        int rowsChanged = 0;
+
+        Cursor cursor = db.query(HistoryEntry.TABLE_NAME, RAW_COLUMNS, SELECTION_RAW_BEFORE_DAY,
+                args, null, null, RAW_SORT_ORDER);
+        SQLiteStatement insert = db.compileStatement(SQL_INSERT_DAILY);
+        try {
+            insert.bindLong(1, locationId);
+            DailyAggregate day = null;
+            long issuedAt = Long.MIN_VALUE;
+            long lastDateTime = Long.MIN_VALUE;
+            while (cursor.moveToNext()) {
+                long dateTime = cursor.getLong(INDEX_DATE_TIME);
+                /* Older issues of a time that was already aggregated */
+                if (dateTime == lastDateTime) continue;
+                lastDateTime = dateTime;
+
+                long rowDay = cursor.getLong(INDEX_DAY);
+                if (day == null || day.getDay() != rowDay) {
+                    if (day != null && insertDaily(insert, day, issuedAt) != -1) rowsChanged++;
+                    day = new DailyAggregate(rowDay);
+                    issuedAt = Long.MIN_VALUE;
+                }
+                issuedAt = Math.max(issuedAt, cursor.getLong(INDEX_ISSUED_AT));
+                day.add(cursor.getInt(INDEX_WEATHER_ID),
+                        cursor.getDouble(INDEX_MIN_TEMP),
+                        cursor.getDouble(INDEX_MAX_TEMP),
+                        cursor.getDouble(INDEX_HUMIDITY),
+                        cursor.getDouble(INDEX_PRESSURE),
+                        cursor.getDouble(INDEX_WIND_SPEED),
+                        cursor.getDouble(INDEX_DEGREES),
+                        cursor.getDouble(INDEX_PRECIPITATION));
+            }
+            if (day != null && insertDaily(insert, day, issuedAt) != -1) rowsChanged++;
+        } finally {
+            cursor.close();
+            insert.close();
+        }
+
+        rowsChanged += db.delete(HistoryEntry.TABLE_NAME, SELECTION_RAW_BEFORE_DAY, args);
+        return rowsChanged;
+    }
+
+    /**
+     * Inserts a daily row with SQL_INSERT_DAILY, whose location is already bound.
+     *
+     * @param issuedAt The issue time of the latest row of the day
+     * @return The _ID of the row, -1 if it could not be inserted
+     */
+    private static long insertDaily(SQLiteStatement insert, DailyAggregate day, long issuedAt) {
+        insert.bindLong(2, day.getDay());
+        insert.bindLong(3, day.getDay());
+        insert.bindLong(4, issuedAt);
+        insert.bindLong(5, day.getWeatherId());
+        insert.bindDouble(6, day.getMinTemp());
+        insert.bindDouble(7, day.getMaxTemp());
+        insert.bindDouble(8, day.getHumidity());
+        insert.bindDouble(9, day.getPressure());
+        insert.bindDouble(10, day.getWindSpeed());
+        insert.bindDouble(11, day.getDegrees());
+        insert.bindDouble(12, day.getPrecipitation());
+        return insert.executeInsert();
+    }
+
+    /**
+     * Drops the oldest days of the whole history until it holds no more than MAX_ROWS rows.
+     *
+     * @return The number of rows deleted
+     */
+    private static int enforceSizeBudget(SQLiteDatabase db) {
+        long rowCount = DatabaseUtils.queryNumEntries(db, HistoryEntry.TABLE_NAME);
+        if (rowCount <= MAX_ROWS) return 0;
+
+        /* The day of the newest row that has to go, every row up to that day is dropped */
+        long lastDroppedDay = DatabaseUtils.longForQuery(db,
+                "SELECT " + HistoryEntry.COLUMN_DAY + " FROM " + HistoryEntry.TABLE_NAME
+                        + " ORDER BY " + HistoryEntry.COLUMN_DAY
+                        + " LIMIT 1 OFFSET " + (rowCount - MAX_ROWS - 1),
+                null);
+        return db.delete(HistoryEntry.TABLE_NAME, HistoryEntry.COLUMN_DAY + " <= ?",
+                new String[]{Long.toString(lastDroppedDay)});
+    }
+}
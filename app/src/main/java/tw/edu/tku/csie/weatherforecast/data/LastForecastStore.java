@@ -0,0 +1,110 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Keeps a copy of the days of the active location from today onwards in a small file, so
+ * that MainActivity can display it as soon as it is created, before the database is even opened.
+ * The file is written by the sync once the new forecast is in the database.
+ * <p>
+ * The five or six days of a forecast take a few hundred bytes, they are read with a single read.
+ */
+public final class LastForecastStore {
+
+    private static final String TAG = LastForecastStore.class.getSimpleName();
+
+    @VisibleForTesting
+    static final String FILE_NAME = "last_forecast";
+
+    /* Written first in the file, incremented whenever the layout of the snapshot changes */
+    private static final int FORMAT_VERSION = 2;
+
+    private static final Object sLock = new Object();
+
+    private LastForecastStore() {
+    }
+
+    private static AtomicFile getFile(Context context) {
+        return new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /**
+     * Replaces the saved forecast.
+     *
+     * @param context  Used to find the file
+     * @param snapshot The forecast of the active location from today onwards
+     */
+    public static void save(Context context, ForecastSnapshot snapshot) {
+        /* Serialized first, so the file is written with a single write */
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(FORMAT_VERSION);
+            snapshot.writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        synchronized (sLock) {
+            AtomicFile file = getFile(context);
+            FileOutputStream stream = null;
+            try {
+                stream = file.startWrite();
+                bytes.writeTo(stream);
+                file.finishWrite(stream);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not save the last forecast", e);
+                if (stream != null) {
+                    file.failWrite(stream);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the saved forecast. Fast enough to be called on the main thread while an activity is
+     * being created, which is what it is for.
+     *
+     * @param context Used to find the file
+     * @return The forecast saved last, or null if there is none
+     */
+    @Nullable
+    public static ForecastSnapshot load(Context context) {
+        byte[] bytes;
+        synchronized (sLock) {
+            try {
+                bytes = getFile(context).readFully();
+            } catch (FileNotFoundException e) {
+                return null;
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read the last forecast", e);
+                return null;
+            }
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            return ForecastSnapshot.readFrom(in);
+        } catch (IOException e) {
+            Log.w(TAG, "The last forecast is corrupt", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+/**
+ * The last known location of the device and the name of the city it is in, as one immutable
+ * record, see {@link LocationStore}. Every change makes a new record, so readers always see
+ * coordinates and a city name that belong together.
+ */
+public final class LocationState {
+
+    /* Returned by getAccuracy when the accuracy of the fix is unknown */
+    public static final float UNKNOWN_ACCURACY = 0f;
+
+    static final LocationState EMPTY = new LocationState(false, 0.0, 0.0, UNKNOWN_ACCURACY, 0, "");
+
+    private final boolean mHasCoordinates;
+    private final double mLatitude;
+    private final double mLongitude;
+    private final float mAccuracy;
+    private final long mFixTimeMillis;
+    private final String mCurrentCity;
+
+    LocationState(boolean hasCoordinates, double latitude, double longitude, float accuracy,
+                  long fixTimeMillis, String currentCity) {
+        mHasCoordinates = hasCoordinates;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mAccuracy = accuracy;
+        mFixTimeMillis = fixTimeMillis;
+        mCurrentCity = currentCity;
+    }
+
+    LocationState withCoordinates(double latitude, double longitude, float accuracy,
+                                  long fixTimeMillis) {
+        return new LocationState(true, latitude, longitude, accuracy, fixTimeMillis,
+                mCurrentCity);
+    }
+
+    LocationState withoutCoordinates() {
+        return new LocationState(false, 0.0, 0.0, UNKNOWN_ACCURACY, 0, mCurrentCity);
+    }
+
+    LocationState withCurrentCity(String currentCity) {
+        return new LocationState(mHasCoordinates, mLatitude, mLongitude, mAccuracy,
+                mFixTimeMillis, currentCity == null ? "" : currentCity);
+    }
+
+    /**
+     * @return true if a location was saved, otherwise the coordinates both read as 0
+     */
+    public boolean hasCoordinates() {
+        return mHasCoordinates;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    /**
+     * @return The accuracy of the fix in meters, or UNKNOWN_ACCURACY
+     */
+    public float getAccuracy() {
+        return mAccuracy;
+    }
+
+    /**
+     * @return When the location was fixed (in UNIX time), 0 if there is no location
+     */
+    public long getFixTimeMillis() {
+        return mFixTimeMillis;
+    }
+
+    /**
+     * @return The name of the city the location is in, empty until it has been looked up
+     */
+    public String getCurrentCity() {
+        return mCurrentCity;
+    }
+}
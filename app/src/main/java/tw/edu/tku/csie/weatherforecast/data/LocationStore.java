@@ -0,0 +1,261 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.support.annotation.VisibleForTesting;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import tw.edu.tku.csie.weatherforecast.R;
+
+/**
+ * Keeps the {@link LocationState} of the device in a small binary file of its own, instead of
+ * in several keys of the default SharedPreferences.
+ * <p>
+ * The record is read once per process and then served from memory. An update replaces the
+ * record in memory right away, and writes the whole of it, a few dozen bytes, in the
+ * background. The file is replaced atomically, so a crash never leaves coordinates without the
+ * name of their city, or the other way around.
+ */
+public final class LocationStore {
+
+    private static final String TAG = LocationStore.class.getSimpleName();
+
+    @VisibleForTesting
+    static final String FILE_NAME = "location_state";
+
+    /* Written first in the file, incremented whenever the layout of the record changes */
+    private static final int FORMAT_VERSION = 1;
+
+    /*
+     * Where the coordinates were kept before this store existed, as the raw long bits of their
+     * double value. Read once to migrate them, then removed.
+     */
+    @VisibleForTesting
+    static final String LEGACY_PREF_COORD_LAT = "coord_lat";
+    @VisibleForTesting
+    static final String LEGACY_PREF_COORD_LONG = "coord_long";
+
+    /**
+     * Notified on the main thread after the location or the name of its city changed.
+     */
+    public interface OnLocationChangedListener {
+        void onLocationChanged(LocationState state);
+    }
+
+    private static final Object sLock = new Object();
+
+    /* Set once, guarded by sLock */
+    private static AtomicFile sFile;
+
+    /* Replaced, never modified, by every update */
+    private static volatile LocationState sState;
+
+    /* A single thread, so that the file is written in the order of the updates */
+    private static final ExecutorService sWriteExecutor = Executors.newSingleThreadExecutor();
+
+    private static final List<OnLocationChangedListener> sListeners =
+            new CopyOnWriteArrayList<>();
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private LocationStore() {
+    }
+
+    /**
+     * Returns the last known location. Only the first call in a process reads the file.
+     *
+     * @param context Used to find the file
+     * @return The location, never null
+     */
+    public static LocationState get(Context context) {
+        LocationState state = sState;
+        if (state != null) return state;
+
+        synchronized (sLock) {
+            if (sState == null) {
+                Context appContext = context.getApplicationContext();
+                sFile = new AtomicFile(new File(appContext.getFilesDir(), FILE_NAME));
+                LocationState loaded = read(sFile);
+                if (loaded == null) {
+                    loaded = migrateFromPreferences(appContext);
+                }
+                sState = loaded;
+            }
+            return sState;
+        }
+    }
+
+    /**
+     * Saves a new location. The name of its city is kept until it is looked up again.
+     *
+     * @param context       Used to find the file
+     * @param latitude      The latitude of the location
+     * @param longitude     The longitude of the location
+     * @param accuracy      The accuracy of the fix in meters, or LocationState.UNKNOWN_ACCURACY
+     * @param fixTimeMillis When the location was fixed (in UNIX time)
+     */
+    public static void setCoordinates(Context context, double latitude, double longitude,
+                                      float accuracy, long fixTimeMillis) {
+        get(context);
+        synchronized (sLock) {
+            update(sState.withCoordinates(latitude, longitude, accuracy, fixTimeMillis));
+        }
+    }
+
+    public static void resetCoordinates(Context context) {
+        get(context);
+        synchronized (sLock) {
+            update(sState.withoutCoordinates());
+        }
+    }
+
+    /**
+     * Saves the name of the city the location is in.
+     *
+     * @param context Used to find the file
+     * @param city    The name of the city, null to forget it
+     */
+    public static void setCurrentCity(Context context, String city) {
+        get(context);
+        synchronized (sLock) {
+            update(sState.withCurrentCity(city));
+        }
+    }
+
+    public static void registerListener(OnLocationChangedListener listener) {
+        sListeners.add(listener);
+    }
+
+    public static void unregisterListener(OnLocationChangedListener listener) {
+        sListeners.remove(listener);
+    }
+
+    /**
+     * Forgets the record in memory once the pending writes are done, so that the next
+     * {@link #get(Context)} reads the file again, or migrates the preferences if there is none.
+     */
+    @VisibleForTesting
+    static void reset() throws InterruptedException, ExecutionException {
+        sWriteExecutor.submit(() -> { }).get();
+        synchronized (sLock) {
+            sState = null;
+        }
+    }
+
+    /* Called with sLock held */
+    private static void update(final LocationState state) {
+        sState = state;
+        sWriteExecutor.execute(() -> write(sFile, state));
+        sMainHandler.post(() -> {
+            for (OnLocationChangedListener listener : sListeners) {
+                listener.onLocationChanged(state);
+            }
+        });
+    }
+
+    /**
+     * Reads the record from the file.
+     *
+     * @return The record, or null if there is no file or it can't be read
+     */
+    private static LocationState read(AtomicFile file) {
+        DataInputStream in = null;
+        try {
+            FileInputStream stream = file.openRead();
+            in = new DataInputStream(stream);
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            boolean hasCoordinates = in.readBoolean();
+            double latitude = in.readDouble();
+            double longitude = in.readDouble();
+            float accuracy = in.readFloat();
+            long fixTimeMillis = in.readLong();
+            String currentCity = in.readUTF();
+            return new LocationState(hasCoordinates, latitude, longitude, accuracy,
+                    fixTimeMillis, currentCity);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read the location", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static boolean write(AtomicFile file, LocationState state) {
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(FORMAT_VERSION);
+            out.writeBoolean(state.hasCoordinates());
+            out.writeDouble(state.getLatitude());
+            out.writeDouble(state.getLongitude());
+            out.writeFloat(state.getAccuracy());
+            out.writeLong(state.getFixTimeMillis());
+            out.writeUTF(state.getCurrentCity());
+            out.flush();
+            file.finishWrite(stream);
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write the location", e);
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Moves the location out of the default SharedPreferences, where older versions of the app
+     * kept it, into the file.
+     */
+    private static LocationState migrateFromPreferences(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        String keyForCurrentCity = context.getString(R.string.pref_current_city_key);
+
+        LocationState state = LocationState.EMPTY
+                .withCurrentCity(sp.getString(keyForCurrentCity, ""));
+        if (sp.contains(LEGACY_PREF_COORD_LAT) && sp.contains(LEGACY_PREF_COORD_LONG)) {
+            state = state.withCoordinates(
+                    Double.longBitsToDouble(sp.getLong(LEGACY_PREF_COORD_LAT, 0)),
+                    Double.longBitsToDouble(sp.getLong(LEGACY_PREF_COORD_LONG, 0)),
+                    LocationState.UNKNOWN_ACCURACY,
+                    0);
+        }
+
+        /* Written right away, the preferences are only removed once the file exists */
+        if (write(sFile, state)) {
+            sp.edit()
+                    .remove(LEGACY_PREF_COORD_LAT)
+                    .remove(LEGACY_PREF_COORD_LONG)
+                    .remove(keyForCurrentCity)
+                    .apply();
+        }
+        return state;
+    }
+}
@@ -0,0 +1,180 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import tw.edu.tku.csie.weatherforecast.R;
+import tw.edu.tku.csie.weatherforecast.utilities.WeatherUtils;
+
+/**
+ * The weather of today at the active location, with every String the notification and the
+ * widget display already formatted, in both units. It is made once per sync from the first day
+ * of the forecast, so that neither of them reads the database or formats anything to display it;
+ * see {@link TodaySummaryStore}.
+ * <p>
+ * The Strings are formatted for one locale, see {@link #isFor(long, String)}. The icons are
+ * looked up again when a summary is read back, resource ids change from one build to the next.
+ */
+public final class TodaySummary {
+
+    private final long mLocationId;
+    /* The normalized UTC date of the day */
+    private final long mDateTime;
+    private final int mWeatherId;
+    private final String mLanguageTag;
+
+    private final String mDescription;
+    private final String mHighMetric;
+    private final String mLowMetric;
+    private final String mHighImperial;
+    private final String mLowImperial;
+    private final String mTextMetric;
+    private final String mTextImperial;
+
+    private final int mSmallIconResId;
+    private final int mLargeIconResId;
+
+    private TodaySummary(long locationId, long dateTime, int weatherId, String languageTag,
+                         String description, String highMetric, String lowMetric,
+                         String highImperial, String lowImperial, String textMetric,
+                         String textImperial) {
+        mLocationId = locationId;
+        mDateTime = dateTime;
+        mWeatherId = weatherId;
+        mLanguageTag = languageTag;
+        mDescription = description;
+        mHighMetric = highMetric;
+        mLowMetric = lowMetric;
+        mHighImperial = highImperial;
+        mLowImperial = lowImperial;
+        mTextMetric = textMetric;
+        mTextImperial = textImperial;
+        mSmallIconResId = WeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherId);
+        mLargeIconResId = WeatherUtils.getLargeArtResourceIdForWeatherCondition(weatherId);
+    }
+
+    /**
+     * Summarizes the first day of a forecast.
+     *
+     * @param context Used to format the Strings in the current locale
+     * @param days    The days of the active location from today onwards
+     * @return The summary of the first of them, or null if there is none
+     */
+    @Nullable
+    public static TodaySummary create(Context context, ForecastSnapshot days) {
+        if (days.isEmpty()) {
+            return null;
+        }
+
+        int weatherId = days.getWeatherId(0);
+        double high = days.getMaxTemp(0);
+        double low = days.getMinTemp(0);
+
+        String description = WeatherUtils.getStringForWeatherCondition(context, weatherId);
+        String highMetric = WeatherUtils.formatTemperature(context, high, true);
+        String lowMetric = WeatherUtils.formatTemperature(context, low, true);
+        String highImperial = WeatherUtils.formatTemperature(context, high, false);
+        String lowImperial = WeatherUtils.formatTemperature(context, low, false);
+
+        String textFormat = context.getString(R.string.format_notification);
+        return new TodaySummary(days.getLocationId(), days.getDateTime(0), weatherId,
+                getLanguageTag(context), description,
+                highMetric, lowMetric, highImperial, lowImperial,
+                String.format(textFormat, description, highMetric, lowMetric),
+                String.format(textFormat, description, highImperial, lowImperial));
+    }
+
+    /**
+     * Writes this summary, see {@link #readFrom(DataInputStream)}.
+     *
+     * @param out Where to write it
+     * @throws IOException If it could not be written
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(mLocationId);
+        out.writeLong(mDateTime);
+        out.writeInt(mWeatherId);
+        out.writeUTF(mLanguageTag);
+        out.writeUTF(mDescription);
+        out.writeUTF(mHighMetric);
+        out.writeUTF(mLowMetric);
+        out.writeUTF(mHighImperial);
+        out.writeUTF(mLowImperial);
+        out.writeUTF(mTextMetric);
+        out.writeUTF(mTextImperial);
+    }
+
+    /**
+     * Reads a summary written by {@link #writeTo(DataOutputStream)}.
+     *
+     * @param in Where to read it from
+     * @return The summary
+     * @throws IOException If it could not be read
+     */
+    static TodaySummary readFrom(DataInputStream in) throws IOException {
+        return new TodaySummary(in.readLong(), in.readLong(), in.readInt(), in.readUTF(),
+                in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(),
+                in.readUTF(), in.readUTF());
+    }
+
+    /**
+     * Checks whether this summary can still be displayed as is.
+     *
+     * @param today       The normalized UTC date of today
+     * @param languageTag The current locale, see {@link #getLanguageTag(Context)}
+     * @return true if it is still the first day from today onwards, formatted for that locale
+     */
+    boolean isFor(long today, String languageTag) {
+        return mDateTime >= today && mLanguageTag.equals(languageTag);
+    }
+
+    /**
+     * @return The current locale, as recorded in a summary
+     */
+    static String getLanguageTag(Context context) {
+        return context.getResources().getConfiguration().locale.toString();
+    }
+
+    public long getLocationId() {
+        return mLocationId;
+    }
+
+    public long getDateTime() {
+        return mDateTime;
+    }
+
+    public int getWeatherId() {
+        return mWeatherId;
+    }
+
+    public String getDescription() {
+        return mDescription;
+    }
+
+    public String getHighText(boolean metric) {
+        return metric ? mHighMetric : mHighImperial;
+    }
+
+    public String getLowText(boolean metric) {
+        return metric ? mLowMetric : mLowImperial;
+    }
+
+    /**
+     * @return The text of the notification, e.g. "Forecast: Clear - High: 21° Low: 12°"
+     */
+    public String getText(boolean metric) {
+        return metric ? mTextMetric : mTextImperial;
+    }
+
+    public int getSmallIconResId() {
+        return mSmallIconResId;
+    }
+
+    public int getLargeIconResId() {
+        return mLargeIconResId;
+    }
+}
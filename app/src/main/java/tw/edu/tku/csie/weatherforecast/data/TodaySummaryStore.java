@@ -0,0 +1,166 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import tw.edu.tku.csie.weatherforecast.utilities.WeatherAppDateUtils;
+
+/**
+ * Keeps the {@link TodaySummary} of the active location in memory and in a small file, for the
+ * notification and the home-screen widget. The sync saves it once the new forecast is in the
+ * database, and both of them read it from here instead of querying the provider.
+ * <p>
+ * A summary of yesterday, or formatted for another locale, is made again from the days saved by
+ * {@link LastForecastStore}, which doesn't touch the database either.
+ */
+public final class TodaySummaryStore {
+
+    private static final String TAG = TodaySummaryStore.class.getSimpleName();
+
+    @VisibleForTesting
+    static final String FILE_NAME = "today_summary";
+
+    /* Written first in the file, incremented whenever the layout of the summary changes */
+    private static final int FORMAT_VERSION = 1;
+
+    private static final Object sLock = new Object();
+
+    /* Guarded by sLock. The summary saved last, once sLoaded is set; null if there is none */
+    private static TodaySummary sSummary;
+    private static boolean sLoaded;
+
+    private TodaySummaryStore() {
+    }
+
+    /**
+     * Forgets the summary held in memory, as if the process was restarted. It is read from the
+     * file again by the next {@link #get(Context)}.
+     */
+    @VisibleForTesting
+    static void reset() {
+        synchronized (sLock) {
+            sSummary = null;
+            sLoaded = false;
+        }
+    }
+
+    private static AtomicFile getFile(Context context) {
+        return new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /**
+     * Summarizes the first day of a forecast and replaces the saved summary with it.
+     *
+     * @param context Used to format the summary and to find the file
+     * @param days    The days of the active location from today onwards
+     * @return The new summary, or null if there is no forecast from today onwards
+     */
+    @Nullable
+    public static TodaySummary save(Context context, ForecastSnapshot days) {
+        TodaySummary summary = TodaySummary.create(context, days);
+
+        /* Serialized first, so the file is written with a single write */
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(FORMAT_VERSION);
+            out.writeBoolean(summary != null);
+            if (summary != null) {
+                summary.writeTo(out);
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        synchronized (sLock) {
+            sSummary = summary;
+            sLoaded = true;
+
+            AtomicFile file = getFile(context);
+            FileOutputStream stream = null;
+            try {
+                stream = file.startWrite();
+                bytes.writeTo(stream);
+                file.finishWrite(stream);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not save the summary of today", e);
+                if (stream != null) {
+                    file.failWrite(stream);
+                }
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Returns the summary of today of the active location. It is read from memory, from the
+     * file the first time in a process, and only made again once a day or when the locale
+     * changed, so this is fast enough for a widget update.
+     *
+     * @param context Used to find the files
+     * @return The summary of today, or null if there is no forecast of today
+     */
+    @Nullable
+    public static TodaySummary get(Context context) {
+        long today = WeatherAppDateUtils.normalizeLocalDate(System.currentTimeMillis());
+        String languageTag = TodaySummary.getLanguageTag(context);
+        long locationId = WeatherAppPreferences.getActiveLocationId(context);
+
+        TodaySummary summary;
+        synchronized (sLock) {
+            if (!sLoaded) {
+                sSummary = load(context);
+                sLoaded = true;
+            }
+            summary = sSummary;
+        }
+        if (summary != null && summary.getLocationId() == locationId
+                && summary.isFor(today, languageTag)) {
+            return summary;
+        }
+
+        /* Another day or locale, the saved days of the active location still have today */
+        ForecastSnapshot days = LastForecastStore.load(context);
+        if (days == null || days.getLocationId() != locationId) {
+            return null;
+        }
+        return save(context, days.since(today));
+    }
+
+    @Nullable
+    private static TodaySummary load(Context context) {
+        byte[] bytes;
+        try {
+            bytes = getFile(context).readFully();
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read the summary of today", e);
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != FORMAT_VERSION || !in.readBoolean()) {
+                return null;
+            }
+            return TodaySummary.readFrom(in);
+        } catch (IOException e) {
+            Log.w(TAG, "The summary of today is corrupt", e);
+            return null;
+        }
+    }
+}
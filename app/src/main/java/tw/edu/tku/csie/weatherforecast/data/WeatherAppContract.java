@@ -15,11 +15,14 @@
  */
 package tw.edu.tku.csie.weatherforecast.data;
 
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
 import tw.edu.tku.csie.weatherforecast.utilities.WeatherAppDateUtils;
 
+import java.util.Locale;
+
 /**
  * Defines table and column names for the weather database. This class is not necessary, but keeps
  * the code organized.
@@ -56,17 +59,211 @@ public class WeatherAppContract {
      */
     public static final String PATH_WEATHER = "weather";
 
+    /*
+     * Appended to PATH_WEATHER for bulk inserts that should be merged into the forecast we already
+     * have instead of being added to it:
+     *
+     *     content://com.example.android.sunshine/weather/merge
+     */
+    public static final String PATH_MERGE = "merge";
+
+    /*
+     * Every location we have a forecast for is saved in the location table:
+     *
+     *     content://com.example.android.sunshine/location/
+     *
+     * The forecast of one particular location is found under that location:
+     *
+     *     content://com.example.android.sunshine/location/3/weather/
+     */
+    public static final String PATH_LOCATION = "location";
+
+    /*
+     * Every forecast row a sync ever wrote, for the active location or under a location:
+     *
+     *     content://com.example.android.sunshine/history/
+     *     content://com.example.android.sunshine/location/3/history/
+     *
+     * Either can be followed by a time range, start inclusive and end exclusive, in milliseconds:
+     *
+     *     content://com.example.android.sunshine/location/3/history/1472169600000/1472256000000
+     */
+    public static final String PATH_HISTORY = "history";
+
+    /*
+     * The forecast summarized by day, for the active location or under a location, optionally
+     * followed by the normalized UTC date of a day:
+     *
+     *     content://com.example.android.sunshine/day/
+     *     content://com.example.android.sunshine/day/1472169600000
+     *     content://com.example.android.sunshine/location/3/day/
+     */
+    public static final String PATH_DAY = "day";
+
+    /* Inner class that defines the table contents of the location table */
+    public static final class LocationEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the location table from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_LOCATION)
+                .build();
+
+        /* Used internally as the name of our location table. */
+        public static final String TABLE_NAME = "location";
+
+        /*
+         * Uniquely identifies a location. Locations picked by name use "q:" followed by the
+         * English name, the device's current location always uses KEY_CURRENT_LOCATION so that
+         * it is updated in place as the device moves.
+         */
+        public static final String COLUMN_LOCATION_KEY = "location_key";
+
+        /* English name sent to OpenWeatherMap, null for the current location */
+        public static final String COLUMN_QUERY = "query";
+
+        /* Coordinates sent to OpenWeatherMap, null for locations picked by name */
+        public static final String COLUMN_LATITUDE = "latitude";
+        public static final String COLUMN_LONGITUDE = "longitude";
+
+        /* Name of the location in the user's language */
+        public static final String COLUMN_DISPLAY_NAME = "display_name";
+
+        /* When the location was last made the active one, used to evict old locations */
+        public static final String COLUMN_LAST_USED = "last_used";
+
+        public static final String KEY_CURRENT_LOCATION = "current";
+        private static final String KEY_QUERY_PREFIX = "q:";
+
+        /**
+         * Builds the key of a location picked by name.
+         *
+         * @param query The English name of the location
+         * @return The value to store in COLUMN_LOCATION_KEY
+         */
+        public static String buildQueryLocationKey(String query) {
+            return KEY_QUERY_PREFIX + query.trim().toLowerCase(Locale.ROOT);
+        }
+
+        /**
+         * Builds a URI to a single saved location.
+         *
+         * @param locationId The _ID of the location
+         * @return Uri of the location row
+         */
+        public static Uri buildLocationUri(long locationId) {
+            return ContentUris.withAppendedId(CONTENT_URI, locationId);
+        }
+
+        /**
+         * Builds a URI to the forecast of a saved location. This URI supports the same operations
+         * as {@link WeatherEntry#CONTENT_URI}, but is not tied to the active location.
+         *
+         * @param locationId The _ID of the location
+         * @return Uri of the forecast of that location
+         */
+        public static Uri buildWeatherUri(long locationId) {
+            return buildLocationUri(locationId).buildUpon()
+                    .appendPath(PATH_WEATHER)
+                    .build();
+        }
+
+        /**
+         * Builds a URI to the weather of a saved location at the given date.
+         *
+         * @param locationId The _ID of the location
+         * @param date       Normalized date in milliseconds
+         * @return Uri to query details about a single weather entry of that location
+         */
+        public static Uri buildWeatherUriWithDate(long locationId, long date) {
+            return buildWeatherUri(locationId).buildUpon()
+                    .appendPath(Long.toString(date))
+                    .build();
+        }
+
+        /**
+         * Builds a URI to the forecast of a saved location summarized by day.
+         *
+         * @param locationId The _ID of the location
+         * @return Uri of the days of that location
+         */
+        public static Uri buildDayUri(long locationId) {
+            return buildLocationUri(locationId).buildUpon()
+                    .appendPath(PATH_DAY)
+                    .build();
+        }
+
+        /**
+         * Builds a URI to the forecast history of a saved location.
+         *
+         * @param locationId The _ID of the location
+         * @return Uri of the history of that location
+         */
+        public static Uri buildHistoryUri(long locationId) {
+            return buildLocationUri(locationId).buildUpon()
+                    .appendPath(PATH_HISTORY)
+                    .build();
+        }
+
+        /**
+         * Builds a URI to the forecast history of a saved location over a range of time.
+         *
+         * @param locationId The _ID of the location
+         * @param fromMillis Start of the range (inclusive), in UTC milliseconds
+         * @param toMillis   End of the range (exclusive), in UTC milliseconds
+         * @return Uri of the history of that location within the range
+         */
+        public static Uri buildHistoryUriWithRange(long locationId, long fromMillis,
+                                                   long toMillis) {
+            return buildHistoryUri(locationId).buildUpon()
+                    .appendPath(Long.toString(fromMillis))
+                    .appendPath(Long.toString(toMillis))
+                    .build();
+        }
+    }
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
-        /* The base CONTENT_URI used to query the Weather table from the content provider */
+        /*
+         * The base CONTENT_URI used to query the Weather table from the content provider. It
+         * always refers to the forecast of the active location (see
+         * WeatherAppPreferences#getActiveLocationId), use LocationEntry#buildWeatherUri for the
+         * forecast of any other saved location.
+         */
         public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
                 .appendPath(PATH_WEATHER)
                 .build();
 
+        /*
+         * Bulk inserting into this URI replaces the whole forecast with the inserted rows, but only
+         * rows that actually changed are written. See WeatherProvider#bulkInsert. The same path
+         * can be appended to LocationEntry#buildWeatherUri.
+         */
+        public static final Uri CONTENT_MERGE_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_MERGE)
+                .build();
+
+        /*
+         * Methods for ContentResolver#call taking the rows as a WeatherBatch packed in the extras.
+         * METHOD_BULK_INSERT_BATCH inserts them like a bulkInsert into CONTENT_URI, and
+         * METHOD_MERGE_BATCH merges them like a bulkInsert into CONTENT_MERGE_URI. The _ID of the
+         * location the rows belong to is passed as the String argument, null meaning the active
+         * location. The returned Bundle holds the number of rows written under EXTRA_ROWS_CHANGED,
+         * and for a merge, the number of existing rows whose forecast was really revised (another
+         * condition, or a temperature that moved by more than a couple of degrees) under
+         * EXTRA_ROWS_REVISED.
+         */
+        public static final String METHOD_BULK_INSERT_BATCH = "bulk_insert_batch";
+        public static final String METHOD_MERGE_BATCH = "merge_batch";
+        public static final String EXTRA_ROWS_CHANGED = "rows_changed";
+        public static final String EXTRA_ROWS_REVISED = "rows_revised";
+
         /* Used internally as the name of our weather table. */
         public static final String TABLE_NAME = "weather";
 
+        /* The _ID of the location this weather belongs to */
+        public static final String COLUMN_LOCATION_ID = "location_id";
+
         /*
          * The date column will store the UTC date that correlates to the local date for which
          * each particular weather row represents. For example, if you live in the Eastern
@@ -109,6 +306,9 @@ public class WeatherAppContract {
          */
         public static final String COLUMN_DEGREES = "degrees";
 
+        /* Rain and snow over the 3 hours of the row, in mm, 0 when there is none */
+        public static final String COLUMN_PRECIPITATION = "precipitation";
+
         /**
          * Builds a URI that adds the weather date to the end of the forecast content URI path.
          * This is used to query details about a single weather entry by date. This is what we
@@ -125,14 +325,150 @@ public class WeatherAppContract {
 
         /**
          * Returns just the selection part of the weather query from a normalized today value.
-         * This is used to get a weather forecast from today's date. To make this easy to use
-         * in compound selection, we embed today's date as an argument in the query.
+         * This is used to get a weather forecast from today's date. Today's date is not embedded
+         * in the selection but bound as an argument, see
+         * {@link #getSqlSelectionArgsForTodayOnwards()}, so that SQLite sees the same statement
+         * every time and can reuse it from its statement cache.
          *
          * @return The selection part of the weather query for today onwards
          */
         public static String getSqlSelectForTodayOnwards() {
+            return WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME + " >= ?";
+        }
+
+        /**
+         * Returns the arguments to use with {@link #getSqlSelectForTodayOnwards()}.
+         *
+         * @return The normalized UTC date of today, as the only selection argument
+         */
+        public static String[] getSqlSelectionArgsForTodayOnwards() {
             long normalizedUtcNow = WeatherAppDateUtils.normalizeDate(System.currentTimeMillis());
-            return WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME + " >= " + normalizedUtcNow;
+            return new String[]{Long.toString(normalizedUtcNow)};
+        }
+    }
+
+    /*
+     * Inner class that defines the table contents of the history table. Every forecast row a sync
+     * wrote is appended to it, together with when it was issued, so forecasts can be compared with
+     * what happened. 3-hourly rows are kept for HistoryCompactor#RAW_RETENTION_DAYS, then
+     * replaced by one row per day, and the oldest days are dropped to stay within a size budget.
+     */
+    public static final class HistoryEntry implements BaseColumns {
+
+        /*
+         * The history of the active location, see WeatherEntry#CONTENT_URI. Use
+         * LocationEntry#buildHistoryUri for the history of any other saved location.
+         */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_HISTORY)
+                .build();
+
+        /*
+         * Method for ContentResolver#call that compacts the history of every location, see
+         * HistoryCompactor. The returned Bundle holds the number of rows written or deleted under
+         * WeatherEntry#EXTRA_ROWS_CHANGED.
+         */
+        public static final String METHOD_COMPACT = "compact_history";
+
+        /* Used internally as the name of our history table. */
+        public static final String TABLE_NAME = "history";
+
+        public static final String COLUMN_LOCATION_ID = WeatherEntry.COLUMN_LOCATION_ID;
+
+        /*
+         * The normalized UTC date of COLUMN_DATE_TIME. Rows are stored and dropped by day, like
+         * the partitions of a larger database would be.
+         */
+        public static final String COLUMN_DAY = "day";
+
+        /* The time the row is a forecast for, the start of the day for daily rows */
+        public static final String COLUMN_DATE_TIME = WeatherEntry.COLUMN_DATE_TIME;
+
+        /* When the sync that wrote the row ran, the latest one for daily rows */
+        public static final String COLUMN_ISSUED_AT = "issued_at";
+
+        /* One of the RESOLUTION_* constants */
+        public static final String COLUMN_RESOLUTION = "resolution";
+
+        public static final int RESOLUTION_THREE_HOURLY = 0;
+        public static final int RESOLUTION_DAILY = 1;
+
+        /* Same meaning as in WeatherEntry, averaged over the day for daily rows */
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+        public static final String COLUMN_DEGREES = WeatherEntry.COLUMN_DEGREES;
+        /* Summed over the day for daily rows */
+        public static final String COLUMN_PRECIPITATION = WeatherEntry.COLUMN_PRECIPITATION;
+
+        /**
+         * Builds a URI to the history of the active location over a range of time.
+         *
+         * @param fromMillis Start of the range (inclusive), in UTC milliseconds
+         * @param toMillis   End of the range (exclusive), in UTC milliseconds
+         * @return Uri of the history of the active location within the range
+         */
+        public static Uri buildHistoryUriWithRange(long fromMillis, long toMillis) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(Long.toString(fromMillis))
+                    .appendPath(Long.toString(toMillis))
+                    .build();
+        }
+    }
+
+    /*
+     * Inner class that defines the table contents of the day table, the forecast summarized by
+     * day. It is computed from the weather table whenever a location's forecast is written (see
+     * DayAggregator), so the list reads one row per day instead of aggregating eight 3-hourly
+     * rows each time it is displayed. It is read-only through the provider.
+     */
+    public static final class DayEntry implements BaseColumns {
+
+        /*
+         * The days of the active location, see WeatherEntry#CONTENT_URI. Use
+         * LocationEntry#buildDayUri for the days of any other saved location.
+         */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_DAY)
+                .build();
+
+        /* Used internally as the name of our day table. */
+        public static final String TABLE_NAME = "day";
+
+        public static final String COLUMN_LOCATION_ID = WeatherEntry.COLUMN_LOCATION_ID;
+
+        /* The normalized UTC date of the local day, see WeatherAppDateUtils#normalizeLocalDate */
+        public static final String COLUMN_DATE_TIME = WeatherEntry.COLUMN_DATE_TIME;
+
+        /* The most frequent condition of the day */
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+
+        /* The lowest and highest temperatures of the day */
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+
+        /* Averaged over the day */
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+        public static final String COLUMN_DEGREES = WeatherEntry.COLUMN_DEGREES;
+
+        /* The total over the day, in mm */
+        public static final String COLUMN_PRECIPITATION = WeatherEntry.COLUMN_PRECIPITATION;
+
+        /**
+         * Builds a URI to the summary of one day of the active location.
+         *
+         * @param date The normalized UTC date of the day
+         * @return Uri of that day
+         */
+        public static Uri buildDayUriWithDate(long date) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(Long.toString(date))
+                    .build();
         }
     }
-}
\ No newline at end of file
+}
@@ -17,37 +17,319 @@ package tw.edu.tku.csie.weatherforecast.data;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.os.AsyncTask;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import tw.edu.tku.csie.weatherforecast.R;
 
+/**
+ * Typed access to the preferences of the app.
+ * <p>
+ * The default SharedPreferences are loaded once per process, in the background if
+ * {@link #preload(Context)} was called early enough, and every preference is then read from an
+ * immutable {@link WeatherSettings} snapshot held in memory. The snapshot is replaced whenever a
+ * preference changes, right away for writes made through {@link #edit(Context)}, and then
+ * {@link OnSettingsChangedListener}s are notified. Several writes that belong together are made
+ * with one {@link Editor}, so that they are applied, and observed, at once.
+ * <p>
+ * The location of the device and the name of its city are not preferences, they are kept by
+ * {@link LocationStore}. The methods here that read or write them delegate to it.
+ */
 public final class WeatherAppPreferences {
 
     /*
-     * In order to uniquely pinpoint the location on the map when we launch the map intent, we
-     * store the latitude and longitude. We will also use the latitude and longitude to create
-     * queries for the weather.
+     * The _ID of the row of the location table whose forecast is displayed, see
+     * WeatherAppContract.WeatherEntry#CONTENT_URI.
+     */
+    public static final String PREF_ACTIVE_LOCATION_ID = "active_location_id";
+
+    /* Returned by getActiveLocationId before any location has been selected */
+    public static final long NO_LOCATION_ID = -1;
+
+    /**
+     * Notified on the main thread after a preference changed, with the snapshot that already
+     * holds the new value.
+     */
+    public interface OnSettingsChangedListener {
+        void onSettingsChanged(WeatherSettings settings, String key);
+    }
+
+    /**
+     * The keys and default values of the preferences, resolved from the resources once.
+     */
+    static final class Keys {
+        final String units;
+        final String unitsMetric;
+        final String useCurrentLocation;
+        final boolean useCurrentLocationByDefault;
+        final String localeLocation;
+        final String engLocation;
+        final String locationDefault;
+        final String enableNotifications;
+        final boolean notificationsByDefault;
+        final String syncUnmeteredOnly;
+        final boolean syncUnmeteredOnlyByDefault;
+        final String syncChargingOnly;
+        final boolean syncChargingOnlyByDefault;
+        final String lastNotification;
+
+        Keys(Resources resources) {
+            units = resources.getString(R.string.pref_units_key);
+            unitsMetric = resources.getString(R.string.pref_units_metric);
+            useCurrentLocation = resources.getString(R.string.pref_use_current_location_key);
+            useCurrentLocationByDefault =
+                    resources.getBoolean(R.bool.pref_use_current_location_by_default);
+            localeLocation = resources.getString(R.string.pref_locale_location_key);
+            engLocation = resources.getString(R.string.pref_en_location_key);
+            locationDefault = resources.getString(R.string.pref_location_default);
+            enableNotifications = resources.getString(R.string.pref_enable_notifications_key);
+            notificationsByDefault = resources.getBoolean(R.bool.show_notifications_by_default);
+            syncUnmeteredOnly = resources.getString(R.string.pref_sync_unmetered_only_key);
+            syncUnmeteredOnlyByDefault =
+                    resources.getBoolean(R.bool.pref_sync_unmetered_only_by_default);
+            syncChargingOnly = resources.getString(R.string.pref_sync_charging_only_key);
+            syncChargingOnlyByDefault =
+                    resources.getBoolean(R.bool.pref_sync_charging_only_by_default);
+            lastNotification = resources.getString(R.string.pref_last_notification);
+        }
+    }
+
+    private static final Object sLock = new Object();
+
+    /* Set once, guarded by sLock */
+    private static SharedPreferences sPreferences;
+    private static Keys sKeys;
+
+    /* Replaced, never modified, whenever a preference changes */
+    private static volatile WeatherSettings sSettings;
+
+    private static final List<OnSettingsChangedListener> sListeners =
+            new CopyOnWriteArrayList<>();
+
+    /*
+     * The keys an Editor applied on another thread already took a snapshot for. SharedPreferences
+     * only calls its listeners for them later, on the main thread. Guarded by sLock.
+     */
+    private static final List<String> sAppliedKeys = new ArrayList<>();
+
+    /* Set on the main thread while an Editor is applied there, collects the keys it changed */
+    private static List<String> sBatchKeys;
+
+    /*
+     * SharedPreferences only keeps weak references to its listeners, so this one is held here.
+     * It takes a new snapshot for the writes that don't go through an Editor, like those of the
+     * settings screen, and only notifies for those of an Editor, which took it already.
      */
-    public static final String PREF_COORD_LAT = "coord_lat";
-    public static final String PREF_COORD_LONG = "coord_long";
+    private static final SharedPreferences.OnSharedPreferenceChangeListener
+            sPreferenceChangeListener = (sharedPreferences, key) -> {
+                if (sBatchKeys != null) {
+                    sBatchKeys.add(key);
+                    return;
+                }
+                WeatherSettings settings;
+                synchronized (sLock) {
+                    settings = sAppliedKeys.remove(key) ? sSettings : refresh();
+                }
+                notifyListeners(settings, key);
+            };
+
+    private WeatherAppPreferences() {
+    }
 
     /**
-     * Helper method to handle setting location details in Preferences (city name, latitude,
-     * longitude)
-     * <p>
-     * When the location details are updated, the database should to be cleared.
+     * Loads the preferences and the location on a background thread, so that the first read on
+     * the main thread doesn't have to wait for their files. Call it as early as possible.
      *
-     * @param context  Context used to get the SharedPreferences
-     * @param lat      the latitude of the city
-     * @param lon      the longitude of the city
+     * @param context Used to get the SharedPreferences
      */
-    public static void setLocationDetails(Context context, double lat, double lon) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-        SharedPreferences.Editor editor = sp.edit();
+    public static void preload(Context context) {
+        if (sSettings != null) return;
+        final Context appContext = context.getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+            getSettings(appContext);
+            LocationStore.get(appContext);
+        });
+    }
 
-        editor.putLong(PREF_COORD_LAT, Double.doubleToRawLongBits(lat));
-        editor.putLong(PREF_COORD_LONG, Double.doubleToRawLongBits(lon));
-        editor.apply();
+    /**
+     * Returns the current preferences. The first call in a process waits for the preferences
+     * to be loaded, unless {@link #preload(Context)} already did it.
+     *
+     * @param context Used to get the SharedPreferences
+     * @return An immutable snapshot of every preference
+     */
+    public static WeatherSettings getSettings(Context context) {
+        WeatherSettings settings = sSettings;
+        if (settings != null) return settings;
+
+        synchronized (sLock) {
+            if (sSettings == null) {
+                Context appContext = context.getApplicationContext();
+                sKeys = new Keys(appContext.getResources());
+                sPreferences = PreferenceManager.getDefaultSharedPreferences(appContext);
+                sPreferences.registerOnSharedPreferenceChangeListener(sPreferenceChangeListener);
+                sSettings = new WeatherSettings(sPreferences, sKeys);
+            }
+            return sSettings;
+        }
+    }
+
+    /* Takes a new snapshot of the loaded preferences */
+    private static WeatherSettings refresh() {
+        synchronized (sLock) {
+            sSettings = new WeatherSettings(sPreferences, sKeys);
+            return sSettings;
+        }
+    }
+
+    private static void notifyListeners(WeatherSettings settings, String key) {
+        for (OnSettingsChangedListener listener : sListeners) {
+            listener.onSettingsChanged(settings, key);
+        }
+    }
+
+    private static Keys getKeys(Context context) {
+        getSettings(context);
+        return sKeys;
+    }
+
+    /**
+     * Registers a listener to be notified on the main thread whenever a preference changes.
+     *
+     * @param context  Used to get the SharedPreferences
+     * @param listener The listener, to be unregistered when it is no longer needed
+     */
+    public static void registerListener(Context context, OnSettingsChangedListener listener) {
+        getSettings(context);
+        sListeners.add(listener);
+    }
+
+    public static void unregisterListener(OnSettingsChangedListener listener) {
+        sListeners.remove(listener);
+    }
+
+    /**
+     * Starts a batch of writes. Nothing is written until {@link Editor#apply()}, which writes
+     * every change in a single commit and updates the snapshot before returning.
+     *
+     * @param context Used to get the SharedPreferences
+     * @return A new Editor
+     */
+    public static Editor edit(Context context) {
+        getSettings(context);
+        return new Editor(sPreferences.edit(), sKeys);
+    }
+
+    /**
+     * A batch of writes to the preferences, see {@link #edit(Context)}.
+     */
+    public static final class Editor {
+
+        private final SharedPreferences.Editor mEditor;
+        private final Keys mKeys;
+
+        /* The values written, by key */
+        private final Map<String, Object> mChanges = new HashMap<>();
+
+        private Editor(SharedPreferences.Editor editor, Keys keys) {
+            mEditor = editor;
+            mKeys = keys;
+        }
+
+        public Editor setLocalePreferredWeatherLocation(String location) {
+            mEditor.putString(mKeys.localeLocation, location);
+            mChanges.put(mKeys.localeLocation, location);
+            return this;
+        }
+
+        public Editor setEngPreferredWeatherLocation(String location) {
+            mEditor.putString(mKeys.engLocation, location);
+            mChanges.put(mKeys.engLocation, location);
+            return this;
+        }
+
+        public Editor setUseCurrentLocation(boolean value) {
+            mEditor.putBoolean(mKeys.useCurrentLocation, value);
+            mChanges.put(mKeys.useCurrentLocation, value);
+            return this;
+        }
+
+        /**
+         * Makes a saved location the one whose forecast is displayed. Callers are responsible
+         * for notifying WeatherAppContract.WeatherEntry#CONTENT_URI, since what it refers to
+         * changed.
+         *
+         * @param locationId the _ID of the location
+         * @return This Editor
+         */
+        public Editor setActiveLocationId(long locationId) {
+            mEditor.putLong(PREF_ACTIVE_LOCATION_ID, locationId);
+            mChanges.put(PREF_ACTIVE_LOCATION_ID, locationId);
+            return this;
+        }
+
+        public Editor setLastNotificationTime(long timeOfNotification) {
+            mEditor.putLong(mKeys.lastNotification, timeOfNotification);
+            mChanges.put(mKeys.lastNotification, timeOfNotification);
+            return this;
+        }
+
+        /**
+         * Writes every change of this batch at once. The in-memory preferences, and so the
+         * snapshot, are updated before this returns, the file is written in the background.
+         * A single snapshot is taken for the whole batch.
+         */
+        public void apply() {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                /* SharedPreferences calls its listeners before apply returns, on this thread */
+                List<String> keys = new ArrayList<>();
+                sBatchKeys = keys;
+                try {
+                    mEditor.apply();
+                } finally {
+                    sBatchKeys = null;
+                }
+                if (keys.isEmpty()) return;
+                WeatherSettings settings = refresh();
+                for (String key : keys) {
+                    notifyListeners(settings, key);
+                }
+                return;
+            }
+
+            synchronized (sLock) {
+                /* SharedPreferences only calls its listeners for the values that change */
+                Map<String, ?> current = sPreferences.getAll();
+                for (Map.Entry<String, Object> change : mChanges.entrySet()) {
+                    if (!change.getValue().equals(current.get(change.getKey()))) {
+                        sAppliedKeys.add(change.getKey());
+                    }
+                }
+                mEditor.apply();
+                refresh();
+            }
+        }
+    }
+
+    /**
+     * Saves the coordinates of the device, with an unknown accuracy and the current time as the
+     * time of the fix. They are kept by {@link LocationStore}, not in the SharedPreferences.
+     *
+     * @param context  Used to find the file of the LocationStore
+     * @param lat      the latitude of the device
+     * @param lon      the longitude of the device
+     */
+    public static void setLocationDetails(Context context, double lat, double lon) {
+        LocationStore.setCoordinates(context, lat, lon, LocationState.UNKNOWN_ACCURACY,
+                System.currentTimeMillis());
     }
 
     /**
@@ -56,12 +338,7 @@ public final class WeatherAppPreferences {
      * @param context Context used to get the SharedPreferences
      */
     public static void resetLocationCoordinates(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-        SharedPreferences.Editor editor = sp.edit();
-
-        editor.remove(PREF_COORD_LAT);
-        editor.remove(PREF_COORD_LONG);
-        editor.apply();
+        LocationStore.resetCoordinates(context);
     }
 
     /**
@@ -74,41 +351,19 @@ public final class WeatherAppPreferences {
      * "94043,USA" if SharedPreferences have not been implemented yet.
      */
     public static String getLocalePreferredWeatherLocation(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        String keyForLocation = context.getString(R.string.pref_locale_location_key);
-        String defaultLocation = context.getString(R.string.pref_location_default);
-
-        return sp.getString(keyForLocation, defaultLocation);
+        return getSettings(context).getLocalePreferredWeatherLocation();
     }
 
     public static void setLocalePreferredWeatherLocation(Context context, String location) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        String keyForLocation = context.getString(R.string.pref_locale_location_key);
-
-        SharedPreferences.Editor editor = sp.edit();
-        editor.putString(keyForLocation, location);
-        editor.apply();
+        edit(context).setLocalePreferredWeatherLocation(location).apply();
     }
 
     public static String getEngPreferredWeatherLocation(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        String keyForLocation = context.getString(R.string.pref_en_location_key);
-        String defaultLocation = context.getString(R.string.pref_location_default);
-
-        return sp.getString(keyForLocation, defaultLocation);
+        return getSettings(context).getEngPreferredWeatherLocation();
     }
 
     public static void setEngPreferredWeatherLocation(Context context, String city) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        String keyForLocation = context.getString(R.string.pref_en_location_key);
-
-        SharedPreferences.Editor editor = sp.edit();
-        editor.putString(keyForLocation, city);
-        editor.apply();
+        edit(context).setEngPreferredWeatherLocation(city).apply();
     }
 
     /**
@@ -118,56 +373,27 @@ public final class WeatherAppPreferences {
      * @return true if metric display should be used, false if imperial display should be used
      */
     public static boolean isMetric(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        String keyForUnits = context.getString(R.string.pref_units_key);
-        String defaultUnits = context.getString(R.string.pref_units_metric);
-        String preferredUnits = sp.getString(keyForUnits, defaultUnits);
-        String metric = context.getString(R.string.pref_units_metric);
-
-        boolean userPrefersMetric = false;
-        if (metric.equals(preferredUnits)) {
-            userPrefersMetric = true;
-        }
-
-        return userPrefersMetric;
+        return getSettings(context).isMetric();
     }
 
     public static boolean isUseCurrentLocation(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-        String key = context.getString(R.string.pref_use_current_location_key);
-        Boolean defaultValue = context.getResources().getBoolean(R.bool.pref_use_current_location_by_default);
-        return sp.getBoolean(key, defaultValue);
+        return getSettings(context).isUseCurrentLocation();
     }
 
     public static void setCurrentCity(Context context, String city) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-        String key = context.getString(R.string.pref_current_city_key);
-        SharedPreferences.Editor editor = sp.edit();
-        editor.putString(key, city);
-        editor.apply();
+        LocationStore.setCurrentCity(context, city);
     }
 
     public static String getCurrentCity(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-        String key = context.getString(R.string.pref_current_city_key);
-        return sp.getString(key, "");
+        return LocationStore.get(context).getCurrentCity();
     }
 
     public static void resetCurrentCity(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-        String key = context.getString(R.string.pref_current_city_key);
-        SharedPreferences.Editor editor = sp.edit();
-        editor.remove(key);
-        editor.apply();
+        LocationStore.setCurrentCity(context, null);
     }
 
     public static void setUseCurrentLocation(Context context, boolean value) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-        String key = context.getString(R.string.pref_use_current_location_key);
-        SharedPreferences.Editor editor = sp.edit();
-        editor.putBoolean(key, value);
-        editor.apply();
+        edit(context).setUseCurrentLocation(value).apply();
     }
 
     /**
@@ -179,25 +405,8 @@ public final class WeatherAppPreferences {
      * @return an array containing the two coordinate values for the user's preferred location
      */
     public static double[] getLocationCoordinates(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        double[] preferredCoordinates = new double[2];
-
-        /*
-         * This is a hack we have to resort to since you can't store doubles in SharedPreferences.
-         *
-         * Double.doubleToLongBits returns an integer corresponding to the bits of the given
-         * IEEE 754 double precision value.
-         *
-         * Double.longBitsToDouble does the opposite, converting a long (that represents a double)
-         * into the double itself.
-         */
-        preferredCoordinates[0] = Double
-                 .longBitsToDouble(sp.getLong(PREF_COORD_LAT, Double.doubleToRawLongBits(0.0)));
-        preferredCoordinates[1] = Double
-                .longBitsToDouble(sp.getLong(PREF_COORD_LONG, Double.doubleToRawLongBits(0.0)));
-
-        return preferredCoordinates;
+        LocationState state = LocationStore.get(context);
+        return new double[]{state.getLatitude(), state.getLongitude()};
     }
 
     /**
@@ -208,17 +417,28 @@ public final class WeatherAppPreferences {
      * @return true if lat/long are saved in SharedPreferences
      */
     public static boolean isLocationLatLonAvailable(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        boolean spContainLatitude = sp.contains(PREF_COORD_LAT);
-        boolean spContainLongitude = sp.contains(PREF_COORD_LONG);
+        return LocationStore.get(context).hasCoordinates();
+    }
 
-        boolean spContainBothLatitudeAndLongitude = false;
-        if (spContainLatitude && spContainLongitude) {
-            spContainBothLatitudeAndLongitude = true;
-        }
+    /**
+     * Returns the _ID of the location whose forecast is displayed.
+     *
+     * @param context used to get the SharedPreferences
+     * @return the _ID of the active location, or NO_LOCATION_ID if none was selected yet
+     */
+    public static long getActiveLocationId(Context context) {
+        return getSettings(context).getActiveLocationId();
+    }
 
-        return spContainBothLatitudeAndLongitude;
+    /**
+     * Makes a saved location the one whose forecast is displayed. Callers are responsible for
+     * notifying WeatherAppContract.WeatherEntry#CONTENT_URI, since what it refers to changed.
+     *
+     * @param context    Context used to get the SharedPreferences
+     * @param locationId the _ID of the location
+     */
+    public static void setActiveLocationId(Context context, long locationId) {
+        edit(context).setActiveLocationId(locationId).apply();
     }
 
     /**
@@ -229,54 +449,41 @@ public final class WeatherAppPreferences {
      * @return true if the user prefers to see notifications, false otherwise
      */
     public static boolean areNotificationsEnabled(Context context) {
-        /* Key for accessing the preference for showing notifications */
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-
-        /*
-         * In Sunshine, the user has the ability to say whether she would like notifications
-         * enabled or not. If no preference has been chosen, we want to be able to determine
-         * whether or not to show them. To do this, we reference a bool stored in bools.xml.
-         */
-        boolean shouldDisplayNotificationsByDefault = context
-                .getResources()
-                .getBoolean(R.bool.show_notifications_by_default);
-
-        /* As usual, we use the default SharedPreferences to access the user's preferences */
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return getSettings(context).areNotificationsEnabled();
+    }
 
-        /* If a value is stored with the key, we extract it here. If not, use a default. */
-        boolean shouldDisplayNotifications = sp
-                .getBoolean(displayNotificationsKey, shouldDisplayNotificationsByDefault);
+    /**
+     * Returns true if the user only wants the periodic sync to run on unmetered networks. This
+     * preference can be changed by the user within the SettingsFragment.
+     *
+     * @param context Used to access SharedPreferences
+     * @return true if the periodic sync must wait for an unmetered network
+     */
+    public static boolean isSyncUnmeteredOnly(Context context) {
+        return getSettings(context).isSyncUnmeteredOnly();
+    }
 
-        return shouldDisplayNotifications;
+    /**
+     * Returns true if the user only wants the periodic sync to run while the device is charging.
+     * This preference can be changed by the user within the SettingsFragment.
+     *
+     * @param context Used to access SharedPreferences
+     * @return true if the periodic sync must wait for the device to be charging
+     */
+    public static boolean isSyncChargingOnly(Context context) {
+        return getSettings(context).isSyncChargingOnly();
     }
 
     /**
-     * Returns the last time that a notification was shown (in UNIX time)
+     * Returns the last time that a notification was shown (in UNIX time). If no notification
+     * was shown yet, this is 0, so that the time since the last notification is always greater
+     * than a day and the next notification is shown.
      *
      * @param context Used to access SharedPreferences
      * @return UNIX time of when the last notification was shown
      */
     public static long getLastNotificationTimeInMillis(Context context) {
-        /* Key for accessing the time at which Sunshine last displayed a notification */
-        String lastNotificationKey = context.getString(R.string.pref_last_notification);
-
-        /* As usual, we use the default SharedPreferences to access the user's preferences */
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        /*
-         * Here, we retrieve the time in milliseconds when the last notification was shown. If
-         * SharedPreferences doesn't have a value for lastNotificationKey, we return 0. The reason
-         * we return 0 is because we compare the value returned from this method to the current
-         * system time. If the difference between the last notification time and the current time
-         * is greater than one day, we will show a notification again. When we compare the two
-         * values, we subtract the last notification time from the current system time. If the
-         * time of the last notification was 0, the difference will always be greater than the
-         * number of milliseconds in a day and we will show another notification.
-         */
-        long lastNotificationTime = sp.getLong(lastNotificationKey, 0);
-
-        return lastNotificationTime;
+        return getSettings(context).getLastNotificationTimeInMillis();
     }
 
     /**
@@ -302,10 +509,6 @@ public final class WeatherAppPreferences {
      * @param timeOfNotification Time of last notification to save (in UNIX time)
      */
     public static void saveLastNotificationTime(Context context, long timeOfNotification) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-        SharedPreferences.Editor editor = sp.edit();
-        String lastNotificationKey = context.getString(R.string.pref_last_notification);
-        editor.putLong(lastNotificationKey, timeOfNotification);
-        editor.apply();
+        edit(context).setLastNotificationTime(timeOfNotification).apply();
     }
-}
\ No newline at end of file
+}
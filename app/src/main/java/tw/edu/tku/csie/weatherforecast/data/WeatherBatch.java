@@ -0,0 +1,218 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import java.util.Arrays;
+
+/**
+ * A columnar batch of weather rows, one primitive array per column of the weather table. The
+ * parser fills it directly and it is handed to {@link WeatherProvider} through
+ * {@link android.content.ContentResolver#call} as a {@link Bundle}, so a sync doesn't allocate a
+ * {@link ContentValues} (and its boxed numbers) for every row.
+ */
+public final class WeatherBatch {
+
+    private static final int DEFAULT_CAPACITY = 40;
+
+    private static final String EXTRA_SIZE = "size";
+
+    private int mSize;
+
+    private long[] mDateTimes;
+    private int[] mWeatherIds;
+    private double[] mMinTemps;
+    private double[] mMaxTemps;
+    private double[] mHumidities;
+    private double[] mPressures;
+    private double[] mWindSpeeds;
+    private double[] mDegrees;
+    private double[] mPrecipitations;
+
+    public WeatherBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public WeatherBatch(int capacity) {
+        mDateTimes = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+        mPrecipitations = new double[capacity];
+    }
+
+    /**
+     * Appends a row to the batch.
+     */
+    public void add(long dateTime, int weatherId, double minTemp, double maxTemp,
+                    double humidity, double pressure, double windSpeed, double degrees,
+                    double precipitation) {
+        if (mSize == mDateTimes.length) {
+            grow();
+        }
+        mDateTimes[mSize] = dateTime;
+        mWeatherIds[mSize] = weatherId;
+        mMinTemps[mSize] = minTemp;
+        mMaxTemps[mSize] = maxTemp;
+        mHumidities[mSize] = humidity;
+        mPressures[mSize] = pressure;
+        mWindSpeeds[mSize] = windSpeed;
+        mDegrees[mSize] = degrees;
+        mPrecipitations[mSize] = precipitation;
+        mSize++;
+    }
+
+    private void grow() {
+        int capacity = Math.max(DEFAULT_CAPACITY, mDateTimes.length * 2);
+        mDateTimes = Arrays.copyOf(mDateTimes, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+        mPrecipitations = Arrays.copyOf(mPrecipitations, capacity);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getDateTime(int i) {
+        return mDateTimes[i];
+    }
+
+    public int getWeatherId(int i) {
+        return mWeatherIds[i];
+    }
+
+    public double getMinTemp(int i) {
+        return mMinTemps[i];
+    }
+
+    public double getMaxTemp(int i) {
+        return mMaxTemps[i];
+    }
+
+    public double getHumidity(int i) {
+        return mHumidities[i];
+    }
+
+    public double getPressure(int i) {
+        return mPressures[i];
+    }
+
+    public double getWindSpeed(int i) {
+        return mWindSpeeds[i];
+    }
+
+    public double getDegrees(int i) {
+        return mDegrees[i];
+    }
+
+    public double getPrecipitation(int i) {
+        return mPrecipitations[i];
+    }
+
+    /**
+     * Converts the batch to rows for callers that still work with {@link ContentValues}.
+     *
+     * @return One ContentValues per row
+     */
+    public ContentValues[] toContentValues() {
+        ContentValues[] weatherContentValues = new ContentValues[mSize];
+        for (int i = 0; i < mSize; i++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME, mDateTimes[i]);
+            weatherValues.put(WeatherAppContract.WeatherEntry.COLUMN_HUMIDITY, mHumidities[i]);
+            weatherValues.put(WeatherAppContract.WeatherEntry.COLUMN_PRESSURE, mPressures[i]);
+            weatherValues.put(WeatherAppContract.WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds[i]);
+            weatherValues.put(WeatherAppContract.WeatherEntry.COLUMN_DEGREES, mDegrees[i]);
+            weatherValues.put(WeatherAppContract.WeatherEntry.COLUMN_PRECIPITATION,
+                    mPrecipitations[i]);
+            weatherValues.put(WeatherAppContract.WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps[i]);
+            weatherValues.put(WeatherAppContract.WeatherEntry.COLUMN_MIN_TEMP, mMinTemps[i]);
+            weatherValues.put(WeatherAppContract.WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds[i]);
+            weatherContentValues[i] = weatherValues;
+        }
+        return weatherContentValues;
+    }
+
+    /**
+     * Packs the batch into a Bundle, one primitive array per column, keyed by column name.
+     *
+     * @return A Bundle that can be passed to {@link android.content.ContentResolver#call}
+     */
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putInt(EXTRA_SIZE, mSize);
+        bundle.putLongArray(WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME,
+                Arrays.copyOf(mDateTimes, mSize));
+        bundle.putIntArray(WeatherAppContract.WeatherEntry.COLUMN_WEATHER_ID,
+                Arrays.copyOf(mWeatherIds, mSize));
+        bundle.putDoubleArray(WeatherAppContract.WeatherEntry.COLUMN_MIN_TEMP,
+                Arrays.copyOf(mMinTemps, mSize));
+        bundle.putDoubleArray(WeatherAppContract.WeatherEntry.COLUMN_MAX_TEMP,
+                Arrays.copyOf(mMaxTemps, mSize));
+        bundle.putDoubleArray(WeatherAppContract.WeatherEntry.COLUMN_HUMIDITY,
+                Arrays.copyOf(mHumidities, mSize));
+        bundle.putDoubleArray(WeatherAppContract.WeatherEntry.COLUMN_PRESSURE,
+                Arrays.copyOf(mPressures, mSize));
+        bundle.putDoubleArray(WeatherAppContract.WeatherEntry.COLUMN_WIND_SPEED,
+                Arrays.copyOf(mWindSpeeds, mSize));
+        bundle.putDoubleArray(WeatherAppContract.WeatherEntry.COLUMN_DEGREES,
+                Arrays.copyOf(mDegrees, mSize));
+        bundle.putDoubleArray(WeatherAppContract.WeatherEntry.COLUMN_PRECIPITATION,
+                Arrays.copyOf(mPrecipitations, mSize));
+        return bundle;
+    }
+
+    /**
+     * Unpacks a batch packed by {@link #toBundle()}.
+     *
+     * @param bundle The Bundle received by the ContentProvider
+     * @return The batch
+     * @throws IllegalArgumentException If a column is missing or has the wrong length
+     */
+    public static WeatherBatch fromBundle(Bundle bundle) {
+        WeatherBatch batch = new WeatherBatch(0);
+        batch.mSize = bundle.getInt(EXTRA_SIZE, -1);
+        batch.mDateTimes = bundle.getLongArray(WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME);
+        batch.mWeatherIds = bundle.getIntArray(WeatherAppContract.WeatherEntry.COLUMN_WEATHER_ID);
+        batch.mMinTemps = bundle.getDoubleArray(WeatherAppContract.WeatherEntry.COLUMN_MIN_TEMP);
+        batch.mMaxTemps = bundle.getDoubleArray(WeatherAppContract.WeatherEntry.COLUMN_MAX_TEMP);
+        batch.mHumidities = bundle.getDoubleArray(WeatherAppContract.WeatherEntry.COLUMN_HUMIDITY);
+        batch.mPressures = bundle.getDoubleArray(WeatherAppContract.WeatherEntry.COLUMN_PRESSURE);
+        batch.mWindSpeeds = bundle.getDoubleArray(WeatherAppContract.WeatherEntry.COLUMN_WIND_SPEED);
+        batch.mDegrees = bundle.getDoubleArray(WeatherAppContract.WeatherEntry.COLUMN_DEGREES);
+        batch.mPrecipitations =
+                bundle.getDoubleArray(WeatherAppContract.WeatherEntry.COLUMN_PRECIPITATION);
+
+        if (batch.mSize < 0
+                || !hasLength(batch.mDateTimes, batch.mSize)
+                || batch.mWeatherIds == null || batch.mWeatherIds.length < batch.mSize
+                || !hasLength(batch.mMinTemps, batch.mSize)
+                || !hasLength(batch.mMaxTemps, batch.mSize)
+                || !hasLength(batch.mHumidities, batch.mSize)
+                || !hasLength(batch.mPressures, batch.mSize)
+                || !hasLength(batch.mWindSpeeds, batch.mSize)
+                || !hasLength(batch.mDegrees, batch.mSize)
+                || !hasLength(batch.mPrecipitations, batch.mSize)) {
+            throw new IllegalArgumentException("Malformed weather batch");
+        }
+        return batch;
+    }
+
+    private static boolean hasLength(long[] column, int size) {
+        return column != null && column.length >= size;
+    }
+
+    private static boolean hasLength(double[] column, int size) {
+        return column != null && column.length >= size;
+    }
+}
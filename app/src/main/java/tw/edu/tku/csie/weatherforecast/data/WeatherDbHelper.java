@@ -17,7 +17,10 @@ package tw.edu.tku.csie.weatherforecast.data;
 
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
+import android.util.Log;
 
 /**
  * Manages a local database for weather data.
@@ -41,10 +44,97 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      * use-case, we wanted to watch out for it and warn you what could happen if you mistakenly
      * version your databases.
      */
-    private static final int DATABASE_VERSION = 3;
+    static final int DATABASE_VERSION = 8;
+
+    /*
+     * The timeline of the detail screen, the startup check and DayAggregator select the forecast
+     * of one location ordered by date. With the location and the date first, this index serves the
+     * lookup, the range and the sort, and because it also holds every column of a
+     * {@link ForecastSnapshot}, those queries never have to read the table itself.
+     */
+    static final String INDEX_WEATHER_DATE_TIME = "weather_date_time_covering";
+
+    /*
+     * The history is read by location and time range, and compacted and dropped by location and
+     * day, so rows are keyed by location, then day: each day of a location is a contiguous range
+     * of this index, which is what a partition would give us. It also keeps a sync from appending
+     * the same row twice.
+     */
+    static final String INDEX_HISTORY_PARTITION = "history_partition";
+
+    /*
+     * The unique index SQLite creates for the (location, date) constraint of the day table. It
+     * serves the "today onwards" query of the list, which the table is small enough to answer
+     * without a covering index.
+     */
+    static final String INDEX_DAY_AUTOINDEX = "sqlite_autoindex_day_1";
+
+    private static final String TAG = WeatherDbHelper.class.getSimpleName();
+
+    /* Passed to the migrations, which may need the preferences */
+    private final Context mContext;
+
+    /* When the database started being opened, and how long onCreate or onUpgrade took, if run */
+    private long mOpenStartMillis;
+    private long mSchemaMillis;
+
+    /* Set by onUpgrade when it kept the data, so that onOpen finishes the upgrade */
+    private boolean mMigrated;
 
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mContext = context.getApplicationContext();
+        /*
+         * With write-ahead logging, the sync writing a forecast never blocks the lists reading
+         * one: readers see the last committed data through their own connections of the pool of
+         * the database, while the single writer appends to the log.
+         */
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Opens the database, creating or upgrading it if needed, so that the first query doesn't
+     * have to. Called on a background thread once the provider is created.
+     */
+    void prewarm() {
+        try {
+            getWritableDatabase();
+        } catch (SQLiteException e) {
+            /* The first query will try again and report it */
+            Log.w(TAG, "Could not open the database", e);
+        }
+    }
+
+    /**
+     * Enables foreign key constraints, so that deleting a location also deletes its forecast.
+     * This is the first callback of an open, so the open is timed from here.
+     *
+     * @param db The database.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        mOpenStartMillis = SystemClock.elapsedRealtime();
+        mSchemaMillis = 0;
+        mMigrated = false;
+        db.setForeignKeyConstraintsEnabled(true);
+    }
+
+    /**
+     * Logs how long the database took to open, and how much of that was spent creating or
+     * upgrading it. An upgrade is committed by now, so this is where it writes the preferences,
+     * see {@link WeatherDbMigrations#activateMigratedLocation(Context, SQLiteDatabase)}.
+     *
+     * @param db The database.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        if (mMigrated) {
+            mMigrated = false;
+            WeatherDbMigrations.activateMigratedLocation(mContext, db);
+        }
+        Log.i(TAG, "Opened " + DATABASE_NAME + " in "
+                + (SystemClock.elapsedRealtime() - mOpenStartMillis) + " ms, "
+                + mSchemaMillis + " ms of which creating or upgrading it");
     }
 
     /**
@@ -55,6 +145,30 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        long startMillis = SystemClock.elapsedRealtime();
+
+        /*
+         * Every location we keep a forecast for. The key identifies a location independently of
+         * its _ID, so that picking the same city again finds the row it already has.
+         */
+        final String SQL_CREATE_LOCATION_TABLE =
+
+                "CREATE TABLE " + WeatherAppContract.LocationEntry.TABLE_NAME + " (" +
+
+                WeatherAppContract.LocationEntry._ID                 + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+                WeatherAppContract.LocationEntry.COLUMN_LOCATION_KEY + " TEXT NOT NULL, "                   +
+
+                WeatherAppContract.LocationEntry.COLUMN_QUERY        + " TEXT, "                            +
+                WeatherAppContract.LocationEntry.COLUMN_LATITUDE     + " REAL, "                            +
+                WeatherAppContract.LocationEntry.COLUMN_LONGITUDE    + " REAL, "                            +
+
+                WeatherAppContract.LocationEntry.COLUMN_DISPLAY_NAME + " TEXT, "                            +
+                WeatherAppContract.LocationEntry.COLUMN_LAST_USED    + " INTEGER NOT NULL DEFAULT 0, "      +
+
+                " UNIQUE (" + WeatherAppContract.LocationEntry.COLUMN_LOCATION_KEY + "));";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
 
         /*
          * This String will contain a simple SQL statement that will create a table that will
@@ -71,6 +185,10 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                  */
                 WeatherAppContract.WeatherEntry._ID               + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
 
+                WeatherAppContract.WeatherEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL REFERENCES "      +
+                WeatherAppContract.LocationEntry.TABLE_NAME + " (" + WeatherAppContract.LocationEntry._ID +
+                ") ON DELETE CASCADE, "                                                                    +
+
                 WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME + " INTEGER NOT NULL, "                 +
 
                 WeatherAppContract.WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"                  +
@@ -84,28 +202,142 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 WeatherAppContract.WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "                    +
                 WeatherAppContract.WeatherEntry.COLUMN_DEGREES    + " REAL NOT NULL, "                    +
 
+                WeatherAppContract.WeatherEntry.COLUMN_PRECIPITATION + " REAL NOT NULL DEFAULT 0, "       +
+
                 /*
-                 * To ensure this table can only contain one weather entry per date, we declare
-                 * the date column to be unique. We also specify "ON CONFLICT REPLACE". This tells
-                 * SQLite that if we have a weather entry for a certain date and we attempt to
-                 * insert another weather entry with that date, we replace the old weather entry.
+                 * To ensure this table can only contain one weather entry per date and location,
+                 * we declare the pair to be unique. We also specify "ON CONFLICT REPLACE". This
+                 * tells SQLite that if we have a weather entry for a certain date and location and
+                 * we attempt to insert another one, we replace the old weather entry.
                  */
-                " UNIQUE (" + WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME + ") ON CONFLICT REPLACE);";
+                " UNIQUE (" + WeatherAppContract.WeatherEntry.COLUMN_LOCATION_ID + ", "
+                        + WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME + ") ON CONFLICT REPLACE);";
 
         /*
          * After we've spelled out our SQLite table creation statement above, we actually execute
          * that SQL with the execSQL method of our SQLite database object.
          */
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+
+        final String SQL_CREATE_WEATHER_DATE_TIME_INDEX =
+                "CREATE INDEX " + INDEX_WEATHER_DATE_TIME + " ON "
+                        + WeatherAppContract.WeatherEntry.TABLE_NAME + " ("
+                        + WeatherAppContract.WeatherEntry.COLUMN_LOCATION_ID + ", "
+                        + WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME + ", "
+                        + WeatherAppContract.WeatherEntry.COLUMN_MAX_TEMP + ", "
+                        + WeatherAppContract.WeatherEntry.COLUMN_MIN_TEMP + ", "
+                        + WeatherAppContract.WeatherEntry.COLUMN_WEATHER_ID + ", "
+                        + WeatherAppContract.WeatherEntry.COLUMN_HUMIDITY + ", "
+                        + WeatherAppContract.WeatherEntry.COLUMN_PRESSURE + ", "
+                        + WeatherAppContract.WeatherEntry.COLUMN_WIND_SPEED + ", "
+                        + WeatherAppContract.WeatherEntry.COLUMN_DEGREES + ", "
+                        + WeatherAppContract.WeatherEntry.COLUMN_PRECIPITATION + ");";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_DATE_TIME_INDEX);
+
+        createHistoryTable(sqLiteDatabase);
+        createDayTable(sqLiteDatabase);
+        mSchemaMillis = SystemClock.elapsedRealtime() - startMillis;
+    }
+
+    /**
+     * Creates the history table, see {@link WeatherAppContract.HistoryEntry}, and its index.
+     *
+     * @param sqLiteDatabase The database.
+     */
+    private static void createHistoryTable(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_HISTORY_TABLE =
+
+                "CREATE TABLE " + WeatherAppContract.HistoryEntry.TABLE_NAME + " (" +
+
+                WeatherAppContract.HistoryEntry._ID               + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+                WeatherAppContract.HistoryEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL REFERENCES "      +
+                WeatherAppContract.LocationEntry.TABLE_NAME + " (" + WeatherAppContract.LocationEntry._ID +
+                ") ON DELETE CASCADE, "                                                                    +
+
+                WeatherAppContract.HistoryEntry.COLUMN_DAY        + " INTEGER NOT NULL, "                 +
+                WeatherAppContract.HistoryEntry.COLUMN_DATE_TIME  + " INTEGER NOT NULL, "                 +
+                WeatherAppContract.HistoryEntry.COLUMN_ISSUED_AT  + " INTEGER NOT NULL, "                 +
+                WeatherAppContract.HistoryEntry.COLUMN_RESOLUTION + " INTEGER NOT NULL, "                 +
+
+                WeatherAppContract.HistoryEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, "                 +
+
+                WeatherAppContract.HistoryEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, "                    +
+                WeatherAppContract.HistoryEntry.COLUMN_MAX_TEMP   + " REAL NOT NULL, "                    +
+
+                WeatherAppContract.HistoryEntry.COLUMN_HUMIDITY   + " REAL NOT NULL, "                    +
+                WeatherAppContract.HistoryEntry.COLUMN_PRESSURE   + " REAL NOT NULL, "                    +
+
+                WeatherAppContract.HistoryEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "                    +
+                WeatherAppContract.HistoryEntry.COLUMN_DEGREES    + " REAL NOT NULL, "                    +
+                WeatherAppContract.HistoryEntry.COLUMN_PRECIPITATION + " REAL NOT NULL DEFAULT 0);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_TABLE);
+
+        final String SQL_CREATE_HISTORY_PARTITION_INDEX =
+                "CREATE UNIQUE INDEX " + INDEX_HISTORY_PARTITION + " ON "
+                        + WeatherAppContract.HistoryEntry.TABLE_NAME + " ("
+                        + WeatherAppContract.HistoryEntry.COLUMN_LOCATION_ID + ", "
+                        + WeatherAppContract.HistoryEntry.COLUMN_DAY + ", "
+                        + WeatherAppContract.HistoryEntry.COLUMN_DATE_TIME + ", "
+                        + WeatherAppContract.HistoryEntry.COLUMN_ISSUED_AT + ", "
+                        + WeatherAppContract.HistoryEntry.COLUMN_RESOLUTION + ");";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_PARTITION_INDEX);
     }
 
     /**
-     * This database is only a cache for online data, so its upgrade policy is simply to discard
-     * the data and call through to onCreate to recreate the table. Note that this only fires if
-     * you change the version number for your database (in our case, DATABASE_VERSION). It does NOT
-     * depend on the version number for your application found in your app/build.gradle file. If
-     * you want to update the schema without wiping data, commenting out the current body of this
-     * method should be your top priority before modifying this method.
+     * Creates the day table, see {@link WeatherAppContract.DayEntry}.
+     *
+     * @param sqLiteDatabase The database.
+     */
+    private static void createDayTable(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_DAY_TABLE =
+
+                "CREATE TABLE " + WeatherAppContract.DayEntry.TABLE_NAME + " (" +
+
+                WeatherAppContract.DayEntry._ID               + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+                WeatherAppContract.DayEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL REFERENCES "      +
+                WeatherAppContract.LocationEntry.TABLE_NAME + " (" + WeatherAppContract.LocationEntry._ID +
+                ") ON DELETE CASCADE, "                                                                +
+
+                WeatherAppContract.DayEntry.COLUMN_DATE_TIME  + " INTEGER NOT NULL, "                 +
+
+                WeatherAppContract.DayEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, "                 +
+
+                WeatherAppContract.DayEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, "                    +
+                WeatherAppContract.DayEntry.COLUMN_MAX_TEMP   + " REAL NOT NULL, "                    +
+
+                WeatherAppContract.DayEntry.COLUMN_HUMIDITY   + " REAL NOT NULL, "                    +
+                WeatherAppContract.DayEntry.COLUMN_PRESSURE   + " REAL NOT NULL, "                    +
+
+                WeatherAppContract.DayEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "                    +
+                WeatherAppContract.DayEntry.COLUMN_DEGREES    + " REAL NOT NULL, "                    +
+
+                WeatherAppContract.DayEntry.COLUMN_PRECIPITATION + " REAL NOT NULL, "                 +
+
+                /* One summary per day and location, see INDEX_DAY_AUTOINDEX */
+                " UNIQUE (" + WeatherAppContract.DayEntry.COLUMN_LOCATION_ID + ", "
+                        + WeatherAppContract.DayEntry.COLUMN_DATE_TIME + ") ON CONFLICT REPLACE);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_DAY_TABLE);
+    }
+
+    /**
+     * Upgrades the database step by step with {@link WeatherDbMigrations}, keeping its data, so
+     * that a new version of the app doesn't have to download every forecast again. Note that this
+     * only fires if you change the version number for your database (in our case,
+     * DATABASE_VERSION). It does NOT depend on the version number for your application found in
+     * your app/build.gradle file. Any change of the schema needs a new version and a new step.
+     * <p>
+     * SQLiteOpenHelper runs this in a transaction, so a step that fails leaves the database at its
+     * old version. A database the steps don't know how to upgrade is only a cache for online data,
+     * so it is discarded and created again.
+     * <p>
+     * The days are derived from the forecast, so rather than by the steps, they are computed again
+     * by the current {@link DayAggregator} once the schema is up to date.
      *
      * @param sqLiteDatabase Database that is being upgraded
      * @param oldVersion     The old database version
@@ -113,7 +345,43 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        long startMillis = SystemClock.elapsedRealtime();
+        Log.i(TAG, "Upgrading " + DATABASE_NAME + " from version " + oldVersion + " to "
+                + newVersion);
+        mMigrated = WeatherDbMigrations.migrate(mContext, sqLiteDatabase, oldVersion, newVersion);
+        if (!mMigrated) {
+            Log.w(TAG, "No migration from version " + oldVersion + ", recreating the database");
+            recreate(sqLiteDatabase);
+        }
+        DayAggregator.aggregateAll(sqLiteDatabase);
+        mSchemaMillis = SystemClock.elapsedRealtime() - startMillis;
+    }
+
+    /**
+     * A newer version of the app left a schema this one doesn't know, so the database is
+     * discarded and created again rather than failing to open.
+     *
+     * @param sqLiteDatabase Database that is being downgraded
+     * @param oldVersion     The old database version
+     * @param newVersion     The new database version
+     */
+    @Override
+    public void onDowngrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        Log.w(TAG, "Downgrading " + DATABASE_NAME + " from version " + oldVersion + " to "
+                + newVersion + ", recreating the database");
+        recreate(sqLiteDatabase);
+    }
+
+    /**
+     * Drops every table and creates the current schema.
+     *
+     * @param sqLiteDatabase The database.
+     */
+    private void recreate(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherAppContract.DayEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherAppContract.HistoryEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherAppContract.WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherAppContract.LocationEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
\ No newline at end of file
@@ -0,0 +1,284 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import tw.edu.tku.csie.weatherforecast.data.WeatherAppContract.DayEntry;
+import tw.edu.tku.csie.weatherforecast.data.WeatherAppContract.HistoryEntry;
+import tw.edu.tku.csie.weatherforecast.data.WeatherAppContract.LocationEntry;
+import tw.edu.tku.csie.weatherforecast.data.WeatherAppContract.WeatherEntry;
+
+/**
+ * The steps that upgrade the weather database from one released version to the next while
+ * keeping its data, so that an update of the app doesn't make every user download their forecast
+ * again.
+ * <p>
+ * Each step describes the schema of the version it upgrades to as it was when that version was
+ * released, it must not change afterwards: a schema change is a new version with a new step, and
+ * {@link WeatherDbHelper#onCreate} is updated to create the same schema directly. Versions that
+ * were never released don't get a step of their own, the step from the last release goes
+ * straight to the next one.
+ * <p>
+ * SQLiteOpenHelper runs onUpgrade in a single transaction, so the steps of an upgrade either all
+ * apply or none do. For the same reason the steps only touch the database: what has to be kept
+ * outside of it is written once the upgrade is committed, see
+ * {@link #activateMigratedLocation(Context, SQLiteDatabase)}.
+ * <p>
+ * Tables derived from others, like the days, are only created here: WeatherDbHelper fills them
+ * once every step has run.
+ */
+final class WeatherDbMigrations {
+
+    private static final String TAG = WeatherDbMigrations.class.getSimpleName();
+
+    /* The version of the first release, there is no older database to upgrade */
+    static final int FIRST_VERSION = 3;
+
+    /**
+     * Upgrades the database from one released version to the next.
+     */
+    interface Migration {
+        /**
+         * @param context Used to read what an older version kept outside of the database
+         * @param db      The database, at the version before this step
+         */
+        void migrate(Context context, SQLiteDatabase db);
+    }
+
+    /**
+     * A migration and the versions it upgrades from and to.
+     */
+    private static final class Step {
+        final int mFromVersion;
+        final int mToVersion;
+        final Migration mMigration;
+
+        Step(int fromVersion, int toVersion, Migration migration) {
+            mFromVersion = fromVersion;
+            mToVersion = toVersion;
+            mMigration = migration;
+        }
+    }
+
+    /* In the order of the versions, the first one from FIRST_VERSION */
+    private static final Step[] STEPS = {
+            /* Versions 4 to 7 were never released */
+            new Step(3, 8, WeatherDbMigrations::migrate3To8)
+    };
+
+    /* The version the last step upgrades to */
+    static final int LAST_VERSION = STEPS[STEPS.length - 1].mToVersion;
+
+    private WeatherDbMigrations() {
+    }
+
+    /**
+     * Runs every step from one version to another, logging how long each of them took.
+     *
+     * @param context    Passed to the steps
+     * @param db         The database, at oldVersion
+     * @param oldVersion The version of the database
+     * @param newVersion The version to upgrade it to
+     * @return false if there are no steps from oldVersion to newVersion, in which case nothing
+     * was changed
+     */
+    static boolean migrate(Context context, SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < FIRST_VERSION || oldVersion > newVersion) {
+            return false;
+        }
+
+        /* Every step is found before any of them runs */
+        List<Step> steps = new ArrayList<>();
+        for (int version = oldVersion; version < newVersion; ) {
+            Step step = findStep(version);
+            if (step == null || step.mToVersion > newVersion) {
+                return false;
+            }
+            steps.add(step);
+            version = step.mToVersion;
+        }
+
+        for (Step step : steps) {
+            long startMillis = SystemClock.elapsedRealtime();
+            step.mMigration.migrate(context, db);
+            Log.i(TAG, "Migrated from version " + step.mFromVersion + " to " + step.mToVersion
+                    + " in " + (SystemClock.elapsedRealtime() - startMillis) + " ms");
+        }
+        return true;
+    }
+
+    private static Step findStep(int fromVersion) {
+        for (Step step : STEPS) {
+            if (step.mFromVersion == fromVersion) {
+                return step;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Version 8 stores forecasts per location, with the precipitation of each row, behind an index
+     * that covers every column the list and the detail screen read. It also adds the forecast
+     * history, which starts out empty, and the days the list reads.
+     * <p>
+     * Until then, the forecast was the one of the location in the preferences, so a location is
+     * created from the preferences for it, and the weather table is rebuilt with the location of
+     * its rows.
+     */
+    private static void migrate3To8(Context context, SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + LocationEntry.TABLE_NAME + " ("
+                + LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + LocationEntry.COLUMN_LOCATION_KEY + " TEXT NOT NULL, "
+                + LocationEntry.COLUMN_QUERY + " TEXT, "
+                + LocationEntry.COLUMN_LATITUDE + " REAL, "
+                + LocationEntry.COLUMN_LONGITUDE + " REAL, "
+                + LocationEntry.COLUMN_DISPLAY_NAME + " TEXT, "
+                + LocationEntry.COLUMN_LAST_USED + " INTEGER NOT NULL DEFAULT 0, "
+                + " UNIQUE (" + LocationEntry.COLUMN_LOCATION_KEY + "))");
+
+        final String newWeatherTable = WeatherEntry.TABLE_NAME + "_v8";
+        db.execSQL("CREATE TABLE " + newWeatherTable + " ("
+                + WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + WeatherEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL REFERENCES "
+                + LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + ") ON DELETE CASCADE, "
+                + WeatherEntry.COLUMN_DATE_TIME + " INTEGER NOT NULL, "
+                + WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"
+                + WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_PRECIPITATION + " REAL NOT NULL DEFAULT 0, "
+                + " UNIQUE (" + WeatherEntry.COLUMN_LOCATION_ID + ", "
+                + WeatherEntry.COLUMN_DATE_TIME + ") ON CONFLICT REPLACE)");
+
+        if (DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME) > 0) {
+            long locationId = db.insertOrThrow(LocationEntry.TABLE_NAME, null,
+                    buildPreferredLocation(context));
+
+            /* Version 3 didn't record the precipitation, it is left at its default */
+            final String columns = WeatherEntry.COLUMN_DATE_TIME + ", "
+                    + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                    + WeatherEntry.COLUMN_MIN_TEMP + ", "
+                    + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                    + WeatherEntry.COLUMN_HUMIDITY + ", "
+                    + WeatherEntry.COLUMN_PRESSURE + ", "
+                    + WeatherEntry.COLUMN_WIND_SPEED + ", "
+                    + WeatherEntry.COLUMN_DEGREES;
+            db.execSQL("INSERT INTO " + newWeatherTable + " ("
+                            + WeatherEntry.COLUMN_LOCATION_ID + ", " + columns + ")"
+                            + " SELECT ?, " + columns + " FROM " + WeatherEntry.TABLE_NAME,
+                    new Object[]{locationId});
+        }
+
+        db.execSQL("DROP TABLE " + WeatherEntry.TABLE_NAME);
+        db.execSQL("ALTER TABLE " + newWeatherTable + " RENAME TO " + WeatherEntry.TABLE_NAME);
+        db.execSQL("CREATE INDEX weather_date_time_covering ON " + WeatherEntry.TABLE_NAME + " ("
+                + WeatherEntry.COLUMN_LOCATION_ID + ", "
+                + WeatherEntry.COLUMN_DATE_TIME + ", "
+                + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                + WeatherEntry.COLUMN_MIN_TEMP + ", "
+                + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                + WeatherEntry.COLUMN_HUMIDITY + ", "
+                + WeatherEntry.COLUMN_PRESSURE + ", "
+                + WeatherEntry.COLUMN_WIND_SPEED + ", "
+                + WeatherEntry.COLUMN_DEGREES + ", "
+                + WeatherEntry.COLUMN_PRECIPITATION + ")");
+
+        db.execSQL("CREATE TABLE " + HistoryEntry.TABLE_NAME + " ("
+                + HistoryEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + HistoryEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL REFERENCES "
+                + LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + ") ON DELETE CASCADE, "
+                + HistoryEntry.COLUMN_DAY + " INTEGER NOT NULL, "
+                + HistoryEntry.COLUMN_DATE_TIME + " INTEGER NOT NULL, "
+                + HistoryEntry.COLUMN_ISSUED_AT + " INTEGER NOT NULL, "
+                + HistoryEntry.COLUMN_RESOLUTION + " INTEGER NOT NULL, "
+                + HistoryEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, "
+                + HistoryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, "
+                + HistoryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, "
+                + HistoryEntry.COLUMN_HUMIDITY + " REAL NOT NULL, "
+                + HistoryEntry.COLUMN_PRESSURE + " REAL NOT NULL, "
+                + HistoryEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "
+                + HistoryEntry.COLUMN_DEGREES + " REAL NOT NULL, "
+                + HistoryEntry.COLUMN_PRECIPITATION + " REAL NOT NULL DEFAULT 0)");
+        db.execSQL("CREATE UNIQUE INDEX history_partition ON " + HistoryEntry.TABLE_NAME + " ("
+                + HistoryEntry.COLUMN_LOCATION_ID + ", "
+                + HistoryEntry.COLUMN_DAY + ", "
+                + HistoryEntry.COLUMN_DATE_TIME + ", "
+                + HistoryEntry.COLUMN_ISSUED_AT + ", "
+                + HistoryEntry.COLUMN_RESOLUTION + ")");
+
+        db.execSQL("CREATE TABLE " + DayEntry.TABLE_NAME + " ("
+                + DayEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + DayEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL REFERENCES "
+                + LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + ") ON DELETE CASCADE, "
+                + DayEntry.COLUMN_DATE_TIME + " INTEGER NOT NULL, "
+                + DayEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, "
+                + DayEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, "
+                + DayEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, "
+                + DayEntry.COLUMN_HUMIDITY + " REAL NOT NULL, "
+                + DayEntry.COLUMN_PRESSURE + " REAL NOT NULL, "
+                + DayEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "
+                + DayEntry.COLUMN_DEGREES + " REAL NOT NULL, "
+                + DayEntry.COLUMN_PRECIPITATION + " REAL NOT NULL, "
+                + " UNIQUE (" + DayEntry.COLUMN_LOCATION_ID + ", "
+                + DayEntry.COLUMN_DATE_TIME + ") ON CONFLICT REPLACE)");
+    }
+
+    /**
+     * Builds the location the preferences described before version 8, with the same key
+     * SyncTask#selectPreferredLocation gives it, so that the next sync finds it.
+     */
+    private static ContentValues buildPreferredLocation(Context context) {
+        WeatherSettings settings = WeatherAppPreferences.getSettings(context);
+        ContentValues location = new ContentValues();
+        if (settings.isUseCurrentLocation()) {
+            location.put(LocationEntry.COLUMN_LOCATION_KEY, LocationEntry.KEY_CURRENT_LOCATION);
+        } else {
+            String query = settings.getEngPreferredWeatherLocation();
+            location.put(LocationEntry.COLUMN_LOCATION_KEY,
+                    LocationEntry.buildQueryLocationKey(query));
+            location.put(LocationEntry.COLUMN_QUERY, query);
+            location.put(LocationEntry.COLUMN_DISPLAY_NAME,
+                    settings.getLocalePreferredWeatherLocation());
+        }
+        location.put(LocationEntry.COLUMN_LAST_USED, System.currentTimeMillis());
+        return location;
+    }
+
+    /**
+     * Makes the location the upgrade created from the preferences the active one. Versions before
+     * 8 had no active location, the forecast they displayed was the one of that location.
+     * <p>
+     * The preferences can't be rolled back with the upgrade, so this is called once it has been
+     * committed, see WeatherDbHelper#onOpen.
+     *
+     * @param context Used to write the preferences
+     * @param db      The upgraded database
+     */
+    static void activateMigratedLocation(Context context, SQLiteDatabase db) {
+        if (WeatherAppPreferences.getActiveLocationId(context)
+                != WeatherAppPreferences.NO_LOCATION_ID) {
+            return;
+        }
+
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, new String[]{LocationEntry._ID},
+                null, null, null, null, LocationEntry.COLUMN_LAST_USED + " DESC", "1");
+        try {
+            if (cursor.moveToFirst()) {
+                WeatherAppPreferences.edit(context).setActiveLocationId(cursor.getLong(0)).apply();
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
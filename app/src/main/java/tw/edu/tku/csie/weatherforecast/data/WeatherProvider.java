@@ -20,9 +20,23 @@ import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.provider.BaseColumns;
 import android.support.annotation.NonNull;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import tw.edu.tku.csie.weatherforecast.utilities.WeatherAppDateUtils;
 
 /**
  * This class serves as the ContentProvider for all of Sunshine's data. This class allows us to
@@ -43,6 +57,122 @@ public class WeatherProvider extends ContentProvider {
      */
     public static final int CODE_WEATHER = 100;
     public static final int CODE_WEATHER_WITH_DATE = 101;
+    public static final int CODE_WEATHER_MERGE = 102;
+
+    public static final int CODE_LOCATION = 200;
+    public static final int CODE_LOCATION_WITH_ID = 201;
+    public static final int CODE_LOCATION_WEATHER = 202;
+    public static final int CODE_LOCATION_WEATHER_WITH_DATE = 203;
+    public static final int CODE_LOCATION_WEATHER_MERGE = 204;
+    public static final int CODE_LOCATION_HISTORY = 205;
+    public static final int CODE_LOCATION_HISTORY_WITH_RANGE = 206;
+    public static final int CODE_LOCATION_DAY = 207;
+
+    public static final int CODE_HISTORY = 300;
+    public static final int CODE_HISTORY_WITH_RANGE = 301;
+
+    public static final int CODE_DAY = 400;
+    public static final int CODE_DAY_WITH_DATE = 401;
+
+    /*
+     * The columns written by bulk inserts and merges, in the order they are bound to the compiled
+     * statements below. If the order of these columns changes, the bind* methods must be adjusted.
+     * The location of the rows is bound last, at LOCATION_ID_INDEX.
+     */
+    private static final String[] WEATHER_COLUMNS = {
+            WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME,
+            WeatherAppContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherAppContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherAppContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherAppContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherAppContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherAppContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherAppContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherAppContract.WeatherEntry.COLUMN_PRECIPITATION
+    };
+
+    /* Older callers of bulkInsert don't know about it, it is 0 when they leave it out */
+    private static final int PRECIPITATION_COLUMN_INDEX = WEATHER_COLUMNS.length - 1;
+
+    private static final int LOCATION_ID_INDEX = WEATHER_COLUMNS.length + 1;
+
+    /*
+     * Compiled once per transaction instead of letting SQLiteDatabase#insert build the SQL again
+     * for every row.
+     */
+    private static final String SQL_INSERT_WEATHER =
+            "INSERT INTO " + WeatherAppContract.WeatherEntry.TABLE_NAME
+                    + " (" + TextUtils.join(", ", WEATHER_COLUMNS) + ", "
+                    + WeatherAppContract.WeatherEntry.COLUMN_LOCATION_ID + ")"
+                    + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /*
+     * Same binding order as SQL_INSERT_WEATHER: the date comes first and is the key together
+     * with the location
+     */
+    private static final String SQL_UPDATE_WEATHER =
+            "UPDATE " + WeatherAppContract.WeatherEntry.TABLE_NAME + " SET "
+                    + WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME + " = ?1, "
+                    + WeatherAppContract.WeatherEntry.COLUMN_WEATHER_ID + " = ?2, "
+                    + WeatherAppContract.WeatherEntry.COLUMN_MIN_TEMP + " = ?3, "
+                    + WeatherAppContract.WeatherEntry.COLUMN_MAX_TEMP + " = ?4, "
+                    + WeatherAppContract.WeatherEntry.COLUMN_HUMIDITY + " = ?5, "
+                    + WeatherAppContract.WeatherEntry.COLUMN_PRESSURE + " = ?6, "
+                    + WeatherAppContract.WeatherEntry.COLUMN_WIND_SPEED + " = ?7, "
+                    + WeatherAppContract.WeatherEntry.COLUMN_DEGREES + " = ?8, "
+                    + WeatherAppContract.WeatherEntry.COLUMN_PRECIPITATION + " = ?9"
+                    + " WHERE " + WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME + " = ?1"
+                    + " AND " + WeatherAppContract.WeatherEntry.COLUMN_LOCATION_ID + " = ?10";
+
+    private static final String SQL_DELETE_WEATHER_WITH_DATE =
+            "DELETE FROM " + WeatherAppContract.WeatherEntry.TABLE_NAME
+                    + " WHERE " + WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME + " = ?"
+                    + " AND " + WeatherAppContract.WeatherEntry.COLUMN_LOCATION_ID + " = ?";
+
+    /*
+     * Every row a merge inserts or updates is also appended to the history, with the same binding
+     * order as SQL_INSERT_WEATHER and the issue time bound last. Replacing keeps a second merge in
+     * the same millisecond from failing.
+     */
+    private static final String SQL_INSERT_HISTORY =
+            "INSERT OR REPLACE INTO " + WeatherAppContract.HistoryEntry.TABLE_NAME
+                    + " (" + TextUtils.join(", ", WEATHER_COLUMNS) + ", "
+                    + WeatherAppContract.HistoryEntry.COLUMN_LOCATION_ID + ", "
+                    + WeatherAppContract.HistoryEntry.COLUMN_DAY + ", "
+                    + WeatherAppContract.HistoryEntry.COLUMN_RESOLUTION + ", "
+                    + WeatherAppContract.HistoryEntry.COLUMN_ISSUED_AT + ")"
+                    + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, "
+                    + WeatherAppContract.HistoryEntry.RESOLUTION_THREE_HOURLY + ", ?)";
+
+    private static final int HISTORY_DAY_INDEX = LOCATION_ID_INDEX + 1;
+    private static final int HISTORY_ISSUED_AT_INDEX = HISTORY_DAY_INDEX + 1;
+
+    /*
+     * A range of the history, by day first so that SQLite only visits the days of the range in
+     * the index of the history, then by the exact times
+     */
+    static final String SELECTION_HISTORY_RANGE =
+            WeatherAppContract.HistoryEntry.COLUMN_DAY + " >= ? AND "
+                    + WeatherAppContract.HistoryEntry.COLUMN_DAY + " <= ? AND "
+                    + WeatherAppContract.HistoryEntry.COLUMN_DATE_TIME + " >= ? AND "
+                    + WeatherAppContract.HistoryEntry.COLUMN_DATE_TIME + " < ?";
+
+    /*
+     * By time, then by issue time. The day comes first even though it follows from the time,
+     * so that the rows are read in the order of the index of the history and never sorted.
+     */
+    static final String HISTORY_SORT_ORDER =
+            WeatherAppContract.HistoryEntry.COLUMN_DAY + ", "
+                    + WeatherAppContract.HistoryEntry.COLUMN_DATE_TIME + ", "
+                    + WeatherAppContract.HistoryEntry.COLUMN_ISSUED_AT;
+
+    private static final String SELECTION_LOCATION_ID =
+            WeatherAppContract.WeatherEntry.COLUMN_LOCATION_ID + " = ?";
+
+    private static final String SELECTION_LOCATION_KEY =
+            WeatherAppContract.LocationEntry.COLUMN_LOCATION_KEY + " = ?";
+
+    private static final String SELECTION_ID = BaseColumns._ID + " = ?";
 
     /*
      * The URI Matcher used by this content provider. The leading "s" in this variable name
@@ -50,8 +180,32 @@ public class WeatherProvider extends ContentProvider {
      * common convention in Android programming.
      */
     private static final UriMatcher sUriMatcher = buildUriMatcher();
+
+    private static final String TAG = WeatherProvider.class.getSimpleName();
+
+    /*
+     * How far the high or the low of a row has to move for the row to count as revised. The
+     * server adjusts most values by a fraction of a degree on every run of its model.
+     */
+    private static final double REVISED_TEMP_DELTA = 2.0;
+
     private WeatherDbHelper mOpenHelper;
 
+    /**
+     * What a merge wrote, see {@link #merge(SQLiteDatabase, long, WeatherBatch, long)}.
+     */
+    static final class MergeResult {
+        /* The rows inserted, updated or deleted */
+        final int rowsChanged;
+        /* The updated rows whose condition changed or whose temperatures moved noticeably */
+        final int rowsRevised;
+
+        MergeResult(int rowsChanged, int rowsRevised) {
+            this.rowsChanged = rowsChanged;
+            this.rowsRevised = rowsRevised;
+        }
+    }
+
     /**
      * Creates the UriMatcher that will match each URI to the CODE_WEATHER and
      * CODE_WEATHER_WITH_DATE constants defined above.
@@ -66,7 +220,7 @@ public class WeatherProvider extends ContentProvider {
      * been tested and proven, you should almost always use it unless there is a compelling
      * reason not to.
      *
-     * @return A UriMatcher that correctly matches the constants for CODE_WEATHER and CODE_WEATHER_WITH_DATE
+     * @return A UriMatcher that correctly matches the CODE_* constants defined above
      */
     public static UriMatcher buildUriMatcher() {
 
@@ -94,6 +248,49 @@ public class WeatherProvider extends ContentProvider {
          */
         matcher.addURI(authority, WeatherAppContract.PATH_WEATHER + "/#", CODE_WEATHER_WITH_DATE);
 
+        /* This URI is content://com.example.android.sunshine/weather/merge */
+        matcher.addURI(authority,
+                WeatherAppContract.PATH_WEATHER + "/" + WeatherAppContract.PATH_MERGE,
+                CODE_WEATHER_MERGE);
+
+        /* This URI is content://com.example.android.sunshine/location/ */
+        matcher.addURI(authority, WeatherAppContract.PATH_LOCATION, CODE_LOCATION);
+
+        /* This URI would look something like content://com.example.android.sunshine/location/3 */
+        matcher.addURI(authority, WeatherAppContract.PATH_LOCATION + "/#", CODE_LOCATION_WITH_ID);
+
+        /*
+         * The three weather URIs again, scoped to a given location instead of the active one, for
+         * example content://com.example.android.sunshine/location/3/weather/1472214172
+         */
+        String locationWeatherPath = WeatherAppContract.PATH_LOCATION + "/#/"
+                + WeatherAppContract.PATH_WEATHER;
+        matcher.addURI(authority, locationWeatherPath, CODE_LOCATION_WEATHER);
+        matcher.addURI(authority, locationWeatherPath + "/#", CODE_LOCATION_WEATHER_WITH_DATE);
+        matcher.addURI(authority, locationWeatherPath + "/" + WeatherAppContract.PATH_MERGE,
+                CODE_LOCATION_WEATHER_MERGE);
+
+        /*
+         * The history, of the active location or of a given one, optionally followed by a time
+         * range, for example content://com.example.android.sunshine/history/1472169600000/1472256000000
+         */
+        matcher.addURI(authority, WeatherAppContract.PATH_HISTORY, CODE_HISTORY);
+        matcher.addURI(authority, WeatherAppContract.PATH_HISTORY + "/#/#",
+                CODE_HISTORY_WITH_RANGE);
+        String locationHistoryPath = WeatherAppContract.PATH_LOCATION + "/#/"
+                + WeatherAppContract.PATH_HISTORY;
+        matcher.addURI(authority, locationHistoryPath, CODE_LOCATION_HISTORY);
+        matcher.addURI(authority, locationHistoryPath + "/#/#", CODE_LOCATION_HISTORY_WITH_RANGE);
+
+        /*
+         * The days, of the active location or of a given one, for example
+         * content://com.example.android.sunshine/location/3/day
+         */
+        matcher.addURI(authority, WeatherAppContract.PATH_DAY, CODE_DAY);
+        matcher.addURI(authority, WeatherAppContract.PATH_DAY + "/#", CODE_DAY_WITH_DATE);
+        matcher.addURI(authority, WeatherAppContract.PATH_LOCATION + "/#/"
+                + WeatherAppContract.PATH_DAY, CODE_LOCATION_DAY);
+
         return matcher;
     }
 
@@ -120,9 +317,151 @@ public class WeatherProvider extends ContentProvider {
          * very lightweight, we are safe to perform that initialization here.
          */
         mOpenHelper = new WeatherDbHelper(getContext());
+
+        /*
+         * Opening the database, possibly creating or upgrading it, is not. It is done right away
+         * on the pool the loaders run on, so the first query of the list or of the sync finds it
+         * open, or waits for it without opening it a second time.
+         */
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(mOpenHelper::prewarm);
         return true;
     }
 
+    /**
+     * Returns the location a weather URI refers to: the one in the URI for the URIs under
+     * {@link WeatherAppContract.LocationEntry#CONTENT_URI}, the active location otherwise.
+     *
+     * @param match The code sUriMatcher returned for the URI
+     * @param uri   A weather URI
+     * @return The _ID of the location
+     */
+    private long getLocationId(int match, Uri uri) {
+        switch (match) {
+            case CODE_LOCATION_WEATHER:
+            case CODE_LOCATION_WEATHER_WITH_DATE:
+            case CODE_LOCATION_WEATHER_MERGE:
+            case CODE_LOCATION_HISTORY:
+            case CODE_LOCATION_HISTORY_WITH_RANGE:
+            case CODE_LOCATION_DAY:
+                return Long.parseLong(uri.getPathSegments().get(1));
+
+            default:
+                return getActiveLocationIdOrThrow();
+        }
+    }
+
+    /**
+     * Returns the active location, for writes that don't name one. A weather row can't be stored
+     * without a location, so writing before any location was selected is an error.
+     */
+    private long getActiveLocationIdOrThrow() {
+        long locationId = WeatherAppPreferences.getActiveLocationId(getContext());
+        if (locationId == WeatherAppPreferences.NO_LOCATION_ID) {
+            throw new IllegalStateException("No location has been selected yet");
+        }
+        return locationId;
+    }
+
+    /**
+     * Notifies the observers of the forecast of a location, with a single notification.
+     * ContentResolver notifies the observers of a URI and of every URI below it, so notifying the
+     * location reaches the observers of its weather, history and days. The forecast of the active
+     * location is also served at {@link WeatherAppContract.WeatherEntry#CONTENT_URI} and the other
+     * top-level URIs, so for that one, every URI of the provider is notified at once. The cached
+     * forecast is dropped first, so that observers read the new one.
+     *
+     * @param locationId The _ID of the location whose weather changed
+     */
+    private void notifyWeatherChange(long locationId) {
+        ForecastCache.invalidate(locationId);
+
+        Uri uri = locationId == WeatherAppPreferences.getActiveLocationId(getContext())
+                ? WeatherAppContract.BASE_CONTENT_URI
+                : WeatherAppContract.LocationEntry.buildLocationUri(locationId);
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    /**
+     * Restricts a selection on the weather table to the rows of one location.
+     *
+     * @param selection The selection of the caller, may be null
+     * @return The selection, to be used with {@link #withLocationArg}
+     */
+    static String withLocationSelection(String selection) {
+        if (TextUtils.isEmpty(selection)) {
+            return SELECTION_LOCATION_ID;
+        }
+        return SELECTION_LOCATION_ID + " AND (" + selection + ")";
+    }
+
+    /**
+     * Queries the history of a location over a range of time.
+     *
+     * @param db            The readable database
+     * @param locationId    The _ID of the location
+     * @param fromMillis    Start of the range (inclusive), in UTC milliseconds
+     * @param toMillis      End of the range (exclusive), in UTC milliseconds
+     * @param projection    The columns to return, null for all of them
+     * @param selection     A further selection of the caller, may be null
+     * @param selectionArgs The arguments of that selection, may be null
+     * @param sortOrder     The order of the rows, null for by time and then by issue time
+     * @return The rows of the history within the range
+     */
+    static Cursor queryHistoryRange(SQLiteDatabase db, long locationId, long fromMillis,
+                                    long toMillis, String[] projection, String selection,
+                                    String[] selectionArgs, String sortOrder) {
+        String[] rangeArgs = {
+                Long.toString(WeatherAppDateUtils.normalizeDate(fromMillis)),
+                Long.toString(WeatherAppDateUtils.normalizeDate(toMillis)),
+                Long.toString(fromMillis),
+                Long.toString(toMillis)
+        };
+
+        return db.query(
+                WeatherAppContract.HistoryEntry.TABLE_NAME,
+                projection,
+                withLocationSelection(TextUtils.isEmpty(selection)
+                        ? SELECTION_HISTORY_RANGE
+                        : SELECTION_HISTORY_RANGE + " AND (" + selection + ")"),
+                withLocationArg(locationId, concat(rangeArgs, selectionArgs)),
+                null,
+                null,
+                sortOrder != null ? sortOrder : HISTORY_SORT_ORDER);
+    }
+
+    /**
+     * Concatenates two arrays of selection arguments.
+     *
+     * @param first  The arguments that come first
+     * @param second The arguments that follow, may be null
+     * @return Both, in order
+     */
+    private static String[] concat(String[] first, String[] second) {
+        if (second == null || second.length == 0) return first;
+        String[] args = new String[first.length + second.length];
+        System.arraycopy(first, 0, args, 0, first.length);
+        System.arraycopy(second, 0, args, first.length, second.length);
+        return args;
+    }
+
+    /**
+     * Prepends the location to the arguments of a selection built by
+     * {@link #withLocationSelection}.
+     *
+     * @param locationId    The _ID of the location
+     * @param selectionArgs The arguments of the caller, may be null
+     * @return The arguments of the restricted selection
+     */
+    static String[] withLocationArg(long locationId, String[] selectionArgs) {
+        int argCount = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] args = new String[argCount + 1];
+        args[0] = Long.toString(locationId);
+        if (argCount > 0) {
+            System.arraycopy(selectionArgs, 0, args, 1, argCount);
+        }
+        return args;
+    }
+
     /**
      * Handles requests to insert a set of new rows. In Sunshine, we are only going to be
      * inserting multiple rows of data at a time from a weather forecast. There is no use case
@@ -130,44 +469,430 @@ public class WeatherProvider extends ContentProvider {
      * implement bulkInsert. In a normal ContentProvider's implementation, you will probably want
      * to provide proper functionality for the insert method as well.
      *
+     * When the URI is {@link WeatherAppContract.WeatherEntry#CONTENT_MERGE_URI}, the values are
+     * the complete new forecast and are merged into the table instead, see
+     * {@link #mergeWeather(SQLiteDatabase, long, WeatherBatch)}.
+     *
+     * Both are also available under a location, for a location other than the active one.
+     *
      * @param uri    The content:// URI of the insertion request.
      * @param values An array of sets of column_name/value pairs to add to the database.
      *               This must not be {@code null}.
      *
-     * @return The number of values that were inserted.
+     * @return The number of values that were inserted, or the number of rows that were changed
+     * by a merge.
      */
     @Override
     public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int match = sUriMatcher.match(uri);
 
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
 
             case CODE_WEATHER:
-                db.beginTransaction();
-                int rowsInserted = 0;
-                try {
-                    for (ContentValues value : values) {
-                        long _id = db.insert(WeatherAppContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            rowsInserted++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
-                }
+            case CODE_LOCATION_WEATHER: {
+                long locationId = getLocationId(match, uri);
+                int rowsInserted = insertWeather(db, locationId, values);
 
                 if (rowsInserted > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    notifyWeatherChange(locationId);
                 }
 
                 return rowsInserted;
+            }
+
+            case CODE_WEATHER_MERGE:
+            case CODE_LOCATION_WEATHER_MERGE: {
+                WeatherBatch batch = new WeatherBatch(values.length);
+                for (ContentValues value : values) {
+                    addToBatch(batch, value);
+                }
+
+                return mergeWeatherAndNotify(db, getLocationId(match, uri), batch);
+            }
 
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Handles {@link WeatherAppContract.WeatherEntry#METHOD_BULK_INSERT_BATCH} and
+     * {@link WeatherAppContract.WeatherEntry#METHOD_MERGE_BATCH}, the columnar counterparts of
+     * {@link #bulkInsert} on CONTENT_URI and CONTENT_MERGE_URI. The rows are passed as a
+     * {@link WeatherBatch} packed in the extras, so no ContentValues are allocated.
+     *
+     * @param method One of the METHOD_* constants of WeatherEntry
+     * @param arg    The _ID of the location of the rows, null for the active location
+     * @param extras The rows, as packed by {@link WeatherBatch#toBundle()}
+     * @return A Bundle holding the number of rows written under
+     * {@link WeatherAppContract.WeatherEntry#EXTRA_ROWS_CHANGED}
+     */
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        int rowsChanged;
+        int rowsRevised = 0;
+
+        switch (method) {
+            case WeatherAppContract.WeatherEntry.METHOD_BULK_INSERT_BATCH: {
+                long locationId = arg == null ? getActiveLocationIdOrThrow() : Long.parseLong(arg);
+                rowsChanged = insertWeatherBatch(mOpenHelper.getWritableDatabase(), locationId,
+                        WeatherBatch.fromBundle(extras));
+                if (rowsChanged > 0) {
+                    notifyWeatherChange(locationId);
+                }
+                break;
+            }
+
+            case WeatherAppContract.WeatherEntry.METHOD_MERGE_BATCH: {
+                long locationId = arg == null ? getActiveLocationIdOrThrow() : Long.parseLong(arg);
+                MergeResult merge = mergeWeatherAndNotify(mOpenHelper.getWritableDatabase(),
+                        locationId, WeatherBatch.fromBundle(extras));
+                rowsChanged = merge.rowsChanged;
+                rowsRevised = merge.rowsRevised;
+                break;
+            }
+
+            case WeatherAppContract.HistoryEntry.METHOD_COMPACT: {
+                rowsChanged = HistoryCompactor.compact(mOpenHelper.getWritableDatabase(),
+                        System.currentTimeMillis());
+                if (rowsChanged > 0) {
+                    getContext().getContentResolver().notifyChange(
+                            WeatherAppContract.HistoryEntry.CONTENT_URI, null);
+                    getContext().getContentResolver().notifyChange(
+                            WeatherAppContract.LocationEntry.CONTENT_URI, null);
+                }
+                break;
+            }
+
+            default:
+                return super.call(method, arg, extras);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherAppContract.WeatherEntry.EXTRA_ROWS_CHANGED, rowsChanged);
+        result.putInt(WeatherAppContract.WeatherEntry.EXTRA_ROWS_REVISED, rowsRevised);
+        return result;
+    }
+
+    /**
+     * Inserts rows in a single transaction through one compiled statement. Rows that can't be
+     * inserted (a missing column for instance) are skipped, as SQLiteDatabase#insert would do.
+     *
+     * @param db         The writable database
+     * @param locationId The _ID of the location of the rows
+     * @param values     The rows to insert
+     * @return The number of rows inserted
+     */
+    static int insertWeather(SQLiteDatabase db, long locationId, ContentValues[] values) {
+        int rowsInserted = 0;
+
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement(SQL_INSERT_WEATHER);
+            try {
+                for (ContentValues value : values) {
+                    bindWeatherValues(insert, value);
+                    insert.bindLong(LOCATION_ID_INDEX, locationId);
+                    try {
+                        if (insert.executeInsert() != -1) {
+                            rowsInserted++;
+                        }
+                    } catch (SQLiteConstraintException e) {
+                        Log.e(TAG, "Skipping invalid weather row " + value, e);
+                    }
+                }
+            } finally {
+                insert.close();
+            }
+            if (rowsInserted > 0) {
+                DayAggregator.aggregate(db, locationId);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Inserts a columnar batch in a single transaction through one compiled statement. Like
+     * {@link #insertWeather(SQLiteDatabase, long, ContentValues[])}, rows that violate a
+     * constraint are skipped rather than failing the whole batch.
+     *
+     * @param db         The writable database
+     * @param locationId The _ID of the location of the rows
+     * @param batch      The rows to insert
+     * @return The number of rows inserted
+     */
+    static int insertWeatherBatch(SQLiteDatabase db, long locationId, WeatherBatch batch) {
+        int rowsInserted = 0;
+
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement(SQL_INSERT_WEATHER);
+            try {
+                insert.bindLong(LOCATION_ID_INDEX, locationId);
+                for (int i = 0; i < batch.size(); i++) {
+                    bindWeatherBatchRow(insert, batch, i);
+                    try {
+                        if (insert.executeInsert() != -1) {
+                            rowsInserted++;
+                        }
+                    } catch (SQLiteConstraintException e) {
+                        Log.e(TAG, "Skipping invalid weather row at "
+                                + batch.getDateTime(i), e);
+                    }
+                }
+            } finally {
+                insert.close();
+            }
+            if (rowsInserted > 0) {
+                DayAggregator.aggregate(db, locationId);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Merges a batch and sends exactly one notification for the whole merge, or none if nothing
+     * changed.
+     */
+    private MergeResult mergeWeatherAndNotify(SQLiteDatabase db, long locationId,
+                                              WeatherBatch batch) {
+        MergeResult merge = merge(db, locationId, batch, System.currentTimeMillis());
+
+        if (merge.rowsChanged > 0) {
+            notifyWeatherChange(locationId);
+        }
+
+        return merge;
+    }
+
+    /**
+     * Merges a batch issued now, see {@link #mergeWeather(SQLiteDatabase, long, WeatherBatch, long)}.
+     */
+    static int mergeWeather(SQLiteDatabase db, long locationId, WeatherBatch batch) {
+        return mergeWeather(db, locationId, batch, System.currentTimeMillis());
+    }
+
+    /**
+     * Replaces the forecast of a location with the given rows in a single transaction, writing as
+     * little as possible. Rows are matched by
+     * {@link WeatherAppContract.WeatherEntry#COLUMN_DATE_TIME}: new dates are inserted, dates
+     * whose values changed are updated, unchanged rows are left alone and rows that are no longer
+     * part of the forecast are deleted. The forecasts of other locations are not touched.
+     * <p>
+     * Inserted and updated rows are appended to the history in the same transaction. Deleted rows
+     * have fallen out of the forecast window and are already in the history. If anything changed,
+     * the days of the location are summarized again, also in the same transaction.
+     *
+     * @param db             The writable database
+     * @param locationId     The _ID of the location of the rows
+     * @param batch          The complete new forecast
+     * @param issuedAtMillis When the forecast was downloaded, recorded in the history
+     * @return The number of rows inserted, updated or deleted
+     */
+    static int mergeWeather(SQLiteDatabase db, long locationId, WeatherBatch batch,
+                            long issuedAtMillis) {
+        return merge(db, locationId, batch, issuedAtMillis).rowsChanged;
+    }
+
+    /**
+     * Same as {@link #mergeWeather(SQLiteDatabase, long, WeatherBatch, long)}, also counting the
+     * rows whose forecast was revised. Rows inserted or deleted as the forecast window slides,
+     * and rows whose values only moved slightly, are not revisions.
+     *
+     * @return What the merge wrote
+     */
+    static MergeResult merge(SQLiteDatabase db, long locationId, WeatherBatch batch,
+                             long issuedAtMillis) {
+        int rowsChanged = 0;
+        int rowsRevised = 0;
+
+        db.beginTransaction();
+        try {
+            /* Index what we already have by date */
+            WeatherBatch existingRows;
+            Map<Long, Integer> existingRowIndices = new HashMap<>();
+            Cursor cursor = db.query(WeatherAppContract.WeatherEntry.TABLE_NAME, WEATHER_COLUMNS,
+                    SELECTION_LOCATION_ID, new String[]{Long.toString(locationId)},
+                    null, null, null);
+            try {
+                existingRows = new WeatherBatch(cursor.getCount());
+                while (cursor.moveToNext()) {
+                    existingRowIndices.put(cursor.getLong(0), existingRows.size());
+                    existingRows.add(cursor.getLong(0), cursor.getInt(1),
+                            cursor.getDouble(2), cursor.getDouble(3), cursor.getDouble(4),
+                            cursor.getDouble(5), cursor.getDouble(6), cursor.getDouble(7),
+                            cursor.getDouble(8));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            SQLiteStatement insert = db.compileStatement(SQL_INSERT_WEATHER);
+            SQLiteStatement update = db.compileStatement(SQL_UPDATE_WEATHER);
+            SQLiteStatement delete = db.compileStatement(SQL_DELETE_WEATHER_WITH_DATE);
+            SQLiteStatement history = db.compileStatement(SQL_INSERT_HISTORY);
+            try {
+                insert.bindLong(LOCATION_ID_INDEX, locationId);
+                update.bindLong(LOCATION_ID_INDEX, locationId);
+                delete.bindLong(2, locationId);
+                history.bindLong(LOCATION_ID_INDEX, locationId);
+                history.bindLong(HISTORY_ISSUED_AT_INDEX, issuedAtMillis);
+
+                for (int i = 0; i < batch.size(); i++) {
+                    Integer existingRow = existingRowIndices.remove(batch.getDateTime(i));
+                    boolean changed = false;
+
+                    if (existingRow == null) {
+                        bindWeatherBatchRow(insert, batch, i);
+                        if (insert.executeInsert() != -1) {
+                            rowsChanged++;
+                            changed = true;
+                        }
+                    } else if (!isSameWeather(existingRows, existingRow, batch, i)) {
+                        bindWeatherBatchRow(update, batch, i);
+                        int rowsUpdated = update.executeUpdateDelete();
+                        rowsChanged += rowsUpdated;
+                        changed = rowsUpdated > 0;
+                        if (changed && isRevised(existingRows, existingRow, batch, i)) {
+                            rowsRevised++;
+                        }
+                    }
+
+                    if (changed) {
+                        bindWeatherBatchRow(history, batch, i);
+                        history.bindLong(HISTORY_DAY_INDEX,
+                                WeatherAppDateUtils.normalizeDate(batch.getDateTime(i)));
+                        history.executeInsert();
+                    }
+                }
+
+                /* Whatever is left over has fallen out of the new forecast window */
+                for (Long dateTime : existingRowIndices.keySet()) {
+                    delete.bindLong(1, dateTime);
+                    rowsChanged += delete.executeUpdateDelete();
+                }
+            } finally {
+                insert.close();
+                update.close();
+                delete.close();
+                history.close();
+            }
+
+            if (rowsChanged > 0) {
+                DayAggregator.aggregate(db, locationId);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return new MergeResult(rowsChanged, rowsRevised);
+    }
+
+    /**
+     * Compares the forecast of a row read from the weather table with a new row of the same date.
+     *
+     * @return true if the condition changed, or if the high or the low moved by more than
+     * REVISED_TEMP_DELTA
+     */
+    private static boolean isRevised(WeatherBatch existingRows, int existingRow,
+                                     WeatherBatch newRows, int newRow) {
+        return existingRows.getWeatherId(existingRow) != newRows.getWeatherId(newRow)
+                || Math.abs(existingRows.getMaxTemp(existingRow) - newRows.getMaxTemp(newRow))
+                > REVISED_TEMP_DELTA
+                || Math.abs(existingRows.getMinTemp(existingRow) - newRows.getMinTemp(newRow))
+                > REVISED_TEMP_DELTA;
+    }
+
+    /**
+     * Compares a row read from the weather table with a new row of the same date.
+     *
+     * @return true if none of the columns changed
+     */
+    private static boolean isSameWeather(WeatherBatch existingRows, int existingRow,
+                                         WeatherBatch newRows, int newRow) {
+        return existingRows.getWeatherId(existingRow) == newRows.getWeatherId(newRow)
+                && Double.compare(existingRows.getMinTemp(existingRow), newRows.getMinTemp(newRow)) == 0
+                && Double.compare(existingRows.getMaxTemp(existingRow), newRows.getMaxTemp(newRow)) == 0
+                && Double.compare(existingRows.getHumidity(existingRow), newRows.getHumidity(newRow)) == 0
+                && Double.compare(existingRows.getPressure(existingRow), newRows.getPressure(newRow)) == 0
+                && Double.compare(existingRows.getWindSpeed(existingRow), newRows.getWindSpeed(newRow)) == 0
+                && Double.compare(existingRows.getDegrees(existingRow), newRows.getDegrees(newRow)) == 0
+                && Double.compare(existingRows.getPrecipitation(existingRow), newRows.getPrecipitation(newRow)) == 0;
+    }
+
+    /**
+     * Binds one row of a batch positionally, in the order of {@link #WEATHER_COLUMNS}.
+     */
+    private static void bindWeatherBatchRow(SQLiteStatement statement, WeatherBatch batch, int i) {
+        statement.bindLong(1, batch.getDateTime(i));
+        statement.bindLong(2, batch.getWeatherId(i));
+        statement.bindDouble(3, batch.getMinTemp(i));
+        statement.bindDouble(4, batch.getMaxTemp(i));
+        statement.bindDouble(5, batch.getHumidity(i));
+        statement.bindDouble(6, batch.getPressure(i));
+        statement.bindDouble(7, batch.getWindSpeed(i));
+        statement.bindDouble(8, batch.getDegrees(i));
+        statement.bindDouble(9, batch.getPrecipitation(i));
+    }
+
+    /**
+     * Binds a set of ContentValues positionally, in the order of {@link #WEATHER_COLUMNS}. A
+     * missing column is bound as NULL, which the NOT NULL constraints of the table reject, except
+     * for the precipitation, which is 0.
+     */
+    private static void bindWeatherValues(SQLiteStatement statement, ContentValues values) {
+        statement.clearBindings();
+
+        Long dateTime = values.getAsLong(WEATHER_COLUMNS[0]);
+        if (dateTime != null) statement.bindLong(1, dateTime);
+
+        Long weatherId = values.getAsLong(WEATHER_COLUMNS[1]);
+        if (weatherId != null) statement.bindLong(2, weatherId);
+
+        for (int column = 2; column < WEATHER_COLUMNS.length; column++) {
+            Double value = values.getAsDouble(WEATHER_COLUMNS[column]);
+            if (value != null) {
+                statement.bindDouble(column + 1, value);
+            } else if (column == PRECIPITATION_COLUMN_INDEX) {
+                statement.bindDouble(column + 1, 0);
+            }
+        }
+    }
+
+    /**
+     * Appends a set of ContentValues to a batch, skipping it if a column other than the
+     * precipitation is missing.
+     */
+    private static void addToBatch(WeatherBatch batch, ContentValues values) {
+        for (int column = 0; column < PRECIPITATION_COLUMN_INDEX; column++) {
+            if (values.get(WEATHER_COLUMNS[column]) == null) {
+                Log.e(TAG, "Skipping incomplete weather row " + values);
+                return;
+            }
+        }
+        Double precipitation =
+                values.getAsDouble(WeatherAppContract.WeatherEntry.COLUMN_PRECIPITATION);
+        batch.add(values.getAsLong(WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME),
+                values.getAsInteger(WeatherAppContract.WeatherEntry.COLUMN_WEATHER_ID),
+                values.getAsDouble(WeatherAppContract.WeatherEntry.COLUMN_MIN_TEMP),
+                values.getAsDouble(WeatherAppContract.WeatherEntry.COLUMN_MAX_TEMP),
+                values.getAsDouble(WeatherAppContract.WeatherEntry.COLUMN_HUMIDITY),
+                values.getAsDouble(WeatherAppContract.WeatherEntry.COLUMN_PRESSURE),
+                values.getAsDouble(WeatherAppContract.WeatherEntry.COLUMN_WIND_SPEED),
+                values.getAsDouble(WeatherAppContract.WeatherEntry.COLUMN_DEGREES),
+                precipitation == null ? 0 : precipitation);
+    }
+
     /**
      * Handles query requests from clients. We will use this method in Sunshine to query for all
      * of our weather data as well as to query for the weather on a particular day.
@@ -188,12 +913,13 @@ public class WeatherProvider extends ContentProvider {
                         String[] selectionArgs, String sortOrder) {
 
         Cursor cursor;
+        int match = sUriMatcher.match(uri);
 
         /*
          * Here's the switch statement that, given a URI, will determine what kind of request is
          * being made and query the database accordingly.
          */
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
 
             /*
              * When sUriMatcher's match method is called with a URI that looks something like this
@@ -208,7 +934,8 @@ public class WeatherProvider extends ContentProvider {
              * In this case, we want to return a cursor that contains one row of weather data for
              * a particular date.
              */
-            case CODE_WEATHER_WITH_DATE: {
+            case CODE_WEATHER_WITH_DATE:
+            case CODE_LOCATION_WEATHER_WITH_DATE: {
 
                 /*
                  * In order to determine the date associated with this URI, we look at the last
@@ -221,9 +948,11 @@ public class WeatherProvider extends ContentProvider {
                  * The query method accepts a string array of arguments, as there may be more
                  * than one "?" in the selection statement. Even though in our case, we only have
                  * one "?", we have to create a string array that only contains one element
-                 * because this method signature accepts a string array.
+                 * because this method signature accepts a string array. The date is only
+                 * unique within a location, so the location is added in front of it.
                  */
-                String[] selectionArguments = new String[]{normalizedUtcDateString};
+                String[] selectionArguments = withLocationArg(getLocationId(match, uri),
+                        new String[]{normalizedUtcDateString});
 
                 cursor = mOpenHelper.getReadableDatabase().query(
                         /* Table we are going to query */
@@ -244,7 +973,8 @@ public class WeatherProvider extends ContentProvider {
                          * within the selectionArguments array will be inserted into the
                          * selection statement by SQLite under the hood.
                          */
-                        WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME + " = ? ",
+                        withLocationSelection(
+                                WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME + " = ? "),
                         selectionArguments,
                         null,
                         null,
@@ -259,15 +989,91 @@ public class WeatherProvider extends ContentProvider {
              *      content://com.example.android.sunshine/weather/
              *
              * sUriMatcher's match method will return the code that indicates to us that we need
-             * to return all of the weather in our weather table.
+             * to return all of the weather of the active location.
              *
              * In this case, we want to return a cursor that contains every row of weather data
-             * in our weather table.
+             * of that location in our weather table.
              */
-            case CODE_WEATHER: {
+            case CODE_WEATHER:
+            case CODE_LOCATION_WEATHER: {
                 cursor = mOpenHelper.getReadableDatabase().query(
                         WeatherAppContract.WeatherEntry.TABLE_NAME,
                         projection,
+                        withLocationSelection(selection),
+                        withLocationArg(getLocationId(match, uri), selectionArgs),
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            /*
+             * The history of a location, optionally limited to a range of time, sorted by time
+             * and then by when each forecast was issued unless the caller sorts otherwise.
+             */
+            case CODE_HISTORY:
+            case CODE_LOCATION_HISTORY: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherAppContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        withLocationSelection(selection),
+                        withLocationArg(getLocationId(match, uri), selectionArgs),
+                        null,
+                        null,
+                        sortOrder != null ? sortOrder : HISTORY_SORT_ORDER);
+
+                break;
+            }
+
+            case CODE_HISTORY_WITH_RANGE:
+            case CODE_LOCATION_HISTORY_WITH_RANGE: {
+                List<String> segments = uri.getPathSegments();
+                cursor = queryHistoryRange(mOpenHelper.getReadableDatabase(),
+                        getLocationId(match, uri),
+                        Long.parseLong(segments.get(segments.size() - 2)),
+                        Long.parseLong(segments.get(segments.size() - 1)),
+                        projection, selection, selectionArgs, sortOrder);
+
+                break;
+            }
+
+            /*
+             * The days of a location, one summary per day, computed when the forecast was written.
+             * They are read like the weather: the list sorts them by date from today onwards.
+             */
+            case CODE_DAY:
+            case CODE_LOCATION_DAY: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherAppContract.DayEntry.TABLE_NAME,
+                        projection,
+                        withLocationSelection(selection),
+                        withLocationArg(getLocationId(match, uri), selectionArgs),
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            case CODE_DAY_WITH_DATE: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherAppContract.DayEntry.TABLE_NAME,
+                        projection,
+                        withLocationSelection(WeatherAppContract.DayEntry.COLUMN_DATE_TIME + " = ?"),
+                        withLocationArg(getLocationId(match, uri),
+                                new String[]{uri.getLastPathSegment()}),
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            case CODE_LOCATION: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherAppContract.LocationEntry.TABLE_NAME,
+                        projection,
                         selection,
                         selectionArgs,
                         null,
@@ -277,6 +1083,19 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
 
+            case CODE_LOCATION_WITH_ID: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherAppContract.LocationEntry.TABLE_NAME,
+                        projection,
+                        SELECTION_ID,
+                        new String[]{uri.getLastPathSegment()},
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -308,23 +1127,65 @@ public class WeatherProvider extends ContentProvider {
          */
         if (null == selection) selection = "1";
 
-        switch (sUriMatcher.match(uri)) {
+        int match = sUriMatcher.match(uri);
+        switch (match) {
 
             case CODE_WEATHER:
+            case CODE_LOCATION_WEATHER: {
+                long locationId = getLocationId(match, uri);
+                final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+                /* The days are summarized again in the same transaction */
+                db.beginTransaction();
+                try {
+                    numRowsDeleted = db.delete(
+                            WeatherAppContract.WeatherEntry.TABLE_NAME,
+                            withLocationSelection(selection),
+                            withLocationArg(locationId, selectionArgs));
+                    if (numRowsDeleted != 0) {
+                        DayAggregator.aggregate(db, locationId);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                /* If we actually deleted any rows, notify that a change has occurred */
+                if (numRowsDeleted != 0) {
+                    notifyWeatherChange(locationId);
+                }
+
+                return numRowsDeleted;
+            }
+
+            /* The forecasts of the deleted locations are deleted by the foreign key */
+            case CODE_LOCATION:
                 numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
-                        WeatherAppContract.WeatherEntry.TABLE_NAME,
+                        WeatherAppContract.LocationEntry.TABLE_NAME,
                         selection,
                         selectionArgs);
 
                 break;
 
+            case CODE_LOCATION_WITH_ID:
+                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                        WeatherAppContract.LocationEntry.TABLE_NAME,
+                        SELECTION_ID,
+                        new String[]{uri.getLastPathSegment()});
+
+                break;
+
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
-        /* If we actually deleted any rows, notify that a change has occurred to this URI */
+        /* If we actually deleted any locations, the active one may have been among them */
         if (numRowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            ForecastCache.invalidateAll();
+            getContext().getContentResolver().notifyChange(
+                    WeatherAppContract.LocationEntry.CONTENT_URI, null);
+            getContext().getContentResolver().notifyChange(
+                    WeatherAppContract.WeatherEntry.CONTENT_URI, null);
         }
 
         return numRowsDeleted;
@@ -346,25 +1207,88 @@ public class WeatherProvider extends ContentProvider {
     }
 
     /**
-     * In Sunshine, we aren't going to do anything with this method. However, we are required to
-     * override it as WeatherProvider extends ContentProvider and insert is an abstract method in
-     * ContentProvider. Rather than the single insert method, we are only going to implement
+     * Saves a location. Weather is only ever inserted in bulk, see
      * {@link WeatherProvider#bulkInsert}.
+     * <p>
+     * Locations are identified by {@link WeatherAppContract.LocationEntry#COLUMN_LOCATION_KEY}:
+     * inserting a location whose key is already saved updates that row with the given values
+     * instead, so that its _ID, and the forecast stored under it, are kept.
      *
      * @param uri    The URI of the insertion request. This must not be null.
      * @param values A set of column_name/value pairs to add to the database.
      *               This must not be null
-     * @return nothing in Sunshine, but normally the URI for the newly inserted item.
+     * @return The URI of the inserted or updated location
      */
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
-        throw new RuntimeException(
-                "We are not implementing insert in Sunshine. Use bulkInsert instead");
+        if (sUriMatcher.match(uri) != CODE_LOCATION) {
+            throw new RuntimeException(
+                    "We are not implementing insert in Sunshine. Use bulkInsert instead");
+        }
+
+        String locationKey = values.getAsString(
+                WeatherAppContract.LocationEntry.COLUMN_LOCATION_KEY);
+        if (locationKey == null) {
+            throw new IllegalArgumentException("A location requires a key: " + values);
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long locationId;
+
+        db.beginTransaction();
+        try {
+            String[] keyArgs = new String[]{locationKey};
+            int numRowsUpdated = db.update(WeatherAppContract.LocationEntry.TABLE_NAME, values,
+                    SELECTION_LOCATION_KEY, keyArgs);
+
+            if (numRowsUpdated == 0) {
+                locationId = db.insertOrThrow(
+                        WeatherAppContract.LocationEntry.TABLE_NAME, null, values);
+            } else {
+                locationId = DatabaseUtils.longForQuery(db,
+                        "SELECT " + BaseColumns._ID
+                                + " FROM " + WeatherAppContract.LocationEntry.TABLE_NAME
+                                + " WHERE " + SELECTION_LOCATION_KEY,
+                        keyArgs);
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        getContext().getContentResolver().notifyChange(
+                WeatherAppContract.LocationEntry.CONTENT_URI, null);
+        return WeatherAppContract.LocationEntry.buildLocationUri(locationId);
     }
 
+    /**
+     * Updates a saved location. Weather is never updated in place, it is merged, see
+     * {@link WeatherProvider#bulkInsert}.
+     *
+     * @param uri           The URI of a single location
+     * @param values        The columns to change
+     * @param selection     Unused
+     * @param selectionArgs Unused
+     * @return The number of rows updated
+     */
     @Override
     public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        throw new RuntimeException("We are not implementing update in Sunshine");
+        if (sUriMatcher.match(uri) != CODE_LOCATION_WITH_ID) {
+            throw new RuntimeException("We are not implementing update in Sunshine");
+        }
+
+        int numRowsUpdated = mOpenHelper.getWritableDatabase().update(
+                WeatherAppContract.LocationEntry.TABLE_NAME,
+                values,
+                SELECTION_ID,
+                new String[]{uri.getLastPathSegment()});
+
+        if (numRowsUpdated != 0) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+
+        return numRowsUpdated;
     }
 
     /**
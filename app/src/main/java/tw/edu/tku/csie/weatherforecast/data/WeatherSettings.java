@@ -0,0 +1,84 @@
+package tw.edu.tku.csie.weatherforecast.data;
+
+import android.content.SharedPreferences;
+
+/**
+ * An immutable snapshot of every preference of the app, see
+ * {@link WeatherAppPreferences#getSettings}. Code that reads several preferences, like a sync or a
+ * list being formatted, takes one snapshot and reads from it, so that it sees consistent values
+ * and never touches SharedPreferences again.
+ * <p>
+ * The location of the device is not part of it, see {@link LocationStore}.
+ */
+public final class WeatherSettings {
+
+    private final boolean mMetric;
+    private final boolean mUseCurrentLocation;
+    private final String mLocalePreferredWeatherLocation;
+    private final String mEngPreferredWeatherLocation;
+    private final long mActiveLocationId;
+    private final boolean mNotificationsEnabled;
+    private final boolean mSyncUnmeteredOnly;
+    private final boolean mSyncChargingOnly;
+    private final long mLastNotificationTimeInMillis;
+
+    WeatherSettings(SharedPreferences sp, WeatherAppPreferences.Keys keys) {
+        mMetric = keys.unitsMetric.equals(sp.getString(keys.units, keys.unitsMetric));
+        mUseCurrentLocation = sp.getBoolean(keys.useCurrentLocation,
+                keys.useCurrentLocationByDefault);
+        mLocalePreferredWeatherLocation = sp.getString(keys.localeLocation, keys.locationDefault);
+        mEngPreferredWeatherLocation = sp.getString(keys.engLocation, keys.locationDefault);
+
+        mActiveLocationId = sp.getLong(WeatherAppPreferences.PREF_ACTIVE_LOCATION_ID,
+                WeatherAppPreferences.NO_LOCATION_ID);
+        mNotificationsEnabled = sp.getBoolean(keys.enableNotifications,
+                keys.notificationsByDefault);
+        mSyncUnmeteredOnly = sp.getBoolean(keys.syncUnmeteredOnly,
+                keys.syncUnmeteredOnlyByDefault);
+        mSyncChargingOnly = sp.getBoolean(keys.syncChargingOnly,
+                keys.syncChargingOnlyByDefault);
+        mLastNotificationTimeInMillis = sp.getLong(keys.lastNotification, 0);
+    }
+
+    /**
+     * @return true if metric display should be used, false if imperial display should be used
+     */
+    public boolean isMetric() {
+        return mMetric;
+    }
+
+    public boolean isUseCurrentLocation() {
+        return mUseCurrentLocation;
+    }
+
+    public String getLocalePreferredWeatherLocation() {
+        return mLocalePreferredWeatherLocation;
+    }
+
+    public String getEngPreferredWeatherLocation() {
+        return mEngPreferredWeatherLocation;
+    }
+
+    /**
+     * @return the _ID of the active location, or NO_LOCATION_ID if none was selected yet
+     */
+    public long getActiveLocationId() {
+        return mActiveLocationId;
+    }
+
+    public boolean areNotificationsEnabled() {
+        return mNotificationsEnabled;
+    }
+
+    public boolean isSyncUnmeteredOnly() {
+        return mSyncUnmeteredOnly;
+    }
+
+    public boolean isSyncChargingOnly() {
+        return mSyncChargingOnly;
+    }
+
+    public long getLastNotificationTimeInMillis() {
+        return mLastNotificationTimeInMillis;
+    }
+}
@@ -0,0 +1,41 @@
+package tw.edu.tku.csie.weatherforecast.sync;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+
+/**
+ * Schedules the periodic sync with an inexact repeating alarm, for the versions of Android
+ * without JobScheduler. Alarms don't survive a reboot and have no constraints, so
+ * {@link SyncAlarmReceiver} schedules them again after a reboot and checks the constraints
+ * itself when the alarm goes off.
+ */
+class AlarmSyncScheduler implements SyncScheduler {
+
+    @Override
+    public void schedule(Context context, long intervalMillis, boolean requireUnmetered,
+                         boolean requireCharging) {
+        /* The constraints are read from the preferences when the alarm goes off */
+        getAlarmManager(context).setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + intervalMillis,
+                intervalMillis,
+                getAlarmIntent(context));
+    }
+
+    @Override
+    public void cancel(Context context) {
+        getAlarmManager(context).cancel(getAlarmIntent(context));
+    }
+
+    private static AlarmManager getAlarmManager(Context context) {
+        return (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    }
+
+    private static PendingIntent getAlarmIntent(Context context) {
+        Intent intent = new Intent(context, SyncAlarmReceiver.class)
+                .setAction(SyncAlarmReceiver.ACTION_PERIODIC_SYNC);
+        return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+}
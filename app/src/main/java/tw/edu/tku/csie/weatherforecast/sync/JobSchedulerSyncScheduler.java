@@ -0,0 +1,53 @@
+package tw.edu.tku.csie.weatherforecast.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+
+/**
+ * Schedules the periodic sync as a persisted {@link JobInfo}, run by {@link SyncJobService}.
+ * The platform enforces the network and charging constraints and keeps the job across reboots.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class JobSchedulerSyncScheduler implements SyncScheduler {
+
+    /* The only job of the app */
+    static final int SYNC_JOB_ID = 1;
+
+    @Override
+    public void schedule(Context context, long intervalMillis, boolean requireUnmetered,
+                         boolean requireCharging) {
+        JobInfo.Builder builder = new JobInfo.Builder(SYNC_JOB_ID,
+                new ComponentName(context, SyncJobService.class))
+                .setRequiredNetworkType(requireUnmetered
+                        ? JobInfo.NETWORK_TYPE_UNMETERED
+                        : JobInfo.NETWORK_TYPE_ANY)
+                .setRequiresCharging(requireCharging)
+                /* Needs RECEIVE_BOOT_COMPLETED, the job is kept across reboots */
+                .setPersisted(true);
+
+        /*
+         * The sync may run anywhere in the last third of the interval, which lets the system
+         * batch it with the work of other apps. Before Nougat, the system picks the window.
+         */
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            builder.setPeriodic(intervalMillis, intervalMillis / 3);
+        } else {
+            builder.setPeriodic(intervalMillis);
+        }
+
+        getJobScheduler(context).schedule(builder.build());
+    }
+
+    @Override
+    public void cancel(Context context) {
+        getJobScheduler(context).cancel(SYNC_JOB_ID);
+    }
+
+    private static JobScheduler getJobScheduler(Context context) {
+        return (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+    }
+}
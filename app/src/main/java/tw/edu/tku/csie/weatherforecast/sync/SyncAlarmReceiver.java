@@ -0,0 +1,69 @@
+package tw.edu.tku.csie.weatherforecast.sync;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+
+import tw.edu.tku.csie.weatherforecast.data.WeatherAppPreferences;
+
+/**
+ * Receives the alarms of {@link AlarmSyncScheduler}, and the end of a reboot, after which the
+ * periodic sync has to be scheduled again.
+ */
+public class SyncAlarmReceiver extends BroadcastReceiver {
+
+    static final String ACTION_PERIODIC_SYNC =
+            "tw.edu.tku.csie.weatherforecast.sync.ACTION_PERIODIC_SYNC";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent.getAction();
+
+        if (Intent.ACTION_BOOT_COMPLETED.equals(action)) {
+            SyncUtils.scheduleSync(context);
+        } else if (ACTION_PERIODIC_SYNC.equals(action)) {
+            /* Unlike a job, an alarm isn't held back until the constraints are met */
+            if (areConstraintsMet(context)) {
+                SyncService.startPeriodicSync(context);
+            }
+        }
+    }
+
+    /**
+     * Checks the constraints the user chose for the periodic sync. If they aren't met, this run
+     * is skipped and the sync waits for the next alarm.
+     *
+     * @param context Used to access the system services and the preferences
+     * @return true if the sync may run now
+     */
+    private static boolean areConstraintsMet(Context context) {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = connectivityManager.getActiveNetworkInfo();
+        if (activeNetwork == null || !activeNetwork.isConnected()) {
+            return false;
+        }
+        if (WeatherAppPreferences.isSyncUnmeteredOnly(context)
+                && connectivityManager.isActiveNetworkMetered()) {
+            return false;
+        }
+
+        if (WeatherAppPreferences.isSyncChargingOnly(context)) {
+            /* ACTION_BATTERY_CHANGED is sticky, so no receiver is needed to read it */
+            Intent batteryStatus = context.getApplicationContext().registerReceiver(null,
+                    new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            int plugged = batteryStatus == null
+                    ? 0
+                    : batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+            if (plugged == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
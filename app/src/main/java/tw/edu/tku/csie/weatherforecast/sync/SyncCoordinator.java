@@ -0,0 +1,259 @@
+package tw.edu.tku.csie.weatherforecast.sync;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single entry point for every sync of the weather data. The services, the job, swipe-to-refresh
+ * and the settings all ask for a sync at about the same time when the location changes, and
+ * each of them used to download every location again.
+ * <p>
+ * Only one sync runs at a time, so a location is never fetched twice concurrently. A request
+ * made while a sync is running joins that sync, a request made while a sync is waiting to start
+ * joins the waiting one, and requests that follow a change of the location settings are
+ * debounced, so that a burst of them is served by a single sync that starts once the burst is
+ * over. Every caller gets the same {@link SyncFuture} and therefore the same {@link SyncResult}.
+ */
+public final class SyncCoordinator {
+
+    private static final String TAG = SyncCoordinator.class.getSimpleName();
+
+    /*
+     * Changing the location in the settings is followed by one or two geocoding services which
+     * update the location again a moment later, so wait for things to settle.
+     */
+    private static final long DEBOUNCE_MILLIS = 2 * DateUtils.SECOND_IN_MILLIS;
+
+    /* A steady stream of changes still gets synced this often */
+    private static final long MAX_DEBOUNCE_MILLIS = 10 * DateUtils.SECOND_IN_MILLIS;
+
+    /*
+     * A single thread: syncs never overlap, and a sync that is due while another one is running
+     * simply starts after it.
+     */
+    private static final ScheduledExecutorService sExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+
+    private static final Object sLock = new Object();
+
+    /* The sync being run, null if none. Guarded by sLock */
+    private static SyncFuture sRunningSync;
+
+    /* The sync waiting to start, null if none. Guarded by sLock */
+    private static SyncFuture sPendingSync;
+
+    /* The task that starts sPendingSync, replaced every time the start is postponed */
+    private static Runnable sPendingStartTask;
+    private static ScheduledFuture<?> sPendingStart;
+    private static long sPendingSince;
+    private static long sPendingStartAt;
+
+    /* What a sync does, replaced by the tests so that they don't reach the network */
+    @VisibleForTesting
+    static Sync sSync = SyncTask::syncWeatherData;
+
+    private SyncCoordinator() {
+    }
+
+    /**
+     * The work of one sync, see {@link SyncTask#syncWeatherData(Context)}.
+     */
+    @VisibleForTesting
+    interface Sync {
+        SyncResult run(Context context);
+    }
+
+    /**
+     * A sync that callers can wait on or be called back by. All the callers that were coalesced
+     * into the same sync share one instance.
+     */
+    public static final class SyncFuture extends FutureTask<SyncResult> {
+
+        private final List<Runnable> mListeners = new ArrayList<>();
+
+        private SyncFuture(final Context context) {
+            super(() -> sSync.run(context));
+        }
+
+        /**
+         * Runs a listener once the sync is over, on the thread that ran the sync, or right away
+         * on the calling thread if it already is.
+         *
+         * @param listener Called once
+         */
+        public void addListener(Runnable listener) {
+            synchronized (mListeners) {
+                if (!isDone()) {
+                    mListeners.add(listener);
+                    return;
+                }
+            }
+            listener.run();
+        }
+
+        /*
+         * The sync stops being the running one before it completes, so that a request made by a
+         * listener, or by whatever a listener triggers, starts a new sync instead of joining
+         * this one and getting its result without anything being synced.
+         */
+        @Override
+        protected void set(SyncResult result) {
+            finishRunning(this);
+            super.set(result);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            finishRunning(this);
+            super.setException(t);
+        }
+
+        @Override
+        protected void done() {
+            List<Runnable> listeners;
+            synchronized (mListeners) {
+                listeners = new ArrayList<>(mListeners);
+                mListeners.clear();
+            }
+            for (Runnable listener : listeners) {
+                listener.run();
+            }
+        }
+
+        /**
+         * Blocks until the sync is over.
+         *
+         * @return The outcome of the sync, {@link SyncResult#FAILED} if it could not be obtained
+         */
+        public SyncResult await() {
+            try {
+                return get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return SyncResult.FAILED;
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Sync failed", e.getCause());
+                return SyncResult.FAILED;
+            }
+        }
+    }
+
+    /**
+     * Asks for the weather data to be synced as soon as possible. If a sync is already running
+     * or waiting to start, the caller joins it instead.
+     *
+     * @param context Used to access the ContentResolver and the preferences
+     * @return The sync that will serve this request
+     */
+    public static SyncFuture requestSync(Context context) {
+        synchronized (sLock) {
+            if (sRunningSync != null) {
+                return sRunningSync;
+            }
+            return schedulePendingSync(context, 0);
+        }
+    }
+
+    /**
+     * Asks for the weather data to be synced after the location settings changed. The sync
+     * starts once no such request has been made for a short while, and never joins a sync that
+     * is already running, since that one may have read the previous settings.
+     *
+     * @param context Used to access the ContentResolver and the preferences
+     * @return The sync that will serve this request
+     */
+    public static SyncFuture requestDebouncedSync(Context context) {
+        synchronized (sLock) {
+            return schedulePendingSync(context, DEBOUNCE_MILLIS);
+        }
+    }
+
+    /**
+     * Creates the pending sync if there is none, and (re)schedules its start. Must be called
+     * with sLock held.
+     *
+     * @param delayMillis 0 to start the sync right away, or the quiet period of a debounced
+     *                    request, which postpones a sync that has not started yet
+     */
+    private static SyncFuture schedulePendingSync(Context context, long delayMillis) {
+        long now = SystemClock.elapsedRealtime();
+        long startAt;
+
+        if (sPendingSync == null) {
+            sPendingSync = new SyncFuture(context.getApplicationContext());
+            sPendingSince = now;
+            startAt = now + delayMillis;
+        } else {
+            /* A request that can't wait is already starting it, nothing can be sooner */
+            if (sPendingStartAt <= now) {
+                return sPendingSync;
+            }
+            /* Restart the quiet period, but don't let a burst postpone the sync forever */
+            startAt = delayMillis == 0 ? now
+                    : Math.min(now + delayMillis, sPendingSince + MAX_DEBOUNCE_MILLIS);
+            if (startAt == sPendingStartAt) {
+                return sPendingSync;
+            }
+            sPendingStart.cancel(false);
+        }
+
+        final Runnable startTask = new Runnable() {
+            @Override
+            public void run() {
+                runPendingSync(this);
+            }
+        };
+        sPendingStartTask = startTask;
+        sPendingStartAt = startAt;
+        sPendingStart = sExecutor.schedule(startTask, Math.max(0, startAt - now),
+                TimeUnit.MILLISECONDS);
+
+        return sPendingSync;
+    }
+
+    /**
+     * Promotes the pending sync to the running one and runs it on the coordinator's thread.
+     *
+     * @param startTask The task that called this method, ignored if it has been superseded
+     */
+    private static void runPendingSync(Runnable startTask) {
+        SyncFuture sync;
+        synchronized (sLock) {
+            if (startTask != sPendingStartTask) {
+                return;
+            }
+            sync = sPendingSync;
+            sRunningSync = sync;
+            sPendingSync = null;
+            sPendingStartTask = null;
+            sPendingStart = null;
+        }
+
+        try {
+            sync.run();
+        } finally {
+            /* Already done unless the sync was cancelled before it could run */
+            finishRunning(sync);
+        }
+    }
+
+    private static void finishRunning(SyncFuture sync) {
+        synchronized (sLock) {
+            if (sRunningSync == sync) {
+                sRunningSync = null;
+            }
+        }
+    }
+}
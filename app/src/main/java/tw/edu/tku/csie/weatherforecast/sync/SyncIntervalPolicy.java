@@ -0,0 +1,111 @@
+package tw.edu.tku.csie.weatherforecast.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.format.DateUtils;
+
+/**
+ * Adapts the interval of the periodic sync to how much the forecast is changing and to how much
+ * the app is used. A forecast that keeps changing is synced more often, a stable one less often,
+ * and an app that hasn't been opened for days is synced rarely.
+ */
+final class SyncIntervalPolicy {
+
+    private static final String PREFS_NAME = "sync_schedule";
+
+    private static final String PREF_INTERVAL = "interval";
+    private static final String PREF_LAST_APP_USE = "last_app_use";
+
+    /* The 3 hours the app has always used, and the 3-hour step of the forecast itself */
+    static final long DEFAULT_INTERVAL_MILLIS = 3 * DateUtils.HOUR_IN_MILLIS;
+
+    private static final long MIN_INTERVAL_MILLIS = DateUtils.HOUR_IN_MILLIS;
+    private static final long MAX_INTERVAL_MILLIS = 12 * DateUtils.HOUR_IN_MILLIS;
+
+    /* Once the app hasn't been opened for this long, syncs are spaced out up to once a day */
+    private static final long IDLE_AFTER_MILLIS = 3 * DateUtils.DAY_IN_MILLIS;
+    private static final long IDLE_MAX_INTERVAL_MILLIS = DateUtils.DAY_IN_MILLIS;
+
+    /*
+     * The server adjusts most of the 40 rows of a forecast slightly on every run of its model,
+     * and a row falls out of the window and another one is added every 3 hours; none of that is
+     * counted. A sync that revises more rows than this per updated location, with another
+     * condition or a temperature that moved by more than a couple of degrees, means the
+     * weather itself is uncertain.
+     */
+    private static final int VOLATILE_ROWS_PER_LOCATION = 8;
+
+    private SyncIntervalPolicy() {
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the interval the periodic sync should be scheduled with.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @return The interval in milliseconds
+     */
+    static long getIntervalMillis(Context context) {
+        SharedPreferences sp = getPreferences(context);
+        long interval = sp.getLong(PREF_INTERVAL, DEFAULT_INTERVAL_MILLIS);
+
+        long lastAppUse = sp.getLong(PREF_LAST_APP_USE, System.currentTimeMillis());
+        if (System.currentTimeMillis() - lastAppUse > IDLE_AFTER_MILLIS) {
+            interval = Math.min(IDLE_MAX_INTERVAL_MILLIS, interval * 2);
+        }
+
+        return interval;
+    }
+
+    /**
+     * Records that the user opened the app, which brings an idle interval back to normal.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @return true if the app was considered idle until now, and so the sync has to be scheduled
+     * again
+     */
+    static boolean recordAppUse(Context context) {
+        SharedPreferences sp = getPreferences(context);
+        long now = System.currentTimeMillis();
+        boolean wasIdle = now - sp.getLong(PREF_LAST_APP_USE, now) > IDLE_AFTER_MILLIS;
+        sp.edit().putLong(PREF_LAST_APP_USE, now).apply();
+        return wasIdle;
+    }
+
+    /**
+     * Adapts the interval to the outcome of a periodic sync.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @param result  The outcome of the sync
+     * @return true if the interval changed and the sync has to be scheduled again
+     */
+    static boolean onPeriodicSyncFinished(Context context, SyncResult result) {
+        /* A failed sync says nothing about the forecast, the job is retried anyway */
+        if (!result.isSuccessful()) {
+            return false;
+        }
+
+        SharedPreferences sp = getPreferences(context);
+        long interval = sp.getLong(PREF_INTERVAL, DEFAULT_INTERVAL_MILLIS);
+
+        boolean forecastChanged = result.getLocationsUpdated() > 0
+                && result.getRowsRevised()
+                > VOLATILE_ROWS_PER_LOCATION * result.getLocationsUpdated();
+
+        long newInterval;
+        if (forecastChanged) {
+            newInterval = Math.max(MIN_INTERVAL_MILLIS, interval / 2);
+        } else {
+            newInterval = Math.min(MAX_INTERVAL_MILLIS, interval * 3 / 2);
+        }
+
+        if (newInterval == interval) {
+            return false;
+        }
+        sp.edit().putLong(PREF_INTERVAL, newInterval).apply();
+        return true;
+    }
+}
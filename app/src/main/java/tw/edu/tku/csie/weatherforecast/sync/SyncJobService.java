@@ -0,0 +1,47 @@
+package tw.edu.tku.csie.weatherforecast.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+
+/**
+ * Runs the periodic sync scheduled by {@link JobSchedulerSyncScheduler}. The sync itself runs on
+ * the thread of {@link SyncCoordinator}, and joins a sync that is already running instead of
+ * starting another one.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SyncJobService extends JobService {
+
+    /**
+     * Called on the main thread when the job is due. The sync is handed over to the coordinator
+     * right away, and the job is finished from its thread once the sync is over.
+     *
+     * @return true, since the work goes on in the background
+     */
+    @Override
+    public boolean onStartJob(final JobParameters jobParameters) {
+        final SyncCoordinator.SyncFuture sync = SyncCoordinator.requestSync(this);
+
+        sync.addListener(() -> {
+            SyncResult result = sync.await();
+
+            /* Exactly once, and before the job may be rescheduled with a new interval */
+            jobFinished(jobParameters, !result.isSuccessful());
+            SyncUtils.onPeriodicSyncFinished(getApplicationContext(), result);
+        });
+
+        return true;
+    }
+
+    /**
+     * Called when the constraints of the job are no longer met. The sync may be shared with other
+     * callers, so it is not interrupted, but the job is retried since it may not complete.
+     *
+     * @return true to retry the job
+     */
+    @Override
+    public boolean onStopJob(JobParameters jobParameters) {
+        return true;
+    }
+}
@@ -0,0 +1,81 @@
+package tw.edu.tku.csie.weatherforecast.sync;
+
+/**
+ * The outcome of one sync run, as reported by {@link SyncCoordinator} to every caller that
+ * requested or joined that run.
+ */
+public final class SyncResult {
+
+    /* Returned when the sync could not even get to the saved locations */
+    static final SyncResult FAILED = new SyncResult(0, 0, 0, 0, 0, false);
+
+    private final int mLocationsUpdated;
+    private final int mLocationsUnchanged;
+    private final int mLocationsFailed;
+    private final int mRowsChanged;
+    private final int mRowsRevised;
+    private final boolean mCompleted;
+
+    SyncResult(int locationsUpdated, int locationsUnchanged, int locationsFailed,
+               int rowsChanged, int rowsRevised, boolean completed) {
+        mLocationsUpdated = locationsUpdated;
+        mLocationsUnchanged = locationsUnchanged;
+        mLocationsFailed = locationsFailed;
+        mRowsChanged = rowsChanged;
+        mRowsRevised = rowsRevised;
+        mCompleted = completed;
+    }
+
+    /**
+     * @return The number of locations whose forecast was downloaded and merged
+     */
+    public int getLocationsUpdated() {
+        return mLocationsUpdated;
+    }
+
+    /**
+     * @return The number of locations whose stored forecast was fresh or not modified
+     */
+    public int getLocationsUnchanged() {
+        return mLocationsUnchanged;
+    }
+
+    /**
+     * @return The number of locations that could not be synced
+     */
+    public int getLocationsFailed() {
+        return mLocationsFailed;
+    }
+
+    /**
+     * @return The number of weather rows inserted, updated or deleted, over all locations
+     */
+    public int getRowsChanged() {
+        return mRowsChanged;
+    }
+
+    /**
+     * @return The number of weather rows whose forecast the server really revised, over all
+     * locations, see WeatherAppContract.WeatherEntry#EXTRA_ROWS_REVISED
+     */
+    public int getRowsRevised() {
+        return mRowsRevised;
+    }
+
+    /**
+     * @return true if every saved location was synced
+     */
+    public boolean isSuccessful() {
+        return mCompleted && mLocationsFailed == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncResult{updated=" + mLocationsUpdated
+                + ", unchanged=" + mLocationsUnchanged
+                + ", failed=" + mLocationsFailed
+                + ", rowsChanged=" + mRowsChanged
+                + ", rowsRevised=" + mRowsRevised
+                + ", completed=" + mCompleted + "}";
+    }
+}
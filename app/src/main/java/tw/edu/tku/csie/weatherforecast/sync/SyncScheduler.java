@@ -0,0 +1,32 @@
+package tw.edu.tku.csie.weatherforecast.sync;
+
+import android.content.Context;
+
+/**
+ * Schedules the periodic sync of the weather data with the platform. The schedule must survive a
+ * reboot, and each run must go through {@link SyncUtils#onPeriodicSyncFinished} once the sync is
+ * over so that the next interval can be adapted.
+ *
+ * @see JobSchedulerSyncScheduler
+ * @see AlarmSyncScheduler
+ */
+interface SyncScheduler {
+
+    /**
+     * Schedules the periodic sync, replacing the current schedule.
+     *
+     * @param context           Used to access the system services
+     * @param intervalMillis    How often the sync should run
+     * @param requireUnmetered  true to only sync on unmetered networks
+     * @param requireCharging   true to only sync while the device is charging
+     */
+    void schedule(Context context, long intervalMillis, boolean requireUnmetered,
+                  boolean requireCharging);
+
+    /**
+     * Cancels the periodic sync.
+     *
+     * @param context Used to access the system services
+     */
+    void cancel(Context context);
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tw.edu.tku.csie.weatherforecast.sync;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+
+/**
+ * Keeps the process alive while a sync requested through {@link SyncCoordinator} is running.
+ * <p>
+ * Unlike an IntentService, which would handle the start requests one after the other and sync
+ * once per request, every start request is handed to the coordinator right away, so that a
+ * burst of requests is coalesced into one sync. The service stops once the sync serving the
+ * latest request is over.
+ */
+public class SyncService extends Service {
+
+    /* Set to true when the sync follows a change of the location settings */
+    private static final String EXTRA_DEBOUNCE = "debounce";
+
+    /* Set to true when the sync was started by AlarmSyncScheduler */
+    private static final String EXTRA_PERIODIC = "periodic";
+
+    /**
+     * Starts the service to sync as soon as possible.
+     *
+     * @param context The Context used to start the service
+     */
+    public static void startSync(Context context) {
+        context.startService(new Intent(context, SyncService.class));
+    }
+
+    /**
+     * Starts the service to sync once the location settings stopped changing.
+     *
+     * @param context The Context used to start the service
+     */
+    public static void startDebouncedSync(Context context) {
+        context.startService(new Intent(context, SyncService.class)
+                .putExtra(EXTRA_DEBOUNCE, true));
+    }
+
+    /**
+     * Starts the service for a run of the periodic sync, on the versions of Android without
+     * JobScheduler.
+     *
+     * @param context The Context used to start the service
+     */
+    static void startPeriodicSync(Context context) {
+        context.startService(new Intent(context, SyncService.class)
+                .putExtra(EXTRA_PERIODIC, true));
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, final int startId) {
+        boolean debounce = intent != null && intent.getBooleanExtra(EXTRA_DEBOUNCE, false);
+        final boolean periodic = intent != null && intent.getBooleanExtra(EXTRA_PERIODIC, false);
+
+        final SyncCoordinator.SyncFuture sync = debounce
+                ? SyncCoordinator.requestDebouncedSync(this)
+                : SyncCoordinator.requestSync(this);
+
+        sync.addListener(() -> {
+            if (periodic) {
+                SyncUtils.onPeriodicSyncFinished(getApplicationContext(), sync.await());
+            }
+            /* Only stops the service if no newer request has been made in the meantime */
+            stopSelf(startId);
+        });
+
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
@@ -16,81 +16,419 @@
 package tw.edu.tku.csie.weatherforecast.sync;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.v4.content.LocalBroadcastManager;
 import android.text.format.DateUtils;
+import android.util.Log;
 
+import tw.edu.tku.csie.weatherforecast.data.ForecastCache;
+import tw.edu.tku.csie.weatherforecast.data.ForecastSnapshot;
 import tw.edu.tku.csie.weatherforecast.data.WeatherAppContract;
+import tw.edu.tku.csie.weatherforecast.data.LastForecastStore;
+import tw.edu.tku.csie.weatherforecast.data.TodaySummaryStore;
+import tw.edu.tku.csie.weatherforecast.data.LocationState;
+import tw.edu.tku.csie.weatherforecast.data.LocationStore;
 import tw.edu.tku.csie.weatherforecast.data.WeatherAppPreferences;
+import tw.edu.tku.csie.weatherforecast.data.WeatherSettings;
+import tw.edu.tku.csie.weatherforecast.data.WeatherBatch;
+import tw.edu.tku.csie.weatherforecast.utilities.ConditionalRequestCache;
+import tw.edu.tku.csie.weatherforecast.utilities.ForwardGeocodingCache;
+import tw.edu.tku.csie.weatherforecast.utilities.HttpResponseReader;
 import tw.edu.tku.csie.weatherforecast.utilities.NetworkUtils;
 import tw.edu.tku.csie.weatherforecast.utilities.NotificationUtils;
 import tw.edu.tku.csie.weatherforecast.utilities.OpenWeatherJsonUtils;
+import tw.edu.tku.csie.weatherforecast.utilities.WeatherHttpClient;
+import tw.edu.tku.csie.weatherforecast.widget.TodayWidgetProvider;
 
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class SyncTask {
 
-    synchronized public static void syncWeatherData(Context context) {
+    /*
+     * Broadcast locally once a sync attempt is over, whether or not anything was written. A sync
+     * that is answered from the HTTP cache doesn't touch the ContentProvider, so listeners such as
+     * the swipe-to-refresh indicator can't rely on the loader being notified.
+     */
+    public static final String ACTION_SYNC_FINISHED =
+            "tw.edu.tku.csie.weatherforecast.sync.ACTION_SYNC_FINISHED";
+
+    private static final String TAG = SyncTask.class.getSimpleName();
+
+    /*
+     * How many locations are kept, including the active one. Once more have been used, the
+     * least recently used ones are deleted along with their forecast.
+     */
+    public static final int MAX_SAVED_LOCATIONS = 20;
+
+    /*
+     * How many locations are synced at the same time. Each sync is mostly waiting on the
+     * network, but more connections than this only compete for the same bandwidth.
+     */
+    private static final int SYNC_THREAD_COUNT = 4;
+
+    private static final long SYNC_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    /* Bounded, and its threads go away when no sync is running */
+    private static final ThreadPoolExecutor sSyncExecutor = createSyncExecutor();
+
+    private static final String[] LOCATION_SYNC_PROJECTION = {
+            WeatherAppContract.LocationEntry._ID,
+            WeatherAppContract.LocationEntry.COLUMN_QUERY,
+            WeatherAppContract.LocationEntry.COLUMN_LATITUDE,
+            WeatherAppContract.LocationEntry.COLUMN_LONGITUDE
+    };
+
+    private static final int INDEX_LOCATION_ID = 0;
+    private static final int INDEX_LOCATION_QUERY = 1;
+    private static final int INDEX_LOCATION_LATITUDE = 2;
+    private static final int INDEX_LOCATION_LONGITUDE = 3;
+
+    private static ThreadPoolExecutor createSyncExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                SYNC_THREAD_COUNT, SYNC_THREAD_COUNT,
+                SYNC_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Selects the preferred location and refreshes the forecast of every saved location, the
+     * preferred one first. The locations are synced concurrently on a bounded executor, and a
+     * location that fails to sync doesn't keep the others from being written. Locations with
+     * the same request URL, e.g. the current location and a city typed by the user in which
+     * the device is, are downloaded once.
+     * <p>
+     * Only {@link SyncCoordinator} calls this method, which makes sure that runs never overlap.
+     * Everything else requests a sync from the coordinator.
+     *
+     * @param context Used to access utility methods and the ContentResolver
+     * @return The outcome of the sync
+     */
+    static SyncResult syncWeatherData(Context context) {
         try {
             /*
-             * The getUrl method will return the URL that we need to get the forecast JSON for the
-             * weather. It will decide whether to create a URL based off of the latitude and
-             * longitude or off of a simple location as a String.
+             * Switching to a location that was used before shows its stored forecast right
+             * away, the sync below only refreshes it.
              */
-            URL weatherRequestUrl = NetworkUtils.getUrl(context);
+            selectPreferredLocation(context);
 
-            /* Use the URL to retrieve the JSON */
-            String jsonWeatherResponse = NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
+            /* The saved locations by request URL, the preferred one first */
+            Map<String, List<Long>> locationIdsByUrl = new LinkedHashMap<>();
+            Map<String, URL> requestUrls = new HashMap<>();
 
-            /* Parse the JSON into a list of weather values */
-            ContentValues[] weatherValues = OpenWeatherJsonUtils
-//                    .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
-                    .getWeatherContentValuesFromJson(jsonWeatherResponse);
+            Cursor cursor = context.getContentResolver().query(
+                    WeatherAppContract.LocationEntry.CONTENT_URI,
+                    LOCATION_SYNC_PROJECTION,
+                    null,
+                    null,
+                    WeatherAppContract.LocationEntry.COLUMN_LAST_USED + " DESC");
+            if (cursor == null) return SyncResult.FAILED;
+            try {
+                while (cursor.moveToNext()) {
+                    long locationId = cursor.getLong(INDEX_LOCATION_ID);
+                    URL weatherRequestUrl = buildLocationUrl(cursor);
+                    if (weatherRequestUrl == null) continue;
 
-            /*
-             * In cases where our JSON contained an error code, getWeatherContentValuesFromJson
-             * would have returned null. We need to check for those cases here to prevent any
-             * NullPointerExceptions being thrown. We also have no reason to insert fresh data if
-             * there isn't any to insert.
-             */
-            if (weatherValues != null && weatherValues.length != 0) {
-                /* Get a handle on the ContentResolver to delete and insert data */
-                ContentResolver contentResolver = context.getContentResolver();
+                    String urlString = weatherRequestUrl.toString();
+                    List<Long> locationIds = locationIdsByUrl.get(urlString);
+                    if (locationIds == null) {
+                        locationIds = new ArrayList<>();
+                        locationIdsByUrl.put(urlString, locationIds);
+                        requestUrls.put(urlString, weatherRequestUrl);
+                    }
+                    locationIds.add(locationId);
+                }
+            } finally {
+                cursor.close();
+            }
 
-                /* Delete old weather data because we don't need to keep multiple days' data */
-                contentResolver.delete(
-                        WeatherAppContract.WeatherEntry.CONTENT_URI,
-                        null,
-                        null);
+            /* Validators of locations that are no longer saved would never be used again */
+            ConditionalRequestCache.retainAll(context, locationIdsByUrl.keySet());
 
-                /* Insert our new weather data into Sunshine's ContentProvider */
-                contentResolver.bulkInsert(
-                        WeatherAppContract.WeatherEntry.CONTENT_URI,
-                        weatherValues);
+            List<Callable<SyncResult>> locationSyncs = new ArrayList<>();
+            List<List<Long>> syncedLocationIds = new ArrayList<>();
+            for (Map.Entry<String, List<Long>> entry : locationIdsByUrl.entrySet()) {
+                final URL weatherRequestUrl = requestUrls.get(entry.getKey());
+                final List<Long> locationIds = entry.getValue();
+                syncedLocationIds.add(locationIds);
+                locationSyncs.add(() -> syncLocations(context, locationIds, weatherRequestUrl));
+            }
+
+            List<Future<SyncResult>> outcomes = sSyncExecutor.invokeAll(locationSyncs);
 
+            int locationsUpdated = 0;
+            int locationsUnchanged = 0;
+            int locationsFailed = 0;
+            int rowsChanged = 0;
+            int rowsRevised = 0;
+            for (int i = 0; i < outcomes.size(); i++) {
+                try {
+                    SyncResult outcome = outcomes.get(i).get();
+                    locationsUpdated += outcome.getLocationsUpdated();
+                    locationsUnchanged += outcome.getLocationsUnchanged();
+                    rowsChanged += outcome.getRowsChanged();
+                    rowsRevised += outcome.getRowsRevised();
+                } catch (ExecutionException e) {
+                    /* Server probably invalid, the other locations are unaffected */
+                    Log.e(TAG, "Failed to sync locations " + syncedLocationIds.get(i),
+                            e.getCause());
+                    locationsFailed += syncedLocationIds.get(i).size();
+                }
             }
 
+            /* What MainActivity displays at once the next time it is created */
+            ForecastSnapshot days = ForecastCache.getActiveDaysTodayOnwards(context);
+            LastForecastStore.save(context, days);
+
+            /* What the notification and the widget display, formatted once per sync */
+            TodaySummaryStore.save(context, days);
+            TodayWidgetProvider.updateAll(context);
+
+            return new SyncResult(locationsUpdated, locationsUnchanged, locationsFailed,
+                    rowsChanged, rowsRevised, true);
+
         } catch (Exception e) {
             /* Server probably invalid */
             e.printStackTrace();
+            return SyncResult.FAILED;
+        } finally {
+            LocalBroadcastManager.getInstance(context)
+                    .sendBroadcast(new Intent(ACTION_SYNC_FINISHED));
         }
     }
 
     /**
-     * Performs the network request for updated weather, parses the JSON from that request, and
-     * inserts the new weather information into our ContentProvider. Will notify the user that new
-     * weather has been loaded if the user hasn't been notified of the weather within the last day
-     * AND they haven't disabled notifications in the preferences screen.
+     * Saves the location the user prefers (either the current location or the location typed in
+     * the settings) and makes it the active location, so that
+     * {@link WeatherAppContract.WeatherEntry#CONTENT_URI} refers to its forecast. Locations that
+     * haven't been used for a while are deleted, so that at most {@link #MAX_SAVED_LOCATIONS}
+     * are synced.
      *
-     * @param context Used to access utility methods and the ContentResolver
+     * @param context Used to access the preferences and the ContentResolver
+     * @return The _ID of the active location
+     */
+    public static long selectPreferredLocation(Context context) {
+        WeatherSettings settings = WeatherAppPreferences.getSettings(context);
+        LocationState location = LocationStore.get(context);
+        ContentValues locationValues = new ContentValues();
+
+        if (location.hasCoordinates() && settings.isUseCurrentLocation()) {
+            locationValues.put(WeatherAppContract.LocationEntry.COLUMN_LOCATION_KEY,
+                    WeatherAppContract.LocationEntry.KEY_CURRENT_LOCATION);
+            locationValues.putNull(WeatherAppContract.LocationEntry.COLUMN_QUERY);
+            locationValues.put(WeatherAppContract.LocationEntry.COLUMN_LATITUDE,
+                    location.getLatitude());
+            locationValues.put(WeatherAppContract.LocationEntry.COLUMN_LONGITUDE,
+                    location.getLongitude());
+            locationValues.put(WeatherAppContract.LocationEntry.COLUMN_DISPLAY_NAME,
+                    location.getCurrentCity());
+        } else {
+            String locationQuery = settings.getEngPreferredWeatherLocation();
+            locationValues.put(WeatherAppContract.LocationEntry.COLUMN_LOCATION_KEY,
+                    WeatherAppContract.LocationEntry.buildQueryLocationKey(locationQuery));
+            locationValues.put(WeatherAppContract.LocationEntry.COLUMN_QUERY, locationQuery);
+            /* Coordinates are more precise than a name, if the name was resolved already */
+            ForwardGeocodingCache.Place place =
+                    ForwardGeocodingCache.getInstance(context).findByEnglishName(locationQuery);
+            if (place != null && place.hasCoordinates()) {
+                locationValues.put(WeatherAppContract.LocationEntry.COLUMN_LATITUDE,
+                        place.getLatitude());
+                locationValues.put(WeatherAppContract.LocationEntry.COLUMN_LONGITUDE,
+                        place.getLongitude());
+            } else {
+                locationValues.putNull(WeatherAppContract.LocationEntry.COLUMN_LATITUDE);
+                locationValues.putNull(WeatherAppContract.LocationEntry.COLUMN_LONGITUDE);
+            }
+            locationValues.put(WeatherAppContract.LocationEntry.COLUMN_DISPLAY_NAME,
+                    settings.getLocalePreferredWeatherLocation());
+        }
+        locationValues.put(WeatherAppContract.LocationEntry.COLUMN_LAST_USED,
+                System.currentTimeMillis());
+
+        ContentResolver contentResolver = context.getContentResolver();
+        long locationId = ContentUris.parseId(contentResolver.insert(
+                WeatherAppContract.LocationEntry.CONTENT_URI, locationValues));
+
+        if (locationId != settings.getActiveLocationId()) {
+            WeatherAppPreferences.setActiveLocationId(context, locationId);
+            contentResolver.notifyChange(WeatherAppContract.WeatherEntry.CONTENT_URI, null);
+        }
+
+        /* The active location was just used, so it is never among the evicted ones */
+        contentResolver.delete(WeatherAppContract.LocationEntry.CONTENT_URI,
+                WeatherAppContract.LocationEntry._ID + " NOT IN (SELECT "
+                        + WeatherAppContract.LocationEntry._ID
+                        + " FROM " + WeatherAppContract.LocationEntry.TABLE_NAME
+                        + " ORDER BY " + WeatherAppContract.LocationEntry.COLUMN_LAST_USED
+                        + " DESC LIMIT " + MAX_SAVED_LOCATIONS + ")",
+                null);
+
+        return locationId;
+    }
+
+    /**
+     * Builds the request URL of a saved location, from its coordinates if they are known, from
+     * its name otherwise.
+     *
+     * @param cursor A row of the location table, with LOCATION_SYNC_PROJECTION
+     * @return The URL to query the weather server with
      */
-    synchronized public static void syncWeather(Context context) {
+    private static URL buildLocationUrl(Cursor cursor) {
+        if (!cursor.isNull(INDEX_LOCATION_LATITUDE) && !cursor.isNull(INDEX_LOCATION_LONGITUDE)) {
+            return NetworkUtils.buildUrlWithLatitudeLongitude(
+                    cursor.getDouble(INDEX_LOCATION_LATITUDE),
+                    cursor.getDouble(INDEX_LOCATION_LONGITUDE));
+        }
+        return NetworkUtils.buildUrlWithLocationQuery(cursor.getString(INDEX_LOCATION_QUERY));
+    }
 
-        syncWeatherData(context);
+    /**
+     * Downloads the forecast of one request URL, unless the stored one is still fresh, and
+     * merges it into the weather table for every location that has that URL.
+     *
+     * @param context           Used to access the ContentResolver
+     * @param locationIds       The _IDs of the locations
+     * @param weatherRequestUrl The URL of the forecast of those locations
+     * @return The outcome for those locations: updated if the new forecast changed rows,
+     * unchanged if the stored one is still current
+     * @throws Exception If the forecast could not be downloaded or parsed
+     */
+    private static SyncResult syncLocations(Context context, List<Long> locationIds,
+                                     URL weatherRequestUrl) throws Exception {
+        /*
+         * The cache entry only describes what is in the database, so it is worthless if the
+         * forecast has been deleted (or has run out) since it was stored.
+         */
+        boolean haveForecastFromToday = true;
+        for (long locationId : locationIds) {
+            haveForecastFromToday &= hasForecastFromToday(context, locationId);
+        }
+        ConditionalRequestCache.Entry cacheEntry = null;
+        if (haveForecastFromToday) {
+            cacheEntry = ConditionalRequestCache.get(context, weatherRequestUrl);
+        }
+
+        /* The forecast we have for this URL is still fresh, don't even ask the server */
+        if (cacheEntry != null && cacheEntry.isFresh()) {
+            return unchanged(locationIds);
+        }
+
+        /*
+         * Parse the JSON straight from the response stream into a columnar batch of weather
+         * values, so neither the whole response nor a ContentValues per row is allocated.
+         */
+        WeatherBatch weatherBatch;
+        ConditionalRequestCache.Entry responseCacheEntry;
+        final ConditionalRequestCache.Entry validators = cacheEntry;
+        WeatherHttpClient.Exchange exchange = WeatherHttpClient.getDefault().execute(
+                weatherRequestUrl,
+                urlConnection -> ConditionalRequestCache.applyValidators(urlConnection, validators));
+        try {
+            HttpURLConnection urlConnection = exchange.getConnection();
+            int responseCode = exchange.getResponseCode();
+            responseCacheEntry = ConditionalRequestCache
+                    .fromResponse(weatherRequestUrl, urlConnection, cacheEntry);
+
+            /* The forecast in the database is still the latest one, just extend its lifetime */
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                ConditionalRequestCache.put(context, weatherRequestUrl, responseCacheEntry);
+                return unchanged(locationIds);
+            }
+
+            weatherBatch = OpenWeatherJsonUtils
+                    .getWeatherBatchFromJson(
+                            HttpResponseReader.getResponseStream(urlConnection));
+        } finally {
+            /* Keeps the connection alive for the other locations of this sync */
+            exchange.release();
+        }
+
+        /*
+         * In cases where our JSON contained an error code, getWeatherBatchFromJson
+         * would have returned null. We need to check for those cases here to prevent any
+         * NullPointerExceptions being thrown. We also have no reason to insert fresh data if
+         * there isn't any to insert.
+         */
+        if (weatherBatch != null && weatherBatch.size() != 0) {
+            /*
+             * Merge our new weather data into the forecast of each location. Old rows we don't
+             * need anymore are deleted and unchanged rows aren't rewritten, all in one
+             * transaction with a single change notification per location.
+             */
+            Bundle weatherValues = weatherBatch.toBundle();
+            int rowsChanged = 0;
+            int rowsRevised = 0;
+            for (long locationId : locationIds) {
+                Bundle mergeResult = context.getContentResolver().call(
+                        WeatherAppContract.WeatherEntry.CONTENT_URI,
+                        WeatherAppContract.WeatherEntry.METHOD_MERGE_BATCH,
+                        Long.toString(locationId),
+                        weatherValues);
+                if (mergeResult != null) {
+                    rowsChanged += mergeResult.getInt(
+                            WeatherAppContract.WeatherEntry.EXTRA_ROWS_CHANGED);
+                    rowsRevised += mergeResult.getInt(
+                            WeatherAppContract.WeatherEntry.EXTRA_ROWS_REVISED);
+                }
+            }
+
+            /* Only now does the database hold what the validators describe */
+            ConditionalRequestCache.put(context, weatherRequestUrl, responseCacheEntry);
+
+            if (rowsChanged > 0) {
+                return new SyncResult(locationIds.size(), 0, 0, rowsChanged, rowsRevised, true);
+            }
+        }
+
+        return unchanged(locationIds);
+    }
+
+    private static SyncResult unchanged(List<Long> locationIds) {
+        return new SyncResult(0, locationIds.size(), 0, 0, 0, true);
+    }
+
+    /**
+     * Checks whether a location has any forecast from today onwards.
+     *
+     * @param context    Used to query the provider if the forecast isn't cached
+     * @param locationId The _ID of the location
+     * @return true if there is at least one row to display
+     */
+    private static boolean hasForecastFromToday(Context context, long locationId) {
+        /* Served from memory unless the forecast changed since it was last read */
+        return !ForecastCache.getTodayOnwards(context, locationId).isEmpty();
+    }
+
+    /**
+     * Called after a periodic sync. Will notify the user that new weather has been loaded if the
+     * user hasn't been notified of the weather within the last day AND they haven't disabled
+     * notifications in the preferences screen.
+     *
+     * @param context Used to access utility methods and the ContentResolver
+     */
+    static void notifyUserOfNewWeatherIfDue(Context context) {
 
         /*
-         * Finally, after we insert data into the ContentProvider, determine whether or not
-         * we should notify the user that the weather has been refreshed.
+         * After we insert data into the ContentProvider, determine whether or not we should
+         * notify the user that the weather has been refreshed.
          */
         boolean notificationsEnabled = WeatherAppPreferences.areNotificationsEnabled(context);
 
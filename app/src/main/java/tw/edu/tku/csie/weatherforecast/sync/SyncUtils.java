@@ -16,90 +16,67 @@
 package tw.edu.tku.csie.weatherforecast.sync;
 
 import android.content.Context;
-import android.content.Intent;
-import android.database.Cursor;
-import android.net.Uri;
+import android.os.Build;
 import android.support.annotation.NonNull;
 
+import tw.edu.tku.csie.weatherforecast.data.ForecastCache;
+import tw.edu.tku.csie.weatherforecast.data.ForecastSnapshot;
 import tw.edu.tku.csie.weatherforecast.data.WeatherAppContract;
-
-import com.firebase.jobdispatcher.Constraint;
-import com.firebase.jobdispatcher.Driver;
-import com.firebase.jobdispatcher.FirebaseJobDispatcher;
-import com.firebase.jobdispatcher.GooglePlayDriver;
-import com.firebase.jobdispatcher.Job;
-import com.firebase.jobdispatcher.Lifetime;
-import com.firebase.jobdispatcher.Trigger;
-
-import java.util.concurrent.TimeUnit;
+import tw.edu.tku.csie.weatherforecast.data.WeatherAppPreferences;
 
 public class SyncUtils {
 
-    /*
-     * Interval at which to sync with the weather. Use TimeUnit for convenience, rather than
-     * writing out a bunch of multiplication ourselves and risk making a silly mistake.
-     */
-    private static final int SYNC_INTERVAL_HOURS = 3;
-    private static final int SYNC_INTERVAL_SECONDS = (int) TimeUnit.HOURS.toSeconds(SYNC_INTERVAL_HOURS);
-    private static final int SYNC_FLEXTIME_SECONDS = SYNC_INTERVAL_SECONDS / 3;
-
     private static boolean sInitialized;
 
-    private static final String SUNSHINE_SYNC_TAG = "sunshine-sync";
+    /**
+     * Returns the scheduler of the platform: JobScheduler where it exists, inexact repeating
+     * alarms before Lollipop.
+     */
+    private static SyncScheduler getSyncScheduler() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return new JobSchedulerSyncScheduler();
+        }
+        return new AlarmSyncScheduler();
+    }
 
     /**
-     * Schedules a repeating sync of Sunshine's weather data using FirebaseJobDispatcher.
-     * @param context Context used to create the GooglePlayDriver that powers the
-     *                FirebaseJobDispatcher
+     * Schedules a repeating sync of Sunshine's weather data, replacing the current schedule. The
+     * interval adapts to the forecast and to how much the app is used (see
+     * {@link SyncIntervalPolicy}), and the network and charging constraints are the ones chosen
+     * by the user in the settings.
+     *
+     * @param context Context used to access the preferences and the system services
      */
-    static void scheduleFirebaseJobDispatcherSync(@NonNull final Context context) {
-
-        Driver driver = new GooglePlayDriver(context);
-        FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(driver);
-
-        /* Create the Job to periodically sync Sunshine */
-        Job syncSunshineJob = dispatcher.newJobBuilder()
-                /* The Service that will be used to sync Sunshine's data */
-                .setService(FirebaseJobService.class)
-                /* Set the UNIQUE tag used to identify this Job */
-                .setTag(SUNSHINE_SYNC_TAG)
-                /*
-                 * Network constraints on which this Job should run. We choose to run on any
-                 * network, but you can also choose to run only on un-metered networks or when the
-                 * device is charging. It might be a good idea to include a preference for this,
-                 * as some users may not want to download any data on their mobile plan. ($$$)
-                 */
-                .setConstraints(Constraint.ON_ANY_NETWORK)
-                /*
-                 * setLifetime sets how long this job should persist. The options are to keep the
-                 * Job "forever" or to have it die the next time the device boots up.
-                 */
-                .setLifetime(Lifetime.UNTIL_NEXT_BOOT)
-                /*
-                 * We want Sunshine's weather data to stay up to date, so we tell this Job to recur.
-                 */
-                .setRecurring(true)
-                /*
-                 * We want the weather data to be synced every 3 to 4 hours. The first argument for
-                 * Trigger's static executionWindow method is the start of the time frame when the
-                 * sync should be performed. The second argument is the latest point in time at
-                 * which the data should be synced. Please note that this end time is not
-                 * guaranteed, but is more of a guideline for FirebaseJobDispatcher to go off of.
-                 */
-                .setTrigger(Trigger.executionWindow(
-                        SYNC_INTERVAL_SECONDS,
-                        SYNC_INTERVAL_SECONDS + SYNC_FLEXTIME_SECONDS))
-                /*
-                 * If a Job with the tag with provided already exists, this new job will replace
-                 * the old one.
-                 */
-                .setReplaceCurrent(true)
-                /* Once the Job is ready, call the builder's build method to return the Job */
-                .build();
-
-        /* Schedule the Job with the dispatcher */
-        dispatcher.schedule(syncSunshineJob);
+    public static void scheduleSync(@NonNull final Context context) {
+        getSyncScheduler().schedule(context,
+                SyncIntervalPolicy.getIntervalMillis(context),
+                WeatherAppPreferences.isSyncUnmeteredOnly(context),
+                WeatherAppPreferences.isSyncChargingOnly(context));
     }
+
+    /**
+     * Called by the schedulers once a periodic sync is over, on the thread of
+     * {@link SyncCoordinator}. Notifies the user of the new weather, compacts the forecast
+     * history, and schedules the sync again if its interval changed.
+     *
+     * @param context Context used to access the preferences and the system services
+     * @param result  The outcome of the sync
+     */
+    static void onPeriodicSyncFinished(@NonNull final Context context, SyncResult result) {
+        SyncTask.notifyUserOfNewWeatherIfDue(context);
+
+        /*
+         * The periodic sync already runs under the constraints the user chose for background
+         * work, so the history is compacted right after it, on the same thread.
+         */
+        context.getContentResolver().call(WeatherAppContract.HistoryEntry.CONTENT_URI,
+                WeatherAppContract.HistoryEntry.METHOD_COMPACT, null, null);
+
+        if (SyncIntervalPolicy.onPeriodicSyncFinished(context, result)) {
+            scheduleSync(context);
+        }
+    }
+
     /**
      * Creates periodic sync tasks and checks to see if an immediate sync is required. If an
      * immediate sync is required, this method will take care of making sure that sync occurs.
@@ -111,10 +88,12 @@ public class SyncUtils {
 
         /*
          * This method call triggers Sunshine to create its task to synchronize weather data
-         * periodically.
+         * periodically. Opening the app also tells the interval policy that the app is in use,
+         * and an app that was idle gets its normal interval back right away.
          */
-        if (!sInitialized) {
-            scheduleFirebaseJobDispatcherSync(context);
+        boolean wasIdle = SyncIntervalPolicy.recordAppUse(context);
+        if (!sInitialized || wasIdle) {
+            scheduleSync(context);
         }
 
         /*
@@ -133,45 +112,15 @@ public class SyncUtils {
          */
         Thread checkForEmpty = new Thread(() -> {
 
-            /* URI for every row of weather data in our weather table*/
-            Uri forecastQueryUri = WeatherAppContract.WeatherEntry.CONTENT_URI;
-
-            String[] projectionColumns = {
-                    WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME
-            };
-            String selectionStatement = WeatherAppContract.WeatherEntry
-                    .getSqlSelectForTodayOnwards();
-            /* Sort order: Ascending by date */
-            String sortOrder = WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME + " ASC";
-
-            /* Here, we perform the query to check to see if we have any weather data */
-            Cursor cursor = context.getContentResolver().query(
-                    forecastQueryUri,
-                    projectionColumns,
-                    selectionStatement,
-                    null,
-                    sortOrder);
-
-            if (null == cursor) {
+            /*
+             * Every row of weather data from today onwards of the active location, through
+             * ForecastCache.
+             */
+            ForecastSnapshot forecast = ForecastCache.getActiveTodayOnwards(context);
+
+            if (forecast.isEmpty() || forecast.getDateTime(0) < System.currentTimeMillis()) {
                 startImmediateSync(context);
-            } else {
-                if (cursor.getCount() == 0) {
-                    startImmediateSync(context);
-                } else {
-                    if (cursor.moveToFirst()) {
-                        long dateTime = cursor.getLong(0);
-                        if (dateTime < System.currentTimeMillis()) {
-                            startImmediateSync(context);
-                        }
-                    } else {
-                        startImmediateSync(context);
-                    }
-                }
-
-                /* Make sure to close the Cursor to avoid memory leaks! */
-                cursor.close();
             }
-
         });
 
         /* Finally, once the thread is prepared, fire it off to perform our checks. */
@@ -179,13 +128,23 @@ public class SyncUtils {
     }
 
     /**
-     * Helper method to perform a sync immediately using an IntentService for asynchronous
-     * execution.
+     * Helper method to perform a sync immediately using a Service for asynchronous execution.
+     * If a sync is already running, the request joins it.
      *
-     * @param context The Context used to start the IntentService for the sync.
+     * @param context The Context used to start the Service for the sync.
      */
     public static void startImmediateSync(@NonNull final Context context) {
-        Intent intentToSyncImmediately = new Intent(context, SyncIntentService.class);
-        context.startService(intentToSyncImmediately);
+        SyncService.startSync(context);
+    }
+
+    /**
+     * Helper method to sync after the location settings changed. The requests made while the
+     * user is editing the settings, and by the geocoding services that follow, are coalesced
+     * into a single sync once they stop coming.
+     *
+     * @param context The Context used to start the service for the sync.
+     */
+    public static void startSyncAfterLocationChange(@NonNull final Context context) {
+        SyncService.startDebouncedSync(context);
     }
 }
\ No newline at end of file
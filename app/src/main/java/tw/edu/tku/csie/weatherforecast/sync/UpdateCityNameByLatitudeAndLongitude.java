@@ -3,15 +3,15 @@ package tw.edu.tku.csie.weatherforecast.sync;
 import android.app.IntentService;
 import android.content.Context;
 import android.content.Intent;
-import android.location.Address;
-import android.location.Geocoder;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
 import java.io.IOException;
-import java.util.List;
 
+import tw.edu.tku.csie.weatherforecast.data.LocationState;
+import tw.edu.tku.csie.weatherforecast.data.LocationStore;
 import tw.edu.tku.csie.weatherforecast.data.WeatherAppPreferences;
+import tw.edu.tku.csie.weatherforecast.utilities.ReverseGeocodingCache;
 
 public class UpdateCityNameByLatitudeAndLongitude extends IntentService {
 
@@ -21,32 +21,27 @@ public class UpdateCityNameByLatitudeAndLongitude extends IntentService {
 
     @Override
     protected void onHandleIntent(@Nullable Intent intent) {
-        if (WeatherAppPreferences.isLocationLatLonAvailable(this)) {
-            Geocoder geocoder = new Geocoder(this);
-            double[] coordinate = WeatherAppPreferences.getLocationCoordinates(this);
-            List<Address> addresses = null;
+        LocationState location = LocationStore.get(this);
+        if (location.hasCoordinates()) {
+            // nearby locations that were already looked up don't go to the network
+            String city = null;
             try {
-                addresses = geocoder.getFromLocation(coordinate[0], coordinate[1], 1);
+                city = ReverseGeocodingCache.getInstance(this)
+                        .getCityName(location.getLatitude(), location.getLongitude());
             } catch (IOException e) {
                 Log.d("Address", "IOException" + e.getMessage());
                 e.printStackTrace();
-            } catch (IllegalArgumentException e) {
-                Log.d("Address", "IllegalArgumentException" + e.getMessage());
-                e.printStackTrace();
             }
-            if (addresses != null && addresses.size() > 0) {
-                Address address = addresses.get(0);
-                String city = address.getLocality();
-                String previous = WeatherAppPreferences.getCurrentCity(this);
+            if (city != null) {
+                String previous = location.getCurrentCity();
                 if (previous == null || !previous.equals(city)) {
-                    WeatherAppPreferences.resetCurrentCity(this);
                     WeatherAppPreferences.setCurrentCity(this, city);
                     // auto sync only when it's changed
-                    SyncUtils.startImmediateSync(this);
+                    SyncUtils.startSyncAfterLocationChange(this);
                 }
                 Log.d("Address", city);
             } else {
-                Log.d("Address", "null or 0");
+                Log.d("Address", "null");
             }
         }
     }
@@ -3,15 +3,12 @@ package tw.edu.tku.csie.weatherforecast.sync;
 import android.app.IntentService;
 import android.content.Context;
 import android.content.Intent;
-import android.location.Address;
-import android.location.Geocoder;
 import android.support.annotation.Nullable;
 
 import java.io.IOException;
-import java.util.List;
-import java.util.Locale;
 
 import tw.edu.tku.csie.weatherforecast.data.WeatherAppPreferences;
+import tw.edu.tku.csie.weatherforecast.utilities.ForwardGeocodingCache;
 
 public class UpdateLocalizedAndEnglishCityName extends IntentService {
 
@@ -21,40 +18,37 @@ public class UpdateLocalizedAndEnglishCityName extends IntentService {
 
     @Override
     protected void onHandleIntent(@Nullable Intent intent) {
-        Geocoder localeGeoCoder = new Geocoder(this);
-        Geocoder engGeoCoder = new Geocoder(this, Locale.ENGLISH);
         String preferredLocation = WeatherAppPreferences.getLocalePreferredWeatherLocation(this);
-        List<Address> localeAddresses = null;
-        List<Address> engAddresses = null;
+        // both names are looked up at once, and locations used before aren't looked up again
+        ForwardGeocodingCache.Place place = null;
         try {
-            localeAddresses = localeGeoCoder.getFromLocationName(preferredLocation, 1);
+            place = ForwardGeocodingCache.getInstance(this).getPlace(preferredLocation);
         } catch (IOException e) {
             e.printStackTrace();
-        } catch (IllegalArgumentException e) {
-            e.printStackTrace();
         }
-        try {
-            engAddresses = engGeoCoder.getFromLocationName(preferredLocation, 1);
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (IllegalArgumentException e) {
-            e.printStackTrace();
+        if (place == null) {
+            return;
         }
-        if (localeAddresses != null && localeAddresses.size() > 0) {
-            Address address = localeAddresses.get(0);
-            String location = address.getLocality();
-            WeatherAppPreferences.setLocalePreferredWeatherLocation(this, location);
+
+        // both names are written at once, so that nothing ever reads one without the other
+        WeatherAppPreferences.Editor editor = WeatherAppPreferences.edit(this);
+        boolean engLocationChanged = false;
+        if (place.getLocalizedName() != null) {
+            editor.setLocalePreferredWeatherLocation(place.getLocalizedName());
         }
-        if (engAddresses != null && engAddresses.size() > 0) {
-            Address address = engAddresses.get(0);
-            String location = address.getLocality();
+        if (place.getEnglishName() != null) {
+            String location = place.getEnglishName();
             String previous = WeatherAppPreferences.getEngPreferredWeatherLocation(this);
             if (!previous.equals(location)) {
-                WeatherAppPreferences.setEngPreferredWeatherLocation(this, location);
-                // auto sync only when it's changed
-                SyncUtils.startImmediateSync(this);
+                editor.setEngPreferredWeatherLocation(location);
+                engLocationChanged = true;
             }
         }
+        editor.apply();
+        if (engLocationChanged) {
+            // auto sync only when it's changed
+            SyncUtils.startSyncAfterLocationChange(this);
+        }
     }
 
     public static void startUpdate(Context context) {
@@ -0,0 +1,208 @@
+package tw.edu.tku.csie.weatherforecast.utilities;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.Nullable;
+import android.text.format.DateUtils;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Remembers the HTTP validators (ETag / Last-Modified) and the freshness lifetime of the forecast
+ * responses that were written to the database, so that the next sync of the same URL can be
+ * skipped while the response is still fresh, or be made conditional once it is stale.
+ * <p>
+ * There is one entry per URL, that is per saved location. Entries of locations that are no longer
+ * saved must be dropped with {@link #retainAll}, since they no longer describe what is on disk.
+ */
+public final class ConditionalRequestCache {
+
+    private static final String PREFS_NAME = "http_cache";
+
+    /* The keys of an entry are its URL followed by one of these suffixes */
+    private static final char KEY_SEPARATOR = '#';
+    private static final String PREF_ETAG = KEY_SEPARATOR + "etag";
+    private static final String PREF_LAST_MODIFIED = KEY_SEPARATOR + "last_modified";
+    private static final String PREF_EXPIRES_AT = KEY_SEPARATOR + "expires_at";
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final String DIRECTIVE_MAX_AGE = "max-age=";
+    private static final String DIRECTIVE_NO_CACHE = "no-cache";
+    private static final String DIRECTIVE_NO_STORE = "no-store";
+
+    /*
+     * OpenWeatherMap refreshes its model at most every 10 minutes and does not always send a
+     * Cache-Control header, so a response without max-age is considered fresh for that long.
+     */
+    private static final long DEFAULT_FRESHNESS_MILLIS = 10 * DateUtils.MINUTE_IN_MILLIS;
+
+    /**
+     * Validators and freshness of one response.
+     */
+    public static final class Entry {
+        final String url;
+        final String eTag;
+        final String lastModified;
+        final long expiresAt;
+
+        Entry(String url, String eTag, String lastModified, long expiresAt) {
+            this.url = url;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * @return true if the response can still be used without asking the server
+         */
+        public boolean isFresh() {
+            return System.currentTimeMillis() < expiresAt;
+        }
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the cache entry for the given URL.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @param url     The request URL
+     * @return The entry, or null if no response of that URL was stored
+     */
+    @Nullable
+    public static Entry get(Context context, URL url) {
+        SharedPreferences sp = getPreferences(context);
+        String urlString = url.toString();
+        if (!sp.contains(urlString + PREF_EXPIRES_AT)) {
+            return null;
+        }
+        return new Entry(urlString,
+                sp.getString(urlString + PREF_ETAG, null),
+                sp.getString(urlString + PREF_LAST_MODIFIED, null),
+                sp.getLong(urlString + PREF_EXPIRES_AT, 0));
+    }
+
+    /**
+     * Adds If-None-Match / If-Modified-Since to a request that has not been sent yet.
+     *
+     * @param urlConnection The request
+     * @param entry         The entry returned by {@link #get}, may be null
+     */
+    public static void applyValidators(HttpURLConnection urlConnection, @Nullable Entry entry) {
+        if (entry == null) return;
+        if (entry.eTag != null) {
+            urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, entry.eTag);
+        }
+        if (entry.lastModified != null) {
+            urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, entry.lastModified);
+        }
+    }
+
+    /**
+     * Reads validators and freshness from the headers of a response. The entry is not stored
+     * until {@link #put} is called, which should only happen once the body has been written.
+     *
+     * @param url           The request URL
+     * @param urlConnection The connection, after the response headers have been received
+     * @param previous      The entry the request was made with, used for the validators the
+     *                      server did not repeat (a 304 may omit them). May be null
+     * @return The entry describing this response, or null if the response must not be cached
+     */
+    @Nullable
+    public static Entry fromResponse(URL url, HttpURLConnection urlConnection,
+                                     @Nullable Entry previous) {
+        long freshness = DEFAULT_FRESHNESS_MILLIS;
+
+        String cacheControl = urlConnection.getHeaderField(HEADER_CACHE_CONTROL);
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase(Locale.US);
+                if (directive.equals(DIRECTIVE_NO_STORE)) {
+                    return null;
+                } else if (directive.equals(DIRECTIVE_NO_CACHE)) {
+                    freshness = 0;
+                } else if (directive.startsWith(DIRECTIVE_MAX_AGE)) {
+                    try {
+                        freshness = Long.parseLong(directive.substring(DIRECTIVE_MAX_AGE.length()))
+                                * DateUtils.SECOND_IN_MILLIS;
+                    } catch (NumberFormatException e) {
+                        freshness = 0;
+                    }
+                }
+            }
+        }
+
+        String eTag = urlConnection.getHeaderField(HEADER_ETAG);
+        String lastModified = urlConnection.getHeaderField(HEADER_LAST_MODIFIED);
+        if (previous != null) {
+            if (eTag == null) eTag = previous.eTag;
+            if (lastModified == null) lastModified = previous.lastModified;
+        }
+
+        return new Entry(url.toString(), eTag, lastModified,
+                System.currentTimeMillis() + freshness);
+    }
+
+    /**
+     * Stores the entry of a URL, replacing the previous entry of that URL.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @param url     The request URL
+     * @param entry   The entry returned by {@link #fromResponse}, null to forget the stored one
+     */
+    public static void put(Context context, URL url, @Nullable Entry entry) {
+        String urlString = url.toString();
+        SharedPreferences.Editor editor = getPreferences(context).edit();
+        if (entry == null) {
+            editor.remove(urlString + PREF_ETAG)
+                    .remove(urlString + PREF_LAST_MODIFIED)
+                    .remove(urlString + PREF_EXPIRES_AT);
+        } else {
+            /* A null String removes the key, so a validator the server dropped is forgotten */
+            editor.putString(urlString + PREF_ETAG, entry.eTag)
+                    .putString(urlString + PREF_LAST_MODIFIED, entry.lastModified)
+                    .putLong(urlString + PREF_EXPIRES_AT, entry.expiresAt);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Forgets the entries of every URL that is not in the given collection.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @param urls    The URLs of the locations that are still saved
+     */
+    public static void retainAll(Context context, Collection<String> urls) {
+        SharedPreferences sp = getPreferences(context);
+        SharedPreferences.Editor editor = null;
+        for (String key : sp.getAll().keySet()) {
+            int separator = key.lastIndexOf(KEY_SEPARATOR);
+            if (separator == -1 || !urls.contains(key.substring(0, separator))) {
+                if (editor == null) editor = sp.edit();
+                editor.remove(key);
+            }
+        }
+        if (editor != null) {
+            editor.apply();
+        }
+    }
+
+    /**
+     * Forgets every entry, so that the next sync downloads the forecasts unconditionally.
+     *
+     * @param context Context used to get the SharedPreferences
+     */
+    public static void clear(Context context) {
+        getPreferences(context).edit().clear().apply();
+    }
+}
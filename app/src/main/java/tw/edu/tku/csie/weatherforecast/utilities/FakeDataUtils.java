@@ -4,6 +4,7 @@ import android.content.ContentValues;
 import android.content.Context;
 
 import tw.edu.tku.csie.weatherforecast.data.WeatherAppContract;
+import tw.edu.tku.csie.weatherforecast.data.WeatherBatch;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -16,6 +17,10 @@ public class FakeDataUtils {
 
     private static int [] weatherIDs = {200,300,500,711,900,962};
 
+    private static final int FORECAST_ROW_COUNT = 40;
+
+    private static final long THREE_HOURS_IN_MILLIS = TimeUnit.HOURS.toMillis(3);
+
     /**
      * Creates a single ContentValues object with random weather data for the provided date
      * @param date a normalized date
@@ -35,6 +40,28 @@ public class FakeDataUtils {
         return testWeatherValues;
     }
 
+    /**
+     * Creates a random 5-day forecast of 3-hourly rows, like the one a sync downloads.
+     * @param start the date of the first row
+     * @return 40 rows of random weather data, 3 hours apart
+     */
+    public static WeatherBatch createFakeForecast(long start) {
+        WeatherBatch batch = new WeatherBatch(FORECAST_ROW_COUNT);
+        for (int i = 0; i < FORECAST_ROW_COUNT; i++) {
+            int maxTemp = (int) (Math.random() * 100);
+            batch.add(start + i * THREE_HOURS_IN_MILLIS,
+                    weatherIDs[(int) (Math.random() * 10) % 5],
+                    maxTemp - (int) (Math.random() * 10),
+                    maxTemp,
+                    Math.random() * 100,
+                    870 + Math.random() * 100,
+                    Math.random() * 10,
+                    Math.random() * 360,
+                    Math.random() < 0.7 ? 0 : Math.random() * 5);
+        }
+        return batch;
+    }
+
     /**
      * Creates random weather data for 7 days starting today
      * @param context context
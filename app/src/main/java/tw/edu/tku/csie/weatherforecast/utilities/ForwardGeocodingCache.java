@@ -0,0 +1,343 @@
+package tw.edu.tku.csie.weatherforecast.utilities;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Geocoder;
+import android.support.annotation.Nullable;
+import android.support.v4.util.AtomicFile;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Resolves the location typed by the user into the name of its city, in the language of the
+ * device and in English, and its coordinates.
+ * <p>
+ * Both names are looked up at the same time, and the lookup gives up after
+ * {@link #LOOKUP_TIMEOUT_MILLIS}. Resolved places are remembered by what was typed, in a file per
+ * language of the device, so switching back to a city that was used before needs no lookup.
+ */
+public final class ForwardGeocodingCache {
+
+    private static final String TAG = ForwardGeocodingCache.class.getSimpleName();
+
+    private static final String FILE_NAME_PREFIX = "forward_geocoding_";
+
+    /* Written first in the file, incremented whenever the layout of the entries changes */
+    private static final int FORMAT_VERSION = 1;
+
+    /* Both lookups together, a user waiting for the settings to apply won't wait longer */
+    private static final long LOOKUP_TIMEOUT_MILLIS = 10 * DateUtils.SECOND_IN_MILLIS;
+
+    private static final long TTL_MILLIS = 30 * DateUtils.DAY_IN_MILLIS;
+
+    private static final int MAX_ENTRIES = 32;
+
+    /* One thread per language, they go away when nothing is being looked up */
+    private static final int LOOKUP_THREAD_COUNT = 2;
+    private static final long LOOKUP_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor sLookupExecutor = createLookupExecutor();
+
+    private static final Object sInstanceLock = new Object();
+
+    /* Guarded by sInstanceLock */
+    private static ForwardGeocodingCache sInstance;
+    private static Locale sInstanceLocale;
+
+    /**
+     * A resolved location. Either name may be null if its lookup failed, in which case the place
+     * is not cached.
+     */
+    public static final class Place {
+        private final String mLocalizedName;
+        private final String mEnglishName;
+        private final boolean mHasCoordinates;
+        private final double mLatitude;
+        private final double mLongitude;
+        private final long mResolvedAtMillis;
+
+        Place(String localizedName, String englishName, boolean hasCoordinates, double latitude,
+              double longitude, long resolvedAtMillis) {
+            mLocalizedName = localizedName;
+            mEnglishName = englishName;
+            mHasCoordinates = hasCoordinates;
+            mLatitude = latitude;
+            mLongitude = longitude;
+            mResolvedAtMillis = resolvedAtMillis;
+        }
+
+        @Nullable
+        public String getLocalizedName() {
+            return mLocalizedName;
+        }
+
+        @Nullable
+        public String getEnglishName() {
+            return mEnglishName;
+        }
+
+        public boolean hasCoordinates() {
+            return mHasCoordinates;
+        }
+
+        public double getLatitude() {
+            return mLatitude;
+        }
+
+        public double getLongitude() {
+            return mLongitude;
+        }
+
+        boolean isComplete() {
+            return mLocalizedName != null && mEnglishName != null;
+        }
+    }
+
+    private final AtomicFile mFile;
+    private final Geocoder mLocalizedGeocoder;
+    private final Geocoder mEnglishGeocoder;
+
+    /* By normalized query, in access order, loaded from the file on first use. Guarded by this. */
+    private LinkedHashMap<String, Place> mPlaces;
+
+    private ForwardGeocodingCache(Context context, Locale locale) {
+        mFile = new AtomicFile(new File(context.getFilesDir(), FILE_NAME_PREFIX + locale));
+        mLocalizedGeocoder = new Geocoder(context, locale);
+        mEnglishGeocoder = new Geocoder(context, Locale.ENGLISH);
+    }
+
+    private static ThreadPoolExecutor createLookupExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                LOOKUP_THREAD_COUNT, LOOKUP_THREAD_COUNT,
+                LOOKUP_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Returns the cache of the current language of the device.
+     *
+     * @param context Used to find the file and to create the geocoders
+     * @return The cache
+     */
+    public static ForwardGeocodingCache getInstance(Context context) {
+        Locale locale = Locale.getDefault();
+        synchronized (sInstanceLock) {
+            if (sInstance == null || !locale.equals(sInstanceLocale)) {
+                sInstance = new ForwardGeocodingCache(context.getApplicationContext(), locale);
+                sInstanceLocale = locale;
+            }
+            return sInstance;
+        }
+    }
+
+    private static String normalize(String query) {
+        return query.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Resolves a location typed by the user, from the cache if it was resolved recently,
+     * otherwise with the geocoders. This blocks for up to LOOKUP_TIMEOUT_MILLIS, so it must not
+     * be called on the main thread.
+     *
+     * @param query The location, as typed by the user
+     * @return The place, or null if the geocoders know no such location
+     * @throws IOException If both lookups failed or timed out
+     */
+    @Nullable
+    public Place getPlace(String query) throws IOException {
+        String key = normalize(query);
+        synchronized (this) {
+            Place cached = getPlaces().get(key);
+            if (cached != null
+                    && System.currentTimeMillis() - cached.mResolvedAtMillis < TTL_MILLIS) {
+                return cached;
+            }
+        }
+
+        Future<Address> localized = sLookupExecutor.submit(lookUp(mLocalizedGeocoder, query));
+        Future<Address> english = sLookupExecutor.submit(lookUp(mEnglishGeocoder, query));
+        long deadline = System.currentTimeMillis() + LOOKUP_TIMEOUT_MILLIS;
+
+        IOException failure = null;
+        Address localizedAddress = null;
+        Address englishAddress = null;
+        try {
+            localizedAddress = await(localized, deadline);
+        } catch (IOException e) {
+            failure = e;
+        }
+        try {
+            englishAddress = await(english, deadline);
+        } catch (IOException e) {
+            failure = e;
+        }
+        if (localizedAddress == null && englishAddress == null) {
+            if (failure != null) throw failure;
+            return null;
+        }
+
+        /* The coordinates of both lookups are the same place, the English one is preferred */
+        Address located = englishAddress != null && englishAddress.hasLatitude()
+                && englishAddress.hasLongitude() ? englishAddress : localizedAddress;
+        boolean hasCoordinates = located != null && located.hasLatitude()
+                && located.hasLongitude();
+        Place place = new Place(
+                localizedAddress != null ? localizedAddress.getLocality() : null,
+                englishAddress != null ? englishAddress.getLocality() : null,
+                hasCoordinates,
+                hasCoordinates ? located.getLatitude() : 0.0,
+                hasCoordinates ? located.getLongitude() : 0.0,
+                System.currentTimeMillis());
+
+        /* A lookup that failed is tried again next time */
+        if (place.isComplete()) {
+            synchronized (this) {
+                getPlaces().put(key, place);
+                write();
+            }
+        }
+        return place;
+    }
+
+    /**
+     * Finds a cached place by its English name, without ever looking it up. The English name is
+     * what the weather server is queried with, see
+     * WeatherAppPreferences#getEngPreferredWeatherLocation. This may read the file of the cache,
+     * so it must not be called on the main thread.
+     *
+     * @param englishName The English name of the place
+     * @return The place, or null if no cached place has that name
+     */
+    @Nullable
+    public synchronized Place findByEnglishName(String englishName) {
+        for (Place place : getPlaces().values()) {
+            if (englishName.equalsIgnoreCase(place.mEnglishName)) {
+                return place;
+            }
+        }
+        return null;
+    }
+
+    private static Callable<Address> lookUp(final Geocoder geocoder, final String query) {
+        return () -> {
+            List<Address> addresses = geocoder.getFromLocationName(query, 1);
+            return addresses == null || addresses.isEmpty() ? null : addresses.get(0);
+        };
+    }
+
+    private static Address await(Future<Address> lookup, long deadline) throws IOException {
+        try {
+            return lookup.get(Math.max(0, deadline - System.currentTimeMillis()),
+                    TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            lookup.cancel(true);
+            throw new IOException("Geocoding timed out", e);
+        } catch (InterruptedException e) {
+            lookup.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Geocoding interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IllegalArgumentException) {
+                /* Empty location name */
+                return null;
+            }
+            throw new IOException("Geocoding failed", e.getCause());
+        }
+    }
+
+    /* Called with the lock held */
+    private LinkedHashMap<String, Place> getPlaces() {
+        if (mPlaces == null) {
+            mPlaces = new LinkedHashMap<String, Place>(MAX_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Place> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+            read();
+        }
+        return mPlaces;
+    }
+
+    /* Called with the lock held, adds the places of the file, least recently used first */
+    private void read() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(mFile.openRead());
+            if (in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                String localizedName = in.readUTF();
+                String englishName = in.readUTF();
+                boolean hasCoordinates = in.readBoolean();
+                double latitude = in.readDouble();
+                double longitude = in.readDouble();
+                long resolvedAtMillis = in.readLong();
+                mPlaces.put(key, new Place(localizedName, englishName, hasCoordinates, latitude,
+                        longitude, resolvedAtMillis));
+            }
+        } catch (FileNotFoundException e) {
+            /* Nothing was cached yet */
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read the cached places", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /* Called with the lock held, only complete places are cached */
+    private void write() {
+        FileOutputStream stream = null;
+        try {
+            stream = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(mPlaces.size());
+            for (Map.Entry<String, Place> entry : mPlaces.entrySet()) {
+                Place place = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeUTF(place.mLocalizedName);
+                out.writeUTF(place.mEnglishName);
+                out.writeBoolean(place.mHasCoordinates);
+                out.writeDouble(place.mLatitude);
+                out.writeDouble(place.mLongitude);
+                out.writeLong(place.mResolvedAtMillis);
+            }
+            out.flush();
+            mFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write the cached places", e);
+            if (stream != null) {
+                mFile.failWrite(stream);
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package tw.edu.tku.csie.weatherforecast.utilities;
+
+/**
+ * Encodes coordinates as geohashes. A geohash names a cell of a grid laid over the map, and
+ * every character added to it divides the cell by 32, so coordinates that are close together
+ * share the same geohash at a low enough precision.
+ */
+public final class GeohashUtils {
+
+    private static final char[] BASE_32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    /* Bits encoded by one character of a geohash */
+    private static final int BITS_PER_CHAR = 5;
+
+    private GeohashUtils() {
+    }
+
+    /**
+     * Returns the geohash of the cell that contains the given coordinates. At a precision of 6
+     * characters, a cell is about 1.2 km by 0.6 km.
+     *
+     * @param latitude  The latitude, from -90 to 90
+     * @param longitude The longitude, from -180 to 180
+     * @param precision The number of characters of the geohash
+     * @return The geohash
+     */
+    public static String encode(double latitude, double longitude, int precision) {
+        double minLatitude = -90.0;
+        double maxLatitude = 90.0;
+        double minLongitude = -180.0;
+        double maxLongitude = 180.0;
+
+        StringBuilder geohash = new StringBuilder(precision);
+        /* Bits alternate between longitude and latitude, starting with longitude */
+        boolean isLongitudeBit = true;
+        int bit = 0;
+        int value = 0;
+        while (geohash.length() < precision) {
+            if (isLongitudeBit) {
+                double middle = (minLongitude + maxLongitude) / 2;
+                if (longitude >= middle) {
+                    value = (value << 1) | 1;
+                    minLongitude = middle;
+                } else {
+                    value <<= 1;
+                    maxLongitude = middle;
+                }
+            } else {
+                double middle = (minLatitude + maxLatitude) / 2;
+                if (latitude >= middle) {
+                    value = (value << 1) | 1;
+                    minLatitude = middle;
+                } else {
+                    value <<= 1;
+                    maxLatitude = middle;
+                }
+            }
+            isLongitudeBit = !isLongitudeBit;
+
+            if (++bit == BITS_PER_CHAR) {
+                geohash.append(BASE_32[value]);
+                bit = 0;
+                value = 0;
+            }
+        }
+        return geohash.toString();
+    }
+}
@@ -0,0 +1,135 @@
+package tw.edu.tku.csie.weatherforecast.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads HTTP response bodies from the weather server. Requests are made with
+ * "Accept-Encoding: gzip" and the body is decompressed here, the text is always decoded as UTF-8
+ * and the byte buffers used to read whole bodies are pooled between syncs.
+ */
+public final class HttpResponseReader {
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_ACCEPT_CHARSET = "Accept-Charset";
+    private static final String ENCODING_GZIP = "gzip";
+
+    public static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* A forecast for one city is about 15-20 KB, so most bodies fit in the first buffer */
+    private static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+    private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+
+    /* gzipped JSON usually shrinks to less than a fourth of its size */
+    private static final int GZIP_EXPANSION_ESTIMATE = 4;
+
+    /* Buffers bigger than this are not kept around once the body has been read */
+    private static final int MAX_POOLED_BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 2;
+
+    private static final ArrayDeque<byte[]> sBufferPool = new ArrayDeque<>(MAX_POOLED_BUFFERS);
+
+    /**
+     * Asks the server for a gzipped, UTF-8 body. Must be called before the connection is
+     * connected. Once "Accept-Encoding" is set by us, HttpURLConnection no longer decompresses
+     * transparently, so the body must be read through {@link #getResponseStream}.
+     *
+     * @param urlConnection The connection that is about to be opened
+     */
+    public static void prepareRequest(HttpURLConnection urlConnection) {
+        urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+        urlConnection.setRequestProperty(HEADER_ACCEPT_CHARSET, UTF_8.name());
+    }
+
+    /**
+     * Returns the decompressed body of the response, for parsers that consume the stream
+     * directly. The stream is closed when the connection is disconnected.
+     *
+     * @param urlConnection A connection prepared with {@link #prepareRequest}
+     * @return The (decompressed) response body
+     * @throws IOException Related to network and stream reading
+     */
+    public static InputStream getResponseStream(HttpURLConnection urlConnection)
+            throws IOException {
+        InputStream in = urlConnection.getInputStream();
+        if (ENCODING_GZIP.equalsIgnoreCase(urlConnection.getContentEncoding())) {
+            return new GZIPInputStream(in, STREAM_BUFFER_SIZE);
+        }
+        return new BufferedInputStream(in, STREAM_BUFFER_SIZE);
+    }
+
+    /**
+     * Reads the entire body of the response and decodes it as UTF-8.
+     *
+     * @param urlConnection A connection prepared with {@link #prepareRequest}
+     * @return The contents of the HTTP response, null if the body is empty
+     * @throws IOException Related to network and stream reading
+     */
+    public static String readResponse(HttpURLConnection urlConnection) throws IOException {
+        int sizeHint = urlConnection.getContentLength();
+        if (sizeHint > 0 && ENCODING_GZIP.equalsIgnoreCase(urlConnection.getContentEncoding())) {
+            sizeHint *= GZIP_EXPANSION_ESTIMATE;
+        }
+
+        byte[] buffer = acquireBuffer(sizeHint);
+        InputStream in = getResponseStream(urlConnection);
+        try {
+            int length = 0;
+            int read;
+            while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+
+            if (length == 0) {
+                return null;
+            }
+            return new String(buffer, 0, length, UTF_8);
+        } finally {
+            in.close();
+            releaseBuffer(buffer);
+        }
+    }
+
+    /**
+     * Takes a buffer of at least the given size from the pool, or allocates a new one.
+     *
+     * @param sizeHint Expected size of the body in bytes, -1 if unknown
+     * @return A buffer to read the body into
+     */
+    private static byte[] acquireBuffer(int sizeHint) {
+        /* One spare byte so that a body of exactly sizeHint bytes never needs to grow */
+        int size = Math.max(DEFAULT_BUFFER_SIZE, sizeHint + 1);
+        synchronized (sBufferPool) {
+            for (byte[] pooled : sBufferPool) {
+                if (pooled.length >= size) {
+                    sBufferPool.remove(pooled);
+                    return pooled;
+                }
+            }
+        }
+        return new byte[size];
+    }
+
+    /**
+     * Returns a buffer to the pool so that the next sync can reuse it.
+     *
+     * @param buffer The buffer which is no longer used
+     */
+    private static void releaseBuffer(byte[] buffer) {
+        if (buffer.length > MAX_POOLED_BUFFER_SIZE) return;
+        synchronized (sBufferPool) {
+            if (sBufferPool.size() < MAX_POOLED_BUFFERS) {
+                sBufferPool.push(buffer);
+            }
+        }
+    }
+}
@@ -19,14 +19,15 @@ import android.content.Context;
 import android.net.Uri;
 import android.util.Log;
 
+import tw.edu.tku.csie.weatherforecast.BuildConfig;
+import tw.edu.tku.csie.weatherforecast.data.LocationState;
+import tw.edu.tku.csie.weatherforecast.data.LocationStore;
 import tw.edu.tku.csie.weatherforecast.data.WeatherAppPreferences;
+import tw.edu.tku.csie.weatherforecast.data.WeatherSettings;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Scanner;
 
 /**
  * These utilities will be used to communicate with the weather servers.
@@ -73,7 +74,8 @@ public final class NetworkUtils {
     /* The number of days we want our API to return */
     private static final int cnt = 37;
 
-    private static final String key = "f72d3dc1c74637f9afe84afb7d379adc";
+    /* Set at build time, see build.gradle. Requests are rate limited per key. */
+    private static final String key = BuildConfig.OWM_API_KEY;
 
     /* The query parameter allows us to provide a location string to the API */
     private static final String QUERY_PARAM = "q";
@@ -105,18 +107,33 @@ public final class NetworkUtils {
      * @return URL to query weather service
      */
     public static URL getUrl(Context context) {
-        if (WeatherAppPreferences.isLocationLatLonAvailable(context) &&
-                WeatherAppPreferences.isUseCurrentLocation(context)) {
-            double[] preferredCoordinates = WeatherAppPreferences.getLocationCoordinates(context);
-            double latitude = preferredCoordinates[0];
-            double longitude = preferredCoordinates[1];
-            return buildUrlWithLatitudeLongitude(latitude, longitude);
+        WeatherSettings settings = WeatherAppPreferences.getSettings(context);
+        LocationState location = LocationStore.get(context);
+        if (location.hasCoordinates() && settings.isUseCurrentLocation()) {
+            return buildUrlWithLatitudeLongitude(location.getLatitude(), location.getLongitude());
         } else {
-            String locationQuery = WeatherAppPreferences.getEngPreferredWeatherLocation(context);
+            String locationQuery = settings.getEngPreferredWeatherLocation();
+            ForwardGeocodingCache.Place place =
+                    ForwardGeocodingCache.getInstance(context).findByEnglishName(locationQuery);
+            if (place != null && place.hasCoordinates()) {
+                return buildUrlWithLatitudeLongitude(place.getLatitude(), place.getLongitude());
+            }
             return buildUrlWithLocationQuery(locationQuery);
         }
     }
 
+    /**
+     * @return The API key the app was built with
+     * @throws IllegalStateException If it was built without one
+     */
+    private static String getKey() {
+        if (key.isEmpty()) {
+            throw new IllegalStateException("Built without an OpenWeatherMap API key, build with "
+                    + "-PowmApiKey=<key> or add owmApiKey=<key> to local.properties");
+        }
+        return key;
+    }
+
     /**
      * Builds the URL used to talk to the weather server using latitude and longitude of a
      * location.
@@ -125,9 +142,9 @@ public final class NetworkUtils {
      * @param longitude The longitude of the location
      * @return The Url to use to query the weather server.
      */
-    private static URL buildUrlWithLatitudeLongitude(Double latitude, Double longitude) {
+    public static URL buildUrlWithLatitudeLongitude(Double latitude, Double longitude) {
         Uri weatherQueryUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                .appendQueryParameter(KEY_PARAM, key)
+                .appendQueryParameter(KEY_PARAM, getKey())
                 .appendQueryParameter(LAT_PARAM, String.valueOf(latitude))
                 .appendQueryParameter(LON_PARAM, String.valueOf(longitude))
                 .appendQueryParameter(FORMAT_PARAM, format)
@@ -152,9 +169,9 @@ public final class NetworkUtils {
      * @param locationQuery The location that will be queried for.
      * @return The URL to use to query the weather server.
      */
-    private static URL buildUrlWithLocationQuery(String locationQuery) {
+    public static URL buildUrlWithLocationQuery(String locationQuery) {
         Uri weatherQueryUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                .appendQueryParameter(KEY_PARAM, key)
+                .appendQueryParameter(KEY_PARAM, getKey())
                 .appendQueryParameter(QUERY_PARAM, locationQuery)
                 .appendQueryParameter(FORMAT_PARAM, format)
                 .appendQueryParameter(UNITS_PARAM, units)
@@ -172,29 +189,19 @@ public final class NetworkUtils {
     }
 
     /**
-     * This method returns the entire result from the HTTP response.
+     * This method returns the entire result from the HTTP response. The request goes through
+     * {@link WeatherHttpClient}, so it is rate limited and retried like those of the sync.
      *
      * @param url The URL to fetch the HTTP response from.
      * @return The contents of the HTTP response, null if no response
      * @throws IOException Related to network and stream reading
      */
     public static String getResponseFromHttpUrl(URL url) throws IOException {
-        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        WeatherHttpClient.Exchange exchange = WeatherHttpClient.getDefault().execute(url, null);
         try {
-            InputStream in = urlConnection.getInputStream();
-
-            Scanner scanner = new Scanner(in);
-            scanner.useDelimiter("\\A");
-
-            boolean hasInput = scanner.hasNext();
-            String response = null;
-            if (hasInput) {
-                response = scanner.next();
-            }
-            scanner.close();
-            return response;
+            return HttpResponseReader.readResponse(exchange.getConnection());
         } finally {
-            urlConnection.disconnect();
+            exchange.release();
         }
     }
 }
\ No newline at end of file
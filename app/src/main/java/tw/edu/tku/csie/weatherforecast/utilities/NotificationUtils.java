@@ -6,43 +6,25 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Build;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
 import android.support.v4.content.ContextCompat;
+import android.util.LruCache;
 
 import tw.edu.tku.csie.weatherforecast.DetailActivity;
 import tw.edu.tku.csie.weatherforecast.R;
+import tw.edu.tku.csie.weatherforecast.data.TodaySummary;
+import tw.edu.tku.csie.weatherforecast.data.TodaySummaryStore;
 import tw.edu.tku.csie.weatherforecast.data.WeatherAppContract;
 import tw.edu.tku.csie.weatherforecast.data.WeatherAppPreferences;
 
 public class NotificationUtils {
 
-    /*
-     * The columns of data that we are interested in displaying within our notification to let
-     * the user know there is new weather data available.
-     */
-    public static final String[] WEATHER_NOTIFICATION_PROJECTION = {
-            WeatherAppContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME,
-            WeatherAppContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherAppContract.WeatherEntry.COLUMN_MIN_TEMP,
-    };
-
-    /*
-     * We store the indices of the values in the array of Strings above to more quickly be able
-     * to access the data from our query. If the order of the Strings above changes, these
-     * indices must be adjusted to match the order of the Strings.
-     */
-    public static final int INDEX_WEATHER_ID = 0;
-    public static final int INDEX_WEATHER_DATE_TIME = 1;
-    public static final int INDEX_MAX_TEMP = 2;
-    public static final int INDEX_MIN_TEMP = 3;
-
     /*
      * This notification ID can be used to access our notification after we've displayed it. This
      * can be handy when we need to cancel the notification, or perhaps update it. This number is
@@ -52,6 +34,14 @@ public class NotificationUtils {
 
     private static final String CHANNEL_ID = "channel_id_0";
 
+    /*
+     * Large icons already drawn, by density and icon. There are eight weather icons, and a
+     * notification is posted at most once a day, so they are kept for the life of the process.
+     */
+    private static final int MAX_CACHED_LARGE_ICONS = 8;
+    private static final LruCache<Long, Bitmap> sLargeIcons =
+            new LruCache<>(MAX_CACHED_LARGE_ICONS);
+
     private static void createNotificationChannel(Context context) {
         // Create the NotificationChannel, but only on API 26+ because
         // the NotificationChannel class is new and not in the support library
@@ -73,61 +63,28 @@ public class NotificationUtils {
     /**
      * Constructs and displays a notification for the newly updated weather for today.
      *
-     * @param context Context used to query our ContentProvider and use various Utility methods
+     * @param context Context used to read the summary of today and the resources
      */
     public static void notifyUserOfNewWeather(Context context) {
 
         /* create notification before post notifications */
         createNotificationChannel(context);
 
-        /* URI for all rows of weather data in our weather table */
-        Uri forecastQueryUri = WeatherAppContract.WeatherEntry.CONTENT_URI;
-        /* Sort order: Ascending by date */
-        String sortOrder = WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME + " ASC";
-        /*
-         * A SELECTION in SQL declares which rows you'd like to return. In our case, we
-         * want all weather data from today onwards that is stored in our weather table.
-         * We created a handy method to do that in our WeatherEntry class.
-         */
-        String selection = WeatherAppContract.WeatherEntry.getSqlSelectForTodayOnwards();
-
         /*
-         * The MAIN_FORECAST_PROJECTION array passed in as the second parameter is defined in our WeatherAppContract
-         * class and is used to limit the columns returned in our cursor.
+         * The summary of today made by the sync, already formatted in both units. If there is no
+         * forecast from today onwards, there is nothing to notify the user of.
          */
-        Cursor todayWeatherCursor = context.getContentResolver().query(
-                forecastQueryUri,
-                WEATHER_NOTIFICATION_PROJECTION,
-                selection,
-                null,
-                sortOrder);
+        TodaySummary today = TodaySummaryStore.get(context);
+        if (today != null) {
 
-        /*
-         * If todayWeatherCursor is empty, moveToFirst will return false. If our cursor is not
-         * empty, we want to show the notification.
-         */
-        if (todayWeatherCursor != null && todayWeatherCursor.moveToFirst()) {
-
-            /* Weather ID as returned by API, used to identify the icon to be used */
-            int weatherId = todayWeatherCursor.getInt(INDEX_WEATHER_ID);
-            double high = todayWeatherCursor.getDouble(INDEX_MAX_TEMP);
-            double low = todayWeatherCursor.getDouble(INDEX_MIN_TEMP);
-
-            Resources resources = context.getResources();
-            int largeArtResourceId = WeatherUtils
-                    .getLargeArtResourceIdForWeatherCondition(weatherId);
-
-            Bitmap largeIcon = BitmapFactory.decodeResource(
-                    resources,
-                    largeArtResourceId);
+            Bitmap largeIcon = getLargeIcon(context, today.getLargeIconResId());
 
             String notificationTitle = context.getString(R.string.app_name);
 
-            String notificationText = getNotificationText(context, weatherId, high, low);
+            String notificationText = today.getText(WeatherAppPreferences.isMetric(context));
 
-            /* getSmallArtResourceIdForWeatherCondition returns the proper art to show given an ID */
-            int smallArtResourceId = WeatherUtils
-                    .getSmallArtResourceIdForWeatherCondition(weatherId);
+            /* The icon is looked up once per summary, see TodaySummary */
+            int smallArtResourceId = today.getSmallIconResId();
 
             /*
              * NotificationCompat Builder is a very convenient way to build backward-compatible
@@ -150,8 +107,8 @@ public class NotificationUtils {
              * we want to open Sunshine to the DetailActivity to display the newly updated weather.
              */
             Intent detailIntentForToday = new Intent(context, DetailActivity.class);
-            long dateTime = todayWeatherCursor.getLong(INDEX_WEATHER_DATE_TIME);
-            Uri uriForDateTime = WeatherAppContract.WeatherEntry.buildWeatherUriWithDate(dateTime);
+            long dateTime = today.getDateTime();
+            Uri uriForDateTime = WeatherAppContract.DayEntry.buildDayUriWithDate(dateTime);
             detailIntentForToday.setData(uriForDateTime);
 
             TaskStackBuilder taskStackBuilder = TaskStackBuilder.create(context);
@@ -174,43 +131,36 @@ public class NotificationUtils {
              * next time the weather is refreshed if we should show another notification.
              */
             WeatherAppPreferences.saveLastNotificationTime(context, System.currentTimeMillis());
-
-            /* Always close your cursor when you're done with it to avoid wasting resources. */
-            todayWeatherCursor.close();
         }
 
     }
 
     /**
-     * Constructs and returns the summary of a particular day's forecast using various utility
-     * methods and resources for formatting. This method is only used to create the text for the
-     * notification that appears when the weather is refreshed.
-     * <p>
-     * The String returned from this method will look something like this:
-     * <p>
-     * Forecast: Sunny - High: 14°C Low 7°C
+     * Returns a large icon drawn at the density of the screen, from the cache if it was already
+     * drawn. The art is a vector drawable, which BitmapFactory can't decode.
      *
-     * @param context   Used to access utility methods and resources
-     * @param weatherId ID as determined by Open Weather Map
-     * @param high      High temperature (either celsius or fahrenheit depending on preferences)
-     * @param low       Low temperature (either celsius or fahrenheit depending on preferences)
-     * @return Summary of a particular day's forecast
+     * @param context       Used to read the resources
+     * @param artResourceId The large art of a weather condition
+     * @return The bitmap of the notification
      */
-    private static String getNotificationText(Context context, int weatherId, double high, double low) {
-
-        /*
-         * Short description of the weather, as provided by the API.
-         * e.g "clear" vs "sky is clear".
-         */
-        String shortDescription = WeatherUtils
-                .getStringForWeatherCondition(context, weatherId);
-
-        String notificationFormat = context.getString(R.string.format_notification);
+    private static Bitmap getLargeIcon(Context context, int artResourceId) {
+        Resources resources = context.getResources();
+        long key = (long) resources.getDisplayMetrics().densityDpi << 32 | artResourceId;
+        Bitmap icon = sLargeIcons.get(key);
+        if (icon != null) {
+            return icon;
+        }
 
-        /* Using String's format method, we create the forecast summary */
-        return String.format(notificationFormat,
-                shortDescription,
-                WeatherUtils.formatTemperature(context, high),
-                WeatherUtils.formatTemperature(context, low));
+        Drawable art = ContextCompat.getDrawable(context, artResourceId);
+        int width = resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+        int height = resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height);
+        icon = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        if (art != null) {
+            Canvas canvas = new Canvas(icon);
+            art.setBounds(0, 0, width, height);
+            art.draw(canvas);
+        }
+        sLargeIcons.put(key, icon);
+        return icon;
     }
 }
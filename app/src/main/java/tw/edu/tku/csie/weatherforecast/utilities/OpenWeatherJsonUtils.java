@@ -16,14 +16,17 @@
 package tw.edu.tku.csie.weatherforecast.utilities;
 
 import android.content.ContentValues;
+import android.util.JsonReader;
+import android.util.JsonToken;
 //import android.content.Context;
 
-import tw.edu.tku.csie.weatherforecast.data.WeatherAppContract;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import tw.edu.tku.csie.weatherforecast.data.WeatherBatch;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.net.HttpURLConnection;
 
 /**
@@ -53,111 +56,302 @@ public final class OpenWeatherJsonUtils {
     private static final String OWM_WEATHER = "weather";
     private static final String OWM_WEATHER_ID = "id";
 
+    /* Rain and snow volume of the last 3 hours, in mm. Left out, or empty, when there is none */
+    private static final String OWM_RAIN = "rain";
+    private static final String OWM_SNOW = "snow";
+    private static final String OWM_THREE_HOURS = "3h";
+
     private static final String OWM_MESSAGE_CODE = "cod";
 
     /**
-     * This method parses JSON from a web response and returns an array of Strings
+     * This method parses JSON from a web response and returns an array of ContentValues
      * describing the weather over various days from the forecast.
      * <p/>
-     * Later on, we'll be parsing the JSON into structured data within the
-     * getFullWeatherDataFromJson function, leveraging the data we have stored in the JSON. For
-     * now, we just convert the JSON into human-readable strings.
+     * This is a thin wrapper around {@link #getWeatherContentValuesFromJson(Reader)} for callers
+     * that already hold the whole response as a String.
      *
      * @param forecastJsonStr JSON response from server
      *
-     * @return Array of Strings describing weather data
+     * @return Array of ContentValues describing weather data, null if the server reported an error
      *
-     * @throws JSONException If JSON data cannot be properly parsed
+     * @throws IOException If JSON data cannot be properly parsed
      */
     public static ContentValues[] getWeatherContentValuesFromJson(String forecastJsonStr)
-            throws JSONException {
+            throws IOException {
+        return getWeatherContentValuesFromJson(new StringReader(forecastJsonStr));
+    }
 
-        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+    /**
+     * Parses the forecast straight from the HTTP response stream. The response is never held as
+     * a String or as a JSONObject tree, only the rows we actually keep are allocated.
+     *
+     * @param forecastJsonStream Body of the /forecast response, encoded in UTF-8
+     *
+     * @return Array of ContentValues describing weather data, null if the server reported an error
+     *
+     * @throws IOException If the stream cannot be read or JSON data cannot be properly parsed
+     */
+    public static ContentValues[] getWeatherContentValuesFromJson(InputStream forecastJsonStream)
+            throws IOException {
+        return toContentValues(getWeatherBatchFromJson(forecastJsonStream));
+    }
 
-        /* Is there an error? */
-        if (forecastJson.has(OWM_MESSAGE_CODE)) {
-            int statusCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+    /**
+     * See {@link #getWeatherBatchFromJson(Reader)}.
+     *
+     * @param forecastJsonReader Reader over the JSON response from server
+     *
+     * @return Array of ContentValues describing weather data, null if the server reported an error
+     *
+     * @throws IOException If JSON data cannot be properly parsed
+     */
+    public static ContentValues[] getWeatherContentValuesFromJson(Reader forecastJsonReader)
+            throws IOException {
+        return toContentValues(getWeatherBatchFromJson(forecastJsonReader));
+    }
 
-            switch (statusCode) {
-                case HttpURLConnection.HTTP_OK:
-                    break;
-                case HttpURLConnection.HTTP_NOT_FOUND:
-                    /* Location invalid */
-                    return null;
-                default:
-                    /* Server probably down */
-                    return null;
-            }
-        }
+    private static ContentValues[] toContentValues(WeatherBatch batch) {
+        return batch == null ? null : batch.toContentValues();
+    }
 
-        JSONArray jsonWeatherArray = forecastJson.getJSONArray(OWM_LIST);
+    /**
+     * Parses the forecast straight from the HTTP response stream into a columnar batch, so that
+     * neither the response nor the individual rows are ever allocated as objects.
+     *
+     * @param forecastJsonStream Body of the /forecast response, encoded in UTF-8
+     *
+     * @return The weather data, null if the server reported an error
+     *
+     * @throws IOException If the stream cannot be read or JSON data cannot be properly parsed
+     */
+    public static WeatherBatch getWeatherBatchFromJson(InputStream forecastJsonStream)
+            throws IOException {
+        return getWeatherBatchFromJson(new InputStreamReader(forecastJsonStream,
+                HttpResponseReader.UTF_8));
+    }
 
-        ContentValues[] weatherContentValues = new ContentValues[jsonWeatherArray.length()];
+    /**
+     * Pull-parses a /forecast response. Only the fields that end up in the weather table are
+     * read, everything else ("city", "sys", "clouds", "dt_txt", the weather description...) is
+     * skipped without being materialized.
+     *
+     * @param forecastJsonReader Reader over the JSON response from server
+     *
+     * @return The weather data, null if the server reported an error
+     *
+     * @throws IOException If JSON data cannot be properly parsed
+     */
+    public static WeatherBatch getWeatherBatchFromJson(Reader forecastJsonReader)
+            throws IOException {
+
+        JsonReader reader = new JsonReader(forecastJsonReader);
+        WeatherBatch weatherBatch = null;
+
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case OWM_MESSAGE_CODE:
+                        /* Is there an error? "cod" is sent as a String by /forecast */
+                        int statusCode = reader.nextInt();
+
+                        switch (statusCode) {
+                            case HttpURLConnection.HTTP_OK:
+                                break;
+                            case HttpURLConnection.HTTP_NOT_FOUND:
+                                /* Location invalid */
+                                return null;
+                            default:
+                                /* Server probably down */
+                                return null;
+                        }
+                        break;
+
+                    case OWM_LIST:
+                        weatherBatch = readWeatherList(reader);
+                        break;
+
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
 
-        for (int i = 0; i < jsonWeatherArray.length(); i++) {
+        if (weatherBatch == null) {
+            throw new IOException("Missing \"" + OWM_LIST + "\" in forecast response");
+        }
 
-            long dateTimeMillis;
-            double pressure;
-            int humidity;
-            double windSpeed;
-            double windDirection;
+        return weatherBatch;
+    }
 
-            double high;
-            double low;
+    /**
+     * Reads every element of the "list" array into one row of weather values.
+     *
+     * @param reader JsonReader positioned right before the "list" array
+     * @return The rows, in the order they were sent by the server
+     * @throws IOException If JSON data cannot be properly parsed
+     */
+    private static WeatherBatch readWeatherList(JsonReader reader) throws IOException {
+        WeatherBatch weatherBatch = new WeatherBatch();
 
-            int weatherId;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readWeatherEntry(reader, weatherBatch);
+        }
+        reader.endArray();
 
-            /* Get the JSON object representing the day */
-            JSONObject dayForecast = jsonWeatherArray.getJSONObject(i);
+        return weatherBatch;
+    }
 
-            /*
-             * We ignore all the datetime values embedded in the JSON and assume that
-             * the values are returned in-order by day (which is not guaranteed to be correct).
-             */
-            dateTimeMillis = dayForecast.getInt(OWN_DATE_TIME) * WeatherAppDateUtils.SEC_IN_MILLIS;
+    /**
+     * Reads a single forecast entry ("dt", "main", "wind", the first "weather" element, and "rain"
+     * and "snow" if there are any).
+     *
+     * @param reader       JsonReader positioned right before an element of the "list" array
+     * @param weatherBatch The batch the entry is appended to
+     * @throws IOException If JSON data cannot be properly parsed or a field is missing
+     */
+    private static void readWeatherEntry(JsonReader reader, WeatherBatch weatherBatch)
+            throws IOException {
+        long dateTimeMillis = -1;
+        double pressure = Double.NaN;
+        int humidity = -1;
+        double windSpeed = Double.NaN;
+        double windDirection = Double.NaN;
+
+        double high = Double.NaN;
+        double low = Double.NaN;
+
+        int weatherId = -1;
+
+        double precipitation = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case OWN_DATE_TIME:
+                    dateTimeMillis = reader.nextLong() * WeatherAppDateUtils.SEC_IN_MILLIS;
+                    break;
 
-            JSONObject mainInfo = dayForecast.getJSONObject(OWN_MAIN_INFO);
-            JSONObject windInfo = dayForecast.getJSONObject(OWN_WIND_INFO);
+                case OWN_MAIN_INFO:
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case OWM_PRESSURE:
+                                pressure = reader.nextDouble();
+                                break;
+                            case OWM_HUMIDITY:
+                                humidity = reader.nextInt();
+                                break;
+                            /*
+                             * Editor's Note: Try not to name variables "temp" when working with
+                             * temperature. It confuses everybody.
+                             */
+                            case OWM_MAX:
+                                high = reader.nextDouble();
+                                break;
+                            case OWM_MIN:
+                                low = reader.nextDouble();
+                                break;
+                            default:
+                                reader.skipValue();
+                                break;
+                        }
+                    }
+                    reader.endObject();
+                    break;
 
-            pressure = mainInfo.getDouble(OWM_PRESSURE);
-            humidity = mainInfo.getInt(OWM_HUMIDITY);
+                case OWN_WIND_INFO:
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case OWM_WIND_SPEED:
+                                windSpeed = reader.nextDouble();
+                                break;
+                            case OWM_WIND_DIRECTION:
+                                windDirection = reader.nextDouble();
+                                break;
+                            default:
+                                reader.skipValue();
+                                break;
+                        }
+                    }
+                    reader.endObject();
+                    break;
 
-            windSpeed = windInfo.getDouble(OWM_WIND_SPEED);
-            windDirection = windInfo.getDouble(OWM_WIND_DIRECTION);
+                case OWM_WEATHER:
+                    /*
+                     * Description is in a child array called "weather", which is 1 element long.
+                     * We only need the weather code of the first element.
+                     */
+                    reader.beginArray();
+                    if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                                weatherId = reader.nextInt();
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    while (reader.hasNext()) {
+                        reader.skipValue();
+                    }
+                    reader.endArray();
+                    break;
 
-            /*
-             * Description is in a child array called "weather", which is 1 element long.
-             * That element also contains a weather code.
-             */
-            JSONObject weatherObject =
-                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+                case OWM_RAIN:
+                case OWM_SNOW:
+                    precipitation += readThreeHourVolume(reader);
+                    break;
 
-            weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
 
-            /*
-             * Temperatures are sent by Open Weather Map in a child object called "temp".
-             *
-             * Editor's Note: Try not to name variables "temp" when working with temperature.
-             * It confuses everybody. Temp could easily mean any number of things, including
-             * temperature, temporary variable, temporary folder, temporary employee, or many
-             * others, and is just a bad variable name.
-             */
-            high = mainInfo.getDouble(OWM_MAX);
-            low = mainInfo.getDouble(OWM_MIN);
+        if (dateTimeMillis < 0 || humidity < 0 || weatherId < 0
+                || Double.isNaN(pressure) || Double.isNaN(windSpeed) || Double.isNaN(windDirection)
+                || Double.isNaN(high) || Double.isNaN(low)) {
+            throw new IOException("Incomplete forecast entry at " + reader.toString());
+        }
 
-            ContentValues weatherValues = new ContentValues();
-            weatherValues.put(WeatherAppContract.WeatherEntry.COLUMN_DATE_TIME, dateTimeMillis);
-            weatherValues.put(WeatherAppContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-            weatherValues.put(WeatherAppContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-            weatherValues.put(WeatherAppContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-            weatherValues.put(WeatherAppContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-            weatherValues.put(WeatherAppContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-            weatherValues.put(WeatherAppContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-            weatherValues.put(WeatherAppContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        weatherBatch.add(dateTimeMillis, weatherId, low, high,
+                humidity, pressure, windSpeed, windDirection, precipitation);
+    }
 
-            weatherContentValues[i] = weatherValues;
+    /**
+     * Reads the "3h" volume of a "rain" or "snow" object.
+     *
+     * @param reader JsonReader positioned right before the object
+     * @return The volume in mm, 0 if the object is empty or null
+     * @throws IOException If JSON data cannot be properly parsed
+     */
+    private static double readThreeHourVolume(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return 0;
         }
 
-        return weatherContentValues;
+        double volume = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (OWM_THREE_HOURS.equals(reader.nextName())
+                    && reader.peek() == JsonToken.NUMBER) {
+                volume = reader.nextDouble();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return volume;
     }
 }
\ No newline at end of file
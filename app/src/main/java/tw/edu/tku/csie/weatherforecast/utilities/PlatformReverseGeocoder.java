@@ -0,0 +1,41 @@
+package tw.edu.tku.csie.weatherforecast.utilities;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Geocoder;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Looks up city names with the {@link Geocoder} of the platform.
+ */
+public final class PlatformReverseGeocoder implements ReverseGeocoder {
+
+    private final Geocoder mGeocoder;
+
+    public PlatformReverseGeocoder(Context context, Locale locale) {
+        mGeocoder = new Geocoder(context, locale);
+    }
+
+    @Nullable
+    @Override
+    public String getCityName(double latitude, double longitude) throws IOException {
+        if (!Geocoder.isPresent()) {
+            throw new IOException("No geocoder on this device");
+        }
+        List<Address> addresses;
+        try {
+            addresses = mGeocoder.getFromLocation(latitude, longitude, 1);
+        } catch (IllegalArgumentException e) {
+            /* Coordinates out of range */
+            return null;
+        }
+        if (addresses == null || addresses.isEmpty()) {
+            return null;
+        }
+        return addresses.get(0).getLocality();
+    }
+}
@@ -0,0 +1,26 @@
+package tw.edu.tku.csie.weatherforecast.utilities;
+
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Looks up the name of the city at some coordinates, usually over the network.
+ *
+ * @see PlatformReverseGeocoder
+ * @see ReverseGeocodingCache
+ */
+public interface ReverseGeocoder {
+
+    /**
+     * Looks up the name of the city at the given coordinates. This may block for a long time,
+     * so it must not be called on the main thread.
+     *
+     * @param latitude  The latitude
+     * @param longitude The longitude
+     * @return The name of the city, in the language of the geocoder, or null if there is none
+     * @throws IOException If the lookup failed, e.g. because the network is unavailable
+     */
+    @Nullable
+    String getCityName(double latitude, double longitude) throws IOException;
+}
@@ -0,0 +1,213 @@
+package tw.edu.tku.csie.weatherforecast.utilities;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.support.v4.util.AtomicFile;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Remembers the city names found by a {@link ReverseGeocoder}, so that the city of a location
+ * that was already looked up is known without going to the network.
+ * <p>
+ * Names are cached per geohash cell of the coordinates, see {@link GeohashUtils}, so moving
+ * within a few hundred meters reuses the name that was found before. An entry is used for
+ * {@link #DEFAULT_TTL_MILLIS} and the cache keeps the {@link #DEFAULT_MAX_ENTRIES} cells that
+ * were used last. The entries are kept in a file, one per language, since the geocoder returns
+ * names in the language of the device.
+ */
+public final class ReverseGeocodingCache {
+
+    private static final String TAG = ReverseGeocodingCache.class.getSimpleName();
+
+    private static final String FILE_NAME_PREFIX = "reverse_geocoding_";
+
+    /* Written first in the file, incremented whenever the layout of the entries changes */
+    private static final int FORMAT_VERSION = 1;
+
+    /* About 1.2 km by 0.6 km, much smaller than a city */
+    static final int GEOHASH_PRECISION = 6;
+
+    /* Cities rarely get renamed, but the geocoder may learn better names */
+    static final long DEFAULT_TTL_MILLIS = 30 * DateUtils.DAY_IN_MILLIS;
+
+    static final int DEFAULT_MAX_ENTRIES = 64;
+
+    private static final Object sInstanceLock = new Object();
+
+    /* Guarded by sInstanceLock */
+    private static ReverseGeocodingCache sInstance;
+    private static Locale sInstanceLocale;
+
+    /**
+     * A cached name and when it was found.
+     */
+    private static final class Entry {
+        final String cityName;
+        final long resolvedAtMillis;
+
+        Entry(String cityName, long resolvedAtMillis) {
+            this.cityName = cityName;
+            this.resolvedAtMillis = resolvedAtMillis;
+        }
+    }
+
+    private final AtomicFile mFile;
+    private final ReverseGeocoder mGeocoder;
+    private final long mTtlMillis;
+    private final int mMaxEntries;
+
+    /* By geohash, in access order, loaded from the file on first use. Guarded by this. */
+    private LinkedHashMap<String, Entry> mEntries;
+
+    ReverseGeocodingCache(File file, ReverseGeocoder geocoder, long ttlMillis,
+                          int maxEntries) {
+        mFile = new AtomicFile(file);
+        mGeocoder = geocoder;
+        mTtlMillis = ttlMillis;
+        mMaxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the cache of the current language of the device, backed by the platform
+     * {@link android.location.Geocoder}.
+     *
+     * @param context Used to find the file and to create the geocoder
+     * @return The cache
+     */
+    public static ReverseGeocodingCache getInstance(Context context) {
+        Locale locale = Locale.getDefault();
+        synchronized (sInstanceLock) {
+            if (sInstance == null || !locale.equals(sInstanceLocale)) {
+                Context appContext = context.getApplicationContext();
+                sInstance = new ReverseGeocodingCache(
+                        new File(appContext.getFilesDir(), FILE_NAME_PREFIX + locale),
+                        new PlatformReverseGeocoder(appContext, locale),
+                        DEFAULT_TTL_MILLIS,
+                        DEFAULT_MAX_ENTRIES);
+                sInstanceLocale = locale;
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * Returns the name of the city at the given coordinates, from the cache if a location close
+     * by was looked up recently, otherwise from the geocoder. If the geocoder fails, an expired
+     * name is better than none and is returned.
+     *
+     * @param latitude  The latitude
+     * @param longitude The longitude
+     * @return The name of the city, or null if there is none
+     * @throws IOException If the geocoder failed and nothing was cached
+     */
+    @Nullable
+    public String getCityName(double latitude, double longitude) throws IOException {
+        String geohash = GeohashUtils.encode(latitude, longitude, GEOHASH_PRECISION);
+
+        Entry cached;
+        synchronized (this) {
+            cached = getEntries().get(geohash);
+        }
+        if (cached != null
+                && System.currentTimeMillis() - cached.resolvedAtMillis < mTtlMillis) {
+            return cached.cityName;
+        }
+
+        String cityName;
+        try {
+            cityName = mGeocoder.getCityName(latitude, longitude);
+        } catch (IOException e) {
+            if (cached != null) {
+                Log.w(TAG, "Using an expired city name, the geocoder failed", e);
+                return cached.cityName;
+            }
+            throw e;
+        }
+
+        /* Places without a city are looked up again next time */
+        if (cityName != null) {
+            synchronized (this) {
+                getEntries().put(geohash, new Entry(cityName, System.currentTimeMillis()));
+                write();
+            }
+        }
+        return cityName;
+    }
+
+    /* Called with the lock held */
+    private LinkedHashMap<String, Entry> getEntries() {
+        if (mEntries == null) {
+            mEntries = new LinkedHashMap<String, Entry>(mMaxEntries, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > mMaxEntries;
+                }
+            };
+            read();
+        }
+        return mEntries;
+    }
+
+    /* Called with the lock held, adds the entries of the file, least recently used first */
+    private void read() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(mFile.openRead());
+            if (in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String geohash = in.readUTF();
+                String cityName = in.readUTF();
+                long resolvedAtMillis = in.readLong();
+                mEntries.put(geohash, new Entry(cityName, resolvedAtMillis));
+            }
+        } catch (FileNotFoundException e) {
+            /* Nothing was cached yet */
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read the cached city names", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /* Called with the lock held, the whole cache is a few kilobytes at most */
+    private void write() {
+        FileOutputStream stream = null;
+        try {
+            stream = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(mEntries.size());
+            for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue().cityName);
+                out.writeLong(entry.getValue().resolvedAtMillis);
+            }
+            out.flush();
+            mFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write the cached city names", e);
+            if (stream != null) {
+                mFile.failWrite(stream);
+            }
+        }
+    }
+}
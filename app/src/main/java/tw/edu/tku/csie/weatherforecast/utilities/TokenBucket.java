@@ -0,0 +1,57 @@
+package tw.edu.tku.csie.weatherforecast.utilities;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket: requests spend one token each, tokens come back at a fixed rate, and up to
+ * the capacity of the bucket can be spent at once. Callers reserve a token and then wait for the
+ * time they are told, so concurrent callers are spaced out instead of all retrying together.
+ */
+final class TokenBucket {
+
+    private final int mCapacity;
+    private final long mNanosPerToken;
+
+    /* Guarded by this. Negative when tokens are reserved ahead of their refill. */
+    private double mTokens;
+    private long mLastRefillNanos;
+    private long mBlockedUntilNanos;
+
+    /**
+     * @param capacity          How many requests can be made at once
+     * @param tokensPerMinute   How many requests can be made per minute in the long run
+     */
+    TokenBucket(int capacity, int tokensPerMinute) {
+        mCapacity = capacity;
+        mNanosPerToken = TimeUnit.MINUTES.toNanos(1) / tokensPerMinute;
+        mTokens = capacity;
+        mLastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Reserves a token.
+     *
+     * @return How long to wait before making the request, in milliseconds
+     */
+    synchronized long reserve() {
+        long now = System.nanoTime();
+        mTokens = Math.min(mCapacity,
+                mTokens + (double) (now - mLastRefillNanos) / mNanosPerToken);
+        mLastRefillNanos = now;
+
+        mTokens -= 1;
+        long waitNanos = mTokens >= 0 ? 0 : (long) (-mTokens * mNanosPerToken);
+        waitNanos = Math.max(waitNanos, mBlockedUntilNanos - now);
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos);
+    }
+
+    /**
+     * Makes every request wait, e.g. because the server said it is over its limit.
+     *
+     * @param millis How long no request may be made, from now
+     */
+    synchronized void blockFor(long millis) {
+        mBlockedUntilNanos = Math.max(mBlockedUntilNanos,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+}
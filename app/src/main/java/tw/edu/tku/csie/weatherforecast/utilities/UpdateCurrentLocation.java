@@ -3,9 +3,9 @@ package tw.edu.tku.csie.weatherforecast.utilities;
 import android.content.Context;
 import android.location.Location;
 import android.location.LocationManager;
-import android.util.Log;
 
-import tw.edu.tku.csie.weatherforecast.data.WeatherAppPreferences;
+import tw.edu.tku.csie.weatherforecast.data.LocationState;
+import tw.edu.tku.csie.weatherforecast.data.LocationStore;
 
 public class UpdateCurrentLocation {
 
@@ -15,13 +15,14 @@ public class UpdateCurrentLocation {
             try {
                 Location lastKnownLocation = locationManager.getLastKnownLocation(LocationManager.PASSIVE_PROVIDER);
                 if (lastKnownLocation != null) {
-                    Log.v("Location:", String.valueOf(lastKnownLocation.getLatitude()));
-                    Log.v("Location:", String.valueOf(lastKnownLocation.getLongitude()));
-                    WeatherAppPreferences.setLocationDetails(context,
-                            lastKnownLocation.getLatitude(), lastKnownLocation.getLongitude());
+                    LocationStore.setCoordinates(context,
+                            lastKnownLocation.getLatitude(),
+                            lastKnownLocation.getLongitude(),
+                            lastKnownLocation.hasAccuracy()
+                                    ? lastKnownLocation.getAccuracy()
+                                    : LocationState.UNKNOWN_ACCURACY,
+                            lastKnownLocation.getTime());
                     return true;
-                } else {
-                    Log.v("Location:", "lastKnownLocation = null");
                 }
             } catch (SecurityException e) {
                 e.printStackTrace();
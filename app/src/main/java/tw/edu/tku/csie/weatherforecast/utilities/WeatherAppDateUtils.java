@@ -157,6 +157,44 @@ public final class WeatherAppDateUtils {
      *
      * @return The local date corresponding to the given normalized UTC date
      */
+    /**
+     * Normalizes a date to the day it falls on in the local time zone, rather than in UTC. The
+     * zone offset is added before the date is normalized, the way
+     * {@link #getNormalizedUtcDateForToday()} does for today.
+     *
+     *   For example, in Taipei (GMT+8:00), given the time representing
+     *
+     *     Saturday, 9/17/2016, 01:30:00 GMT+8:00 (1474047000000)
+     *
+     *   this method would return Saturday, 9/17/2016, 00:00:00 GMT (1474070400000), where
+     *   {@link #normalizeDate(long)} would return Friday, 9/16/2016.
+     *
+     * This is how the forecast is grouped into days, so that a day of the list is a day of the
+     * user's calendar.
+     *
+     * @param utcDateTime A date in milliseconds in UTC time
+     *
+     * @return The normalized UTC date of the local day of utcDateTime
+     */
+    public static long normalizeLocalDate(long utcDateTime) {
+        return normalizeDate(utcDateTime + TimeZone.getDefault().getOffset(utcDateTime));
+    }
+
+    /**
+     * Returns when a local day starts, the inverse of {@link #normalizeLocalDate(long)}, e.g. to
+     * select the 3-hourly rows of a day.
+     *
+     * @param normalizedLocalDate A date returned by {@link #normalizeLocalDate(long)}
+     *
+     * @return The UTC time in milliseconds of the local midnight that starts that day
+     */
+    public static long getUtcStartOfLocalDate(long normalizedLocalDate) {
+        TimeZone currentTimeZone = TimeZone.getDefault();
+        /* The offset at about that midnight, it may differ from the offset of noon with DST */
+        return normalizedLocalDate - currentTimeZone.getOffset(
+                normalizedLocalDate - currentTimeZone.getRawOffset());
+    }
+
     private static long getLocalDateTimeFromUtcDateTime(long dateTimeInMillis) {
         /* The timeZone object will provide us the current user's time zone offset */
         TimeZone currentTimeZone = TimeZone.getDefault();
@@ -193,7 +231,7 @@ public final class WeatherAppDateUtils {
      * @return A user-friendly representation of the date such as "Today, June 8", "Tomorrow",
      * or "Friday"
      */
-    public static String getFriendlyDateTimeString(Context context, long normalizedUtcMidnight, boolean showFullDate) {
+    public static String getFriendlyDateString(Context context, long normalizedUtcMidnight, boolean showFullDate) {
 
         String dateTimeString;
 
@@ -255,9 +293,26 @@ public final class WeatherAppDateUtils {
             dateTimeString = android.text.format.DateUtils.formatDateTime(context, localDateTime, flags);
         }
 
+        return dateTimeString;
+    }
+
+    /**
+     * Same as {@link #getFriendlyDateString(Context, long, boolean)}, followed by the time of
+     * day, e.g. "Tomorrow 3:00 PM", for the 3-hourly rows of the forecast.
+     *
+     * @param context      Context to use for resource localization
+     * @param utcDateTime  The date and time in milliseconds (UTC)
+     * @param showFullDate See {@link #getFriendlyDateString(Context, long, boolean)}
+     *
+     * @return A user-friendly representation of the date and time
+     */
+    public static String getFriendlyDateTimeString(Context context, long utcDateTime, boolean showFullDate) {
+        long localDateTime = getLocalDateTimeFromUtcDateTime(utcDateTime);
+
         int flags = DateUtils.FORMAT_SHOW_TIME;
 
-        return String.format("%s %s", dateTimeString, DateUtils.formatDateTime(context, localDateTime, flags));
+        return String.format("%s %s", getFriendlyDateString(context, utcDateTime, showFullDate),
+                DateUtils.formatDateTime(context, localDateTime, flags));
     }
 
     /**
@@ -0,0 +1,353 @@
+package tw.edu.tku.csie.weatherforecast.utilities;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes the requests to the weather server. Every request gets connect and read timeouts, goes
+ * through a token bucket per API key so that the app stays within the rate limit of the key,
+ * and is retried with a jittered exponential backoff when the server answers 429 or 5xx, or
+ * after the delay the server asks for with "Retry-After".
+ * <p>
+ * Connections are returned to the keep-alive pool of HttpURLConnection by
+ * {@link Exchange#release()} rather than being disconnected, so the requests of one sync reuse
+ * the same few sockets.
+ */
+public final class WeatherHttpClient {
+
+    private static final String TAG = WeatherHttpClient.class.getSimpleName();
+
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
+
+    /* The query parameter that holds the API key, see NetworkUtils */
+    private static final String KEY_PARAM = "appid";
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = (int) (15 * DateUtils.SECOND_IN_MILLIS);
+    static final int DEFAULT_READ_TIMEOUT_MILLIS = (int) (20 * DateUtils.SECOND_IN_MILLIS);
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final long DEFAULT_BASE_BACKOFF_MILLIS = DateUtils.SECOND_IN_MILLIS;
+    private static final long DEFAULT_MAX_BACKOFF_MILLIS = 30 * DateUtils.SECOND_IN_MILLIS;
+
+    /* A sync doesn't wait longer than this for the server, the next sync will try again */
+    private static final long DEFAULT_MAX_RETRY_AFTER_MILLIS = DateUtils.MINUTE_IN_MILLIS;
+
+    /* The free plan of OpenWeatherMap allows 60 calls per minute per key */
+    private static final int DEFAULT_REQUESTS_PER_MINUTE = 60;
+    private static final int DEFAULT_BURST = 10;
+
+    /* As many idle connections as a sync makes requests at once, see SyncTask */
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+
+    /* Bytes read from an unread body so that its connection can be reused */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private static final Object sDefaultLock = new Object();
+
+    /* Guarded by sDefaultLock */
+    private static WeatherHttpClient sDefault;
+
+    private static final Random sRandom = new Random();
+
+    /**
+     * Prepares a request before it is sent, e.g. to add conditional headers. Called again for
+     * every attempt.
+     */
+    public interface RequestPreparer {
+        void prepare(HttpURLConnection urlConnection);
+    }
+
+    /**
+     * A response whose headers have been received, and how long it took to get there. The
+     * body is read from the connection, then the exchange must be released.
+     */
+    public static final class Exchange {
+        private final URL mUrl;
+        private final HttpURLConnection mConnection;
+        private final int mResponseCode;
+        private final int mAttempts;
+        private final long mWaitedMillis;
+        private final long mTimeToHeadersMillis;
+        private final long mStartNanos;
+
+        private Exchange(URL url, HttpURLConnection connection, int responseCode, int attempts,
+                         long waitedMillis, long timeToHeadersMillis, long startNanos) {
+            mUrl = url;
+            mConnection = connection;
+            mResponseCode = responseCode;
+            mAttempts = attempts;
+            mWaitedMillis = waitedMillis;
+            mTimeToHeadersMillis = timeToHeadersMillis;
+            mStartNanos = startNanos;
+        }
+
+        public HttpURLConnection getConnection() {
+            return mConnection;
+        }
+
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        /**
+         * @return How many requests were sent, 1 unless the server asked to retry
+         */
+        public int getAttempts() {
+            return mAttempts;
+        }
+
+        /**
+         * @return How long the request waited for the rate limit and between retries
+         */
+        public long getWaitedMillis() {
+            return mWaitedMillis;
+        }
+
+        /**
+         * @return How long the last attempt took until its response headers arrived
+         */
+        public long getTimeToHeadersMillis() {
+            return mTimeToHeadersMillis;
+        }
+
+        /**
+         * Finishes the exchange and logs its timing. A body that wasn't read completely is
+         * drained, so that the connection can be reused by the next request.
+         */
+        public void release() {
+            discard(mConnection);
+            long totalMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartNanos);
+            /* The path only, the query holds the API key */
+            Log.d(TAG, "GET " + mUrl.getPath() + ": " + mResponseCode
+                    + " after " + mAttempts + " attempt(s)"
+                    + ", waited " + mWaitedMillis + " ms"
+                    + ", headers in " + mTimeToHeadersMillis + " ms"
+                    + ", total " + totalMillis + " ms");
+        }
+    }
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+    private final int mMaxAttempts;
+    private final long mBaseBackoffMillis;
+    private final long mMaxBackoffMillis;
+    private final long mMaxRetryAfterMillis;
+    private final int mBurst;
+    private final int mRequestsPerMinute;
+
+    /* By API key, guarded by itself */
+    private final Map<String, TokenBucket> mBuckets = new HashMap<>();
+
+    WeatherHttpClient(int connectTimeoutMillis, int readTimeoutMillis, int maxAttempts,
+                      long baseBackoffMillis, long maxBackoffMillis, long maxRetryAfterMillis,
+                      int burst, int requestsPerMinute) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+        mMaxAttempts = maxAttempts;
+        mBaseBackoffMillis = baseBackoffMillis;
+        mMaxBackoffMillis = maxBackoffMillis;
+        mMaxRetryAfterMillis = maxRetryAfterMillis;
+        mBurst = burst;
+        mRequestsPerMinute = requestsPerMinute;
+    }
+
+    /**
+     * Returns the client the app talks to the weather server with.
+     *
+     * @return The client
+     */
+    public static WeatherHttpClient getDefault() {
+        synchronized (sDefaultLock) {
+            if (sDefault == null) {
+                /* Read by HttpURLConnection when its keep-alive pool is first used */
+                System.setProperty("http.keepAlive", "true");
+                System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS));
+                sDefault = new WeatherHttpClient(
+                        DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                        DEFAULT_READ_TIMEOUT_MILLIS,
+                        DEFAULT_MAX_ATTEMPTS,
+                        DEFAULT_BASE_BACKOFF_MILLIS,
+                        DEFAULT_MAX_BACKOFF_MILLIS,
+                        DEFAULT_MAX_RETRY_AFTER_MILLIS,
+                        DEFAULT_BURST,
+                        DEFAULT_REQUESTS_PER_MINUTE);
+            }
+            return sDefault;
+        }
+    }
+
+    /**
+     * Sends a GET request and waits for the headers of its response. Requests the server asks
+     * to retry are retried, so the response returned is either a success, an error that is not
+     * worth retrying, or the last attempt.
+     *
+     * @param url      The URL to fetch
+     * @param preparer Prepares each attempt, null if nothing has to be added
+     * @return The exchange, which the caller must release
+     * @throws IOException Related to network, or if interrupted while waiting
+     */
+    public Exchange execute(URL url, @Nullable RequestPreparer preparer) throws IOException {
+        TokenBucket bucket = getBucket(url);
+        long startNanos = System.nanoTime();
+        long waitedMillis = 0;
+
+        for (int attempt = 1; ; attempt++) {
+            long budgetWait = bucket.reserve();
+            sleep(budgetWait);
+            waitedMillis += budgetWait;
+
+            HttpURLConnection urlConnection = open(url);
+            if (preparer != null) {
+                preparer.prepare(urlConnection);
+            }
+
+            long requestNanos = System.nanoTime();
+            int responseCode;
+            try {
+                responseCode = urlConnection.getResponseCode();
+            } catch (IOException e) {
+                urlConnection.disconnect();
+                throw e;
+            }
+            long timeToHeadersMillis =
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requestNanos);
+
+            boolean retryable = responseCode == HTTP_TOO_MANY_REQUESTS
+                    || responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+            long retryAfter = retryable ? getRetryAfterMillis(urlConnection) : -1;
+            if (!retryable || attempt == mMaxAttempts || retryAfter > mMaxRetryAfterMillis) {
+                if (responseCode == HTTP_TOO_MANY_REQUESTS && retryAfter > 0) {
+                    /*
+                     * The next requests with this key would only be refused as well. They wait
+                     * no longer than a retry would, a Retry-After of hours must not stall the
+                     * sync that long.
+                     */
+                    bucket.blockFor(Math.min(retryAfter, mMaxRetryAfterMillis));
+                }
+                return new Exchange(url, urlConnection, responseCode, attempt, waitedMillis,
+                        timeToHeadersMillis, startNanos);
+            }
+            discard(urlConnection);
+
+            long delay = retryAfter >= 0 ? retryAfter : getBackoffMillis(attempt);
+            if (responseCode == HTTP_TOO_MANY_REQUESTS) {
+                /* Every request with this key waits, the next reserve() included */
+                bucket.blockFor(delay);
+            } else {
+                sleep(delay);
+                waitedMillis += delay;
+            }
+            Log.w(TAG, "GET " + url.getPath() + ": " + responseCode
+                    + ", retrying in " + delay + " ms");
+        }
+    }
+
+    private HttpURLConnection open(URL url) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+        urlConnection.setReadTimeout(mReadTimeoutMillis);
+        HttpResponseReader.prepareRequest(urlConnection);
+        return urlConnection;
+    }
+
+    private TokenBucket getBucket(URL url) {
+        String key = Uri.parse(url.toString()).getQueryParameter(KEY_PARAM);
+        if (key == null) {
+            key = "";
+        }
+        synchronized (mBuckets) {
+            TokenBucket bucket = mBuckets.get(key);
+            if (bucket == null) {
+                bucket = new TokenBucket(mBurst, mRequestsPerMinute);
+                mBuckets.put(key, bucket);
+            }
+            return bucket;
+        }
+    }
+
+    /**
+     * A random delay up to an exponentially growing bound ("full jitter"), so that clients
+     * that failed together don't retry together.
+     */
+    private long getBackoffMillis(int attempt) {
+        long bound = Math.min(mMaxBackoffMillis, mBaseBackoffMillis << (attempt - 1));
+        synchronized (sRandom) {
+            return (long) (sRandom.nextDouble() * bound);
+        }
+    }
+
+    /**
+     * Reads "Retry-After", which is either a number of seconds or an HTTP date.
+     *
+     * @return The delay in milliseconds, or -1 if there is no valid header
+     */
+    private static long getRetryAfterMillis(HttpURLConnection urlConnection) {
+        String retryAfter = urlConnection.getHeaderField(HEADER_RETRY_AFTER);
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * DateUtils.SECOND_IN_MILLIS);
+        } catch (NumberFormatException e) {
+            long date = urlConnection.getHeaderFieldDate(HEADER_RETRY_AFTER, -1);
+            if (date == -1) {
+                return -1;
+            }
+            return Math.max(0, date - System.currentTimeMillis());
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        if (millis <= 0) return;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to send a request");
+        }
+    }
+
+    /**
+     * Reads what is left of a body and closes it, which returns a keep-alive connection to the
+     * pool. A connection with too much left to read is disconnected instead.
+     */
+    private static void discard(HttpURLConnection urlConnection) {
+        try {
+            InputStream in = urlConnection.getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST
+                    ? urlConnection.getInputStream()
+                    : urlConnection.getErrorStream();
+            if (in == null) {
+                return;
+            }
+            try {
+                byte[] buffer = new byte[4096];
+                int drained = 0;
+                int read;
+                while (drained < MAX_DRAIN_BYTES && (read = in.read(buffer)) != -1) {
+                    drained += read;
+                }
+                if (drained >= MAX_DRAIN_BYTES) {
+                    urlConnection.disconnect();
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            /* Closed already by whoever read the body, or broken and never pooled again */
+        }
+    }
+}
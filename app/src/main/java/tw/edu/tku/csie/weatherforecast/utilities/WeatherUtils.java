@@ -54,7 +54,21 @@ public final class WeatherUtils {
      * "21°"
      */
     public static String formatTemperature(Context context, double temperature) {
-        if (!WeatherAppPreferences.isMetric(context)) {
+        return formatTemperature(context, temperature, WeatherAppPreferences.isMetric(context));
+    }
+
+    /**
+     * Same as {@link #formatTemperature(Context, double)}, in the given units rather than in
+     * those of the preferences, e.g. to format a temperature in both units at once.
+     *
+     * @param context     Android Context to access resources
+     * @param temperature Temperature in degrees Celsius (°C)
+     * @param metric      Whether to format it in Celsius rather than in Fahrenheit
+     *
+     * @return Formatted temperature String, e.g. "21°"
+     */
+    public static String formatTemperature(Context context, double temperature, boolean metric) {
+        if (!metric) {
             temperature = celsiusToFahrenheit(temperature);
         }
 
@@ -0,0 +1,115 @@
+package tw.edu.tku.csie.weatherforecast.widget;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.support.v4.app.TaskStackBuilder;
+import android.view.View;
+import android.widget.RemoteViews;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import tw.edu.tku.csie.weatherforecast.DetailActivity;
+import tw.edu.tku.csie.weatherforecast.MainActivity;
+import tw.edu.tku.csie.weatherforecast.R;
+import tw.edu.tku.csie.weatherforecast.data.TodaySummary;
+import tw.edu.tku.csie.weatherforecast.data.TodaySummaryStore;
+import tw.edu.tku.csie.weatherforecast.data.WeatherAppContract;
+import tw.edu.tku.csie.weatherforecast.data.WeatherAppPreferences;
+
+/**
+ * The home-screen widget of today's weather at the active location. It displays the
+ * {@link TodaySummary} the sync made, the same one as the notification, so an update neither
+ * queries the database nor formats anything: it only picks the Strings of the current units.
+ * <p>
+ * There is no update period, the sync and the settings call {@link #updateAll(Context)} when
+ * what the widget displays changes.
+ * <p>
+ * The summary may have to be read from its file, or made again from the last forecast, so the
+ * widgets are updated in the background, one update at a time so that an older summary never
+ * replaces a newer one.
+ */
+public class TodayWidgetProvider extends AppWidgetProvider {
+
+    private static final ExecutorService sUpdateExecutor = Executors.newSingleThreadExecutor();
+
+    @Override
+    public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        /* Keeps the process alive until the widgets are updated */
+        final PendingResult result = goAsync();
+        final Context appContext = context.getApplicationContext();
+        sUpdateExecutor.execute(() -> {
+            try {
+                update(appContext, appWidgetManager, appWidgetIds);
+            } finally {
+                result.finish();
+            }
+        });
+    }
+
+    /**
+     * Updates every widget placed on the home screen, if there is any, in the background. It can
+     * be called from any thread.
+     *
+     * @param context Used to reach the AppWidgetManager and to read the summary
+     */
+    public static void updateAll(Context context) {
+        final Context appContext = context.getApplicationContext();
+        sUpdateExecutor.execute(() -> {
+            AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(appContext);
+            int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
+                    new ComponentName(appContext, TodayWidgetProvider.class));
+            if (appWidgetIds.length > 0) {
+                update(appContext, appWidgetManager, appWidgetIds);
+            }
+        });
+    }
+
+    private static void update(Context context, AppWidgetManager appWidgetManager,
+                               int[] appWidgetIds) {
+        /* Every widget displays the same summary, the views are built once */
+        RemoteViews views = buildViews(context, TodaySummaryStore.get(context));
+        appWidgetManager.updateAppWidget(appWidgetIds, views);
+    }
+
+    private static RemoteViews buildViews(Context context, TodaySummary today) {
+        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_today);
+
+        if (today == null) {
+            views.setViewVisibility(R.id.widget_today, View.GONE);
+            views.setViewVisibility(R.id.widget_empty, View.VISIBLE);
+            views.setOnClickPendingIntent(R.id.widget, PendingIntent.getActivity(context, 0,
+                    new Intent(context, MainActivity.class), PendingIntent.FLAG_UPDATE_CURRENT));
+            return views;
+        }
+
+        boolean metric = WeatherAppPreferences.isMetric(context);
+        String description = today.getDescription();
+
+        views.setViewVisibility(R.id.widget_today, View.VISIBLE);
+        views.setViewVisibility(R.id.widget_empty, View.GONE);
+
+        /* The small art is a bitmap, RemoteViews can't inflate the vector of the large one */
+        views.setImageViewResource(R.id.widget_icon, today.getSmallIconResId());
+        views.setContentDescription(R.id.widget_icon,
+                context.getString(R.string.a11y_forecast_icon, description));
+
+        views.setTextViewText(R.id.widget_description, description);
+        views.setTextViewText(R.id.widget_high_temperature, today.getHighText(metric));
+        views.setTextViewText(R.id.widget_low_temperature, today.getLowText(metric));
+
+        /* Opens the details of the day, like the notification */
+        Intent detailIntent = new Intent(context, DetailActivity.class)
+                .setData(WeatherAppContract.DayEntry.buildDayUriWithDate(today.getDateTime()));
+        PendingIntent pendingIntent = TaskStackBuilder.create(context)
+                .addNextIntentWithParentStack(detailIntent)
+                .getPendingIntent(0, PendingIntent.FLAG_UPDATE_CURRENT);
+        views.setOnClickPendingIntent(R.id.widget, pendingIntent);
+
+        return views;
+    }
+}